@@ -10,35 +10,58 @@ import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.graphics.Color;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.support.v4.app.NotificationCompat;
-import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
-import java.util.Random;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.List;
 import java.util.UUID;
 
 import br.edu.uepb.nutes.simpleblescanner.database.DBManager;
+import br.edu.uepb.nutes.simpleblescanner.event.ButtonLatency;
+import br.edu.uepb.nutes.simpleblescanner.event.EventBus;
+import br.edu.uepb.nutes.simpleblescanner.gatt.GattConnection;
+import br.edu.uepb.nutes.simpleblescanner.gatt.GattCache;
+import br.edu.uepb.nutes.simpleblescanner.gatt.GattConnectionPool;
+import br.edu.uepb.nutes.simpleblescanner.gatt.GattOperation;
+import br.edu.uepb.nutes.simpleblescanner.gatt.NotificationPipeline;
+import br.edu.uepb.nutes.simpleblescanner.gatt.NotificationRing;
+import br.edu.uepb.nutes.simpleblescanner.gatt.ReconnectEngine;
 
 import static android.bluetooth.BluetoothProfile.STATE_CONNECTED;
-import static br.edu.uepb.nutes.simpleblescanner.MainActivity.CHARACTERISTIC_UPDATE_NOTIFICATION_DESCRIPTOR_UUID;
 
 public class GattService extends Service {
 
     // https://stackoverflow.com/questions/30525784/android-keep-service-running-when-app-is-killed
-    private BluetoothGatt mBluetoothGatt;
+    private static final int NOTIFICATION_RING_CAPACITY = 64;
+    // 00001523-c2a2-bd96-044f-58f09944c3ad
+    private static final UUID BUTTON_SERVICE_UUID = new UUID(0x00001523c2a2bd96L, 0x044f58f09944c3adL);
+    // 00001524-c2a2-bd96-044f-58f09944c3ad
+    private static final UUID BUTTON_CHARACTERISTIC_UUID = new UUID(0x00001524c2a2bd96L, 0x044f58f09944c3adL);
+
+    private GattConnectionPool mConnectionPool;
+    private NotificationPipeline mNotificationPipeline;
+    private GattCache mGattCache;
+    private ReconnectEngine mReconnectEngine;
+    private final EventBus mEventBus = EventBus.getInstance();
+    private final ButtonLatency mLatency = ButtonLatency.getInstance();
     private BluetoothAdapter mBluetoothAdapter;
     private DBManager dbManager;
+    private Handler mHandler;
 
 
     @Override
@@ -46,6 +69,20 @@ public class GattService extends Service {
         super.onCreate();
         dbManager = new DBManager(this);
         dbManager.open();
+        mHandler = new Handler(Looper.getMainLooper());
+        mNotificationPipeline = new NotificationPipeline(NOTIFICATION_RING_CAPACITY,
+                NotificationRing.DEFAULT_VALUE_LENGTH, mNotificationConsumer);
+        mNotificationPipeline.start();
+        mGattCache = new GattCache(new File(getFilesDir(), "gatt"));
+        mConnectionPool = new GattConnectionPool(GattConnectionPool.DEFAULT_MAX_CONNECTIONS,
+                mHandler, mNotificationPipeline);
+        mReconnectEngine = new ReconnectEngine(getApplicationContext(), mHandler, mGattCallback);
+        mConnectionPool.setListener(new GattConnectionPool.Listener() {
+            @Override
+            public void onRelease(GattConnection connection) {
+                mReconnectEngine.cancel(connection);
+            }
+        });
         mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
         if (Build.VERSION.SDK_INT > Build.VERSION_CODES.O)
             startMyOwnForeground();
@@ -80,25 +117,37 @@ public class GattService extends Service {
         super.onStartCommand(intent, flags, startId);
         BluetoothDevice device = intent.getParcelableExtra("device");
         if (device != null) {
-            mBluetoothGatt = device.connectGatt(getApplicationContext(), true, mGattCallback);
+            connect(device);
         } else {
-            Cursor cursor = dbManager.fetch();
-            if (cursor.getCount() > 0) {
-                cursor.moveToFirst();
-                String data = cursor.getString(cursor.getColumnIndex("address"));
-                BluetoothDevice deviceFromDatabase = mBluetoothAdapter.getRemoteDevice(data);
-                deviceFromDatabase.connectGatt(getApplicationContext(), true, mGattCallback);
-            }
-
+            // Queried off the main thread, the connections are made back on it.
+            dbManager.fetchAutoConnectAddresses(mConnectionPool.getMaxConnections() - mConnectionPool.size(),
+                    EventBus.mainThread(), new DBManager.AddressesCallback() {
+                        @Override
+                        public void onAddresses(List<String> addresses) {
+                            for (String data : addresses) {
+                                BluetoothDevice deviceFromDatabase = mBluetoothAdapter.getRemoteDevice(data);
+                                connect(deviceFromDatabase);
+                            }
+                        }
+                    });
         }
         return START_STICKY;
     }
 
+    private void connect(BluetoothDevice device) {
+        GattConnection connection = mConnectionPool.acquire(device.getAddress());
+        if (connection != null) mReconnectEngine.connect(connection, device);
+    }
+
 
     @Override
     public void onDestroy() {
         super.onDestroy();
 //        stoptimertask();
+        mConnectionPool.closeAll();
+        mNotificationPipeline.stop();
+        mGattCache.close();
+        dbManager.close();
 
         Intent broadcastIntent = new Intent();
         broadcastIntent.setAction("restartservice");
@@ -107,6 +156,13 @@ public class GattService extends Service {
     }
 
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mLatency.dump(writer);
+        mReconnectEngine.dump(writer);
+    }
+
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
@@ -116,49 +172,111 @@ public class GattService extends Service {
 
     private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
 
+        /**
+         * Complete the in-flight operation of the connection the callback belongs to.
+         */
+        private void complete(BluetoothGatt gatt, int status, byte[] value, int intValue) {
+            GattConnection connection = mConnectionPool.get(gatt);
+            if (connection == null || !connection.adopt(gatt)) return;
+            connection.touch();
+            connection.getQueue().onComplete(status, value, intValue);
+        }
+
         @Override
         public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
             super.onReadRemoteRssi(gatt, rssi, status);
+            complete(gatt, status, null, rssi);
         }
 
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            final GattConnection connection = mConnectionPool.get(gatt);
+            // Ignore a BluetoothGatt replaced by a newer attempt, adopt one whose
+            // connectGatt has not returned yet.
+            if (connection == null || !connection.adopt(gatt)
+                    || connection.getState() == GattConnection.STATE_CLOSING) return;
 
             if (newState == STATE_CONNECTED) {
-                Log.d("GattService", "Device connected");
-                new Handler(Looper.getMainLooper()).post(new Runnable() {
-                    @Override
-                    public void run() {
-                        boolean ans = mBluetoothGatt.discoverServices();
-                        Log.d("GattService", "Discover Services started: " + ans);
-                    }
-                });
+                Log.d("GattService", "Device connected " + connection.getAddress());
+                mReconnectEngine.onConnected(connection);
+                connection.setState(GattConnection.STATE_DISCOVERING);
+                dbManager.markConnected(connection.getAddress());
+                connection.getQueue().enqueue(GattOperation.discoverServices()
+                        .setCallback(new GattOperation.Callback() {
+                            @Override
+                            public void onComplete(GattOperation operation, int status) {
+                                // Failed, rejected or timed out; success goes on in onServicesDiscovered.
+                                if (status != BluetoothGatt.GATT_SUCCESS) onSetupFailed(connection, status);
+                            }
+                        }));
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                mBluetoothGatt.disconnect();
-                //Bluetooth is disconnected
+                connection.setState(GattConnection.STATE_CONNECTING);
+                mReconnectEngine.onDisconnected(connection, status);
             }
         }
 
         @Override
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            complete(gatt, status, null, 0);
+            final GattConnection connection = mConnectionPool.get(gatt);
+            if (connection == null || connection.getGatt() != gatt) return;
             if (status == BluetoothGatt.GATT_SUCCESS) {
-                gatt.getServices();
                 // services are discoverd
-
-                BluetoothGattCharacteristic characteristic =
-                        gatt.getService(UUID.fromString("00001523-c2a2-bd96-044f-58f09944c3ad"))
-                                .getCharacteristic(UUID.fromString("00001524-c2a2-bd96-044f-58f09944c3ad"));
-
+                final String address = connection.getAddress();
+                BluetoothGattService service = gatt.getService(BUTTON_SERVICE_UUID);
+                BluetoothGattCharacteristic characteristic = service == null ? null
+                        : service.getCharacteristic(BUTTON_CHARACTERISTIC_UUID);
+                if (characteristic == null) {
+                    // Not the layout we know: make the next connection discover from the device.
+                    mGattCache.invalidate(address, gatt);
+                    onSetupFailed(connection, status);
+                    return;
+                }
+
+                List<BluetoothGattService> services = gatt.getServices();
+                GattCache.Entry cached = mGattCache.validate(address, services);
+                if (cached != null && cached.isNotifying(BUTTON_SERVICE_UUID, BUTTON_CHARACTERISTIC_UUID)
+                        && gatt.getDevice().getBondState() == BluetoothDevice.BOND_BONDED) {
+                    // A bonded peer kept its CCCD, only the local registration is needed.
+                    gatt.setCharacteristicNotification(characteristic, true);
+                    connection.setState(GattConnection.STATE_SUBSCRIBED);
+                    return;
+                }
+                if (cached == null) mGattCache.store(address, services);
 
                 Log.d("GattService", "setCharacteristicNotification");
-                boolean enabled = gatt.setCharacteristicNotification(characteristic, true);
-                BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CHARACTERISTIC_UPDATE_NOTIFICATION_DESCRIPTOR_UUID);
-                descriptor.setValue(enabled ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : new byte[]{0x00, 0x00});
-                boolean writeDescriptorSuccess = gatt.writeDescriptor(descriptor); //descriptor write
-                Log.d("GattService", "writeDescriptorSuccess " + writeDescriptorSuccess);
+                connection.setState(GattConnection.STATE_SUBSCRIBING);
+                connection.getQueue().enqueue(GattOperation.setNotification(characteristic, true)
+                        .setCallback(new GattOperation.Callback() {
+                            @Override
+                            public void onComplete(GattOperation operation, int status) {
+                                Log.d("GattService", "writeDescriptor status " + status);
+                                if (status == BluetoothGatt.GATT_SUCCESS) {
+                                    connection.setState(GattConnection.STATE_SUBSCRIBED);
+                                    mGattCache.setNotifying(address, BUTTON_SERVICE_UUID,
+                                            BUTTON_CHARACTERISTIC_UUID, true);
+                                } else if (status != GattOperation.STATUS_CANCELLED) {
+                                    mGattCache.invalidate(address, null);
+                                    onSetupFailed(connection, status);
+                                }
+                            }
+                        }));
             }
+        }
 
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            complete(gatt, status, null, 0);
+        }
 
+        @Override
+        public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            complete(gatt, status, descriptor.getValue(), 0);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            complete(gatt, status, null, mtu);
         }
 
 
@@ -169,36 +287,61 @@ public class GattService extends Service {
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 Log.d("GattService", "oncharateristcsRead" + characteristic.toString());
             }
+            complete(gatt, status, characteristic.getValue(), 0);
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt,
                                             BluetoothGattCharacteristic characteristic) {
-            if(characteristic.getValue()[0]==1){
-
-                Intent RTReturn = new Intent(MainActivity.BUTTON_CLICKED);
-                LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(RTReturn);
-
-                notifyAboutDeviceClicked();
-            }
-            if(characteristic.getValue()[0]==0) {
-                Intent RTReturn = new Intent(MainActivity.BUTTON_RELEASED);
-                LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(RTReturn);
-
-            }
-
-                Log.d("GattService", "onCharacteristicChanged: " + characteristic.toString());
+            // Binder thread: copy the value and return, the pipeline thread does the rest.
+            long received = SystemClock.elapsedRealtimeNanos();
+            GattConnection connection = mConnectionPool.get(gatt);
+            if (connection == null) return;
+            connection.touch();
+            connection.getNotifications().offer(connection.getAddress(), characteristic.getUuid(),
+                    characteristic.getValue(), received);
+            mNotificationPipeline.signal();
+            mLatency.record(ButtonLatency.STAGE_RECEIVE, received);
         }
 
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
             super.onCharacteristicWrite(gatt, characteristic, status);
+            complete(gatt, status, null, 0);
 
         }
     };
 
 
-    private void notifyAboutDeviceClicked() {
+    /**
+     * A connected link could not be set up: disconnect it and let the engine retry, so it
+     * does not stay discovering or subscribing, where the pool cannot evict it.
+     */
+    private void onSetupFailed(GattConnection connection, int status) {
+        if (status == GattOperation.STATUS_CANCELLED) return;
+        Log.d("GattService", "Setup failed " + connection.getAddress() + " status " + status);
+        mReconnectEngine.onSetupFailed(connection);
+    }
+
+
+    private final NotificationRing.Consumer mNotificationConsumer = new NotificationRing.Consumer() {
+        @Override
+        public void onNotification(NotificationRing.Entry entry) {
+            int state = entry.getByte(0);
+            mLatency.record(ButtonLatency.STAGE_DECODE, entry.getTimestampNanos());
+            if (state == 1) {
+                mEventBus.publish(EventBus.EVENT_BUTTON_PRESSED,
+                        MacAddress.pack(entry.getAddress()), entry.getTimestampNanos());
+                notifyAboutDeviceClicked(entry.getAddress());
+            } else if (state == 0) {
+                mEventBus.publish(EventBus.EVENT_BUTTON_RELEASED,
+                        MacAddress.pack(entry.getAddress()), entry.getTimestampNanos());
+            }
+        }
+    };
+
+
+    private void notifyAboutDeviceClicked(String address) {
         NotificationCompat.Builder builder = new NotificationCompat.Builder(this, "DEFAULT_NOTIFICATION_CHANEL")
                 .setSmallIcon(R.mipmap.ic_launcher)
                 .setContentTitle("DEVICE CLICKED")
@@ -210,7 +353,8 @@ public class GattService extends Service {
         Notification notification = builder.build();
 
         if (notificationManager != null) {
-            notificationManager.notify(new Random().nextInt(), notification);
+            // One notification per device, repeated clicks update it.
+            notificationManager.notify(address.hashCode(), notification);
         }
     }
 
@@ -7,10 +7,8 @@ import android.app.NotificationManager;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.le.ScanResult;
-import android.content.BroadcastReceiver;
-import android.content.Context;
+import android.bluetooth.le.ScanSettings;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
@@ -18,7 +16,6 @@ import android.support.annotation.NonNull;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
@@ -28,32 +25,27 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
 import br.edu.uepb.nutes.simpleblescanner.database.DBManager;
+import br.edu.uepb.nutes.simpleblescanner.event.ButtonLatency;
+import br.edu.uepb.nutes.simpleblescanner.event.EventBus;
 
 public class MainActivity extends AppCompatActivity implements View.OnClickListener {
     private static final int REQUEST_ENABLE_BLUETOOTH = 1;
     private static final int REQUEST_ENABLE_LOCATION = 2;
-    protected static final UUID CHARACTERISTIC_UPDATE_NOTIFICATION_DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
-    public static final String BUTTON_CLICKED = "pl.unity.mysolid.BUTTON_CLICKED";
-    public static final String BUTTON_RELEASED = "pl.unity.mysolid.BUTTON_RELEASED";
 
 
     private TextView mResultTextView;
     private ProgressBar mProgresBar;
     private SimpleBleScanner mScanner;
-    private List<String> mDevicesAdded;
     private ImageView physicalButton;
+    private int mClickedColor;
+    private int mReleasedColor;
 
     private DBManager dbManager;
 
 
-    private LocalBroadcastManager bManager;
-
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -67,7 +59,6 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
         mResultTextView = findViewById(R.id.result_scan_textview);
         mProgresBar = findViewById(R.id.progressBar);
-        mDevicesAdded = new ArrayList<>();
         physicalButton = findViewById(R.id.physicalButton);
         createNotificationChannel("DEFAULT_NOTIFICATION_CHANEL", "Test");
 
@@ -77,16 +68,18 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                         "00001523-c2a2-bd96-044f-58f09944c3ad"
                 )//panicb5 service
                 .addScanPeriod(150000) // 15s
+                .addDeduplicate(true)
+                .addMetrics(new ScanMetrics())
+                .addScannerThread() // Filtering and deduplication off the UI thread
+                .addCallbackExecutor(EventBus.mainThread()) // Callbacks touch the views
                 .build();
 
         dbManager = new DBManager(this);
         dbManager.open();
 
-        bManager = LocalBroadcastManager.getInstance(this);
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(BUTTON_CLICKED);
-        intentFilter.addAction(BUTTON_RELEASED);
-        bManager.registerReceiver(bReceiver, intentFilter);
+        mClickedColor = ContextCompat.getColor(this, R.color.greenButtonClicked);
+        mReleasedColor = ContextCompat.getColor(this, R.color.redButtonReleased);
+        EventBus.getInstance().register(mButtonListener, EventBus.mainThread());
         physicalButton.setVisibility(View.INVISIBLE);
     }
 
@@ -183,7 +176,6 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                     mScanner.stopScan();
                     mProgresBar.setVisibility(View.VISIBLE);
                     mScanner.startScan(mScanCallback);
-                    mDevicesAdded.clear();
                     Toast.makeText(getApplicationContext(), "Scanning started", Toast.LENGTH_LONG).show();
                 }
                 break;
@@ -198,10 +190,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         public void onScanResult(int callbackType, ScanResult scanResult) {
             BluetoothDevice device = scanResult.getDevice();
             Log.d("MainActivity", device.getName() != null ? device.getName() : "name not known");
-            if (device.getAddress() == null || mDevicesAdded.contains(device.getAddress())) return;
-
+            if (device.getAddress() == null) return;
 
-            mDevicesAdded.add(device.getAddress());
             mResultTextView.setText(String.valueOf(mResultTextView.getText())
                     .concat("\n\n")
                     .concat(device.getName() != null ? device.getName() : "Unnamed")
@@ -217,12 +207,14 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
         @Override
         public void onBatchScanResults(List<ScanResult> scanResults) {
-            throw new UnsupportedOperationException();
+            for (ScanResult scanResult : scanResults) {
+                onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult);
+            }
         }
 
         @Override
         public void onFinish() {
-            Log.d("MainActivity", "onFinish()");
+            Log.d("MainActivity", "onFinish() " + mScanner.getMetrics().snapshot());
             Toast.makeText(getApplicationContext(), "Scanning finished", Toast.LENGTH_LONG).show();
             mProgresBar.setVisibility(View.GONE);
 
@@ -240,21 +232,24 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         broadcastIntent.setAction("restartservice");
         broadcastIntent.setClass(this, Restarter.class);
         this.sendBroadcast(broadcastIntent);
-        bManager.unregisterReceiver(bReceiver);
+        EventBus.getInstance().unregister(mButtonListener);
+        mScanner.release();
+        dbManager.close();
         super.onDestroy();
     }
 
 
-    private BroadcastReceiver bReceiver = new BroadcastReceiver() {
+    private final EventBus.Listener mButtonListener = new EventBus.Listener() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (intent.getAction().equals(BUTTON_CLICKED)) {
-                    physicalButton.setColorFilter(ContextCompat.getColor(context, R.color.greenButtonClicked), android.graphics.PorterDuff.Mode.MULTIPLY);
-            }
-            if(intent.getAction().equals(BUTTON_RELEASED)){
-                physicalButton.setColorFilter(ContextCompat.getColor(context, R.color.redButtonReleased), android.graphics.PorterDuff.Mode.MULTIPLY);
-
+        public void onEvent(int event, long address, long timestampNanos) {
+            ButtonLatency latency = ButtonLatency.getInstance();
+            latency.record(ButtonLatency.STAGE_DISPATCH, timestampNanos);
+            if (event == EventBus.EVENT_BUTTON_PRESSED) {
+                physicalButton.setColorFilter(mClickedColor, android.graphics.PorterDuff.Mode.MULTIPLY);
+            } else if (event == EventBus.EVENT_BUTTON_RELEASED) {
+                physicalButton.setColorFilter(mReleasedColor, android.graphics.PorterDuff.Mode.MULTIPLY);
             }
+            latency.record(ButtonLatency.STAGE_UI_APPLY, timestampNanos);
         }
     };
 }
@@ -6,38 +6,352 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Access to the device table, one row per address. Writes are write-behind: they are only
+ * queued, a background thread commits the queue in one transaction once it holds
+ * {@link #MAX_BATCH_SIZE} writes or the oldest has waited {@link #MAX_BATCH_DELAY} ms.
+ * Queries see a write once its batch is committed.
+ * <p>
+ * Opening the database, which may run a schema migration, happens on that thread too,
+ * so {@link #open()} returns at once. The synchronous queries wait for it to finish and
+ * must not be called from the main thread; {@link #fetchAutoConnectAddresses(int, Executor,
+ * AddressesCallback)} queries on the background thread instead.
+ * <p>
+ * Writes are upserts. {@code INSERT ... ON CONFLICT DO UPDATE} needs SQLite 3.24 (API 30),
+ * so each one is an {@code INSERT OR IGNORE} followed, when the row exists, by an
+ * {@code UPDATE}, both precompiled and inside the batch transaction.
+ */
 public class DBManager {
+    private static final String TAG = "DBManager";
+
+    public static final int MAX_BATCH_SIZE = 64;
+    public static final long MAX_BATCH_DELAY = 500;
+
+    private static final int WRITE_SEEN = 0;
+    private static final int WRITE_CONNECTED = 1;
+    private static final int WRITE_AUTO_CONNECT = 2;
+
+    private static final String INSERT_SQL = "INSERT OR IGNORE INTO " + DatabaseHelper.TABLE_NAME
+            + " (" + DatabaseHelper.ADDRESS + ", " + DatabaseHelper.LAST_SEEN + ", "
+            + DatabaseHelper.LAST_CONNECTED + ", " + DatabaseHelper.AUTO_CONNECT + ") VALUES (?, ?, ?, ?)";
+    private static final String UPDATE_SEEN_SQL = "UPDATE " + DatabaseHelper.TABLE_NAME
+            + " SET " + DatabaseHelper.LAST_SEEN + " = ? WHERE " + DatabaseHelper.ADDRESS + " = ?";
+    private static final String UPDATE_CONNECTED_SQL = "UPDATE " + DatabaseHelper.TABLE_NAME
+            + " SET " + DatabaseHelper.LAST_SEEN + " = ?, " + DatabaseHelper.LAST_CONNECTED
+            + " = ? WHERE " + DatabaseHelper.ADDRESS + " = ?";
+    private static final String UPDATE_AUTO_CONNECT_SQL = "UPDATE " + DatabaseHelper.TABLE_NAME
+            + " SET " + DatabaseHelper.AUTO_CONNECT + " = ? WHERE " + DatabaseHelper.ADDRESS + " = ?";
 
     private DatabaseHelper dbHelper;
 
     private Context context;
 
+    // Set on the writer thread, published to other threads by the opened latch.
     private SQLiteDatabase database;
+    private final CountDownLatch opened = new CountDownLatch(1);
+
+    private HandlerThread writerThread;
+    private Handler writer;
+    // Used on the writer thread only.
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement updateSeenStatement;
+    private SQLiteStatement updateConnectedStatement;
+    private SQLiteStatement updateAutoConnectStatement;
+    private final Object lock = new Object();
+    // Filled by callers, swapped with the writer's list on flush.
+    private List<PendingWrite> pending = new ArrayList<>();
+    private List<PendingWrite> writing = new ArrayList<>();
+    private boolean flushScheduled;
+
+    /**
+     * Receives the result of an asynchronous query.
+     */
+    public interface AddressesCallback {
+        void onAddresses(List<String> addresses);
+    }
+
+    private static final class PendingWrite {
+        final int type;
+        final String address;
+        final long value;
+
+        PendingWrite(int type, String address, long value) {
+            this.type = type;
+            this.address = address;
+            this.value = value;
+        }
+    }
 
     public DBManager(Context c) {
         context = c;
     }
 
-    public DBManager open() throws SQLException {
+    /**
+     * Start the writer thread and open the database on it, without blocking the caller.
+     * Writes queued meanwhile are committed once it is open. If it fails to open, the
+     * error is logged and writes are dropped.
+     */
+    public DBManager open() {
         dbHelper = new DatabaseHelper(context);
-        database = dbHelper.getWritableDatabase();
+        writerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        writerThread.start();
+        writer = new Handler(writerThread.getLooper());
+        writer.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SQLiteDatabase db = dbHelper.getWritableDatabase();
+                    insertStatement = db.compileStatement(INSERT_SQL);
+                    updateSeenStatement = db.compileStatement(UPDATE_SEEN_SQL);
+                    updateConnectedStatement = db.compileStatement(UPDATE_CONNECTED_SQL);
+                    updateAutoConnectStatement = db.compileStatement(UPDATE_AUTO_CONNECT_SQL);
+                    database = db;
+                } catch (SQLException e) {
+                    Log.e(TAG, "Open failed", e);
+                } finally {
+                    opened.countDown();
+                }
+            }
+        });
         return this;
     }
 
+    /**
+     * Wait for the writer thread to open the database. Not for the main thread.
+     *
+     * @throws SQLException If the database could not be opened.
+     */
+    private SQLiteDatabase database() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                opened.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (database == null) throw new SQLException("Database not open");
+        return database;
+    }
+
+    /**
+     * Commit the queued inserts, then close the database on the writer thread.
+     */
     public void close() {
-        dbHelper.close();
+        writer.removeCallbacks(flushRunnable);
+        final HandlerThread thread = writerThread;
+        writer.post(new Runnable() {
+            @Override
+            public void run() {
+                writePending();
+                if (database != null) {
+                    insertStatement.close();
+                    updateSeenStatement.close();
+                    updateConnectedStatement.close();
+                    updateAutoConnectStatement.close();
+                }
+                dbHelper.close();
+                thread.quitSafely();
+            }
+        });
+    }
+
+    /**
+     * Record that a device was seen now, adding it if it is new.
+     * Never touches the disk on the calling thread.
+     */
+    public void insert(String address) {
+        enqueue(new PendingWrite(WRITE_SEEN, address, System.currentTimeMillis()));
+    }
+
+    /**
+     * Record that a device was connected now, adding it if it is new.
+     */
+    public void markConnected(String address) {
+        enqueue(new PendingWrite(WRITE_CONNECTED, address, System.currentTimeMillis()));
+    }
+
+    /**
+     * Set whether the service reconnects to a device on its own, adding it if it is new.
+     */
+    public void setAutoConnect(String address, boolean autoConnect) {
+        enqueue(new PendingWrite(WRITE_AUTO_CONNECT, address, autoConnect ? 1 : 0));
+    }
+
+    private void enqueue(PendingWrite write) {
+        boolean full;
+        boolean first;
+        synchronized (lock) {
+            pending.add(write);
+            full = pending.size() >= MAX_BATCH_SIZE;
+            first = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (full) {
+            writer.removeCallbacks(flushRunnable);
+            writer.post(flushRunnable);
+        } else if (first) {
+            writer.postDelayed(flushRunnable, MAX_BATCH_DELAY);
+        }
+    }
+
+    /**
+     * Commit the queued inserts now, asynchronously.
+     */
+    public void flush() {
+        writer.removeCallbacks(flushRunnable);
+        writer.post(flushRunnable);
+    }
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    /**
+     * Commit everything queued in one transaction. Writer thread only.
+     */
+    private void writePending() {
+        List<PendingWrite> batch;
+        synchronized (lock) {
+            batch = pending;
+            pending = writing;
+            writing = batch;
+            flushScheduled = false;
+        }
+        if (batch.isEmpty()) return;
+        if (database == null) {
+            Log.w(TAG, "Dropped " + batch.size() + " writes, database not open");
+            batch.clear();
+            return;
+        }
+
+        database.beginTransactionNonExclusive();
+        try {
+            for (int i = 0, size = batch.size(); i < size; i++) {
+                write(batch.get(i));
+            }
+            database.setTransactionSuccessful();
+        } catch (SQLException e) {
+            Log.e(TAG, "Write batch failed", e);
+        } finally {
+            database.endTransaction();
+            batch.clear();
+        }
+    }
+
+    /**
+     * Upsert one row. Writer thread only, inside the batch transaction.
+     */
+    private void write(PendingWrite write) {
+        insertStatement.bindString(1, write.address);
+        insertStatement.bindLong(2, write.type == WRITE_AUTO_CONNECT ? 0 : write.value);
+        insertStatement.bindLong(3, write.type == WRITE_CONNECTED ? write.value : 0);
+        insertStatement.bindLong(4, write.type == WRITE_AUTO_CONNECT ? write.value : 1);
+        if (insertStatement.executeInsert() != -1) return;
+
+        // The address exists, update it instead.
+        SQLiteStatement update;
+        switch (write.type) {
+            case WRITE_CONNECTED:
+                update = updateConnectedStatement;
+                update.bindLong(1, write.value);
+                update.bindLong(2, write.value);
+                update.bindString(3, write.address);
+                break;
+            case WRITE_AUTO_CONNECT:
+                update = updateAutoConnectStatement;
+                update.bindLong(1, write.value);
+                update.bindString(2, write.address);
+                break;
+            default:
+                update = updateSeenStatement;
+                update.bindLong(1, write.value);
+                update.bindString(2, write.address);
+                break;
+        }
+        update.executeUpdateDelete();
+    }
+
+    /**
+     * Addresses to reconnect to, most recently connected first, queried on the writer
+     * thread after the writes queued so far are committed.
+     *
+     * @param limit    Maximum number of addresses.
+     * @param executor Thread the callback runs on.
+     * @param callback Receives the addresses, empty if the database could not be read.
+     */
+    public void fetchAutoConnectAddresses(final int limit, final Executor executor,
+                                          final AddressesCallback callback) {
+        writer.post(new Runnable() {
+            @Override
+            public void run() {
+                writePending();
+                List<String> result;
+                try {
+                    result = fetchAutoConnectAddresses(limit);
+                } catch (SQLException e) {
+                    Log.e(TAG, "Query failed", e);
+                    result = new ArrayList<>();
+                }
+                final List<String> addresses = result;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onAddresses(addresses);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Addresses to reconnect to, most recently connected first. Uses the
+     * (auto_connect, last_connected) index, so the cost grows with {@code limit}
+     * and only logarithmically with the history. Blocks: not for the main thread.
+     */
+    public List<String> fetchAutoConnectAddresses(int limit) {
+        List<String> addresses = new ArrayList<>();
+        Cursor cursor = database().query(DatabaseHelper.TABLE_NAME,
+                new String[]{DatabaseHelper.ADDRESS},
+                DatabaseHelper.AUTO_CONNECT + " = 1", null, null, null,
+                DatabaseHelper.LAST_CONNECTED + " DESC", String.valueOf(limit));
+        if (cursor == null) return addresses;
+        try {
+            while (cursor.moveToNext()) addresses.add(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        return addresses;
     }
 
-    public void insert(String name) {
-        ContentValues contentValue = new ContentValues();
-        contentValue.put(DatabaseHelper.ADDRESS, name);
-        database.insert(DatabaseHelper.TABLE_NAME, null, contentValue);
+    /**
+     * Address of the most recently connected auto-connect device, or null.
+     * Blocks: not for the main thread.
+     */
+    public String fetchMostRecentlyConnected() {
+        List<String> addresses = fetchAutoConnectAddresses(1);
+        return addresses.isEmpty() ? null : addresses.get(0);
     }
 
     public Cursor fetch() {
         String[] columns = new String[] { DatabaseHelper._ID, DatabaseHelper.ADDRESS };
-        Cursor cursor = database.query(DatabaseHelper.TABLE_NAME, columns, null, null, null, null, null);
+        Cursor cursor = database().query(DatabaseHelper.TABLE_NAME, columns, null, null, null, null, null);
         if (cursor != null) {
             cursor.moveToFirst();
         }
@@ -47,12 +361,12 @@ public class DBManager {
     public int update(long _id, String name, String desc) {
         ContentValues contentValues = new ContentValues();
         contentValues.put(DatabaseHelper.ADDRESS, name);
-        int i = database.update(DatabaseHelper.TABLE_NAME, contentValues, DatabaseHelper._ID + " = " + _id, null);
+        int i = database().update(DatabaseHelper.TABLE_NAME, contentValues, DatabaseHelper._ID + " = " + _id, null);
         return i;
     }
 
     public void delete(long _id) {
-        database.delete(DatabaseHelper.TABLE_NAME, DatabaseHelper._ID + "=" + _id, null);
+        database().delete(DatabaseHelper.TABLE_NAME, DatabaseHelper._ID + "=" + _id, null);
     }
 
 }
\ No newline at end of file
@@ -13,29 +13,70 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     // Table columns
     public static final String _ID = "_id";
     public static final String ADDRESS = "address";
+    // Wall clock milliseconds of the last advertisement seen, 0 if never.
+    public static final String LAST_SEEN = "last_seen";
+    // Wall clock milliseconds of the last connection, 0 if never.
+    public static final String LAST_CONNECTED = "last_connected";
+    // 1 if the service reconnects to the device on its own.
+    public static final String AUTO_CONNECT = "auto_connect";
 
     // Database Information
     static final String DB_NAME = "BLE_DEVICES.DB";
 
     // database version
-    static final int DB_VERSION = 1;
+    static final int DB_VERSION = 2;
 
     // Creating table query
     private static final String CREATE_TABLE = "create table " + TABLE_NAME + "(" + _ID
-            + " INTEGER PRIMARY KEY AUTOINCREMENT, " + ADDRESS + " TEXT NOT NULL);";
+            + " INTEGER PRIMARY KEY AUTOINCREMENT, " + ADDRESS + " TEXT NOT NULL, "
+            + LAST_SEEN + " INTEGER NOT NULL DEFAULT 0, "
+            + LAST_CONNECTED + " INTEGER NOT NULL DEFAULT 0, "
+            + AUTO_CONNECT + " INTEGER NOT NULL DEFAULT 1);";
+
+    private static final String CREATE_ADDRESS_INDEX = "create unique index "
+            + TABLE_NAME + "_" + ADDRESS + " on " + TABLE_NAME + "(" + ADDRESS + ");";
+
+    // Serves "most recently connected" queries without a table scan.
+    private static final String CREATE_LAST_CONNECTED_INDEX = "create index "
+            + TABLE_NAME + "_" + LAST_CONNECTED + " on " + TABLE_NAME
+            + "(" + AUTO_CONNECT + ", " + LAST_CONNECTED + ");";
 
     public DatabaseHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Readers do not block the write-behind batches.
+        db.enableWriteAheadLogging();
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(CREATE_TABLE);
+        db.execSQL(CREATE_ADDRESS_INDEX);
+        db.execSQL(CREATE_LAST_CONNECTED_INDEX);
     }
 
+    /**
+     * Migrate one version at a time, keeping the stored devices.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+        if (oldVersion < 2) upgradeToVersion2(db);
+    }
+
+    /**
+     * Version 1 had no unique index and holds duplicate addresses: copy the distinct
+     * addresses, first insertion first, into the new table.
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        String oldTable = TABLE_NAME + "_V1";
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " RENAME TO " + oldTable);
         onCreate(db);
+        db.execSQL("INSERT OR IGNORE INTO " + TABLE_NAME + " (" + ADDRESS + ") SELECT "
+                + ADDRESS + " FROM " + oldTable + " ORDER BY " + _ID);
+        db.execSQL("DROP TABLE " + oldTable);
     }
-}
\ No newline at end of file
+}
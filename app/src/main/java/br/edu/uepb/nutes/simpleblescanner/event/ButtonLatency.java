@@ -0,0 +1,64 @@
+package br.edu.uepb.nutes.simpleblescanner.event;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+
+import br.edu.uepb.nutes.simpleblescanner.LatencyHistogram;
+
+/**
+ * Latency of button events from the GATT notification to the UI.
+ * <p>
+ * {@link #STAGE_RECEIVE} is the time spent in the binder callback. The other stages
+ * measure the time elapsed since the notification was received, so {@link #STAGE_UI_APPLY}
+ * is the end-to-end press-to-UI latency. Dump with
+ * {@code adb shell dumpsys activity service br.edu.uepb.nutes.simpleblescanner/.GattService}.
+ */
+public class ButtonLatency {
+    public static final int STAGE_RECEIVE = 0;
+    public static final int STAGE_DECODE = 1;
+    public static final int STAGE_DISPATCH = 2;
+    public static final int STAGE_UI_APPLY = 3;
+
+    private static final String[] STAGE_NAMES = {"receive", "decode", "dispatch", "ui_apply"};
+
+    private static ButtonLatency sInstance;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_NAMES.length];
+
+    ButtonLatency() {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new LatencyHistogram();
+    }
+
+    public static synchronized ButtonLatency getInstance() {
+        if (sInstance == null) sInstance = new ButtonLatency();
+        return sInstance;
+    }
+
+    /**
+     * Record a stage reached now.
+     *
+     * @param receivedNanos {@code SystemClock.elapsedRealtimeNanos()} when the notification arrived.
+     */
+    public void record(int stage, long receivedNanos) {
+        histograms[stage].record(SystemClock.elapsedRealtimeNanos() - receivedNanos);
+    }
+
+    public LatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) histogram.reset();
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("Button latency:");
+        for (int i = 0; i < histograms.length; i++) {
+            writer.print("  ");
+            writer.print(STAGE_NAMES[i]);
+            writer.print(": ");
+            writer.println(histograms[i]);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package br.edu.uepb.nutes.simpleblescanner.event;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * In-process bus for device events, replacing {@code LocalBroadcastManager} intents.
+ * <p>
+ * Events are a primitive code, the packed device address and a timestamp, so publishing
+ * allocates nothing. Each listener is registered with the {@link Executor} that delivers
+ * its events: {@link #DIRECT} calls it on the publishing thread, {@link #mainThread()} on
+ * the UI thread. Events for an executor are queued in a preallocated ring and drained by a
+ * single reusable task, posted only when the ring goes from empty to non-empty. When a ring
+ * is full the oldest event is dropped and counted, see {@link #getDropped(Listener)}.
+ */
+public class EventBus {
+    public static final int EVENT_BUTTON_PRESSED = 1;
+    public static final int EVENT_BUTTON_RELEASED = 2;
+
+    /**
+     * Pending events kept per listener before the oldest are dropped.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    /**
+     * Deliver on the thread that publishes.
+     */
+    public static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static EventBus sInstance;
+    private static Executor sMainThread;
+
+    // Copy on write, publish iterates without locking.
+    private volatile Subscription[] subscriptions = new Subscription[0];
+
+    public interface Listener {
+        /**
+         * @param event          One of the {@code EVENT_*} codes.
+         * @param address        Device address packed with {@code MacAddress.pack}.
+         * @param timestampNanos {@code SystemClock.elapsedRealtimeNanos()} of the source event.
+         */
+        void onEvent(int event, long address, long timestampNanos);
+    }
+
+    public static synchronized EventBus getInstance() {
+        if (sInstance == null) sInstance = new EventBus();
+        return sInstance;
+    }
+
+    /**
+     * Deliver on the main looper.
+     */
+    public static synchronized Executor mainThread() {
+        if (sMainThread == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            sMainThread = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    if (Looper.myLooper() == Looper.getMainLooper()) command.run();
+                    else handler.post(command);
+                }
+            };
+        }
+        return sMainThread;
+    }
+
+    public void register(Listener listener, Executor executor) {
+        register(listener, executor, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public synchronized void register(Listener listener, Executor executor, int queueCapacity) {
+        Subscription[] current = subscriptions;
+        for (Subscription subscription : current) {
+            if (subscription.listener == listener) return;
+        }
+        Subscription[] next = new Subscription[current.length + 1];
+        System.arraycopy(current, 0, next, 0, current.length);
+        next[current.length] = new Subscription(listener, executor, queueCapacity);
+        subscriptions = next;
+    }
+
+    public synchronized void unregister(Listener listener) {
+        Subscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].listener != listener) continue;
+            current[i].active = false;
+            Subscription[] next = new Subscription[current.length - 1];
+            System.arraycopy(current, 0, next, 0, i);
+            System.arraycopy(current, i + 1, next, i, next.length - i);
+            subscriptions = next;
+            return;
+        }
+    }
+
+    /**
+     * Return the number of events dropped because the queue of a listener was full.
+     *
+     * @param listener {@link Listener}
+     * @return Dropped events, 0 if the listener is not registered.
+     */
+    public long getDropped(Listener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) return subscription.getDropped();
+        }
+        return 0;
+    }
+
+    public void publish(int event, long address, long timestampNanos) {
+        for (Subscription subscription : subscriptions) {
+            subscription.post(event, address, timestampNanos);
+        }
+    }
+
+    private static final class Subscription implements Runnable {
+        final Listener listener;
+        final Executor executor;
+        final boolean direct;
+        final int[] events;
+        final long[] addresses;
+        final long[] timestamps;
+        volatile boolean active = true;
+        int head;
+        int count;
+        long dropped;
+        boolean scheduled;
+
+        Subscription(Listener listener, Executor executor, int capacity) {
+            this.listener = listener;
+            this.executor = executor;
+            this.direct = executor == DIRECT;
+            this.events = new int[capacity];
+            this.addresses = new long[capacity];
+            this.timestamps = new long[capacity];
+        }
+
+        void post(int event, long address, long timestampNanos) {
+            if (direct) {
+                listener.onEvent(event, address, timestampNanos);
+                return;
+            }
+            boolean schedule;
+            synchronized (this) {
+                if (count == events.length) {
+                    // Full: drop the oldest so the listener always sees the latest state.
+                    head = (head + 1) % events.length;
+                    count--;
+                    dropped++;
+                }
+                int tail = (head + count) % events.length;
+                events[tail] = event;
+                addresses[tail] = address;
+                timestamps[tail] = timestampNanos;
+                count++;
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            if (schedule) executor.execute(this);
+        }
+
+        synchronized long getDropped() {
+            return dropped;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int event;
+                long address;
+                long timestamp;
+                synchronized (this) {
+                    if (count == 0) {
+                        scheduled = false;
+                        return;
+                    }
+                    event = events[head];
+                    address = addresses[head];
+                    timestamp = timestamps[head];
+                    head = (head + 1) % events.length;
+                    count--;
+                }
+                if (active) listener.onEvent(event, address, timestamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter: the n-th retry waits a random time between half and
+ * all of {@code min(maxDelay, baseDelay * 2^n)}, so devices dropped together do not
+ * retry in lockstep.
+ */
+public class Backoff {
+    private final long baseDelay;
+    private final long maxDelay;
+    private final Random random;
+
+    public Backoff(long baseDelay, long maxDelay) {
+        this(baseDelay, maxDelay, new Random());
+    }
+
+    Backoff(long baseDelay, long maxDelay, Random random) {
+        if (baseDelay < 1 || maxDelay < baseDelay) throw new IllegalArgumentException("Invalid delays");
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.random = random;
+    }
+
+    /**
+     * @param attempt Retries already made, from 0.
+     * @return Delay in milliseconds.
+     */
+    public long delay(int attempt) {
+        long delay = attempt >= Long.numberOfLeadingZeros(baseDelay) - 1 ? maxDelay
+                : Math.min(maxDelay, baseDelay << attempt);
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half + 1));
+    }
+}
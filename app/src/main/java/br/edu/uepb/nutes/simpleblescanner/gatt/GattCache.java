@@ -0,0 +1,403 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Persistent per-device copy of the discovered attribute layout, with the notifications
+ * the app enabled.
+ * <p>
+ * Android only fills a {@link BluetoothGatt} through {@code discoverServices()}, which the
+ * stack answers from its own cache for bonded devices. What this cache saves is the rest:
+ * a reconnect validates the discovered layout against the stored one with a single hash
+ * comparison and, when it matches on a bonded device, skips the CCCD writes, since bonded
+ * peers keep their Client Characteristic Configuration across connections. A mismatch,
+ * a failed subscription or a layout change announced by the peripheral goes through
+ * {@link #invalidate(String, BluetoothGatt)}.
+ * <p>
+ * Entries are loaded in the background when the cache is created and written one file
+ * per device, replaced atomically.
+ */
+public class GattCache {
+    private static final String TAG = "GattCache";
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".gatt";
+    // Attribute handles are 16 bits, no layout has more items.
+    private static final int MAX_COUNT = 0xFFFF;
+
+    private final File directory;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // Devices stored or removed since startup, whose files the load must not bring back.
+    private final Set<String> changed = new HashSet<>();
+    private final ExecutorService io = Executors.newSingleThreadExecutor();
+
+    public GattCache(File directory) {
+        this.directory = directory;
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadAll();
+            }
+        });
+    }
+
+    /**
+     * Return the cached layout of a device, or null.
+     */
+    public Entry get(String address) {
+        return entries.get(address);
+    }
+
+    /**
+     * Return the cached layout if it matches the services just discovered. A stale
+     * entry is dropped.
+     */
+    public Entry validate(String address, List<BluetoothGattService> services) {
+        Entry entry = entries.get(address);
+        if (entry == null) return null;
+        if (entry.layoutHash == layoutHash(services)) return entry;
+        Log.d(TAG, "Layout changed " + address);
+        remove(address);
+        return null;
+    }
+
+    /**
+     * Store the layout just discovered, keeping the notification state of the
+     * characteristics that are still there.
+     */
+    public Entry store(String address, List<BluetoothGattService> services) {
+        Entry previous = entries.get(address);
+        Entry entry = Entry.from(services);
+        if (previous != null) entry.copyNotifying(previous);
+        synchronized (changed) {
+            changed.add(address);
+            entries.put(address, entry);
+        }
+        persist(address, entry);
+        return entry;
+    }
+
+    /**
+     * Record that a notification was enabled or disabled on the peripheral.
+     */
+    public void setNotifying(String address, UUID service, UUID characteristic, boolean notifying) {
+        Entry entry = entries.get(address);
+        if (entry == null) return;
+        Characteristic c = entry.find(service, characteristic);
+        if (c == null || c.notifying == notifying) return;
+        c.notifying = notifying;
+        persist(address, entry);
+    }
+
+    /**
+     * Forget a device layout, and when a connection is given, also drop the stack's own
+     * attribute cache so the next discovery reads the peripheral again.
+     *
+     * @param gatt Connection to refresh, may be null.
+     */
+    public void invalidate(String address, BluetoothGatt gatt) {
+        remove(address);
+        if (gatt != null && !refresh(gatt)) Log.w(TAG, "Stack cache refresh unavailable");
+    }
+
+    public void close() {
+        io.shutdown();
+    }
+
+    private void remove(String address) {
+        synchronized (changed) {
+            changed.add(address);
+            entries.remove(address);
+        }
+        final File file = fileOf(address);
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (file.exists() && !file.delete()) Log.w(TAG, "Cannot delete " + file);
+            }
+        });
+    }
+
+    /**
+     * Hash of the attribute layout: services, characteristics with their properties and
+     * descriptors, by UUID and instance id.
+     */
+    public static long layoutHash(List<BluetoothGattService> services) {
+        long hash = 0xcbf29ce484222325L;
+        if (services == null) return hash;
+        for (BluetoothGattService service : services) {
+            hash = mix(hash, service.getUuid());
+            hash = mix(hash, service.getInstanceId());
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                hash = mix(hash, characteristic.getUuid());
+                hash = mix(hash, characteristic.getInstanceId());
+                hash = mix(hash, characteristic.getProperties());
+                for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                    hash = mix(hash, descriptor.getUuid());
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, UUID uuid) {
+        return mix(mix(hash, uuid.getMostSignificantBits()), uuid.getLeastSignificantBits());
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * Call the hidden {@code BluetoothGatt.refresh()}, the only way to clear the stack cache.
+     */
+    private static boolean refresh(BluetoothGatt gatt) {
+        try {
+            Method refresh = gatt.getClass().getMethod("refresh");
+            return (Boolean) refresh.invoke(gatt);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private File fileOf(String address) {
+        return new File(directory, address.replace(":", "") + SUFFIX);
+    }
+
+    private void persist(String address, final Entry entry) {
+        final File file = fileOf(address);
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(file, entry);
+            }
+        });
+    }
+
+    private void write(File file, Entry entry) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + directory);
+            return;
+        }
+        File temp = new File(directory, file.getName() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                entry.writeTo(out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) throw new IOException("Cannot rename " + temp);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot store " + file, e);
+        }
+    }
+
+    private void loadAll() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(SUFFIX) || name.length() != 12 + SUFFIX.length()) continue;
+            StringBuilder address = new StringBuilder(17);
+            for (int i = 0; i < 12; i += 2) {
+                if (i > 0) address.append(':');
+                address.append(name, i, i + 2);
+            }
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    Entry entry = Entry.readFrom(in);
+                    // An entry stored or removed since startup is newer than the file.
+                    synchronized (changed) {
+                        if (entry != null && !changed.contains(address.toString())) {
+                            entries.put(address.toString(), entry);
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Dropping unreadable " + file, e);
+                file.delete();
+            }
+        }
+    }
+
+    public static final class Entry {
+        private final long layoutHash;
+        private final Service[] services;
+
+        Entry(long layoutHash, Service[] services) {
+            this.layoutHash = layoutHash;
+            this.services = services;
+        }
+
+        public long getLayoutHash() {
+            return layoutHash;
+        }
+
+        public Service[] getServices() {
+            return services;
+        }
+
+        /**
+         * Return whether the app enabled notifications on a characteristic.
+         */
+        public boolean isNotifying(UUID service, UUID characteristic) {
+            Characteristic c = find(service, characteristic);
+            return c != null && c.notifying;
+        }
+
+        Characteristic find(UUID service, UUID characteristic) {
+            for (Service s : services) {
+                if (!s.uuid.equals(service)) continue;
+                for (Characteristic c : s.characteristics) {
+                    if (c.uuid.equals(characteristic)) return c;
+                }
+            }
+            return null;
+        }
+
+        void copyNotifying(Entry previous) {
+            for (Service s : services) {
+                for (Characteristic c : s.characteristics) {
+                    Characteristic old = previous.find(s.uuid, c.uuid);
+                    if (old != null) c.notifying = old.notifying;
+                }
+            }
+        }
+
+        static Entry from(List<BluetoothGattService> gattServices) {
+            Service[] services = new Service[gattServices.size()];
+            for (int i = 0; i < services.length; i++) {
+                BluetoothGattService gattService = gattServices.get(i);
+                List<BluetoothGattCharacteristic> gattCharacteristics = gattService.getCharacteristics();
+                Characteristic[] characteristics = new Characteristic[gattCharacteristics.size()];
+                for (int j = 0; j < characteristics.length; j++) {
+                    BluetoothGattCharacteristic gattCharacteristic = gattCharacteristics.get(j);
+                    List<BluetoothGattDescriptor> gattDescriptors = gattCharacteristic.getDescriptors();
+                    UUID[] descriptors = new UUID[gattDescriptors.size()];
+                    for (int k = 0; k < descriptors.length; k++) descriptors[k] = gattDescriptors.get(k).getUuid();
+                    characteristics[j] = new Characteristic(gattCharacteristic.getUuid(),
+                            gattCharacteristic.getInstanceId(), gattCharacteristic.getProperties(), descriptors);
+                }
+                services[i] = new Service(gattService.getUuid(), gattService.getInstanceId(), characteristics);
+            }
+            return new Entry(layoutHash(gattServices), services);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(layoutHash);
+            out.writeInt(services.length);
+            for (Service s : services) {
+                writeUuid(out, s.uuid);
+                out.writeInt(s.instanceId);
+                out.writeInt(s.characteristics.length);
+                for (Characteristic c : s.characteristics) {
+                    writeUuid(out, c.uuid);
+                    out.writeInt(c.instanceId);
+                    out.writeInt(c.properties);
+                    out.writeBoolean(c.notifying);
+                    out.writeInt(c.descriptors.length);
+                    for (UUID d : c.descriptors) writeUuid(out, d);
+                }
+            }
+        }
+
+        /**
+         * @return The entry, or null if it was written in another format.
+         * @throws IOException If the data is truncated or corrupt.
+         */
+        static Entry readFrom(DataInputStream in) throws IOException {
+            if (in.readInt() != FORMAT_VERSION) return null;
+            long layoutHash = in.readLong();
+            Service[] services = new Service[readCount(in)];
+            for (int i = 0; i < services.length; i++) {
+                UUID uuid = readUuid(in);
+                int instanceId = in.readInt();
+                Characteristic[] characteristics = new Characteristic[readCount(in)];
+                for (int j = 0; j < characteristics.length; j++) {
+                    UUID characteristicUuid = readUuid(in);
+                    int characteristicInstanceId = in.readInt();
+                    int properties = in.readInt();
+                    boolean notifying = in.readBoolean();
+                    UUID[] descriptors = new UUID[readCount(in)];
+                    for (int k = 0; k < descriptors.length; k++) descriptors[k] = readUuid(in);
+                    characteristics[j] = new Characteristic(characteristicUuid, characteristicInstanceId,
+                            properties, descriptors);
+                    characteristics[j].notifying = notifying;
+                }
+                services[i] = new Service(uuid, instanceId, characteristics);
+            }
+            return new Entry(layoutHash, services);
+        }
+
+        private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+
+        private static UUID readUuid(DataInputStream in) throws IOException {
+            return new UUID(in.readLong(), in.readLong());
+        }
+
+        private static int readCount(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            if (count < 0 || count > MAX_COUNT) throw new IOException("Corrupt count " + count);
+            return count;
+        }
+    }
+
+    public static final class Service {
+        public final UUID uuid;
+        public final int instanceId;
+        public final Characteristic[] characteristics;
+
+        Service(UUID uuid, int instanceId, Characteristic[] characteristics) {
+            this.uuid = uuid;
+            this.instanceId = instanceId;
+            this.characteristics = characteristics;
+        }
+    }
+
+    public static final class Characteristic {
+        public final UUID uuid;
+        public final int instanceId;
+        public final int properties;
+        public final UUID[] descriptors;
+        volatile boolean notifying;
+
+        Characteristic(UUID uuid, int instanceId, int properties, UUID[] descriptors) {
+            this.uuid = uuid;
+            this.instanceId = instanceId;
+            this.properties = properties;
+            this.descriptors = descriptors;
+        }
+
+        public boolean isNotifying() {
+            return notifying;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.Handler;
+
+import br.edu.uepb.nutes.simpleblescanner.Clock;
+
+/**
+ * State of one link managed by a {@link GattConnectionPool}.
+ */
+public class GattConnection {
+    public static final int STATE_CONNECTING = 0;
+    public static final int STATE_DISCOVERING = 1;
+    public static final int STATE_SUBSCRIBING = 2;
+    public static final int STATE_SUBSCRIBED = 3;
+    public static final int STATE_CLOSING = 4;
+
+    private final String address;
+    private final NotificationRing notifications;
+    private final Clock clock;
+    // Created with the link, callbacks may land before connectGatt returns.
+    private final GattOperationQueue queue;
+    // Written on the connecting thread, read on the binder thread.
+    private volatile BluetoothGatt gatt;
+    // Closed by detach(), its late callbacks must not be adopted.
+    private BluetoothGatt detached;
+    private volatile int state;
+    private volatile long lastActivity;
+
+    GattConnection(String address, Handler handler, NotificationRing notifications) {
+        this(address, new Scheduler.OnHandler(handler), notifications, Clock.SYSTEM);
+    }
+
+    GattConnection(String address, Scheduler scheduler, NotificationRing notifications, Clock clock) {
+        this.address = address;
+        this.notifications = notifications;
+        this.clock = clock;
+        this.queue = new GattOperationQueue(scheduler, false);
+        this.state = STATE_CONNECTING;
+        touch();
+    }
+
+    /**
+     * Use a new {@link BluetoothGatt} for the link, e.g. after a reconnect attempt.
+     * Operations queued on the previous one are cancelled.
+     */
+    synchronized void attach(BluetoothGatt gatt) {
+        // An early callback may have adopted it already.
+        if (this.gatt == gatt) return;
+        if (state == STATE_CLOSING) {
+            // Closed while connectGatt was running.
+            if (gatt != null) {
+                gatt.disconnect();
+                gatt.close();
+            }
+            return;
+        }
+        this.gatt = gatt;
+        queue.attach(gatt);
+    }
+
+    /**
+     * Check that a GATT callback comes from the current {@link BluetoothGatt} of the link.
+     * Callbacks may land before {@code connectGatt} returns, so while the link has none the
+     * first callback of a new one attaches it.
+     *
+     * @return false for a callback of a replaced or closed {@link BluetoothGatt}.
+     */
+    public synchronized boolean adopt(BluetoothGatt gatt) {
+        if (this.gatt == null && gatt != null && gatt != detached && state != STATE_CLOSING) {
+            attach(gatt);
+        }
+        return gatt != null && this.gatt == gatt;
+    }
+
+    /**
+     * Close the current {@link BluetoothGatt}, keeping the link in the pool.
+     */
+    synchronized void detach() {
+        queue.attach(null);
+        if (gatt != null) {
+            gatt.close();
+            detached = gatt;
+            gatt = null;
+        }
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public BluetoothGatt getGatt() {
+        return gatt;
+    }
+
+    public GattOperationQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Ring the binder thread copies notifications of this link into, or null without a pipeline.
+     */
+    public NotificationRing getNotifications() {
+        return notifications;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public void setState(int state) {
+        this.state = state;
+        touch();
+    }
+
+    /**
+     * Record activity on the link, which protects it from eviction.
+     */
+    public void touch() {
+        lastActivity = clock.elapsedRealtime();
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * A link is idle when it is set up and has no operation in flight.
+     */
+    public boolean isIdle() {
+        return state == STATE_SUBSCRIBED && queue.size() == 0;
+    }
+
+    /**
+     * A link is down when it is connecting or waiting for the next attempt, e.g. for a
+     * device out of range or one that failed to set up.
+     */
+    public boolean isDown() {
+        return state == STATE_CONNECTING;
+    }
+
+    synchronized void close() {
+        state = STATE_CLOSING;
+        queue.close();
+        if (gatt != null) {
+            gatt.disconnect();
+            gatt.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.edu.uepb.nutes.simpleblescanner.Clock;
+
+/**
+ * Connections to many peripherals, keyed by address.
+ * <p>
+ * At most {@code maxConnections} links are open at once, which keeps controller and
+ * memory usage predictable. When the pool is full, a new connection evicts the least
+ * recently used link that is down, connecting or waiting to retry, and its reconnect
+ * attempt; without one, the least recently used idle link. If every link is busy the new
+ * connection is refused.
+ */
+public class GattConnectionPool {
+    /**
+     * Concurrent links most Android controllers handle reliably.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 7;
+
+    public interface Listener {
+        /**
+         * A connection left the pool, closed or evicted.
+         */
+        void onRelease(GattConnection connection);
+    }
+
+    private final int maxConnections;
+    private final Scheduler scheduler;
+    private final NotificationPipeline pipeline;
+    private final Clock clock;
+    // Access ordered: iteration starts at the least recently used connection.
+    private final LinkedHashMap<String, GattConnection> connections;
+    private volatile Listener listener;
+
+    public GattConnectionPool(int maxConnections, Handler handler) {
+        this(maxConnections, handler, null);
+    }
+
+    /**
+     * @param pipeline Gives each connection a notification ring, may be null.
+     */
+    public GattConnectionPool(int maxConnections, Handler handler, NotificationPipeline pipeline) {
+        this(maxConnections, new Scheduler.OnHandler(handler), pipeline, Clock.SYSTEM);
+    }
+
+    GattConnectionPool(int maxConnections, Scheduler scheduler, NotificationPipeline pipeline, Clock clock) {
+        if (maxConnections < 1) throw new IllegalArgumentException("At least one connection");
+        this.maxConnections = maxConnections;
+        this.scheduler = scheduler;
+        this.pipeline = pipeline;
+        this.clock = clock;
+        this.connections = new LinkedHashMap<>(maxConnections * 2, 0.75f, true);
+    }
+
+    /**
+     * Return the connection of a device, adding a new one without a {@link BluetoothGatt} if
+     * it has none. The connection and its operation queue exist from here on, so acquire it
+     * before connecting: callbacks may land before {@code connectGatt} returns, and
+     * {@link GattConnection#adopt(BluetoothGatt)} attaches the gatt they come from.
+     *
+     * @return The connection, or null if the pool is full of busy links.
+     * @see #setListener(Listener)
+     */
+    public GattConnection acquire(String address) {
+        GattConnection evicted = null;
+        GattConnection connection;
+        synchronized (this) {
+            connection = connections.get(address);
+            if (connection != null) return connection;
+
+            if (connections.size() >= maxConnections) {
+                evicted = evict();
+                if (evicted == null) return null;
+            }
+            connection = new GattConnection(address, scheduler,
+                    pipeline == null ? null : pipeline.register(), clock);
+            connections.put(address, connection);
+        }
+        if (evicted != null) release(evicted);
+        return connection;
+    }
+
+    /**
+     * Return the connection of a device, marking it as recently used.
+     */
+    public synchronized GattConnection get(String address) {
+        return connections.get(address);
+    }
+
+    /**
+     * Return the connection a GATT callback refers to.
+     */
+    public GattConnection get(BluetoothGatt gatt) {
+        return gatt == null || gatt.getDevice() == null ? null : get(gatt.getDevice().getAddress());
+    }
+
+    public void close(String address) {
+        GattConnection connection;
+        synchronized (this) {
+            connection = connections.remove(address);
+        }
+        if (connection != null) release(connection);
+    }
+
+    public void closeAll() {
+        List<GattConnection> closed;
+        synchronized (this) {
+            closed = new ArrayList<>(connections.values());
+            connections.clear();
+        }
+        for (GattConnection connection : closed) release(connection);
+    }
+
+    public synchronized int size() {
+        return connections.size();
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    private void release(GattConnection connection) {
+        connection.close();
+        if (pipeline != null && connection.getNotifications() != null) {
+            pipeline.unregister(connection.getNotifications());
+        }
+        Listener listener = this.listener;
+        if (listener != null) listener.onRelease(connection);
+    }
+
+    /**
+     * Remove the least recently used link that is down, else the least recently used idle one.
+     */
+    private GattConnection evict() {
+        GattConnection idle = null;
+        Iterator<Map.Entry<String, GattConnection>> iterator = connections.entrySet().iterator();
+        while (iterator.hasNext()) {
+            GattConnection connection = iterator.next().getValue();
+            if (connection.isDown()) {
+                iterator.remove();
+                return connection;
+            }
+            if (idle == null && connection.isIdle()) idle = connection;
+        }
+        if (idle != null) connections.remove(idle.getAddress());
+        return idle;
+    }
+}
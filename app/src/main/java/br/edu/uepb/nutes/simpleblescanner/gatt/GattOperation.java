@@ -0,0 +1,200 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One GATT request, run by a {@link GattOperationQueue} when the previous one completed.
+ * Completion is reported to the {@link Callback} and can also be awaited like a future.
+ */
+public abstract class GattOperation {
+    // 00002902-0000-1000-8000-00805f9b34fb
+    public static final UUID CLIENT_CHARACTERISTIC_CONFIG = new UUID(0x0000290200001000L, 0x800000805f9b34fbL);
+
+    public static final int STATUS_TIMEOUT = -1;
+    public static final int STATUS_REJECTED = -2;
+    public static final int STATUS_CANCELLED = -3;
+
+    public static final long DEFAULT_TIMEOUT = 5000;
+    public static final int DEFAULT_RETRIES = 2;
+
+    public interface Callback {
+        /**
+         * @param operation The completed operation.
+         * @param status    BluetoothGatt.GATT_SUCCESS, another GATT status or one of STATUS_*.
+         */
+        void onComplete(GattOperation operation, int status);
+    }
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private Callback callback;
+    private long timeout = DEFAULT_TIMEOUT;
+    private int retries = DEFAULT_RETRIES;
+    private volatile int status;
+    private volatile byte[] value;
+    private volatile int intValue;
+
+    /**
+     * Start the request.
+     *
+     * @return false if the stack refused it.
+     */
+    abstract boolean execute(BluetoothGatt gatt);
+
+    public GattOperation setCallback(Callback callback) {
+        this.callback = callback;
+        return this;
+    }
+
+    public GattOperation setTimeout(long timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public GattOperation setRetries(int retries) {
+        this.retries = retries;
+        return this;
+    }
+
+    long getTimeout() {
+        return timeout;
+    }
+
+    boolean consumeRetry() {
+        return retries-- > 0;
+    }
+
+    void complete(int status, byte[] value, int intValue) {
+        this.status = status;
+        this.value = value;
+        this.intValue = intValue;
+        done.countDown();
+        if (callback != null) callback.onComplete(this, status);
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Block until the operation completes. Never call it from the GATT callback thread.
+     *
+     * @return false if the wait timed out.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return isDone() && status == BluetoothGatt.GATT_SUCCESS;
+    }
+
+    /**
+     * Value read by a characteristic or descriptor read.
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * RSSI of a remote RSSI read or MTU of an MTU request.
+     */
+    public int getIntValue() {
+        return intValue;
+    }
+
+    public static GattOperation discoverServices() {
+        return new GattOperation() {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.discoverServices();
+            }
+        };
+    }
+
+    public static GattOperation readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+        return new GattOperation() {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.readCharacteristic(characteristic);
+            }
+        };
+    }
+
+    public static GattOperation writeCharacteristic(final BluetoothGattCharacteristic characteristic,
+                                                    final byte[] value) {
+        return new GattOperation() {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                characteristic.setValue(value);
+                return gatt.writeCharacteristic(characteristic);
+            }
+        };
+    }
+
+    public static GattOperation readDescriptor(final BluetoothGattDescriptor descriptor) {
+        return new GattOperation() {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.readDescriptor(descriptor);
+            }
+        };
+    }
+
+    public static GattOperation writeDescriptor(final BluetoothGattDescriptor descriptor, final byte[] value) {
+        return new GattOperation() {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                descriptor.setValue(value);
+                return gatt.writeDescriptor(descriptor);
+            }
+        };
+    }
+
+    /**
+     * Enable or disable notifications: registers locally, then writes the
+     * client characteristic configuration descriptor, which is what completes.
+     */
+    public static GattOperation setNotification(final BluetoothGattCharacteristic characteristic,
+                                                final boolean enable) {
+        return new GattOperation() {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
+                if (descriptor == null || !gatt.setCharacteristicNotification(characteristic, enable)) {
+                    return false;
+                }
+                descriptor.setValue(enable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                        : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+                return gatt.writeDescriptor(descriptor);
+            }
+        };
+    }
+
+    public static GattOperation readRemoteRssi() {
+        return new GattOperation() {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.readRemoteRssi();
+            }
+        };
+    }
+
+    public static GattOperation requestMtu(final int mtu) {
+        return new GattOperation() {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.requestMtu(mtu);
+            }
+        };
+    }
+}
@@ -0,0 +1,237 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.Handler;
+
+import java.util.ArrayDeque;
+
+/**
+ * Serializes the GATT operations of one connection. Android drops any request issued
+ * while another one is outstanding, so requests are queued and the next one is sent as
+ * soon as the callback of the previous one lands, from that callback thread.
+ * <p>
+ * Each operation has a timeout; a timed out or refused operation is retried a bounded
+ * number of times before it completes with {@link GattOperation#STATUS_TIMEOUT} or
+ * {@link GattOperation#STATUS_REJECTED}. Operations always complete outside the queue
+ * lock, and the next one is only sent if their callback did not already send one.
+ * <p>
+ * Forward the completion callbacks of the {@link android.bluetooth.BluetoothGattCallback}
+ * to {@link #onComplete(int, byte[], int)}.
+ * <p>
+ * The queue can be created before the {@link BluetoothGatt} exists, so callbacks landing
+ * before {@code connectGatt} returns find it: operations wait until one is attached.
+ */
+public class GattOperationQueue {
+    private static final long RETRY_DELAY = 100;
+
+    private static final GattOperation[] NONE = new GattOperation[0];
+
+    private final Scheduler scheduler;
+    private BluetoothGatt gatt;
+    private boolean attached;
+    private final ArrayDeque<GattOperation> pending = new ArrayDeque<>();
+    private GattOperation current;
+    private boolean closed;
+
+    private final Runnable timeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onTimeout();
+        }
+    };
+
+    private final Runnable retryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            GattOperation rejected = null;
+            synchronized (GattOperationQueue.this) {
+                if (current != null) rejected = execute(current);
+            }
+            reject(rejected);
+        }
+    };
+
+    /**
+     * @param handler Handler used for timeouts and retries.
+     */
+    public GattOperationQueue(Handler handler) {
+        this(new Scheduler.OnHandler(handler), false);
+    }
+
+    /**
+     * @param gatt    Connection the operations run on.
+     * @param handler Handler used for timeouts and retries.
+     */
+    public GattOperationQueue(BluetoothGatt gatt, Handler handler) {
+        this(handler);
+        this.gatt = gatt;
+        this.attached = gatt != null;
+    }
+
+    /**
+     * @param scheduler Runs the timeouts and retries.
+     * @param attached  Send operations at once, without a {@link BluetoothGatt}, for
+     *                  operations that do not use it, e.g. in tests.
+     */
+    GattOperationQueue(Scheduler scheduler, boolean attached) {
+        this.scheduler = scheduler;
+        this.attached = attached;
+    }
+
+    /**
+     * Run the operations on another {@link BluetoothGatt}, e.g. after a reconnect attempt.
+     * Operations sent to the previous one are cancelled, operations queued while none was
+     * attached are sent.
+     *
+     * @param gatt Connection the operations run on, or null to wait for the next one.
+     */
+    public void attach(BluetoothGatt gatt) {
+        GattOperation[] cancelled = NONE;
+        GattOperation rejected;
+        synchronized (this) {
+            if (closed || this.gatt == gatt) return;
+            if (this.gatt != null) cancelled = drain();
+            this.gatt = gatt;
+            this.attached = gatt != null;
+            rejected = next();
+        }
+        for (GattOperation operation : cancelled) {
+            operation.complete(GattOperation.STATUS_CANCELLED, null, 0);
+        }
+        reject(rejected);
+    }
+
+    public GattOperation enqueue(GattOperation operation) {
+        GattOperation rejected = null;
+        boolean cancelled;
+        synchronized (this) {
+            cancelled = closed;
+            if (!cancelled) {
+                pending.add(operation);
+                if (current == null) rejected = next();
+            }
+        }
+        if (cancelled) operation.complete(GattOperation.STATUS_CANCELLED, null, 0);
+        reject(rejected);
+        return operation;
+    }
+
+    /**
+     * Complete the outstanding operation and send the next one.
+     *
+     * @param status   Status of the GATT callback.
+     * @param value    Value of a read, or null.
+     * @param intValue RSSI or MTU, or 0.
+     */
+    public void onComplete(int status, byte[] value, int intValue) {
+        GattOperation operation;
+        synchronized (this) {
+            operation = current;
+            if (operation == null) return;
+            scheduler.cancel(timeoutRunnable);
+            current = null;
+        }
+        operation.complete(status, value, intValue);
+        sendNext();
+    }
+
+    public void onComplete(int status) {
+        onComplete(status, null, 0);
+    }
+
+    /**
+     * Cancel the outstanding and pending operations, e.g. on disconnection.
+     */
+    public void close() {
+        GattOperation[] cancelled;
+        synchronized (this) {
+            closed = true;
+            cancelled = drain();
+        }
+        for (GattOperation operation : cancelled) {
+            operation.complete(GattOperation.STATUS_CANCELLED, null, 0);
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size() + (current == null ? 0 : 1);
+    }
+
+    private GattOperation[] drain() {
+        scheduler.cancel(timeoutRunnable);
+        scheduler.cancel(retryRunnable);
+        if (current != null) pending.addFirst(current);
+        current = null;
+        GattOperation[] drained = pending.toArray(new GattOperation[0]);
+        pending.clear();
+        return drained;
+    }
+
+    /**
+     * Send the next operation unless one is outstanding, e.g. sent from a completion callback.
+     */
+    private void sendNext() {
+        GattOperation rejected;
+        synchronized (this) {
+            rejected = current == null ? next() : null;
+        }
+        reject(rejected);
+    }
+
+    /**
+     * Complete a rejected operation, outside the lock, then send the next one.
+     */
+    private void reject(GattOperation rejected) {
+        if (rejected == null) return;
+        rejected.complete(GattOperation.STATUS_REJECTED, null, 0);
+        sendNext();
+    }
+
+    /**
+     * Send the next pending operation. Call with the lock held.
+     *
+     * @return The operation if the stack rejected it, to complete outside the lock.
+     */
+    private GattOperation next() {
+        if (closed || !attached) return null;
+        current = pending.poll();
+        return current == null ? null : execute(current);
+    }
+
+    /**
+     * Send an operation. Call with the lock held.
+     *
+     * @return The operation if the stack rejected it for good, to complete outside the lock.
+     */
+    private GattOperation execute(GattOperation operation) {
+        scheduler.postDelayed(timeoutRunnable, operation.getTimeout());
+        if (operation.execute(gatt)) return null;
+
+        scheduler.cancel(timeoutRunnable);
+        if (operation.consumeRetry()) {
+            scheduler.postDelayed(retryRunnable, RETRY_DELAY);
+            return null;
+        }
+        current = null;
+        return operation;
+    }
+
+    private void onTimeout() {
+        GattOperation failed;
+        int status = GattOperation.STATUS_TIMEOUT;
+        synchronized (this) {
+            if (current == null) return;
+            if (current.consumeRetry()) {
+                // Resent: only completes here if the stack rejects it for good.
+                failed = execute(current);
+                if (failed == null) return;
+                status = GattOperation.STATUS_REJECTED;
+            } else {
+                failed = current;
+                current = null;
+            }
+        }
+        failed.complete(status, null, 0);
+        sendNext();
+    }
+}
@@ -0,0 +1,130 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drains the {@link NotificationRing}s of all connections on one dedicated thread.
+ * <p>
+ * Binder threads only copy the value into a ring and {@link #signal()}; decoding,
+ * broadcasting and user notifications run on the consumer thread.
+ */
+public class NotificationPipeline {
+    private static final String TAG = "NotificationPipeline";
+    private static final int DRAIN_LIMIT = 32;
+
+    private final NotificationRing.Consumer consumer;
+    private final int ringCapacity;
+    private final int maxValueLength;
+    private final Object lock = new Object();
+    // Copy on write, read without locking by the consumer thread.
+    private volatile NotificationRing[] rings = new NotificationRing[0];
+    private volatile boolean parked;
+    private volatile boolean running;
+    private Thread thread;
+
+    public NotificationPipeline(int ringCapacity, int maxValueLength, NotificationRing.Consumer consumer) {
+        this.ringCapacity = ringCapacity;
+        this.maxValueLength = maxValueLength;
+        this.consumer = consumer;
+    }
+
+    public void start() {
+        synchronized (lock) {
+            if (running) return;
+            running = true;
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                    loop();
+                }
+            }, TAG);
+            thread.start();
+        }
+    }
+
+    public void stop() {
+        Thread t;
+        synchronized (lock) {
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    /**
+     * Allocate a ring for a new connection.
+     */
+    public NotificationRing register() {
+        NotificationRing ring = new NotificationRing(ringCapacity, maxValueLength);
+        synchronized (lock) {
+            NotificationRing[] current = rings;
+            NotificationRing[] next = new NotificationRing[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = ring;
+            rings = next;
+        }
+        return ring;
+    }
+
+    /**
+     * Stop draining a ring, pending notifications are discarded.
+     */
+    public void unregister(NotificationRing ring) {
+        synchronized (lock) {
+            NotificationRing[] current = rings;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] != ring) continue;
+                NotificationRing[] next = new NotificationRing[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, next.length - i);
+                rings = next;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wake the consumer after an {@link NotificationRing#offer}. Cheap when it is already awake.
+     */
+    public void signal() {
+        if (parked) {
+            Thread t = thread;
+            if (t != null) LockSupport.unpark(t);
+        }
+    }
+
+    private void loop() {
+        while (running) {
+            if (drainAll() > 0) continue;
+            parked = true;
+            // Recheck after publishing the flag, a producer may have offered in between.
+            if (isIdle() && running) LockSupport.park(this);
+            parked = false;
+        }
+    }
+
+    private int drainAll() {
+        int drained = 0;
+        NotificationRing[] current = rings;
+        for (NotificationRing ring : current) {
+            try {
+                drained += ring.drain(consumer, DRAIN_LIMIT);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Notification consumer failed", e);
+            }
+        }
+        return drained;
+    }
+
+    private boolean isIdle() {
+        for (NotificationRing ring : rings) {
+            if (!ring.isEmpty()) return false;
+        }
+        return true;
+    }
+}
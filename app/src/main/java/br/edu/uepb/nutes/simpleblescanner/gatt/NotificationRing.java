@@ -0,0 +1,150 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer queue of characteristic notifications.
+ * <p>
+ * Entries and their value buffers are allocated up front, so {@link #offer} copies the value
+ * without allocating and never blocks. One ring serves one connection: the callbacks of a
+ * single {@link android.bluetooth.BluetoothGatt} arrive serially, which makes it the only producer.
+ * When the ring is full the notification is dropped and counted.
+ */
+public class NotificationRing {
+    /**
+     * Payload of a notification with the default ATT MTU of 23.
+     */
+    public static final int DEFAULT_VALUE_LENGTH = 20;
+
+    private final Entry[] entries;
+    private final int mask;
+    // Next index to write, published by the producer.
+    private final AtomicLong tail = new AtomicLong();
+    // Next index to read, published by the consumer.
+    private final AtomicLong head = new AtomicLong();
+    // Producer-local copy of head, refreshed only when the ring looks full.
+    private long headCache;
+    private volatile long dropped;
+
+    /**
+     * @param capacity       Number of entries, rounded up to a power of two.
+     * @param maxValueLength Bytes kept from each value, longer values are truncated.
+     */
+    public NotificationRing(int capacity, int maxValueLength) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        entries = new Entry[size];
+        for (int i = 0; i < size; i++) entries[i] = new Entry(maxValueLength);
+        mask = size - 1;
+    }
+
+    /**
+     * Copy a notification into the ring. Producer thread only.
+     *
+     * @return false if the ring was full and the notification was dropped.
+     */
+    public boolean offer(String address, UUID characteristic, byte[] value, long timestampNanos) {
+        long t = tail.get();
+        if (t - headCache > mask) {
+            headCache = head.get();
+            if (t - headCache > mask) {
+                dropped++;
+                return false;
+            }
+        }
+        Entry entry = entries[(int) t & mask];
+        entry.address = address;
+        entry.characteristic = characteristic;
+        entry.timestampNanos = timestampNanos;
+        int length = value == null ? 0 : Math.min(value.length, entry.value.length);
+        if (length > 0) System.arraycopy(value, 0, entry.value, 0, length);
+        entry.length = length;
+        // Volatile store so a consumer checking before it parks cannot miss the entry.
+        tail.set(t + 1);
+        return true;
+    }
+
+    /**
+     * Hand up to {@code limit} pending entries to the consumer. Consumer thread only.
+     * The entry is reused once the consumer returns, it must not be retained.
+     *
+     * @return Number of entries drained.
+     */
+    public int drain(Consumer consumer, int limit) {
+        long h = head.get();
+        long available = tail.get() - h;
+        int count = (int) Math.min(available, limit);
+        for (int i = 0; i < count; i++) {
+            consumer.onNotification(entries[(int) (h + i) & mask]);
+        }
+        if (count > 0) head.lazySet(h + count);
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+
+    /**
+     * Number of notifications dropped because the ring was full.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public interface Consumer {
+        void onNotification(Entry entry);
+    }
+
+    /**
+     * One notification slot. Only valid for the duration of {@link Consumer#onNotification}.
+     */
+    public static final class Entry {
+        private final byte[] value;
+        private int length;
+        private String address;
+        private UUID characteristic;
+        private long timestampNanos;
+
+        Entry(int maxValueLength) {
+            value = new byte[maxValueLength];
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public UUID getCharacteristic() {
+            return characteristic;
+        }
+
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+
+        /**
+         * Backing buffer, only the first {@link #getLength()} bytes are valid.
+         */
+        public byte[] getValue() {
+            return value;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getByte(int index) {
+            return index < length ? value[index] & 0xFF : -1;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import br.edu.uepb.nutes.simpleblescanner.Clock;
+import br.edu.uepb.nutes.simpleblescanner.LatencyHistogram;
+
+/**
+ * Connects and reconnects the links of a {@link GattConnectionPool}.
+ * <p>
+ * Every (re)connection starts with a direct connection ({@code autoConnect=false}), the
+ * fast path when the device is advertising, bounded by a short timeout. If it times out
+ * or fails, a background connection ({@code autoConnect=true}) takes over, and each
+ * failure of it is retried after a {@link Backoff} delay. The time from the link loss,
+ * or the first connect request, to the connection is recorded per device.
+ * <p>
+ * A link is followed from {@link #connect(GattConnection, BluetoothDevice)} until
+ * {@link #cancel(GattConnection)}, called when the pool releases it.
+ */
+public class ReconnectEngine {
+    public static final long DEFAULT_DIRECT_TIMEOUT = 4000;
+    public static final long DEFAULT_BASE_DELAY = 1000;
+    public static final long DEFAULT_MAX_DELAY = 60000;
+
+    /**
+     * Opens and closes the {@link BluetoothGatt} of a link, replaceable in tests.
+     */
+    interface Connector {
+        /**
+         * Start connecting, attaching the new {@link BluetoothGatt} to the link.
+         */
+        void connect(GattConnection connection, BluetoothDevice device, boolean autoConnect);
+
+        /**
+         * Disconnect and close the current {@link BluetoothGatt}, keeping the link in the pool.
+         */
+        void disconnect(GattConnection connection);
+    }
+
+    private final Connector connector;
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final long directTimeout;
+    private final Backoff backoff;
+    private final Map<String, Attempt> attempts = new HashMap<>();
+    private final Map<String, ReconnectStats> stats = new HashMap<>();
+
+    public ReconnectEngine(Context context, Handler handler, BluetoothGattCallback callback) {
+        this(context, handler, callback, DEFAULT_DIRECT_TIMEOUT,
+                new Backoff(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY));
+    }
+
+    public ReconnectEngine(Context context, Handler handler, BluetoothGattCallback callback,
+                           long directTimeout, Backoff backoff) {
+        this(new GattConnector(context, callback), new Scheduler.OnHandler(handler), Clock.SYSTEM,
+                directTimeout, backoff);
+    }
+
+    ReconnectEngine(Connector connector, Scheduler scheduler, Clock clock, long directTimeout, Backoff backoff) {
+        this.connector = connector;
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.directTimeout = directTimeout;
+        this.backoff = backoff;
+    }
+
+    /**
+     * Start connecting a link. Does nothing if the link is already connected or connecting.
+     */
+    public synchronized void connect(GattConnection connection, BluetoothDevice device) {
+        Attempt attempt = attempts.get(connection.getAddress());
+        if (attempt != null) {
+            if (attempt.connection == connection) return;
+            // An attempt left by an evicted link of the same device is replaced.
+            scheduler.cancel(attempt);
+        }
+        attempt = new Attempt(connection, device);
+        attempts.put(connection.getAddress(), attempt);
+        start(attempt);
+    }
+
+    /**
+     * The link is up: stop retrying and record the time it took.
+     */
+    public synchronized void onConnected(GattConnection connection) {
+        Attempt attempt = attemptOf(connection);
+        if (attempt == null || attempt.connected) return;
+        scheduler.cancel(attempt);
+        attempt.connected = true;
+        attempt.pending = Attempt.PENDING_NONE;
+        statsOf(connection.getAddress()).record(clock.elapsedRealtime() - attempt.startedAt, attempt.direct);
+    }
+
+    /**
+     * The link went down or a connection attempt failed: close the {@link BluetoothGatt}
+     * and plan the next attempt.
+     */
+    public synchronized void onDisconnected(GattConnection connection, int status) {
+        Attempt attempt = attemptOf(connection);
+        if (attempt == null || connection.getState() == GattConnection.STATE_CLOSING) return;
+        scheduler.cancel(attempt);
+        connector.disconnect(connection);
+        if (attempt.connected) {
+            // Link loss: start over on the fast path.
+            start(attempt);
+        } else if (attempt.direct) {
+            connectBackground(attempt);
+        } else {
+            attempt.pending = Attempt.PENDING_RETRY;
+            scheduler.postDelayed(attempt, backoff.delay(attempt.failures++));
+        }
+    }
+
+    /**
+     * The link connected but could not be set up, e.g. service discovery or the subscription
+     * failed: disconnect and connect again in the background after a backoff delay, so a
+     * device that keeps failing is not hammered and its link stays evictable meanwhile.
+     */
+    public synchronized void onSetupFailed(GattConnection connection) {
+        Attempt attempt = attemptOf(connection);
+        if (attempt == null || connection.getState() == GattConnection.STATE_CLOSING) return;
+        scheduler.cancel(attempt);
+        connector.disconnect(connection);
+        connection.setState(GattConnection.STATE_CONNECTING);
+        attempt.connected = false;
+        attempt.direct = false;
+        attempt.pending = Attempt.PENDING_RETRY;
+        scheduler.postDelayed(attempt, backoff.delay(attempt.failures++));
+    }
+
+    /**
+     * Stop reconnecting a link, e.g. when it is removed from the pool.
+     */
+    public synchronized void cancel(GattConnection connection) {
+        Attempt attempt = attemptOf(connection);
+        if (attempt == null) return;
+        attempts.remove(connection.getAddress());
+        scheduler.cancel(attempt);
+    }
+
+    /**
+     * Return the reconnect times of a device, or null if it never connected.
+     */
+    public synchronized ReconnectStats getStats(String address) {
+        return stats.get(address);
+    }
+
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Reconnect time:");
+        for (Map.Entry<String, ReconnectStats> entry : stats.entrySet()) {
+            writer.print("  ");
+            writer.print(entry.getKey());
+            writer.print(": ");
+            writer.println(entry.getValue());
+        }
+    }
+
+    /**
+     * Return the attempt of a link, or null if it was cancelled or replaced.
+     */
+    private Attempt attemptOf(GattConnection connection) {
+        Attempt attempt = attempts.get(connection.getAddress());
+        return attempt == null || attempt.connection != connection ? null : attempt;
+    }
+
+    private void start(Attempt attempt) {
+        attempt.connected = false;
+        attempt.failures = 0;
+        attempt.startedAt = clock.elapsedRealtime();
+        attempt.direct = true;
+        attempt.pending = Attempt.PENDING_TIMEOUT;
+        connector.connect(attempt.connection, attempt.device, false);
+        scheduler.postDelayed(attempt, directTimeout);
+    }
+
+    private void connectBackground(Attempt attempt) {
+        attempt.direct = false;
+        attempt.pending = Attempt.PENDING_NONE;
+        connector.connect(attempt.connection, attempt.device, true);
+    }
+
+    private synchronized void onTimer(Attempt attempt) {
+        if (attempts.get(attempt.connection.getAddress()) != attempt
+                || attempt.connection.getState() == GattConnection.STATE_CLOSING) return;
+        if (attempt.pending == Attempt.PENDING_TIMEOUT) {
+            // The direct connection timed out.
+            connector.disconnect(attempt.connection);
+            connectBackground(attempt);
+        } else if (attempt.pending == Attempt.PENDING_RETRY) {
+            connectBackground(attempt);
+        }
+    }
+
+    private ReconnectStats statsOf(String address) {
+        ReconnectStats s = stats.get(address);
+        if (s == null) {
+            s = new ReconnectStats();
+            stats.put(address, s);
+        }
+        return s;
+    }
+
+    /**
+     * {@link Connector} calling {@code connectGatt}.
+     */
+    private static final class GattConnector implements Connector {
+        private final Context context;
+        private final BluetoothGattCallback callback;
+
+        GattConnector(Context context, BluetoothGattCallback callback) {
+            this.context = context;
+            this.callback = callback;
+        }
+
+        @Override
+        public void connect(GattConnection connection, BluetoothDevice device, boolean autoConnect) {
+            BluetoothGatt gatt;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                gatt = device.connectGatt(context, autoConnect, callback, BluetoothDevice.TRANSPORT_LE);
+            } else {
+                gatt = device.connectGatt(context, autoConnect, callback);
+            }
+            connection.attach(gatt);
+        }
+
+        @Override
+        public void disconnect(GattConnection connection) {
+            BluetoothGatt gatt = connection.getGatt();
+            if (gatt != null) gatt.disconnect();
+            connection.detach();
+        }
+    }
+
+    /**
+     * State of one link being followed, and the timer acting on it.
+     */
+    private final class Attempt implements Runnable {
+        static final int PENDING_NONE = 0;
+        static final int PENDING_TIMEOUT = 1;
+        static final int PENDING_RETRY = 2;
+
+        final GattConnection connection;
+        final BluetoothDevice device;
+        long startedAt;
+        boolean connected;
+        boolean direct;
+        int failures;
+        int pending;
+
+        Attempt(GattConnection connection, BluetoothDevice device) {
+            this.connection = connection;
+            this.device = device;
+        }
+
+        @Override
+        public void run() {
+            onTimer(this);
+        }
+    }
+
+    /**
+     * Reconnect times of one device.
+     */
+    public static final class ReconnectStats {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private volatile long last;
+        private volatile long directCount;
+        private volatile long backgroundCount;
+
+        void record(long millis, boolean direct) {
+            histogram.record(millis * 1000000L);
+            last = millis;
+            if (direct) directCount++;
+            else backgroundCount++;
+        }
+
+        /**
+         * Reconnect times in nanoseconds.
+         */
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        public long getLastMillis() {
+            return last;
+        }
+
+        public long getDirectCount() {
+            return directCount;
+        }
+
+        public long getBackgroundCount() {
+            return backgroundCount;
+        }
+
+        @Override
+        public String toString() {
+            return "last=" + last + "ms direct=" + directCount + " background=" + backgroundCount
+                    + " " + histogram;
+        }
+    }
+}
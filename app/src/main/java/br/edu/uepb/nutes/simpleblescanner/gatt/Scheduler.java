@@ -0,0 +1,33 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import android.os.Handler;
+
+/**
+ * Runs the timeouts and retries of the GATT classes, replaceable in tests.
+ */
+interface Scheduler {
+    void postDelayed(Runnable task, long delayMillis);
+
+    void cancel(Runnable task);
+
+    /**
+     * {@link Scheduler} posting to a {@link Handler}.
+     */
+    final class OnHandler implements Scheduler {
+        private final Handler handler;
+
+        OnHandler(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            handler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            handler.removeCallbacks(task);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package br.edu.uepb.nutes.simpleblescanner.event;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class EventBusTest {
+    private final EventBus bus = new EventBus();
+    private final List<Runnable> posted = new ArrayList<>();
+    private final Executor queued = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            posted.add(command);
+        }
+    };
+    private final StringBuilder received = new StringBuilder();
+    private final EventBus.Listener listener = new EventBus.Listener() {
+        @Override
+        public void onEvent(int event, long address, long timestampNanos) {
+            received.append(event).append('@').append(timestampNanos).append(',');
+        }
+    };
+
+    @Test
+    public void direct_deliversOnPublishingThread() {
+        bus.register(listener, EventBus.DIRECT);
+        bus.publish(EventBus.EVENT_BUTTON_PRESSED, 1L, 10L);
+        assertEquals("1@10,", received.toString());
+    }
+
+    @Test
+    public void executor_coalescesIntoOneTask() {
+        bus.register(listener, queued);
+        bus.publish(EventBus.EVENT_BUTTON_PRESSED, 1L, 10L);
+        bus.publish(EventBus.EVENT_BUTTON_RELEASED, 1L, 20L);
+        assertEquals(1, posted.size());
+        assertEquals("", received.toString());
+
+        posted.get(0).run();
+        assertEquals("1@10,2@20,", received.toString());
+
+        bus.publish(EventBus.EVENT_BUTTON_PRESSED, 1L, 30L);
+        assertEquals(2, posted.size());
+    }
+
+    @Test
+    public void executor_dropsOldestWhenFull() {
+        bus.register(listener, queued, 2);
+        bus.publish(EventBus.EVENT_BUTTON_PRESSED, 1L, 1L);
+        bus.publish(EventBus.EVENT_BUTTON_RELEASED, 1L, 2L);
+        bus.publish(EventBus.EVENT_BUTTON_PRESSED, 1L, 3L);
+        assertEquals(1, bus.getDropped(listener));
+        posted.get(0).run();
+        assertEquals("2@2,1@3,", received.toString());
+        assertEquals(1, bus.getDropped(listener));
+    }
+
+    @Test
+    public void unregister_stopsPendingDelivery() {
+        bus.register(listener, queued);
+        bus.publish(EventBus.EVENT_BUTTON_PRESSED, 1L, 1L);
+        bus.unregister(listener);
+        bus.publish(EventBus.EVENT_BUTTON_PRESSED, 1L, 2L);
+        posted.get(0).run();
+        assertEquals("", received.toString());
+    }
+}
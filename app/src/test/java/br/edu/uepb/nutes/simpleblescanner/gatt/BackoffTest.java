@@ -0,0 +1,41 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BackoffTest {
+    private final Backoff backoff = new Backoff(1000, 60000, new Random(42));
+
+    @Test
+    public void delay_doublesWithinJitterBounds() {
+        long expected = 1000;
+        for (int attempt = 0; attempt < 6; attempt++) {
+            for (int i = 0; i < 100; i++) {
+                long delay = backoff.delay(attempt);
+                assertTrue(delay >= expected / 2);
+                assertTrue(delay <= expected);
+            }
+            expected *= 2;
+        }
+    }
+
+    @Test
+    public void delay_cappedAtMax() {
+        for (int attempt = 6; attempt < 200; attempt += 7) {
+            long delay = backoff.delay(attempt);
+            assertTrue(delay >= 30000);
+            assertTrue(delay <= 60000);
+        }
+    }
+
+    @Test
+    public void delay_isJittered() {
+        long first = backoff.delay(4);
+        boolean differs = false;
+        for (int i = 0; i < 20 && !differs; i++) differs = backoff.delay(4) != first;
+        assertTrue(differs);
+    }
+}
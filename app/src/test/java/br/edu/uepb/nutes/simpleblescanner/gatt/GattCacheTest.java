@@ -0,0 +1,97 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattCacheTest {
+    private static final UUID BUTTON_SERVICE = UUID.fromString("00001523-c2a2-bd96-044f-58f09944c3ad");
+    private static final UUID BUTTON_CHARACTERISTIC = UUID.fromString("00001524-c2a2-bd96-044f-58f09944c3ad");
+    private static final UUID BATTERY_SERVICE = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+    private static final UUID BATTERY_LEVEL = UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
+    private static final UUID CCCD = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private static GattCache.Entry entry() {
+        GattCache.Characteristic button = new GattCache.Characteristic(BUTTON_CHARACTERISTIC, 12, 0x12,
+                new UUID[]{CCCD});
+        button.notifying = true;
+        GattCache.Characteristic level = new GattCache.Characteristic(BATTERY_LEVEL, 20, 0x02, new UUID[0]);
+        return new GattCache.Entry(0x1234567890ABCDEFL, new GattCache.Service[]{
+                new GattCache.Service(BUTTON_SERVICE, 10, new GattCache.Characteristic[]{button}),
+                new GattCache.Service(BATTERY_SERVICE, 18, new GattCache.Characteristic[]{level})
+        });
+    }
+
+    private static byte[] write(GattCache.Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        entry.writeTo(out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static GattCache.Entry read(byte[] data) throws IOException {
+        return GattCache.Entry.readFrom(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void entry_roundTrips() throws IOException {
+        GattCache.Entry entry = read(write(entry()));
+        assertNotNull(entry);
+        assertEquals(0x1234567890ABCDEFL, entry.getLayoutHash());
+        assertEquals(2, entry.getServices().length);
+
+        GattCache.Service button = entry.getServices()[0];
+        assertEquals(BUTTON_SERVICE, button.uuid);
+        assertEquals(10, button.instanceId);
+        GattCache.Characteristic c = button.characteristics[0];
+        assertEquals(BUTTON_CHARACTERISTIC, c.uuid);
+        assertEquals(12, c.instanceId);
+        assertEquals(0x12, c.properties);
+        assertArrayEquals(new UUID[]{CCCD}, c.descriptors);
+        assertTrue(entry.isNotifying(BUTTON_SERVICE, BUTTON_CHARACTERISTIC));
+        assertFalse(entry.isNotifying(BATTERY_SERVICE, BATTERY_LEVEL));
+        assertEquals(0, entry.getServices()[1].characteristics[0].descriptors.length);
+    }
+
+    @Test
+    public void truncatedEntry_isRejected() throws IOException {
+        byte[] data = write(entry());
+        for (int length = 0; length < data.length; length++) {
+            try {
+                read(Arrays.copyOf(data, length));
+                fail("Read " + length + " of " + data.length + " bytes");
+            } catch (IOException expected) {
+                // Truncated.
+            }
+        }
+    }
+
+    @Test
+    public void corruptCount_isRejected() throws IOException {
+        byte[] data = write(entry());
+        // Service count, after the version and the hash.
+        data[12] = (byte) 0x80;
+        try {
+            read(data);
+            fail("Read a negative count");
+        } catch (IOException expected) {
+            // Corrupt.
+        }
+    }
+
+    @Test
+    public void otherFormatVersion_isIgnored() throws IOException {
+        byte[] data = write(entry());
+        data[3] = 99;
+        assertNull(read(data));
+    }
+}
@@ -0,0 +1,72 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import br.edu.uepb.nutes.simpleblescanner.Clock;
+
+import static org.junit.Assert.*;
+
+public class GattConnectionPoolTest {
+    private static final Clock CLOCK = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return 1000000;
+        }
+    };
+
+    private static final Scheduler SCHEDULER = new Scheduler() {
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+        }
+    };
+
+    private final GattConnectionPool pool = new GattConnectionPool(2, SCHEDULER, null, CLOCK);
+    private final List<String> released = new ArrayList<>();
+
+    {
+        pool.setListener(new GattConnectionPool.Listener() {
+            @Override
+            public void onRelease(GattConnection connection) {
+                released.add(connection.getAddress());
+            }
+        });
+    }
+
+    @Test
+    public void fullPool_evictsLinkThatIsDownFirst() {
+        GattConnection subscribed = pool.acquire("A");
+        subscribed.setState(GattConnection.STATE_SUBSCRIBED);
+        GattConnection connecting = pool.acquire("B");
+
+        assertNotNull(pool.acquire("C"));
+        assertEquals("[B]", released.toString());
+        assertEquals(GattConnection.STATE_CLOSING, connecting.getState());
+        assertSame(subscribed, pool.get("A"));
+    }
+
+    @Test
+    public void fullPool_evictsIdleLinkWithoutOneDown() {
+        pool.acquire("A").setState(GattConnection.STATE_SUBSCRIBED);
+        pool.acquire("B").setState(GattConnection.STATE_SUBSCRIBED);
+
+        assertNotNull(pool.acquire("C"));
+        assertEquals("[A]", released.toString());
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void fullPool_refusesWhenEveryLinkIsSettingUp() {
+        pool.acquire("A").setState(GattConnection.STATE_DISCOVERING);
+        pool.acquire("B").setState(GattConnection.STATE_SUBSCRIBING);
+
+        assertNull(pool.acquire("C"));
+        assertTrue(released.isEmpty());
+    }
+}
@@ -0,0 +1,134 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import android.bluetooth.BluetoothGatt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GattOperationQueueTest {
+    private static class FakeScheduler implements Scheduler {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            tasks.add(task);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            tasks.remove(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) tasks.remove(0).run();
+        }
+    }
+
+    private static class FakeOperation extends GattOperation {
+        final String name;
+        final boolean accepted;
+        final List<String> log;
+
+        FakeOperation(String name, boolean accepted, List<String> log) {
+            this.name = name;
+            this.accepted = accepted;
+            this.log = log;
+        }
+
+        @Override
+        boolean execute(BluetoothGatt gatt) {
+            log.add("send " + name);
+            return accepted;
+        }
+    }
+
+    private final FakeScheduler scheduler = new FakeScheduler();
+    private final GattOperationQueue queue = new GattOperationQueue(scheduler, true);
+    private final List<String> log = new ArrayList<>();
+
+    private GattOperation operation(String name, boolean accepted) {
+        return new FakeOperation(name, accepted, log).setRetries(0);
+    }
+
+    @Test
+    public void rejectedOperation_followUpEnqueuedByCallback_isSentOnce() {
+        final GattOperation followUp = operation("follow-up", true);
+        GattOperation rejected = operation("rejected", false).setCallback(new GattOperation.Callback() {
+            @Override
+            public void onComplete(GattOperation operation, int status) {
+                log.add("complete " + status);
+                queue.enqueue(followUp);
+            }
+        });
+
+        queue.enqueue(rejected);
+        assertEquals(GattOperation.STATUS_REJECTED, rejected.getStatus());
+        assertEquals("[send rejected, complete -2, send follow-up]", log.toString());
+        assertEquals(1, queue.size());
+
+        queue.onComplete(BluetoothGatt.GATT_SUCCESS);
+        assertTrue(followUp.isSuccess());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void completedOperation_followUpEnqueuedByCallback_isSentOnce() {
+        final GattOperation followUp = operation("follow-up", true);
+        final GattOperation other = operation("other", true);
+        GattOperation first = operation("first", true).setCallback(new GattOperation.Callback() {
+            @Override
+            public void onComplete(GattOperation operation, int status) {
+                queue.enqueue(followUp);
+            }
+        });
+
+        queue.enqueue(first);
+        queue.enqueue(other);
+        queue.onComplete(BluetoothGatt.GATT_SUCCESS);
+        assertEquals("[send first, send other]", log.toString());
+        queue.onComplete(BluetoothGatt.GATT_SUCCESS);
+        assertEquals("[send first, send other, send follow-up]", log.toString());
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void rejectedRetries_completeWithRejected() {
+        GattOperation rejected = new FakeOperation("rejected", false, log).setRetries(1);
+        GattOperation next = operation("next", true);
+
+        queue.enqueue(rejected);
+        queue.enqueue(next);
+        assertFalse(rejected.isDone());
+        scheduler.runAll();
+        assertEquals(GattOperation.STATUS_REJECTED, rejected.getStatus());
+        assertEquals("[send rejected, send rejected, send next]", log.toString());
+    }
+
+    @Test
+    public void timedOutOperation_completesAndSendsNext() {
+        GattOperation silent = operation("silent", true);
+        queue.enqueue(silent);
+        queue.enqueue(operation("next", true));
+
+        scheduler.tasks.remove(0).run();
+        assertEquals(GattOperation.STATUS_TIMEOUT, silent.getStatus());
+        assertEquals("[send silent, send next]", log.toString());
+    }
+
+    @Test
+    public void closedQueue_cancelsOperations() {
+        GattOperation outstanding = queue.enqueue(operation("outstanding", true));
+        GattOperation pending = queue.enqueue(operation("pending", true));
+        queue.close();
+        GattOperation late = queue.enqueue(operation("late", true));
+
+        assertEquals(GattOperation.STATUS_CANCELLED, outstanding.getStatus());
+        assertEquals(GattOperation.STATUS_CANCELLED, pending.getStatus());
+        assertEquals(GattOperation.STATUS_CANCELLED, late.getStatus());
+        assertEquals(0, queue.size());
+    }
+}
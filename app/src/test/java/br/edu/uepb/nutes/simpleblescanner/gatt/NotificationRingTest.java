@@ -0,0 +1,109 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class NotificationRingTest {
+    private static final UUID CHARACTERISTIC = UUID.fromString("00001524-c2a2-bd96-044f-58f09944c3ad");
+
+    private final NotificationRing ring = new NotificationRing(3, 4);
+    private final StringBuilder drained = new StringBuilder();
+    private final NotificationRing.Consumer consumer = new NotificationRing.Consumer() {
+        @Override
+        public void onNotification(NotificationRing.Entry entry) {
+            drained.append(entry.getByte(0)).append(',');
+        }
+    };
+
+    @Test
+    public void capacity_roundsUpToPowerOfTwo() {
+        assertEquals(4, ring.capacity());
+    }
+
+    @Test
+    public void offer_dropsWhenFull() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer("AA", CHARACTERISTIC, new byte[]{(byte) i}, i));
+        }
+        assertFalse(ring.offer("AA", CHARACTERISTIC, new byte[]{9}, 9));
+        assertEquals(1, ring.getDropped());
+
+        assertEquals(4, ring.drain(consumer, 10));
+        assertEquals("0,1,2,3,", drained.toString());
+        assertTrue(ring.isEmpty());
+        assertTrue(ring.offer("AA", CHARACTERISTIC, new byte[]{5}, 5));
+    }
+
+    @Test
+    public void drain_respectsLimitAndWraps() {
+        for (int round = 0; round < 3; round++) {
+            ring.offer("AA", CHARACTERISTIC, new byte[]{1}, 0);
+            ring.offer("AA", CHARACTERISTIC, new byte[]{2}, 0);
+            ring.offer("AA", CHARACTERISTIC, new byte[]{3}, 0);
+            assertEquals(2, ring.drain(consumer, 2));
+            assertEquals(1, ring.drain(consumer, 2));
+        }
+        assertEquals("1,2,3,1,2,3,1,2,3,", drained.toString());
+    }
+
+    @Test
+    public void offer_copiesAndTruncatesValue() {
+        byte[] value = {1, 2, 3, 4, 5, 6};
+        ring.offer("AA:BB", CHARACTERISTIC, value, 42L);
+        value[0] = 9;
+        ring.drain(new NotificationRing.Consumer() {
+            @Override
+            public void onNotification(NotificationRing.Entry entry) {
+                assertEquals("AA:BB", entry.getAddress());
+                assertEquals(CHARACTERISTIC, entry.getCharacteristic());
+                assertEquals(42L, entry.getTimestampNanos());
+                assertEquals(4, entry.getLength());
+                assertEquals(1, entry.getByte(0));
+                assertEquals(-1, entry.getByte(4));
+            }
+        }, 1);
+    }
+
+    @Test(timeout = 30000)
+    public void spsc_deliversEverythingInOrder() throws InterruptedException {
+        final NotificationRing big = new NotificationRing(64, 4);
+        final int total = 200000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] value = new byte[4];
+                for (int i = 0; i < total; ) {
+                    value[0] = (byte) i;
+                    value[1] = (byte) (i >> 8);
+                    value[2] = (byte) (i >> 16);
+                    if (big.offer("AA", CHARACTERISTIC, value, i)) {
+                        i++;
+                    } else {
+                        // Full: let the consumer run on a busy or single core machine.
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        // A failed assertion must not leave the producer spinning and keep the JVM alive.
+        producer.setDaemon(true);
+        producer.start();
+        final int[] expected = {0};
+        NotificationRing.Consumer checker = new NotificationRing.Consumer() {
+            @Override
+            public void onNotification(NotificationRing.Entry entry) {
+                int v = entry.getByte(0) | entry.getByte(1) << 8 | entry.getByte(2) << 16;
+                assertEquals(expected[0], v);
+                assertEquals(expected[0], entry.getTimestampNanos());
+                expected[0]++;
+            }
+        };
+        while (expected[0] < total) {
+            if (big.drain(checker, 16) == 0) Thread.yield();
+        }
+        producer.join();
+    }
+}
@@ -0,0 +1,223 @@
+package br.edu.uepb.nutes.simpleblescanner.gatt;
+
+import android.bluetooth.BluetoothDevice;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import br.edu.uepb.nutes.simpleblescanner.Clock;
+
+import static org.junit.Assert.*;
+
+public class ReconnectEngineTest {
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:FF";
+
+    private static class FakeClock implements Clock {
+        long now = 1000000;
+
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+    }
+
+    private static class FakeScheduler implements Scheduler {
+        final FakeClock clock;
+        final Map<Runnable, Long> due = new LinkedHashMap<>();
+        final List<Long> delays = new ArrayList<>();
+
+        FakeScheduler(FakeClock clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            due.put(task, clock.now + delayMillis);
+            delays.add(delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            due.remove(task);
+        }
+
+        void advance(long millis) {
+            long end = clock.now + millis;
+            while (true) {
+                Runnable next = null;
+                long at = end;
+                for (Map.Entry<Runnable, Long> entry : due.entrySet()) {
+                    if (entry.getValue() <= at) {
+                        next = entry.getKey();
+                        at = entry.getValue();
+                    }
+                }
+                if (next == null) break;
+                due.remove(next);
+                clock.now = at;
+                next.run();
+            }
+            clock.now = end;
+        }
+    }
+
+    private static class RecordingConnector implements ReconnectEngine.Connector {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void connect(GattConnection connection, BluetoothDevice device, boolean autoConnect) {
+            calls.add(autoConnect ? "background" : "direct");
+        }
+
+        @Override
+        public void disconnect(GattConnection connection) {
+            calls.add("disconnect");
+        }
+    }
+
+    private final FakeClock clock = new FakeClock();
+    private final FakeScheduler scheduler = new FakeScheduler(clock);
+    private final RecordingConnector connector = new RecordingConnector();
+    private final ReconnectEngine engine = new ReconnectEngine(connector, scheduler, clock, 4000,
+            new Backoff(1000, 60000, new Random(7)));
+    private final GattConnection connection = new GattConnection(ADDRESS, null, null, clock);
+
+    @Test
+    public void directConnection_recordsDirectTime() {
+        engine.connect(connection, null);
+        engine.connect(connection, null);
+        assertEquals("[direct]", connector.calls.toString());
+        assertEquals(1, scheduler.due.size());
+
+        clock.now += 300;
+        engine.onConnected(connection);
+        assertTrue(scheduler.due.isEmpty());
+        ReconnectEngine.ReconnectStats stats = engine.getStats(ADDRESS);
+        assertEquals(300, stats.getLastMillis());
+        assertEquals(1, stats.getDirectCount());
+        assertEquals(0, stats.getBackgroundCount());
+    }
+
+    @Test
+    public void directTimeout_fallsBackToBackground() {
+        engine.connect(connection, null);
+        scheduler.advance(3999);
+        assertEquals("[direct]", connector.calls.toString());
+        scheduler.advance(1);
+        assertEquals("[direct, disconnect, background]", connector.calls.toString());
+        assertTrue(scheduler.due.isEmpty());
+
+        scheduler.advance(2000);
+        engine.onConnected(connection);
+        ReconnectEngine.ReconnectStats stats = engine.getStats(ADDRESS);
+        assertEquals(6000, stats.getLastMillis());
+        assertEquals(1, stats.getBackgroundCount());
+    }
+
+    @Test
+    public void directFailure_fallsBackWithoutWaiting() {
+        engine.connect(connection, null);
+        engine.onDisconnected(connection, 133);
+        assertEquals("[direct, disconnect, background]", connector.calls.toString());
+        assertTrue(scheduler.due.isEmpty());
+    }
+
+    @Test
+    public void backgroundFailures_retryAfterGrowingBackoff() {
+        engine.connect(connection, null);
+        engine.onDisconnected(connection, 133);
+        connector.calls.clear();
+
+        long expected = 1000;
+        for (int failure = 0; failure < 4; failure++) {
+            engine.onDisconnected(connection, 133);
+            assertEquals("[disconnect]", connector.calls.toString());
+            long delay = scheduler.delays.get(scheduler.delays.size() - 1);
+            assertTrue(delay >= expected / 2 && delay <= expected);
+
+            scheduler.advance(delay);
+            assertEquals("[disconnect, background]", connector.calls.toString());
+            connector.calls.clear();
+            expected *= 2;
+        }
+    }
+
+    @Test
+    public void linkLoss_restartsOnDirectPath() {
+        engine.connect(connection, null);
+        engine.onDisconnected(connection, 133);
+        engine.onDisconnected(connection, 133);
+        scheduler.advance(1000);
+        engine.onConnected(connection);
+        connector.calls.clear();
+
+        scheduler.advance(60000);
+        engine.onDisconnected(connection, 8);
+        assertEquals("[disconnect, direct]", connector.calls.toString());
+        assertEquals(Long.valueOf(4000), scheduler.delays.get(scheduler.delays.size() - 1));
+
+        scheduler.advance(150);
+        engine.onConnected(connection);
+        ReconnectEngine.ReconnectStats stats = engine.getStats(ADDRESS);
+        assertEquals(150, stats.getLastMillis());
+        assertEquals(1, stats.getDirectCount());
+        assertEquals(1, stats.getBackgroundCount());
+    }
+
+    @Test
+    public void setupFailure_disconnectsAndRetriesAfterBackoff() {
+        engine.connect(connection, null);
+        engine.onConnected(connection);
+        connection.setState(GattConnection.STATE_DISCOVERING);
+        connector.calls.clear();
+
+        engine.onSetupFailed(connection);
+        assertEquals("[disconnect]", connector.calls.toString());
+        assertTrue(connection.isDown());
+        long delay = scheduler.delays.get(scheduler.delays.size() - 1);
+        assertTrue(delay >= 500 && delay <= 1000);
+
+        scheduler.advance(delay);
+        assertEquals("[disconnect, background]", connector.calls.toString());
+        engine.onConnected(connection);
+        engine.onSetupFailed(connection);
+        delay = scheduler.delays.get(scheduler.delays.size() - 1);
+        assertTrue(delay >= 1000 && delay <= 2000);
+    }
+
+    @Test
+    public void cancel_stopsReconnecting() {
+        engine.connect(connection, null);
+        engine.onDisconnected(connection, 133);
+        engine.onDisconnected(connection, 133);
+        assertEquals(1, scheduler.due.size());
+
+        engine.cancel(connection);
+        assertTrue(scheduler.due.isEmpty());
+        connector.calls.clear();
+        engine.onDisconnected(connection, 133);
+        scheduler.advance(120000);
+        assertTrue(connector.calls.isEmpty());
+    }
+
+    @Test
+    public void connect_replacesAttemptOfEvictedLink() {
+        engine.connect(connection, null);
+        GattConnection replacement = new GattConnection(ADDRESS, null, null, clock);
+        engine.connect(replacement, null);
+        assertEquals("[direct, direct]", connector.calls.toString());
+        assertEquals(1, scheduler.due.size());
+
+        // Late events of the evicted link are ignored.
+        engine.cancel(connection);
+        engine.onDisconnected(connection, 133);
+        assertEquals(1, scheduler.due.size());
+        engine.onConnected(replacement);
+        assertEquals(1, engine.getStats(ADDRESS).getDirectCount());
+    }
+}
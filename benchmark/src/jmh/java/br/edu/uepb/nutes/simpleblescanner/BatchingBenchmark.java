@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BatchDispatcher} adding results and delivering full batches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BatchingBenchmark {
+    @Param({"1", "16", "64"})
+    public int batchSize;
+
+    private Object[] results;
+    private BatchDispatcher<Object> dispatcher;
+    private int index;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        results = new Object[1024];
+        for (int i = 0; i < results.length; i++) results[i] = new Object();
+        dispatcher = new BatchDispatcher<>(batchSize, new BatchDispatcher.Sink<Object>() {
+            @Override
+            public void onBatch(List<Object> batch) {
+                for (int i = 0, size = batch.size(); i < size; i++) blackhole.consume(batch.get(i));
+            }
+        });
+    }
+
+    @Benchmark
+    public int add() {
+        Object result = results[index];
+        if (++index == results.length) index = 0;
+        int state = dispatcher.add(result);
+        if (state == BatchDispatcher.FULL) dispatcher.flush();
+        return state;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.Random;
+
+/**
+ * Fixtures shared by the benchmarks.
+ */
+final class Benchmarks {
+    /**
+     * Clock usable off-device, where {@code SystemClock} is a stub.
+     */
+    static final Clock CLOCK = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Return random packed addresses.
+     *
+     * @param count Number of addresses.
+     * @param seed  Seed of the generator.
+     * @return long[]
+     */
+    static long[] addresses(int count, long seed) {
+        Random random = new Random(seed);
+        long[] addresses = new long[count];
+        for (int i = 0; i < count; i++) addresses[i] = random.nextLong() & 0xFFFFFFFFFFFFL;
+        return addresses;
+    }
+}
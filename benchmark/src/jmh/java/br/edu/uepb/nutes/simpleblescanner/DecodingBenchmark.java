@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan record decoding with {@link AdvertisingData}: parsing alone and parsing
+ * followed by the lookups a filter or callback usually does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DecodingBenchmark {
+    private static final byte[] NAME_PREFIX = {'D', 'E', 'V'};
+
+    private byte[][] payloads;
+    private final AdvertisingData data = new AdvertisingData();
+    private int index;
+
+    @Setup
+    public void setUp() {
+        AdvertisementTrace trace = AdvertisementTrace.synthetic(256, 1024, 1);
+        payloads = new byte[trace.size()][];
+        for (int i = 0; i < trace.size(); i++) payloads[i] = trace.getPayload(i);
+    }
+
+    @Benchmark
+    public boolean wrap() {
+        return data.wrap(next());
+    }
+
+    @Benchmark
+    public void wrapAndRead(Blackhole blackhole) {
+        data.wrap(next());
+        blackhole.consume(data.getTxPowerLevel());
+        blackhole.consume(data.getServiceUuidCount() > 0 ? data.getServiceUuidShort(0) : 0);
+        blackhole.consume(data.findManufacturerData(AdvertisementTrace.SYNTHETIC_COMPANY_ID));
+        blackhole.consume(data.localNameStartsWith(NAME_PREFIX));
+    }
+
+    private byte[] next() {
+        byte[] payload = payloads[index];
+        if (++index == payloads.length) index = 0;
+        return payload;
+    }
+}
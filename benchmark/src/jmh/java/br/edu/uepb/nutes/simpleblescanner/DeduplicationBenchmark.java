@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DeviceTable} lookups as seen by deduplication: mostly devices already
+ * known, and a churn of devices lost and found again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeduplicationBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int devices;
+
+    private long[] addresses;
+    private DeviceTable table;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        addresses = Benchmarks.addresses(devices, 1);
+        table = new DeviceTable();
+        for (long address : addresses) table.insert(address);
+    }
+
+    @Benchmark
+    public int seen() {
+        long address = addresses[index];
+        if (++index == devices) index = 0;
+        return table.insert(address);
+    }
+
+    @Benchmark
+    public int churn() {
+        long address = addresses[index];
+        if (++index == devices) index = 0;
+        table.remove(address);
+        return table.insert(address);
+    }
+}
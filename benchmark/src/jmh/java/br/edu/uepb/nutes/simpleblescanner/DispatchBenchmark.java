@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole per-advertisement path of a scanner, from the source sink to the callback:
+ * payload parsing, software filter, deduplication and metrics.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DispatchBenchmark {
+    private static final int TRACE_SIZE = 1 << 16;
+
+    @Param({"false", "true"})
+    public boolean deduplicate;
+
+    @Param({"false", "true"})
+    public boolean filter;
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private AdvertisementTrace trace;
+    private SourceScanner scanner;
+    private ScanSource.Sink sink;
+    private int index;
+
+    /**
+     * Source handing its sink to the benchmark, which drives it directly.
+     */
+    private final class CapturingSource implements ScanSource {
+        @Override
+        public void start(Sink sink) {
+            DispatchBenchmark.this.sink = sink;
+        }
+
+        @Override
+        public void stop() {
+            sink = null;
+        }
+    }
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        trace = AdvertisementTrace.synthetic(1000, TRACE_SIZE, 1);
+        SimpleBleScanner.Builder builder = new SimpleBleScanner.Builder()
+                .addDeduplicate(deduplicate);
+        if (filter) {
+            // A quarter of the devices advertise the heart rate service.
+            builder.addSoftwareFilter(SoftwareFilter.serviceUuid("0000180d-0000-1000-8000-00805f9b34fb"));
+        }
+        if (metrics) builder.addMetrics(new ScanMetrics(Benchmarks.CLOCK));
+        scanner = builder.build(new CapturingSource());
+        scanner.startScan(new AdvertisementCallback() {
+            @Override
+            public void onAdvertisement(long mac, int rssi, AdvertisingData data, long timestampNanos) {
+                blackhole.consume(mac);
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+            }
+
+            @Override
+            public void onFinish() {
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        scanner.stopScan();
+    }
+
+    @Benchmark
+    public void dispatch() {
+        int i = index++ & (TRACE_SIZE - 1);
+        sink.onAdvertisement(trace.getMac(i), trace.getRssi(i), trace.getPayload(i), trace.getTimestampNanos(i));
+    }
+}
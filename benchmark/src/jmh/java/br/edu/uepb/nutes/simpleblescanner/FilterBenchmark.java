@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiled {@link SoftwareFilter} matching against advertisements already parsed,
+ * about one in four of them matching.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterBenchmark {
+    private static final int DEVICES = 256;
+
+    @Param({"address", "serviceUuid", "namePrefix", "manufacturerData", "any"})
+    public String filter;
+
+    private long[] addresses;
+    private int[] rssis;
+    private AdvertisingData[] data;
+    private SoftwareFilter.Matcher matcher;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        AdvertisementTrace trace = AdvertisementTrace.synthetic(DEVICES, DEVICES * 4, 1);
+        addresses = new long[trace.size()];
+        rssis = new int[trace.size()];
+        data = new AdvertisingData[trace.size()];
+        for (int i = 0; i < trace.size(); i++) {
+            addresses[i] = trace.getMac(i);
+            rssis[i] = trace.getRssi(i);
+            data[i] = new AdvertisingData();
+            data[i].wrap(trace.getPayload(i));
+        }
+
+        String[] someAddresses = new String[DEVICES / 4];
+        for (int i = 0; i < someAddresses.length; i++) someAddresses[i] = MacAddress.toString(addresses[i]);
+        SoftwareFilter address = SoftwareFilter.address(someAddresses);
+        SoftwareFilter serviceUuid = SoftwareFilter.serviceUuid("0000180d-0000-1000-8000-00805f9b34fb");
+        SoftwareFilter namePrefix = SoftwareFilter.namePrefix("DEV-000", "DEV-001", "DEV-002", "DEV-003", "DEV-004", "DEV-005");
+        SoftwareFilter manufacturerData = SoftwareFilter.manufacturerData(AdvertisementTrace.SYNTHETIC_COMPANY_ID,
+                new byte[]{0, 0}, new byte[]{0x03, 0});
+        if ("address".equals(filter)) {
+            matcher = address.compile();
+        } else if ("serviceUuid".equals(filter)) {
+            matcher = serviceUuid.compile();
+        } else if ("namePrefix".equals(filter)) {
+            matcher = namePrefix.compile();
+        } else if ("manufacturerData".equals(filter)) {
+            matcher = manufacturerData.compile();
+        } else {
+            matcher = SoftwareFilter.or(address, serviceUuid, namePrefix, manufacturerData).compile();
+        }
+    }
+
+    @Benchmark
+    public boolean matches() {
+        int i = index;
+        if (++index == data.length) index = 0;
+        return matcher.matches(addresses[i], rssis[i], data[i]);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+/**
+ * Callback of a scanner built with a {@link ScanSource}. Advertisements are
+ * delivered as primitives and a parsed {@link AdvertisingData}, which does not
+ * need the Bluetooth stack to exist, unlike {@code ScanResult}.
+ */
+public interface AdvertisementCallback {
+    /**
+     * Callback when an advertisement passed the filters and deduplication.
+     *
+     * @param mac            Packed device address, see {@link MacAddress}.
+     * @param rssi           RSSI in dBm.
+     * @param data           {@link AdvertisingData} Parsed payload. Reused by the scanner
+     *                       once this method returns.
+     * @param timestampNanos Time of reception.
+     */
+    void onAdvertisement(long mac, int rssi, AdvertisingData data, long timestampNanos);
+
+    /**
+     * Callback when the scan could not be started.
+     *
+     * @param errorCode One of the SCAN_FAILED_* constants of {@link SimpleScannerCallback}.
+     */
+    void onScanFailed(int errorCode);
+
+    /**
+     * Callback when the scan ended, on {@link SimpleBleScanner#stopScan()} or when
+     * the source ran out of advertisements.
+     */
+    void onFinish();
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+/**
+ * Per-advertisement step shared by every scanner implementation: software
+ * filtering, RSSI tracking, the sighting store and log, deduplication and the metrics they feed.
+ * It works on primitives only, so the path exercised by a replayed trace on a JVM is the one
+ * a radio drives on a device. Not thread-safe.
+ */
+final class AdvertisementProcessor {
+    /**
+     * Rejected by the software filters.
+     */
+    static final int REJECTED = 0;
+
+    /**
+     * Passed the filters, but its device was already delivered in deduplicate mode.
+     */
+    static final int DUPLICATE = 1;
+
+    /**
+     * Passed the filters, from a device already seen.
+     */
+    static final int SEEN = 2;
+
+    /**
+     * Passed the filters, first advertisement of its device in the scan.
+     */
+    static final int DISCOVERED = 3;
+
+    private final SoftwareFilter.Matcher filter;
+    private final SoftwareFilter.Matcher[] filterMatchers;
+    private final RssiTracker rssiTracker;
+    private final SightingStore sightingStore;
+    private final SightingLog sightingLog;
+    private final boolean deduplicate;
+    private final ScanMetrics metrics;
+    private final DeviceTable deviceTable;
+    private final AdvertisingData advertisingData;
+
+    /**
+     * Constructor.
+     *
+     * @param scanner      Scanner the settings come from.
+     * @param trackDevices Keep a device table even without deduplication, e.g. to detect new devices.
+     * @param parseData    Parse every payload, not only for the software filters.
+     */
+    AdvertisementProcessor(SimpleBleScanner scanner, boolean trackDevices, boolean parseData) {
+        this(scanner.softwareFilter, scanner.softwareFilterMatchers, scanner.rssiTracker, scanner.sightingStore,
+                scanner.sightingLog, scanner.deduplicate, scanner.metrics, trackDevices, parseData);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param filter         Compiled software filters, or null.
+     * @param filterMatchers Each software filter on its own, to count hits, or null.
+     * @param rssiTracker    {@link RssiTracker} or null.
+     * @param sightingStore  {@link SightingStore} or null.
+     * @param sightingLog    {@link SightingLog} or null.
+     * @param deduplicate    Report each device once per scan.
+     * @param metrics        {@link ScanMetrics} or null.
+     * @param trackDevices   Keep a device table even without deduplication, e.g. to detect new devices.
+     * @param parseData      Parse every payload, not only for the software filters.
+     */
+    AdvertisementProcessor(SoftwareFilter.Matcher filter, SoftwareFilter.Matcher[] filterMatchers,
+                           RssiTracker rssiTracker, SightingStore sightingStore, SightingLog sightingLog,
+                           boolean deduplicate, ScanMetrics metrics, boolean trackDevices, boolean parseData) {
+        this.filter = filter;
+        this.filterMatchers = filterMatchers;
+        this.rssiTracker = rssiTracker;
+        this.sightingStore = sightingStore;
+        this.sightingLog = sightingLog;
+        this.deduplicate = deduplicate;
+        this.metrics = metrics;
+        this.deviceTable = deduplicate || trackDevices || metrics != null ? new DeviceTable() : null;
+        this.advertisingData = filter != null || sightingStore != null || sightingLog != null || parseData
+                ? new AdvertisingData() : null;
+    }
+
+    /**
+     * Return true when {@link #process} always returns {@link #SEEN}, so callers can skip it.
+     *
+     * @return boolean
+     */
+    boolean isPassThrough() {
+        return filter == null && deviceTable == null && rssiTracker == null && advertisingData == null
+                && sightingStore == null;
+    }
+
+    /**
+     * Receive one advertisement: count it, decide what to do with it and append it to
+     * the sighting log, whatever the decision. Every scanner calls this for each
+     * advertisement it has a callback for.
+     *
+     * @param mac            Packed address.
+     * @param rssi           Signal strength.
+     * @param payload        Raw advertising data, may be null.
+     * @param timestampNanos Time of reception.
+     * @return {@link #REJECTED}, {@link #DUPLICATE}, {@link #SEEN} or {@link #DISCOVERED}.
+     */
+    int receive(long mac, int rssi, byte[] payload, long timestampNanos) {
+        if (metrics != null) metrics.increment(ScanMetrics.ADVERTISEMENTS);
+        int decision = process(mac, rssi, payload, timestampNanos);
+        if (sightingLog != null) {
+            int txPower = advertisingData.getTxPowerLevel() != AdvertisingData.TX_POWER_NOT_PRESENT
+                    ? advertisingData.getTxPowerLevel() : SightingLog.TX_POWER_NOT_PRESENT;
+            sightingLog.append(timestampNanos, mac, rssi, txPower, SightingLog.hashPayload(payload));
+        }
+        return decision;
+    }
+
+    /**
+     * Count advertisements that arrived while no callback was set, e.g. in flight at the stop.
+     *
+     * @param count Number of advertisements.
+     */
+    void drop(int count) {
+        if (metrics == null) return;
+        metrics.add(ScanMetrics.ADVERTISEMENTS, count);
+        metrics.add(ScanMetrics.DROPPED, count);
+    }
+
+    /**
+     * Decide what to do with one advertisement.
+     *
+     * @param mac            Packed address.
+     * @param rssi           Signal strength.
+     * @param payload        Raw advertising data, may be null.
+     * @param timestampNanos Time of reception.
+     * @return {@link #REJECTED}, {@link #DUPLICATE}, {@link #SEEN} or {@link #DISCOVERED}.
+     */
+    int process(long mac, int rssi, byte[] payload, long timestampNanos) {
+        if (advertisingData != null) advertisingData.wrap(payload);
+        if (filter != null) {
+            if (!filter.matches(mac, rssi, advertisingData)) {
+                if (metrics != null) metrics.increment(ScanMetrics.FILTERED);
+                return REJECTED;
+            }
+            if (filterMatchers != null) countFilterHits(mac, rssi);
+        }
+        if (rssiTracker != null) rssiTracker.update(mac, rssi);
+        if (sightingStore != null) {
+            sightingStore.update(mac, rssi, advertisingData.getTxPowerLevel(), payload, timestampNanos);
+        }
+        if (deviceTable == null || mac == MacAddress.INVALID) return SEEN;
+
+        boolean discovered = deviceTable.insert(mac) >= 0;
+        if (metrics != null) {
+            if (discovered) {
+                metrics.increment(ScanMetrics.DEVICES_DISCOVERED);
+                metrics.setActiveDevices(deviceTable.size());
+            } else if (deduplicate) {
+                metrics.increment(ScanMetrics.DUPLICATES);
+            }
+        }
+        if (discovered) return DISCOVERED;
+        return deduplicate ? DUPLICATE : SEEN;
+    }
+
+    /**
+     * Decide whether to report a device the controller lost, from its last advertisement:
+     * like any result it must pass the software filters. A reported device is forgotten.
+     *
+     * @param mac     Packed address.
+     * @param rssi    Last signal strength.
+     * @param payload Last raw advertising data, may be null.
+     * @return true if the loss is reported.
+     */
+    boolean lost(long mac, int rssi, byte[] payload) {
+        if (metrics != null) metrics.increment(ScanMetrics.ADVERTISEMENTS);
+        if (filter != null) {
+            advertisingData.wrap(payload);
+            if (!filter.matches(mac, rssi, advertisingData)) return false;
+        }
+        forget(mac);
+        return true;
+    }
+
+    /**
+     * Forget a lost device, so it is delivered again when it comes back.
+     *
+     * @param mac Packed address.
+     */
+    void forget(long mac) {
+        if (deviceTable != null) deviceTable.remove(mac);
+        if (rssiTracker != null) rssiTracker.remove(mac);
+        if (sightingStore != null) sightingStore.remove(mac);
+        if (metrics != null) {
+            metrics.increment(ScanMetrics.DEVICES_LOST);
+            if (deviceTable != null) metrics.setActiveDevices(deviceTable.size());
+        }
+    }
+
+    /**
+     * Forget every device, at the start of a scan.
+     */
+    void clear() {
+        if (deviceTable != null) deviceTable.clear();
+        if (metrics != null) metrics.setActiveDevices(0);
+    }
+
+    /**
+     * Return the advertising data of the last payload processed.
+     *
+     * @return {@link AdvertisingData} or null if payloads are not parsed.
+     */
+    AdvertisingData getAdvertisingData() {
+        return advertisingData;
+    }
+
+    /**
+     * Count the hits of each software filter on an advertisement that passed them,
+     * against the advertising data already parsed.
+     */
+    private void countFilterHits(long mac, int rssi) {
+        if (filterMatchers.length == 1) {
+            metrics.onFilterHit(0);
+            return;
+        }
+        for (int i = 0; i < filterMatchers.length; i++) {
+            if (filterMatchers[i].matches(mac, rssi, advertisingData)) metrics.onFilterHit(i);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sequence of advertisements for a {@link ReplayScanSource}, recorded from a
+ * {@link SightingLog} or generated by {@link #synthetic(int, int, long)}.
+ * <p>
+ * Fields are kept in parallel primitive arrays, so a trace of millions of
+ * advertisements is a few large arrays rather than millions of objects. Payloads
+ * are shared between the advertisements of a device.
+ */
+public final class AdvertisementTrace {
+    /**
+     * Company identifier used in synthetic manufacturer data.
+     */
+    public static final int SYNTHETIC_COMPANY_ID = 0xFFFF;
+
+    /**
+     * 16-bit service UUIDs advertised by synthetic devices, one per device in turn.
+     */
+    public static final int[] SYNTHETIC_SERVICE_UUIDS = {0x180D, 0x180F, 0x1810, 0x181A};
+
+    private static final int AD_FLAGS = 0x01;
+    private static final int AD_COMPLETE_16_BIT_UUIDS = 0x03;
+    private static final int AD_COMPLETE_LOCAL_NAME = 0x09;
+    private static final int AD_TX_POWER_LEVEL = 0x0A;
+    private static final int AD_MANUFACTURER_DATA = 0xFF;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private long[] macs;
+    private int[] rssis;
+    private long[] timestamps;
+    private byte[][] payloads;
+    private int size;
+
+    /**
+     * Constructor of an empty trace.
+     */
+    public AdvertisementTrace() {
+        this(64);
+    }
+
+    /**
+     * Constructor of an empty trace.
+     *
+     * @param capacity Expected number of advertisements.
+     */
+    public AdvertisementTrace(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.macs = new long[capacity];
+        this.rssis = new int[capacity];
+        this.timestamps = new long[capacity];
+        this.payloads = new byte[capacity][];
+    }
+
+    /**
+     * Generate a trace of devices advertising in turn in random order, every device with
+     * a random address, flags, a 16-bit service UUID from {@link #SYNTHETIC_SERVICE_UUIDS},
+     * a TX power level, manufacturer data from {@link #SYNTHETIC_COMPANY_ID} holding its
+     * index and the local name "DEV-&lt;index&gt;". RSSI wanders around a per-device level.
+     * Advertisements are 100 microseconds apart. The same seed gives the same trace.
+     *
+     * @param devices        Number of devices.
+     * @param advertisements Number of advertisements.
+     * @param seed           Seed of the generator.
+     * @return {@link AdvertisementTrace}
+     */
+    public static AdvertisementTrace synthetic(int devices, int advertisements, long seed) {
+        if (devices < 1 || advertisements < 0) throw new IllegalArgumentException("Invalid trace size");
+
+        Random random = new Random(seed);
+        long[] deviceMacs = new long[devices];
+        int[] deviceRssis = new int[devices];
+        byte[][] devicePayloads = new byte[devices][];
+        for (int i = 0; i < devices; i++) {
+            // Random static addresses have the two top bits set.
+            deviceMacs[i] = (random.nextLong() & 0xFFFFFFFFFFFFL) | 0xC00000000000L;
+            deviceRssis[i] = -40 - random.nextInt(55);
+            devicePayloads[i] = syntheticPayload(i, SYNTHETIC_SERVICE_UUIDS[i % SYNTHETIC_SERVICE_UUIDS.length]);
+        }
+
+        AdvertisementTrace trace = new AdvertisementTrace(advertisements);
+        for (int i = 0; i < advertisements; i++) {
+            int device = random.nextInt(devices);
+            trace.add(deviceMacs[device], deviceRssis[device] + random.nextInt(9) - 4,
+                    devicePayloads[device], i * 100000L);
+        }
+        return trace;
+    }
+
+    /**
+     * Load the records of a sighting log. Payloads are not logged, so they are rebuilt
+     * holding only the TX power level, when one was advertised.
+     *
+     * @param reader {@link SightingLog.Reader} Closed by the caller.
+     * @return {@link AdvertisementTrace}
+     */
+    public static AdvertisementTrace fromLog(SightingLog.Reader reader) {
+        AdvertisementTrace trace = new AdvertisementTrace();
+        byte[][] txPowerPayloads = new byte[256][];
+        while (reader.next()) {
+            byte[] payload = null;
+            int txPower = reader.getTxPower();
+            if (txPower != SightingLog.TX_POWER_NOT_PRESENT) {
+                payload = txPowerPayloads[txPower & 0xFF];
+                if (payload == null) {
+                    payload = new byte[]{2, AD_TX_POWER_LEVEL, (byte) txPower};
+                    txPowerPayloads[txPower & 0xFF] = payload;
+                }
+            }
+            trace.add(reader.getMac(), reader.getRssi(), payload, reader.getTimestampNanos());
+        }
+        return trace;
+    }
+
+    /**
+     * Append an advertisement.
+     *
+     * @param mac            Packed device address, see {@link MacAddress}.
+     * @param rssi           RSSI in dBm.
+     * @param payload        Raw advertising data, may be null. Not copied.
+     * @param timestampNanos Time of reception.
+     */
+    public void add(long mac, int rssi, byte[] payload, long timestampNanos) {
+        if (size == macs.length) {
+            int capacity = size * 2;
+            macs = Arrays.copyOf(macs, capacity);
+            rssis = Arrays.copyOf(rssis, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+        }
+        macs[size] = mac;
+        rssis[size] = rssi;
+        timestamps[size] = timestampNanos;
+        payloads[size] = payload;
+        size++;
+    }
+
+    /**
+     * Return the number of advertisements.
+     *
+     * @return int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the packed address of an advertisement.
+     *
+     * @param index Position in the trace.
+     * @return long
+     */
+    public long getMac(int index) {
+        return macs[index];
+    }
+
+    /**
+     * Return the RSSI of an advertisement.
+     *
+     * @param index Position in the trace.
+     * @return int
+     */
+    public int getRssi(int index) {
+        return rssis[index];
+    }
+
+    /**
+     * Return the raw advertising data of an advertisement.
+     *
+     * @param index Position in the trace.
+     * @return byte[] or null
+     */
+    public byte[] getPayload(int index) {
+        return payloads[index];
+    }
+
+    /**
+     * Return the time of reception of an advertisement.
+     *
+     * @param index Position in the trace.
+     * @return long
+     */
+    public long getTimestampNanos(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * Return the time between the first and the last advertisement.
+     *
+     * @return Duration in nanoseconds.
+     */
+    public long getDurationNanos() {
+        return size == 0 ? 0 : timestamps[size - 1] - timestamps[0];
+    }
+
+    private static byte[] syntheticPayload(int index, int serviceUuid) {
+        byte[] name = String.format("DEV-%04d", index).getBytes(UTF_8);
+        byte[] payload = new byte[3 + 4 + 3 + 7 + 2 + name.length];
+        int p = 0;
+        payload[p++] = 2;
+        payload[p++] = AD_FLAGS;
+        payload[p++] = 0x06; // LE General Discoverable, BR/EDR not supported.
+        payload[p++] = 3;
+        payload[p++] = AD_COMPLETE_16_BIT_UUIDS;
+        payload[p++] = (byte) serviceUuid;
+        payload[p++] = (byte) (serviceUuid >> 8);
+        payload[p++] = 2;
+        payload[p++] = AD_TX_POWER_LEVEL;
+        payload[p++] = (byte) -8;
+        payload[p++] = 6;
+        payload[p++] = (byte) AD_MANUFACTURER_DATA;
+        payload[p++] = (byte) SYNTHETIC_COMPANY_ID;
+        payload[p++] = (byte) (SYNTHETIC_COMPANY_ID >> 8);
+        payload[p++] = (byte) index;
+        payload[p++] = (byte) (index >> 8);
+        payload[p++] = (byte) (index >> 16);
+        payload[p++] = (byte) (1 + name.length);
+        payload[p++] = AD_COMPLETE_LOCAL_NAME;
+        System.arraycopy(name, 0, payload, p, name.length);
+        return payload;
+    }
+}
@@ -0,0 +1,585 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reusable view over the raw advertising data of a BLE advertisement,
+ * e.g. {@code ScanResult.getScanRecord().getBytes()}.
+ * <p>
+ * {@link #wrap(byte[], int, int)} walks the AD structures in place and only records
+ * where each one starts, so reading flags, TX power, local name, service UUIDs,
+ * service data and manufacturer data does not allocate. The same instance is meant
+ * to be wrapped around every advertisement; the index arrays only grow the first
+ * time a payload with more structures than seen so far is parsed.
+ * <p>
+ * The wrapped array is not copied and must not change while it is being read.
+ * Not thread-safe.
+ */
+public final class AdvertisingData {
+    public static final int TYPE_FLAGS = 0x01;
+    public static final int TYPE_SERVICE_UUIDS_16_BIT_PARTIAL = 0x02;
+    public static final int TYPE_SERVICE_UUIDS_16_BIT_COMPLETE = 0x03;
+    public static final int TYPE_SERVICE_UUIDS_32_BIT_PARTIAL = 0x04;
+    public static final int TYPE_SERVICE_UUIDS_32_BIT_COMPLETE = 0x05;
+    public static final int TYPE_SERVICE_UUIDS_128_BIT_PARTIAL = 0x06;
+    public static final int TYPE_SERVICE_UUIDS_128_BIT_COMPLETE = 0x07;
+    public static final int TYPE_LOCAL_NAME_SHORT = 0x08;
+    public static final int TYPE_LOCAL_NAME_COMPLETE = 0x09;
+    public static final int TYPE_TX_POWER_LEVEL = 0x0A;
+    public static final int TYPE_SERVICE_DATA_16_BIT = 0x16;
+    public static final int TYPE_SERVICE_DATA_32_BIT = 0x20;
+    public static final int TYPE_SERVICE_DATA_128_BIT = 0x21;
+    public static final int TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+    /**
+     * Returned by {@link #getFlags()} when the advertisement has no flags.
+     */
+    public static final int FLAGS_NOT_PRESENT = -1;
+
+    /**
+     * Returned by {@link #getTxPowerLevel()} when the advertisement has no TX power,
+     * same value as {@code ScanRecord.getTxPowerLevel()}.
+     */
+    public static final int TX_POWER_NOT_PRESENT = Integer.MIN_VALUE;
+
+    /**
+     * Least significant bits of the Bluetooth base UUID 00000000-0000-1000-8000-00805F9B34FB.
+     */
+    public static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    /**
+     * Most significant bits of the Bluetooth base UUID, without the 32-bit short UUID.
+     */
+    public static final long BASE_UUID_MSB = 0x0000000000001000L;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 8;
+
+    private byte[] data;
+    private int start;
+    private int end;
+    private boolean valid;
+
+    private int recordCount;
+    private int[] recordTypes = new int[INITIAL_CAPACITY];
+    private int[] recordOffsets = new int[INITIAL_CAPACITY];
+    private int[] recordLengths = new int[INITIAL_CAPACITY];
+
+    private int uuidCount;
+    private int[] uuidOffsets = new int[INITIAL_CAPACITY];
+    private int[] uuidWidths = new int[INITIAL_CAPACITY];
+
+    private int serviceDataCount;
+    private int[] serviceDataRecords = new int[INITIAL_CAPACITY];
+
+    private int manufacturerDataCount;
+    private int[] manufacturerDataRecords = new int[INITIAL_CAPACITY];
+
+    private int flags;
+    private int txPowerLevel;
+    private int nameRecord;
+
+    /**
+     * Constructor.
+     */
+    public AdvertisingData() {
+        reset();
+    }
+
+    /**
+     * Parse the whole array.
+     *
+     * @param data Raw advertising data, may be null.
+     * @return false if the data is null or malformed. Structures before the malformed
+     * one are still available.
+     */
+    public boolean wrap(byte[] data) {
+        return wrap(data, 0, data == null ? 0 : data.length);
+    }
+
+    /**
+     * Parse a region of an array.
+     *
+     * @param data   Raw advertising data, may be null.
+     * @param offset Position of the first AD structure.
+     * @param length Number of bytes to parse.
+     * @return false if the data is null or malformed. Structures before the malformed
+     * one are still available.
+     */
+    public boolean wrap(byte[] data, int offset, int length) {
+        reset();
+        if (data == null || offset < 0 || length < 0 || offset + length > data.length) {
+            return false;
+        }
+
+        this.data = data;
+        this.start = offset;
+        this.end = offset + length;
+
+        int position = offset;
+        while (position < end) {
+            int fieldLength = data[position] & 0xFF;
+            if (fieldLength == 0) break; // Zero padding at the end of the payload.
+            if (position + 1 + fieldLength > end) return false;
+
+            addRecord(data[position + 1] & 0xFF, position + 2, fieldLength - 1);
+            position += 1 + fieldLength;
+        }
+
+        valid = true;
+        return true;
+    }
+
+    /**
+     * Return whether the last wrapped payload was parsed to the end.
+     *
+     * @return boolean
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Return the wrapped array. Offsets returned by this class index into it.
+     *
+     * @return byte[]
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Return the position of the first wrapped byte.
+     *
+     * @return int
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Return the position after the last wrapped byte.
+     *
+     * @return int
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Return the advertising flags.
+     *
+     * @return Flags or {@link #FLAGS_NOT_PRESENT}.
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Return the advertised TX power level in dBm.
+     *
+     * @return TX power or {@link #TX_POWER_NOT_PRESENT}.
+     */
+    public int getTxPowerLevel() {
+        return txPowerLevel;
+    }
+
+    /**
+     * Return the number of AD structures.
+     *
+     * @return int
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Return the type of an AD structure.
+     *
+     * @param index Index between 0 and {@link #getRecordCount()}.
+     * @return One of the TYPE_* constants or any other assigned number.
+     */
+    public int getRecordType(int index) {
+        return recordTypes[index];
+    }
+
+    /**
+     * Return where the value of an AD structure starts, after its length and type.
+     *
+     * @param index Index between 0 and {@link #getRecordCount()}.
+     * @return int
+     */
+    public int getRecordOffset(int index) {
+        return recordOffsets[index];
+    }
+
+    /**
+     * Return the length of the value of an AD structure.
+     *
+     * @param index Index between 0 and {@link #getRecordCount()}.
+     * @return int
+     */
+    public int getRecordLength(int index) {
+        return recordLengths[index];
+    }
+
+    /**
+     * Return the index of the first AD structure of a type.
+     *
+     * @param type AD type.
+     * @return Index or -1.
+     */
+    public int findRecord(int type) {
+        for (int i = 0; i < recordCount; i++) {
+            if (recordTypes[i] == type) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Return whether a shortened or complete local name is present.
+     *
+     * @return boolean
+     */
+    public boolean hasLocalName() {
+        return nameRecord >= 0;
+    }
+
+    /**
+     * Return whether the local name is the complete one.
+     *
+     * @return boolean
+     */
+    public boolean isLocalNameComplete() {
+        return nameRecord >= 0 && recordTypes[nameRecord] == TYPE_LOCAL_NAME_COMPLETE;
+    }
+
+    /**
+     * Return where the UTF-8 bytes of the local name start.
+     *
+     * @return Offset or -1 if there is no name.
+     */
+    public int getLocalNameOffset() {
+        return nameRecord < 0 ? -1 : recordOffsets[nameRecord];
+    }
+
+    /**
+     * Return the number of UTF-8 bytes of the local name.
+     *
+     * @return int
+     */
+    public int getLocalNameLength() {
+        return nameRecord < 0 ? 0 : recordLengths[nameRecord];
+    }
+
+    /**
+     * Check whether the local name starts with the given UTF-8 bytes, without decoding it.
+     *
+     * @param prefix UTF-8 encoded prefix.
+     * @return boolean
+     */
+    public boolean localNameStartsWith(byte[] prefix) {
+        if (nameRecord < 0 || prefix.length > recordLengths[nameRecord]) return false;
+
+        int offset = recordOffsets[nameRecord];
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decode the local name. Allocates, so keep it out of the per-advertisement path.
+     *
+     * @return {@link String} or null if there is no name.
+     */
+    public String getLocalName() {
+        if (nameRecord < 0) return null;
+        return new String(data, recordOffsets[nameRecord], recordLengths[nameRecord], UTF_8);
+    }
+
+    /**
+     * Return the number of advertised service UUIDs, of any width.
+     *
+     * @return int
+     */
+    public int getServiceUuidCount() {
+        return uuidCount;
+    }
+
+    /**
+     * Return the width of an advertised service UUID.
+     *
+     * @param index Index between 0 and {@link #getServiceUuidCount()}.
+     * @return 2, 4 or 16 bytes.
+     */
+    public int getServiceUuidWidth(int index) {
+        return uuidWidths[index];
+    }
+
+    /**
+     * Return the value of a 16 or 32-bit service UUID.
+     *
+     * @param index Index between 0 and {@link #getServiceUuidCount()}.
+     * @return Short UUID or -1 for a 128-bit UUID.
+     */
+    public long getServiceUuidShort(int index) {
+        int width = uuidWidths[index];
+        if (width == 16) return -1;
+        return readLittleEndian(uuidOffsets[index], width);
+    }
+
+    /**
+     * Return the most significant bits of a service UUID, expanding short UUIDs
+     * with the Bluetooth base UUID. Compare with {@link java.util.UUID#getMostSignificantBits()}.
+     *
+     * @param index Index between 0 and {@link #getServiceUuidCount()}.
+     * @return long
+     */
+    public long getServiceUuidMostSignificantBits(int index) {
+        int width = uuidWidths[index];
+        if (width != 16) return (readLittleEndian(uuidOffsets[index], width) << 32) | BASE_UUID_MSB;
+        return readLittleEndian(uuidOffsets[index] + 8, 8);
+    }
+
+    /**
+     * Return the least significant bits of a service UUID, expanding short UUIDs
+     * with the Bluetooth base UUID. Compare with {@link java.util.UUID#getLeastSignificantBits()}.
+     *
+     * @param index Index between 0 and {@link #getServiceUuidCount()}.
+     * @return long
+     */
+    public long getServiceUuidLeastSignificantBits(int index) {
+        if (uuidWidths[index] != 16) return BASE_UUID_LSB;
+        return readLittleEndian(uuidOffsets[index], 8);
+    }
+
+    /**
+     * Return the number of service data structures.
+     *
+     * @return int
+     */
+    public int getServiceDataCount() {
+        return serviceDataCount;
+    }
+
+    /**
+     * Return the width of the UUID that prefixes a service data structure.
+     *
+     * @param index Index between 0 and {@link #getServiceDataCount()}.
+     * @return 2, 4 or 16 bytes.
+     */
+    public int getServiceDataUuidWidth(int index) {
+        switch (recordTypes[serviceDataRecords[index]]) {
+            case TYPE_SERVICE_DATA_16_BIT:
+                return 2;
+            case TYPE_SERVICE_DATA_32_BIT:
+                return 4;
+            default:
+                return 16;
+        }
+    }
+
+    /**
+     * Return the 16 or 32-bit UUID of a service data structure.
+     *
+     * @param index Index between 0 and {@link #getServiceDataCount()}.
+     * @return Short UUID or -1 when the structure uses a 128-bit UUID.
+     */
+    public long getServiceDataUuidShort(int index) {
+        int width = getServiceDataUuidWidth(index);
+        if (width == 16) return -1;
+        return readLittleEndian(recordOffsets[serviceDataRecords[index]], width);
+    }
+
+    /**
+     * Return where the service data starts, after its UUID.
+     *
+     * @param index Index between 0 and {@link #getServiceDataCount()}.
+     * @return int
+     */
+    public int getServiceDataOffset(int index) {
+        return recordOffsets[serviceDataRecords[index]] + getServiceDataUuidWidth(index);
+    }
+
+    /**
+     * Return the length of the service data, without its UUID.
+     *
+     * @param index Index between 0 and {@link #getServiceDataCount()}.
+     * @return int
+     */
+    public int getServiceDataLength(int index) {
+        return recordLengths[serviceDataRecords[index]] - getServiceDataUuidWidth(index);
+    }
+
+    /**
+     * Return the number of manufacturer specific data structures.
+     *
+     * @return int
+     */
+    public int getManufacturerDataCount() {
+        return manufacturerDataCount;
+    }
+
+    /**
+     * Return the company identifier of a manufacturer specific data structure.
+     *
+     * @param index Index between 0 and {@link #getManufacturerDataCount()}.
+     * @return int
+     */
+    public int getManufacturerId(int index) {
+        return (int) readLittleEndian(recordOffsets[manufacturerDataRecords[index]], 2);
+    }
+
+    /**
+     * Return where the manufacturer data starts, after the company identifier.
+     *
+     * @param index Index between 0 and {@link #getManufacturerDataCount()}.
+     * @return int
+     */
+    public int getManufacturerDataOffset(int index) {
+        return recordOffsets[manufacturerDataRecords[index]] + 2;
+    }
+
+    /**
+     * Return the length of the manufacturer data, without the company identifier.
+     *
+     * @param index Index between 0 and {@link #getManufacturerDataCount()}.
+     * @return int
+     */
+    public int getManufacturerDataLength(int index) {
+        return recordLengths[manufacturerDataRecords[index]] - 2;
+    }
+
+    /**
+     * Return the index of the manufacturer data of a company.
+     *
+     * @param manufacturerId Company identifier.
+     * @return Index or -1.
+     */
+    public int findManufacturerData(int manufacturerId) {
+        for (int i = 0; i < manufacturerDataCount; i++) {
+            if (getManufacturerId(i) == manufacturerId) return i;
+        }
+        return -1;
+    }
+
+    private void reset() {
+        data = null;
+        start = 0;
+        end = 0;
+        valid = false;
+        recordCount = 0;
+        uuidCount = 0;
+        serviceDataCount = 0;
+        manufacturerDataCount = 0;
+        flags = FLAGS_NOT_PRESENT;
+        txPowerLevel = TX_POWER_NOT_PRESENT;
+        nameRecord = -1;
+    }
+
+    private void addRecord(int type, int offset, int length) {
+        if (recordCount == recordTypes.length) {
+            int capacity = recordCount * 2;
+            recordTypes = Arrays.copyOf(recordTypes, capacity);
+            recordOffsets = Arrays.copyOf(recordOffsets, capacity);
+            recordLengths = Arrays.copyOf(recordLengths, capacity);
+        }
+        int index = recordCount++;
+        recordTypes[index] = type;
+        recordOffsets[index] = offset;
+        recordLengths[index] = length;
+
+        switch (type) {
+            case TYPE_FLAGS:
+                if (length > 0) flags = data[offset] & 0xFF;
+                break;
+            case TYPE_TX_POWER_LEVEL:
+                if (length > 0) txPowerLevel = data[offset];
+                break;
+            case TYPE_LOCAL_NAME_SHORT:
+                if (nameRecord < 0) nameRecord = index;
+                break;
+            case TYPE_LOCAL_NAME_COMPLETE:
+                nameRecord = index;
+                break;
+            case TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+            case TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                addUuids(offset, length, 2);
+                break;
+            case TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+            case TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                addUuids(offset, length, 4);
+                break;
+            case TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+            case TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                addUuids(offset, length, 16);
+                break;
+            case TYPE_SERVICE_DATA_16_BIT:
+                if (length >= 2) serviceDataRecords = append(serviceDataRecords, serviceDataCount++, index);
+                break;
+            case TYPE_SERVICE_DATA_32_BIT:
+                if (length >= 4) serviceDataRecords = append(serviceDataRecords, serviceDataCount++, index);
+                break;
+            case TYPE_SERVICE_DATA_128_BIT:
+                if (length >= 16) serviceDataRecords = append(serviceDataRecords, serviceDataCount++, index);
+                break;
+            case TYPE_MANUFACTURER_SPECIFIC_DATA:
+                if (length >= 2) {
+                    manufacturerDataRecords = append(manufacturerDataRecords, manufacturerDataCount++, index);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void addUuids(int offset, int length, int width) {
+        for (int position = offset; position + width <= offset + length; position += width) {
+            if (uuidCount == uuidOffsets.length) {
+                uuidOffsets = Arrays.copyOf(uuidOffsets, uuidCount * 2);
+                uuidWidths = Arrays.copyOf(uuidWidths, uuidCount * 2);
+            }
+            uuidOffsets[uuidCount] = position;
+            uuidWidths[uuidCount] = width;
+            uuidCount++;
+        }
+    }
+
+    private static int[] append(int[] array, int index, int value) {
+        if (index == array.length) array = Arrays.copyOf(array, index * 2);
+        array[index] = value;
+        return array;
+    }
+
+    private long readLittleEndian(int offset, int width) {
+        long value = 0;
+        for (int i = width - 1; i >= 0; i--) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
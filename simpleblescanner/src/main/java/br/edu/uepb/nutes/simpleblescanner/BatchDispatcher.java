@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesces items into batches delivered to a {@link Sink}.
+ * <p>
+ * Flushing is left to the owner, so every batch is delivered from the thread it
+ * chooses: {@link #add(Object)} reports when an item opens a new batch, which is
+ * when a delayed {@link #flush()} has to be scheduled, and when it fills the batch,
+ * which has to be flushed at once.
+ * <p>
+ * Two buffers are swapped on every flush and reused, so steady-state dispatch does
+ * not allocate. The list handed to the sink is cleared once it returns.
+ *
+ * @param <T> Item type.
+ */
+final class BatchDispatcher<T> {
+    /**
+     * The item joined a batch that is not full.
+     */
+    static final int ADDED = 0;
+    /**
+     * The item opened a new batch, which is not full.
+     */
+    static final int OPENED = 1;
+    /**
+     * The batch is full.
+     */
+    static final int FULL = 2;
+
+    interface Sink<T> {
+        /**
+         * Receive a batch. The list is only valid until this method returns.
+         *
+         * @param batch Items in arrival order, never empty.
+         */
+        void onBatch(List<T> batch);
+    }
+
+    private final int maxBatchSize;
+    private final Sink<T> sink;
+    private final Object deliveryLock = new Object();
+    private ArrayList<T> pending;
+    private ArrayList<T> delivering;
+
+    /**
+     * Constructor.
+     *
+     * @param maxBatchSize Number of items that fills a batch.
+     * @param sink         {@link Sink} Receiver of the batches.
+     */
+    BatchDispatcher(int maxBatchSize, Sink<T> sink) {
+        if (maxBatchSize < 1) throw new IllegalArgumentException("Batch size must be positive");
+        if (sink == null) throw new IllegalArgumentException("Sink is null");
+
+        this.maxBatchSize = maxBatchSize;
+        this.sink = sink;
+        this.pending = new ArrayList<>(maxBatchSize);
+        this.delivering = new ArrayList<>(maxBatchSize);
+    }
+
+    /**
+     * Add an item.
+     *
+     * @param item Item.
+     * @return {@link #FULL} if the batch has to be flushed, {@link #OPENED} if a delayed
+     * flush has to be scheduled, {@link #ADDED} otherwise.
+     */
+    synchronized int add(T item) {
+        boolean opened = pending.isEmpty();
+        pending.add(item);
+        if (pending.size() >= maxBatchSize) return FULL;
+        return opened ? OPENED : ADDED;
+    }
+
+    /**
+     * Deliver the pending items, if any.
+     */
+    void flush() {
+        synchronized (deliveryLock) {
+            synchronized (this) {
+                if (pending.isEmpty()) return;
+                ArrayList<T> batch = pending;
+                pending = delivering;
+                delivering = batch;
+            }
+            try {
+                sink.onBatch(delivering);
+            } finally {
+                delivering.clear();
+            }
+        }
+    }
+
+    /**
+     * Drop the pending items without delivering them.
+     */
+    synchronized void clear() {
+        pending.clear();
+    }
+
+    /**
+     * Return the number of items waiting for the next flush.
+     *
+     * @return int
+     */
+    synchronized int pendingCount() {
+        return pending.size();
+    }
+}
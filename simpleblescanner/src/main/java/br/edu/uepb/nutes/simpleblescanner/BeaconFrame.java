@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.UUID;
+
+/**
+ * Decoder of iBeacon and Eddystone frames from a parsed {@link AdvertisingData}.
+ * <p>
+ * Like {@link AdvertisingData} a frame is reused: {@link #decode(AdvertisingData)}
+ * overwrites the fields of the previous frame and does not allocate. Only the
+ * getters building objects, such as {@link #getUuid()} or {@link #getUrl()}, do.
+ * Not thread-safe.
+ */
+public final class BeaconFrame {
+    public static final int TYPE_NONE = 0;
+    public static final int TYPE_IBEACON = 1;
+    public static final int TYPE_EDDYSTONE_UID = 2;
+    public static final int TYPE_EDDYSTONE_URL = 3;
+    public static final int TYPE_EDDYSTONE_TLM = 4;
+    public static final int TYPE_EDDYSTONE_EID = 5;
+
+    /**
+     * Company identifier of Apple, carrying iBeacon frames.
+     */
+    public static final int APPLE_COMPANY_ID = 0x004C;
+
+    /**
+     * 16-bit service UUID carrying Eddystone frames.
+     */
+    public static final int EDDYSTONE_SERVICE_UUID = 0xFEAA;
+
+    /**
+     * TLM temperature of a beacon without sensor.
+     */
+    public static final float TEMPERATURE_NOT_SUPPORTED = Float.NaN;
+
+    private static final int IBEACON_TYPE = 0x02;
+    private static final int IBEACON_LENGTH = 0x15;
+    private static final int EDDYSTONE_UID = 0x00;
+    private static final int EDDYSTONE_URL = 0x10;
+    private static final int EDDYSTONE_TLM = 0x20;
+    private static final int EDDYSTONE_EID = 0x30;
+
+    private static final String[] URL_SCHEMES = {"http://www.", "https://www.", "http://", "https://"};
+    private static final String[] URL_EXPANSIONS = {".com/", ".org/", ".edu/", ".net/", ".info/", ".biz/",
+            ".gov/", ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov"};
+
+    private int type;
+    private int measuredPower;
+    private long idMostBits;
+    private long idLeastBits;
+    private int major;
+    private int minor;
+    private byte[] data;
+    private int urlOffset;
+    private int urlLength;
+    private int tlmVersion;
+    private int batteryMillivolts;
+    private float temperature;
+    private long advertisingCount;
+    private long uptimeTenths;
+
+    /**
+     * Decode the first beacon frame of an advertisement.
+     *
+     * @param ad {@link AdvertisingData}
+     * @return false if the advertisement carries no beacon frame, see {@link #getType()}.
+     */
+    public boolean decode(AdvertisingData ad) {
+        type = TYPE_NONE;
+        data = ad.getData();
+        if (data == null) return false;
+
+        int index = ad.findManufacturerData(APPLE_COMPANY_ID);
+        if (index >= 0 && decodeIBeacon(ad.getManufacturerDataOffset(index), ad.getManufacturerDataLength(index))) {
+            return true;
+        }
+        for (int i = 0, count = ad.getServiceDataCount(); i < count; i++) {
+            if (ad.getServiceDataUuidShort(i) == EDDYSTONE_SERVICE_UUID
+                    && decodeEddystone(ad.getServiceDataOffset(i), ad.getServiceDataLength(i))) {
+                return true;
+            }
+        }
+        data = null;
+        return false;
+    }
+
+    private boolean decodeIBeacon(int offset, int length) {
+        if (length < 23 || (data[offset] & 0xFF) != IBEACON_TYPE || (data[offset + 1] & 0xFF) != IBEACON_LENGTH) {
+            return false;
+        }
+        type = TYPE_IBEACON;
+        idMostBits = readLong(offset + 2, 8);
+        idLeastBits = readLong(offset + 10, 8);
+        major = (int) readLong(offset + 18, 2);
+        minor = (int) readLong(offset + 20, 2);
+        measuredPower = data[offset + 22];
+        return true;
+    }
+
+    private boolean decodeEddystone(int offset, int length) {
+        if (length < 2) return false;
+        int frame = data[offset] & 0xFF;
+        switch (frame) {
+            case EDDYSTONE_UID:
+                if (length < 18) return false;
+                type = TYPE_EDDYSTONE_UID;
+                // 10-byte namespace then 6-byte instance, kept as one 128-bit identifier.
+                idMostBits = readLong(offset + 2, 8);
+                idLeastBits = readLong(offset + 10, 8);
+                break;
+            case EDDYSTONE_URL:
+                if (length < 3 || (data[offset + 2] & 0xFF) >= URL_SCHEMES.length) return false;
+                type = TYPE_EDDYSTONE_URL;
+                urlOffset = offset + 2;
+                urlLength = length - 2;
+                break;
+            case EDDYSTONE_TLM:
+                if (length < 14) return false;
+                type = TYPE_EDDYSTONE_TLM;
+                tlmVersion = data[offset + 1] & 0xFF;
+                batteryMillivolts = (int) readLong(offset + 2, 2);
+                int fixed = (int) readLong(offset + 4, 2);
+                temperature = fixed == 0x8000 ? TEMPERATURE_NOT_SUPPORTED : (short) fixed / 256f;
+                advertisingCount = readLong(offset + 6, 4);
+                uptimeTenths = readLong(offset + 10, 4);
+                // TLM frames carry no TX power.
+                measuredPower = 0;
+                return true;
+            case EDDYSTONE_EID:
+                if (length < 10) return false;
+                type = TYPE_EDDYSTONE_EID;
+                idMostBits = readLong(offset + 2, 8);
+                idLeastBits = 0;
+                break;
+            default:
+                return false;
+        }
+        // Eddystone advertises its power at 0 meter.
+        measuredPower = data[offset + 1] - RssiTracker.TX_POWER_TO_ONE_METER_LOSS;
+        return true;
+    }
+
+    private long readLong(int offset, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) value = value << 8 | (data[offset + i] & 0xFF);
+        return value;
+    }
+
+    /**
+     * Return the type of the frame.
+     *
+     * @return One of the TYPE_* constants.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Return the expected RSSI at 1 meter, for {@link RssiTracker#getDistance(long, int)}.
+     *
+     * @return Power in dBm, 0 for TLM frames.
+     */
+    public int getMeasuredPower() {
+        return measuredPower;
+    }
+
+    /**
+     * Return the most significant bits of the identifier: the proximity UUID of an iBeacon,
+     * the namespace and instance of an Eddystone UID, the ephemeral id of an Eddystone EID.
+     *
+     * @return long
+     */
+    public long getIdMostSignificantBits() {
+        return idMostBits;
+    }
+
+    /**
+     * Return the least significant bits of the identifier, see {@link #getIdMostSignificantBits()}.
+     *
+     * @return long
+     */
+    public long getIdLeastSignificantBits() {
+        return idLeastBits;
+    }
+
+    /**
+     * Return the proximity UUID of an iBeacon.
+     *
+     * @return {@link UUID} or null for other frames.
+     */
+    public UUID getUuid() {
+        return type == TYPE_IBEACON ? new UUID(idMostBits, idLeastBits) : null;
+    }
+
+    /**
+     * Return the major of an iBeacon.
+     *
+     * @return int
+     */
+    public int getMajor() {
+        return major;
+    }
+
+    /**
+     * Return the minor of an iBeacon.
+     *
+     * @return int
+     */
+    public int getMinor() {
+        return minor;
+    }
+
+    /**
+     * Return the instance of an Eddystone UID, the last 6 bytes of its identifier.
+     *
+     * @return long
+     */
+    public long getEddystoneInstance() {
+        return idLeastBits & 0xFFFFFFFFFFFFL;
+    }
+
+    /**
+     * Return the URL of an Eddystone URL frame.
+     *
+     * @return {@link String} or null for other frames.
+     */
+    public String getUrl() {
+        if (type != TYPE_EDDYSTONE_URL) return null;
+        StringBuilder url = new StringBuilder(URL_SCHEMES[data[urlOffset] & 0xFF]);
+        for (int i = 1; i < urlLength; i++) {
+            int c = data[urlOffset + i] & 0xFF;
+            if (c < URL_EXPANSIONS.length) {
+                url.append(URL_EXPANSIONS[c]);
+            } else {
+                url.append((char) c);
+            }
+        }
+        return url.toString();
+    }
+
+    /**
+     * Return the version of an Eddystone TLM frame.
+     *
+     * @return int
+     */
+    public int getTlmVersion() {
+        return tlmVersion;
+    }
+
+    /**
+     * Return the battery voltage of an Eddystone TLM frame.
+     *
+     * @return Millivolts, 0 if not supported.
+     */
+    public int getBatteryMillivolts() {
+        return batteryMillivolts;
+    }
+
+    /**
+     * Return the temperature of an Eddystone TLM frame.
+     *
+     * @return Degrees Celsius or {@link #TEMPERATURE_NOT_SUPPORTED}.
+     */
+    public float getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * Return the number of frames advertised since power-up, from an Eddystone TLM frame.
+     *
+     * @return long
+     */
+    public long getAdvertisingCount() {
+        return advertisingCount;
+    }
+
+    /**
+     * Return the time since power-up, from an Eddystone TLM frame.
+     *
+     * @return Milliseconds.
+     */
+    public long getUptimeMillis() {
+        return uptimeTenths * 100;
+    }
+}
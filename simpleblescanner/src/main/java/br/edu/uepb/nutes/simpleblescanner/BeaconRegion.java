@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.UUID;
+
+/**
+ * Set of iBeacons sharing a proximity UUID, optionally narrowed to a major and a minor.
+ */
+public final class BeaconRegion {
+    /**
+     * Wildcard matching any major or minor.
+     */
+    public static final int ANY = -1;
+
+    private final String identifier;
+    private final UUID uuid;
+    private final int major;
+    private final int minor;
+
+    /**
+     * Constructor.
+     *
+     * @param identifier {@link String} Unique name of the region.
+     * @param uuid       {@link UUID} Proximity UUID.
+     * @param major      Major between 0 and 65535, or {@link #ANY}.
+     * @param minor      Minor between 0 and 65535, or {@link #ANY}.
+     */
+    public BeaconRegion(String identifier, UUID uuid, int major, int minor) {
+        if (identifier == null || uuid == null) throw new IllegalArgumentException("Identifier and UUID are required");
+        if (major < ANY || major > 0xFFFF || minor < ANY || minor > 0xFFFF) {
+            throw new IllegalArgumentException("Major and minor must be between 0 and 65535, or ANY");
+        }
+        this.identifier = identifier;
+        this.uuid = uuid;
+        this.major = major;
+        this.minor = minor;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    /**
+     * Return the major.
+     *
+     * @return Major or {@link #ANY}.
+     */
+    public int getMajor() {
+        return major;
+    }
+
+    /**
+     * Return the minor.
+     *
+     * @return Minor or {@link #ANY}.
+     */
+    public int getMinor() {
+        return minor;
+    }
+
+    @Override
+    public String toString() {
+        return identifier + " [" + uuid + ", " + (major == ANY ? "*" : String.valueOf(major))
+                + ", " + (minor == ANY ? "*" : String.valueOf(minor)) + "]";
+    }
+}
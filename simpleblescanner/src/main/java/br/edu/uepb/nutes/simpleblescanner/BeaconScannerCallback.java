@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.RequiresApi;
+
+import java.util.List;
+
+/**
+ * {@link SimpleScannerCallback} decoding iBeacon and Eddystone frames and feeding a
+ * {@link RegionMonitor}. Override {@link #onBeacon(ScanResult, BeaconFrame)} to read the
+ * frames; the frame is reused for the next result.
+ * <p>
+ * Exits are checked on every result and regions are exited when the scan finishes; while no
+ * result arrives, call {@link RegionMonitor#advance()} on a timer for exits to be reported.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class BeaconScannerCallback implements SimpleScannerCallback {
+    private final RegionMonitor monitor;
+    private final AdvertisingData ad = new AdvertisingData();
+    private final BeaconFrame frame = new BeaconFrame();
+
+    /**
+     * Constructor.
+     *
+     * @param monitor {@link RegionMonitor} Or null to only decode frames.
+     */
+    public BeaconScannerCallback(RegionMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * Called for every result carrying a beacon frame, except
+     * {@link ScanSettings#CALLBACK_TYPE_MATCH_LOST} ones, which are not sightings.
+     *
+     * @param result {@link ScanResult}
+     * @param frame  {@link BeaconFrame} Valid until this method returns.
+     */
+    protected void onBeacon(@NonNull ScanResult result, @NonNull BeaconFrame frame) {
+    }
+
+    @Override
+    public void onScanResult(int callbackType, @NonNull ScanResult result) {
+        // A lost device must not refresh, or enter, its regions: they exit on their timeout.
+        if (callbackType != ScanSettings.CALLBACK_TYPE_MATCH_LOST) process(result);
+        if (monitor != null) monitor.advance();
+    }
+
+    @Override
+    public void onBatchScanResults(@NonNull List<ScanResult> results) {
+        for (int i = 0, size = results.size(); i < size; i++) process(results.get(i));
+        if (monitor != null) monitor.advance();
+    }
+
+    @Override
+    public void onScanFailed(int errorCode) {
+    }
+
+    @Override
+    public void onFinish() {
+        if (monitor != null) monitor.exitAll();
+    }
+
+    private void process(ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        if (record == null || !ad.wrap(record.getBytes()) || !frame.decode(ad)) return;
+
+        onBeacon(result, frame);
+        if (monitor != null) monitor.process(frame);
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.Arrays;
+
+/**
+ * Registry of devices keyed by their address packed into a long (see {@link MacAddress}).
+ * <p>
+ * Every device gets a small integer slot, stable while it stays in the table and reused
+ * after it is removed, so per-device state can be kept in plain arrays indexed by slot.
+ * Lookups use an open-addressing hash table with linear probing over primitive arrays:
+ * no boxing and no allocation, except when the table grows.
+ * <p>
+ * Not thread-safe.
+ */
+public final class DeviceTable {
+    /**
+     * Returned when a device is not in the table.
+     */
+    public static final int NO_SLOT = -1;
+
+    private static final long EMPTY = MacAddress.INVALID;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+
+    private long[] slotKeys;
+    private int[] freeSlots;
+    private int freeCount;
+    private int nextSlot;
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedDevices Number of devices expected, used to size the table.
+     */
+    public DeviceTable(int expectedDevices) {
+        int capacity = tableSizeFor(Math.max(expectedDevices, 1) * 2);
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+
+        slotKeys = new long[Math.max(expectedDevices, MIN_CAPACITY)];
+        freeSlots = new int[slotKeys.length];
+        Arrays.fill(slotKeys, EMPTY);
+    }
+
+    /**
+     * Constructor.
+     */
+    public DeviceTable() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Insert a device if it is not yet in the table.
+     *
+     * @param mac Packed address.
+     * @return The new slot if the device was inserted, or {@code -(slot + 1)} if it was
+     * already present.
+     * @throws IllegalArgumentException If the address is {@link MacAddress#INVALID}.
+     */
+    public int insert(long mac) {
+        if (mac == EMPTY) throw new IllegalArgumentException("Invalid address");
+
+        int index = indexFor(mac);
+        long key;
+        while ((key = keys[index]) != EMPTY) {
+            if (key == mac) return -values[index] - 1;
+            index = (index + 1) & mask;
+        }
+
+        int slot = allocateSlot(mac);
+        keys[index] = mac;
+        values[index] = slot;
+        if (++size * 2 > keys.length) rehash(keys.length * 2);
+        return slot;
+    }
+
+    /**
+     * Return the slot of a device.
+     *
+     * @param mac Packed address.
+     * @return Slot or {@link #NO_SLOT}.
+     */
+    public int slotOf(long mac) {
+        if (mac == EMPTY) return NO_SLOT;
+
+        int index = indexFor(mac);
+        long key;
+        while ((key = keys[index]) != EMPTY) {
+            if (key == mac) return values[index];
+            index = (index + 1) & mask;
+        }
+        return NO_SLOT;
+    }
+
+    /**
+     * Check if the device is in the table.
+     *
+     * @param mac Packed address.
+     * @return boolean
+     */
+    public boolean contains(long mac) {
+        return slotOf(mac) != NO_SLOT;
+    }
+
+    /**
+     * Remove a device. Its slot may be handed to a device inserted later.
+     *
+     * @param mac Packed address.
+     * @return The freed slot or {@link #NO_SLOT} if the device was not present.
+     */
+    public int remove(long mac) {
+        if (mac == EMPTY) return NO_SLOT;
+
+        int index = indexFor(mac);
+        long key;
+        while ((key = keys[index]) != mac) {
+            if (key == EMPTY) return NO_SLOT;
+            index = (index + 1) & mask;
+        }
+
+        int slot = values[index];
+        shiftBack(index);
+        slotKeys[slot] = EMPTY;
+        freeSlots[freeCount++] = slot;
+        size--;
+        return slot;
+    }
+
+    /**
+     * Return the address stored in a slot.
+     *
+     * @param slot Slot.
+     * @return Packed address or {@link MacAddress#INVALID} if the slot is free.
+     */
+    public long keyAt(int slot) {
+        if (slot < 0 || slot >= nextSlot) return EMPTY;
+        return slotKeys[slot];
+    }
+
+    /**
+     * Return the number of devices in the table.
+     *
+     * @return int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return one past the highest slot handed out so far.
+     * Arrays indexed by slot must be at least this long.
+     *
+     * @return int
+     */
+    public int slotLimit() {
+        return nextSlot;
+    }
+
+    /**
+     * Remove all devices, keeping the allocated memory.
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(slotKeys, 0, nextSlot, EMPTY);
+        freeCount = 0;
+        nextSlot = 0;
+        size = 0;
+    }
+
+    private int allocateSlot(long mac) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (nextSlot == slotKeys.length) {
+                int length = slotKeys.length * 2;
+                slotKeys = Arrays.copyOf(slotKeys, length);
+                freeSlots = Arrays.copyOf(freeSlots, length);
+                Arrays.fill(slotKeys, nextSlot, length, EMPTY);
+            }
+            slot = nextSlot++;
+        }
+        slotKeys[slot] = mac;
+        return slot;
+    }
+
+    /**
+     * Backward-shift deletion, keeps probe sequences intact without tombstones.
+     */
+    private void shiftBack(int hole) {
+        int index = hole;
+        while (true) {
+            index = (index + 1) & mask;
+            long key = keys[index];
+            if (key == EMPTY) break;
+
+            int home = indexFor(key);
+            // Move the entry if its home position is not between the hole and its current index.
+            if (((index - home) & mask) >= ((index - hole) & mask)) {
+                keys[hole] = key;
+                values[hole] = values[index];
+                hole = index;
+            }
+        }
+        keys[hole] = EMPTY;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == EMPTY) continue;
+
+            int index = indexFor(key);
+            while (keys[index] != EMPTY) index = (index + 1) & mask;
+            keys[index] = key;
+            values[index] = oldValues[i];
+        }
+    }
+
+    private int indexFor(long mac) {
+        long hash = mac * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static int tableSizeFor(int n) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < n) capacity <<= 1;
+        return capacity;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+/**
+ * Helpers to convert Bluetooth device addresses between the textual
+ * "AA:BB:CC:DD:EE:FF" form and a 48-bit value packed into a long.
+ */
+public final class MacAddress {
+    /**
+     * Value returned when an address can not be parsed.
+     * It never collides with a valid address, as those fit in 48 bits.
+     */
+    public static final long INVALID = -1L;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private MacAddress() {
+    }
+
+    /**
+     * Pack a textual address into the lower 48 bits of a long.
+     * Does not allocate.
+     *
+     * @param address {@link String} Address in the "AA:BB:CC:DD:EE:FF" format.
+     * @return Packed address or {@link #INVALID} if the address is malformed.
+     */
+    public static long pack(String address) {
+        if (address == null || address.length() != 17) return INVALID;
+
+        long value = 0;
+        for (int i = 0; i < 17; i += 3) {
+            int high = Character.digit(address.charAt(i), 16);
+            int low = Character.digit(address.charAt(i + 1), 16);
+            if (high < 0 || low < 0) return INVALID;
+            if (i < 15 && address.charAt(i + 2) != ':') return INVALID;
+            value = (value << 8) | (high << 4) | low;
+        }
+        return value;
+    }
+
+    /**
+     * Pack six address bytes, most significant first, into a long.
+     *
+     * @param bytes  Buffer holding the address.
+     * @param offset Position of the first byte.
+     * @return Packed address.
+     */
+    public static long pack(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 6; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Convert a packed address back to the "AA:BB:CC:DD:EE:FF" format.
+     * Allocates, so keep it out of the per-advertisement path.
+     *
+     * @param value Packed address.
+     * @return {@link String}
+     */
+    public static String toString(long value) {
+        char[] chars = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int octet = (int) (value >>> (40 - (i * 8))) & 0xFF;
+            chars[i * 3] = HEX_DIGITS[octet >>> 4];
+            chars[i * 3 + 1] = HEX_DIGITS[octet & 0x0F];
+            if (i < 5) chars[i * 3 + 2] = ':';
+        }
+        return new String(chars);
+    }
+}
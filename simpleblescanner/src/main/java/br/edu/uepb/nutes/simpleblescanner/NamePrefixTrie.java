@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Trie over the UTF-8 bytes of name prefixes. Matching walks the local name
+ * bytes of an {@link AdvertisingData} directly, so it does not decode strings
+ * and costs at most one step per byte of the longest prefix, however many
+ * prefixes were added. Not thread-safe.
+ */
+final class NamePrefixTrie {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NONE = -1;
+
+    private byte[] labels;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private boolean[] terminal;
+    private int nodeCount;
+
+    /**
+     * Constructor.
+     */
+    NamePrefixTrie() {
+        labels = new byte[16];
+        firstChild = new int[16];
+        nextSibling = new int[16];
+        terminal = new boolean[16];
+        newNode((byte) 0); // Root
+    }
+
+    /**
+     * Add a prefix.
+     *
+     * @param prefix {@link String}
+     */
+    void add(String prefix) {
+        byte[] bytes = prefix.getBytes(UTF_8);
+        int node = 0;
+        for (byte label : bytes) {
+            int child = findChild(node, label);
+            if (child == NONE) {
+                child = newNode(label);
+                nextSibling[child] = firstChild[node];
+                firstChild[node] = child;
+            }
+            node = child;
+        }
+        terminal[node] = true;
+    }
+
+    /**
+     * Check if the local name of an advertisement starts with any of the prefixes.
+     *
+     * @param ad {@link AdvertisingData}
+     * @return false if the advertisement has no local name.
+     */
+    boolean matches(AdvertisingData ad) {
+        if (!ad.hasLocalName()) return false;
+        return matches(ad.getData(), ad.getLocalNameOffset(), ad.getLocalNameLength());
+    }
+
+    /**
+     * Check if the UTF-8 bytes start with any of the prefixes.
+     *
+     * @param bytes  Buffer.
+     * @param offset Position of the first byte.
+     * @param length Number of bytes.
+     * @return boolean
+     */
+    boolean matches(byte[] bytes, int offset, int length) {
+        int node = 0;
+        if (terminal[node]) return true;
+        for (int i = 0; i < length; i++) {
+            node = findChild(node, bytes[offset + i]);
+            if (node == NONE) return false;
+            if (terminal[node]) return true;
+        }
+        return false;
+    }
+
+    private int findChild(int node, byte label) {
+        int child = firstChild[node];
+        while (child != NONE && labels[child] != label) child = nextSibling[child];
+        return child;
+    }
+
+    private int newNode(byte label) {
+        if (nodeCount == labels.length) {
+            int capacity = nodeCount * 2;
+            labels = Arrays.copyOf(labels, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            terminal = Arrays.copyOf(terminal, capacity);
+        }
+        int node = nodeCount++;
+        labels[node] = label;
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        terminal[node] = false;
+        return node;
+    }
+}
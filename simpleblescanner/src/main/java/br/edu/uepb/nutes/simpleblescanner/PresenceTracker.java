@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.Arrays;
+
+/**
+ * Tracks which devices are around and reports those not seen for a timeout.
+ * <p>
+ * Deadlines live in a hashed timing wheel: an array of buckets, each one a list threaded
+ * through primitive arrays indexed by {@link DeviceTable} slot. Seeing a device again only
+ * moves its deadline, in O(1) and without touching the wheel; when its bucket comes due the
+ * device is either reported lost or moved to the bucket of its new deadline. Thousands of
+ * pending timeouts therefore cost one periodic {@link #advance()} call instead of one timer each.
+ * <p>
+ * Not thread-safe: call {@link #onSeen(long, Object)} and {@link #advance()} from the same thread.
+ *
+ * @param <T> Value kept with each device, e.g. its last scan result.
+ */
+public final class PresenceTracker<T> {
+    public interface Listener<T> {
+        /**
+         * Called from {@link #advance()} when a device was not seen for the timeout.
+         *
+         * @param mac   Packed device address, see {@link MacAddress}.
+         * @param value Value passed with the last sighting.
+         */
+        void onDeviceLost(long mac, T value);
+    }
+
+    private static final int NONE = -1;
+
+    private final long timeout;
+    private final long tick;
+    private final Listener<T> listener;
+    private final Clock clock;
+
+    private final DeviceTable devices;
+    private final int[] buckets;
+    private final int mask;
+    private int[] next;
+    private int[] linkedBuckets;
+    private long[] deadlines;
+    private Object[] values;
+    private long lastTick;
+
+    /**
+     * Constructor.
+     *
+     * @param timeout  Time in milliseconds without sightings after which a device is lost.
+     * @param tick     Resolution of the wheel in milliseconds, at most the timeout.
+     *                 Devices are reported lost up to one tick late.
+     * @param listener {@link Listener}
+     */
+    public PresenceTracker(long timeout, long tick, Listener<T> listener) {
+        this(timeout, tick, listener, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param timeout  Time in milliseconds without sightings after which a device is lost.
+     * @param tick     Resolution of the wheel in milliseconds, at most the timeout.
+     * @param listener {@link Listener}
+     * @param clock    {@link Clock} Time base of the sightings.
+     */
+    public PresenceTracker(long timeout, long tick, Listener<T> listener, Clock clock) {
+        if (tick <= 0 || timeout < tick) {
+            throw new IllegalArgumentException("Tick must be positive and not longer than the timeout");
+        }
+        if (listener == null) throw new IllegalArgumentException("Listener is null");
+
+        this.timeout = timeout;
+        this.tick = tick;
+        this.listener = listener;
+        this.clock = clock;
+        this.devices = new DeviceTable();
+
+        int wheelSize = 2;
+        while (wheelSize <= timeout / tick + 1) wheelSize <<= 1;
+        this.buckets = new int[wheelSize];
+        this.mask = wheelSize - 1;
+        this.next = new int[16];
+        this.linkedBuckets = new int[16];
+        this.deadlines = new long[16];
+        this.values = new Object[16];
+        clear();
+    }
+
+    /**
+     * Return the resolution of the wheel, how often {@link #advance()} should be called.
+     *
+     * @return Tick in milliseconds.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Record a sighting, pushing the deadline of the device back.
+     *
+     * @param mac   Packed device address.
+     * @param value Value handed back if the device is lost.
+     * @return true if the device was not present.
+     */
+    public boolean onSeen(long mac, T value) {
+        if (mac == MacAddress.INVALID) return false;
+
+        long deadline = clock.elapsedRealtime() + timeout;
+        int slot = devices.insert(mac);
+        boolean found = slot >= 0;
+        if (found) {
+            ensureCapacity(slot);
+            deadlines[slot] = deadline;
+            link(slot);
+        } else {
+            slot = -slot - 1;
+            deadlines[slot] = deadline;
+        }
+        values[slot] = value;
+        return found;
+    }
+
+    /**
+     * Check if a device is present.
+     *
+     * @param mac Packed device address.
+     * @return boolean
+     */
+    public boolean isPresent(long mac) {
+        return devices.contains(mac);
+    }
+
+    /**
+     * Return the number of present devices.
+     *
+     * @return int
+     */
+    public int size() {
+        return devices.size();
+    }
+
+    /**
+     * Report the devices whose deadline has passed. Call it every tick.
+     */
+    @SuppressWarnings("unchecked")
+    public void advance() {
+        long now = clock.elapsedRealtime();
+        long nowTick = now / tick;
+        if (nowTick <= lastTick) return;
+
+        long first = Math.max(lastTick + 1, nowTick - mask);
+        lastTick = nowTick;
+        for (long t = first; t <= nowTick; t++) {
+            int bucket = (int) (t & mask);
+            int slot = buckets[bucket];
+            buckets[bucket] = NONE;
+
+            while (slot != NONE) {
+                int following = next[slot];
+                if (deadlines[slot] > now) {
+                    link(slot);
+                } else {
+                    long mac = devices.keyAt(slot);
+                    T value = (T) values[slot];
+                    values[slot] = null;
+                    devices.remove(mac);
+                    listener.onDeviceLost(mac, value);
+                }
+                slot = following;
+            }
+        }
+    }
+
+    /**
+     * Forget a device without reporting it, e.g. when the controller reported it lost.
+     * Do not call it from the {@link Listener}.
+     *
+     * @param mac Packed device address.
+     * @return true if the device was present.
+     */
+    public boolean remove(long mac) {
+        int slot = devices.slotOf(mac);
+        if (slot == DeviceTable.NO_SLOT) return false;
+
+        unlink(slot);
+        values[slot] = null;
+        devices.remove(mac);
+        return true;
+    }
+
+    /**
+     * Forget every device without reporting them.
+     */
+    public void clear() {
+        devices.clear();
+        Arrays.fill(buckets, NONE);
+        Arrays.fill(values, null);
+        lastTick = clock.elapsedRealtime() / tick;
+    }
+
+    /**
+     * Put a slot in the bucket of its deadline, never in one already processed.
+     */
+    private void link(int slot) {
+        long deadlineTick = Math.max(deadlines[slot] / tick, lastTick + 1);
+        int bucket = (int) (deadlineTick & mask);
+        next[slot] = buckets[bucket];
+        buckets[bucket] = slot;
+        linkedBuckets[slot] = bucket;
+    }
+
+    /**
+     * Take a slot out of its bucket, walking the list, which holds few slots.
+     */
+    private void unlink(int slot) {
+        int bucket = linkedBuckets[slot];
+        if (buckets[bucket] == slot) {
+            buckets[bucket] = next[slot];
+            return;
+        }
+        for (int previous = buckets[bucket]; previous != NONE; previous = next[previous]) {
+            if (next[previous] == slot) {
+                next[previous] = next[slot];
+                return;
+            }
+        }
+    }
+
+    private void ensureCapacity(int slot) {
+        if (slot < next.length) return;
+
+        int capacity = Math.max(next.length * 2, slot + 1);
+        next = Arrays.copyOf(next, capacity);
+        linkedBuckets = Arrays.copyOf(linkedBuckets, capacity);
+        deadlines = Arrays.copyOf(deadlines, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports when iBeacons of a {@link BeaconRegion} start and stop being seen.
+ * <p>
+ * Regions are indexed rather than tested in turn: the proximity UUID of a frame is
+ * looked up in a {@link UuidHashSet}, then its major and minor in a {@link DeviceTable}
+ * keyed by the UUID ordinal, the wildcard pattern and the values. A frame therefore
+ * costs four lookups however many regions are monitored: exact major and minor, major
+ * only, minor only, and UUID only. A region is entered on its first matching frame and
+ * exited when none was seen for the exit timeout, through a {@link PresenceTracker}.
+ * <p>
+ * Exits are found by {@link #advance()}, which {@link #process(BeaconFrame)} calls. While no
+ * frame arrives, e.g. in a quiet area or when every beacon is gone, exits wait for the next
+ * frame or {@link #exitAll()} unless {@link #advance()} is also called on a timer.
+ * <p>
+ * Removed regions give their index back once they are no longer tracked, and a proximity
+ * UUID that no region uses any more is dropped from the index.
+ * <p>
+ * Not thread-safe: call it from the scan callback thread.
+ */
+public final class RegionMonitor {
+    public interface Listener {
+        /**
+         * A beacon of the region was seen while the region was not entered.
+         *
+         * @param region {@link BeaconRegion}
+         */
+        void onEnterRegion(BeaconRegion region);
+
+        /**
+         * No beacon of the region was seen for the exit timeout, or the scan ended.
+         *
+         * @param region {@link BeaconRegion}
+         */
+        void onExitRegion(BeaconRegion region);
+    }
+
+    private static final int EXACT = 0;
+    private static final int MAJOR_ONLY = 1;
+    private static final int MINOR_ONLY = 2;
+    private static final int UUID_ONLY = 3;
+    private static final int[] NO_REGIONS = new int[0];
+
+    private final Listener listener;
+    private UuidHashSet uuids = new UuidHashSet(16);
+    private int[] uuidUsers = new int[16];
+    private final DeviceTable patterns = new DeviceTable();
+    private int[][] patternRegions = new int[16][];
+    private final List<BeaconRegion> regions = new ArrayList<>();
+    private int[] freeIndexes = new int[4];
+    private int freeCount;
+    private final Map<String, Integer> regionIndexes = new HashMap<>();
+    private final PresenceTracker<BeaconRegion> presence;
+
+    /**
+     * Constructor.
+     *
+     * @param exitTimeout Time in milliseconds without a matching frame before a region is exited.
+     * @param listener    {@link Listener}
+     */
+    public RegionMonitor(long exitTimeout, Listener listener) {
+        this(exitTimeout, listener, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param exitTimeout Time in milliseconds without a matching frame before a region is exited.
+     * @param listener    {@link Listener}
+     * @param clock       {@link Clock} Time base of the exit timeout.
+     */
+    public RegionMonitor(long exitTimeout, Listener listener, Clock clock) {
+        if (listener == null) throw new IllegalArgumentException("Listener is null");
+        this.listener = listener;
+        this.presence = new PresenceTracker<>(exitTimeout, Math.max(1, exitTimeout / 8),
+                new PresenceTracker.Listener<BeaconRegion>() {
+                    @Override
+                    public void onDeviceLost(long index, BeaconRegion region) {
+                        // Removed regions are forgotten without an exit, and their index is free again.
+                        if (regions.get((int) index) == region) {
+                            RegionMonitor.this.listener.onExitRegion(region);
+                        } else {
+                            release((int) index);
+                        }
+                    }
+                }, clock);
+    }
+
+    /**
+     * Start monitoring a region.
+     *
+     * @param region {@link BeaconRegion}
+     * @throws IllegalArgumentException If a region with the same identifier is monitored.
+     */
+    public void addRegion(BeaconRegion region) {
+        if (regionIndexes.containsKey(region.getIdentifier())) {
+            throw new IllegalArgumentException("Region already monitored: " + region.getIdentifier());
+        }
+        int index;
+        if (freeCount > 0) {
+            index = freeIndexes[--freeCount];
+            regions.set(index, region);
+        } else {
+            index = regions.size();
+            regions.add(region);
+        }
+        regionIndexes.put(region.getIdentifier(), index);
+        index(index, region);
+    }
+
+    /**
+     * Stop monitoring a region, without reporting an exit.
+     *
+     * @param identifier {@link String}
+     * @return false if the region was not monitored.
+     */
+    public boolean removeRegion(String identifier) {
+        Integer index = regionIndexes.remove(identifier);
+        if (index == null) return false;
+
+        BeaconRegion region = regions.set(index, null);
+        // A region still tracked cannot give its index to a new one before it would have exited.
+        if (!presence.isPresent(index)) release(index);
+
+        int ordinal = uuids.ordinalOf(region.getUuid().getMostSignificantBits(),
+                region.getUuid().getLeastSignificantBits());
+        if (--uuidUsers[ordinal] == 0) {
+            // The UUID set cannot drop one UUID: index the remaining regions again.
+            reindex();
+            return true;
+        }
+        long key = patternKey(ordinal, region.getMajor(), region.getMinor());
+        int slot = patterns.slotOf(key);
+        int[] matching = patternRegions[slot];
+        if (matching.length == 1) {
+            patterns.remove(key);
+            patternRegions[slot] = null;
+            return true;
+        }
+        int[] remaining = new int[matching.length - 1];
+        for (int i = 0, j = 0; i < matching.length; i++) {
+            if (matching[i] != index) remaining[j++] = matching[i];
+        }
+        patternRegions[slot] = remaining;
+        return true;
+    }
+
+    /**
+     * Return the number of monitored regions.
+     *
+     * @return int
+     */
+    public int getRegionCount() {
+        return regionIndexes.size();
+    }
+
+    /**
+     * Return the number of proximity UUIDs of the monitored regions.
+     *
+     * @return int
+     */
+    public int getUuidCount() {
+        return uuids.size();
+    }
+
+    /**
+     * Check if a region is entered.
+     *
+     * @param identifier {@link String}
+     * @return boolean
+     */
+    public boolean isInside(String identifier) {
+        Integer index = regionIndexes.get(identifier);
+        return index != null && presence.isPresent(index);
+    }
+
+    /**
+     * Match a frame against the regions, reporting the regions entered, then exits due.
+     *
+     * @param frame {@link BeaconFrame}
+     * @return Number of regions matching the frame.
+     */
+    public int process(BeaconFrame frame) {
+        int matched = 0;
+        if (frame.getType() == BeaconFrame.TYPE_IBEACON) {
+            int ordinal = uuids.ordinalOf(frame.getIdMostSignificantBits(), frame.getIdLeastSignificantBits());
+            if (ordinal >= 0) {
+                int major = frame.getMajor();
+                int minor = frame.getMinor();
+                matched = match(patternKey(ordinal, major, minor))
+                        + match(patternKey(ordinal, major, BeaconRegion.ANY))
+                        + match(patternKey(ordinal, BeaconRegion.ANY, minor))
+                        + match(patternKey(ordinal, BeaconRegion.ANY, BeaconRegion.ANY));
+            }
+        }
+        presence.advance();
+        return matched;
+    }
+
+    /**
+     * Report the exits due. Called by {@link #process(BeaconFrame)}; call it on a timer,
+     * every exit timeout / 8, for exits to be reported while no frame arrives.
+     */
+    public void advance() {
+        presence.advance();
+    }
+
+    /**
+     * Exit every entered region, e.g. when the scan stops.
+     */
+    public void exitAll() {
+        for (int index = 0, size = regions.size(); index < size; index++) {
+            if (!presence.isPresent(index)) continue;
+
+            BeaconRegion region = regions.get(index);
+            if (region != null) {
+                listener.onExitRegion(region);
+            } else {
+                release(index);
+            }
+        }
+        presence.clear();
+    }
+
+    /**
+     * Add a region to the UUID set and the pattern table.
+     */
+    private void index(int index, BeaconRegion region) {
+        uuids.add(region.getUuid());
+        int ordinal = uuids.ordinalOf(region.getUuid().getMostSignificantBits(),
+                region.getUuid().getLeastSignificantBits());
+        if (ordinal >= uuidUsers.length) uuidUsers = Arrays.copyOf(uuidUsers, uuidUsers.length * 2);
+        uuidUsers[ordinal]++;
+
+        int slot = patterns.insert(patternKey(ordinal, region.getMajor(), region.getMinor()));
+        if (slot < 0) {
+            slot = -slot - 1;
+        } else if (slot >= patternRegions.length) {
+            patternRegions = Arrays.copyOf(patternRegions, Math.max(patternRegions.length * 2, slot + 1));
+        }
+        int[] matching = patternRegions[slot] == null ? NO_REGIONS : patternRegions[slot];
+        matching = Arrays.copyOf(matching, matching.length + 1);
+        matching[matching.length - 1] = index;
+        patternRegions[slot] = matching;
+    }
+
+    /**
+     * Rebuild the UUID set and the pattern table from the monitored regions.
+     */
+    private void reindex() {
+        uuids = new UuidHashSet(16);
+        Arrays.fill(uuidUsers, 0);
+        patterns.clear();
+        Arrays.fill(patternRegions, null);
+        for (int index = 0, size = regions.size(); index < size; index++) {
+            BeaconRegion region = regions.get(index);
+            if (region != null) index(index, region);
+        }
+    }
+
+    private void release(int index) {
+        if (freeCount == freeIndexes.length) freeIndexes = Arrays.copyOf(freeIndexes, freeCount * 2);
+        freeIndexes[freeCount++] = index;
+    }
+
+    private int match(long key) {
+        int slot = patterns.slotOf(key);
+        if (slot == DeviceTable.NO_SLOT) return 0;
+
+        int[] matching = patternRegions[slot];
+        for (int index : matching) {
+            BeaconRegion region = regions.get(index);
+            if (presence.onSeen(index, region)) listener.onEnterRegion(region);
+        }
+        return matching.length;
+    }
+
+    /**
+     * Key of a UUID ordinal, wildcard pattern and values, never {@link MacAddress#INVALID}.
+     */
+    private static long patternKey(int ordinal, int major, int minor) {
+        int pattern;
+        if (major == BeaconRegion.ANY) {
+            pattern = minor == BeaconRegion.ANY ? UUID_ONLY : MINOR_ONLY;
+        } else {
+            pattern = minor == BeaconRegion.ANY ? MAJOR_ONLY : EXACT;
+        }
+        return (long) ordinal << 34 | (long) pattern << 32 | (long) (major & 0xFFFF) << 16 | (minor & 0xFFFF);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link ScanSource} replaying an {@link AdvertisementTrace} on its own thread, to
+ * drive filters, deduplication and callbacks off-device or under a known load.
+ * <p>
+ * Advertisements are paced at a fixed rate: every millisecond the source delivers
+ * the ones due since the start, so the rate holds on average even when a callback
+ * stalls. With a rate of 0 the trace is delivered as fast as the callback consumes it.
+ * Timestamps are taken from the trace, shifted by the trace duration on every loop so
+ * they keep increasing.
+ */
+public final class ReplayScanSource implements ScanSource {
+    /**
+     * Highest supported rate, in advertisements per second.
+     */
+    public static final int MAX_RATE = 100000;
+
+    private static final long TICK_NANOS = 1000000L;
+
+    private final AdvertisementTrace trace;
+    private volatile int rate;
+    private volatile int loops = 1;
+    private volatile boolean running;
+    private volatile long delivered;
+    private Thread thread;
+
+    /**
+     * Constructor.
+     *
+     * @param trace {@link AdvertisementTrace}
+     */
+    public ReplayScanSource(AdvertisementTrace trace) {
+        if (trace == null) throw new IllegalArgumentException("Trace is required");
+        this.trace = trace;
+    }
+
+    /**
+     * Set the delivery rate, applied on the next start.
+     *
+     * @param advertisementsPerSecond Up to {@link #MAX_RATE}, 0 to deliver unpaced.
+     * @return {@link ReplayScanSource}
+     */
+    public ReplayScanSource setRate(int advertisementsPerSecond) {
+        if (advertisementsPerSecond < 0 || advertisementsPerSecond > MAX_RATE) {
+            throw new IllegalArgumentException("Rate must be between 0 and " + MAX_RATE);
+        }
+        this.rate = advertisementsPerSecond;
+        return this;
+    }
+
+    /**
+     * Set how many times the trace is replayed, applied on the next start.
+     *
+     * @param loops Number of passes, 0 to loop until stopped.
+     * @return {@link ReplayScanSource}
+     */
+    public ReplayScanSource setLoops(int loops) {
+        if (loops < 0) throw new IllegalArgumentException("Loops must not be negative");
+        this.loops = loops;
+        return this;
+    }
+
+    /**
+     * Return the number of advertisements delivered since the last start.
+     *
+     * @return long
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    @Override
+    public synchronized void start(final Sink sink) {
+        if (running) throw new IllegalStateException("Replay already started");
+
+        running = true;
+        delivered = 0;
+        final int rate = this.rate;
+        final int loops = this.loops;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (replay(sink, rate, loops)) {
+                    running = false;
+                    sink.onEnd();
+                }
+            }
+        }, "ReplayScanSource");
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = this.thread;
+            this.thread = null;
+        }
+        // Stopped from a callback, the replay loop checks the flag before the next delivery.
+        if (thread == null || thread == Thread.currentThread()) return;
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Deliver the trace.
+     *
+     * @return true if the trace ran out, false if stopped.
+     */
+    private boolean replay(Sink sink, int rate, int loops) {
+        int size = trace.size();
+        if (size == 0) return running;
+
+        long loopOffset = trace.getDurationNanos() + 1;
+        long start = System.nanoTime();
+        long count = 0;
+        int index = 0;
+        int loop = 0;
+        while (running) {
+            long due = Long.MAX_VALUE;
+            if (rate > 0) {
+                due = (System.nanoTime() - start) / 1000 * rate / 1000000;
+                if (count >= due) {
+                    LockSupport.parkNanos(TICK_NANOS);
+                    continue;
+                }
+            }
+            while (count < due && running) {
+                sink.onAdvertisement(trace.getMac(index), trace.getRssi(index), trace.getPayload(index),
+                        trace.getTimestampNanos(index) + loop * loopOffset);
+                delivered = ++count;
+                if (++index == size) {
+                    index = 0;
+                    if (++loop == loops) return running;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.Arrays;
+
+/**
+ * Per-device RSSI smoothing and distance estimation.
+ * <p>
+ * Every device gets a slot in a {@link DeviceTable} and its filter state lives in
+ * primitive arrays indexed by that slot, so a sample costs a hash probe and a few
+ * arithmetic operations without allocating. Two filters are available: a 1-D Kalman
+ * filter with a constant signal model ({@link #kalman(float, float)}) and an
+ * exponential moving average ({@link #ema(float)}).
+ * <p>
+ * Distances use the log-distance path loss model against the power measured at 1 meter,
+ * e.g. the calibrated power of an iBeacon, or the advertised TX power level minus
+ * {@link #TX_POWER_TO_ONE_METER_LOSS}.
+ * <p>
+ * The scanner updates the tracker from its thread; read it from any thread, e.g. a
+ * callback executor. Every method locks the tracker, which costs little uncontended.
+ */
+public final class RssiTracker {
+    public static final int PROXIMITY_UNKNOWN = 0;
+    public static final int PROXIMITY_IMMEDIATE = 1;
+    public static final int PROXIMITY_NEAR = 2;
+    public static final int PROXIMITY_FAR = 3;
+
+    /**
+     * Free space loss between 0 and 1 meter at 2.4 GHz, in dB.
+     */
+    public static final int TX_POWER_TO_ONE_METER_LOSS = 41;
+
+    private static final double IMMEDIATE_DISTANCE = 0.5;
+    private static final double NEAR_DISTANCE = 3.0;
+
+    private final boolean kalman;
+    private final float alpha;
+    private final float processNoise;
+    private final float measurementNoise;
+    private double pathLossExponent = 2.0;
+
+    private final DeviceTable devices;
+    private float[] estimates;
+    private float[] covariances;
+    private int[] samples;
+
+    private RssiTracker(boolean kalman, float alpha, float processNoise, float measurementNoise) {
+        this.kalman = kalman;
+        this.alpha = alpha;
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+        this.devices = new DeviceTable();
+        this.estimates = new float[16];
+        this.covariances = new float[16];
+        this.samples = new int[16];
+    }
+
+    /**
+     * Create a tracker smoothing with a 1-D Kalman filter.
+     *
+     * @param processNoise     {@link Float} How fast the real signal is expected to drift,
+     *                         e.g. 0.01 for a still device.
+     * @param measurementNoise {@link Float} Variance of a single reading, e.g. 4 to 16.
+     * @return {@link RssiTracker}
+     */
+    public static RssiTracker kalman(float processNoise, float measurementNoise) {
+        if (processNoise <= 0 || measurementNoise <= 0) {
+            throw new IllegalArgumentException("Noise must be positive");
+        }
+        return new RssiTracker(true, 0, processNoise, measurementNoise);
+    }
+
+    /**
+     * Create a tracker smoothing with an exponential moving average.
+     *
+     * @param alpha {@link Float} Weight of a new reading, between 0 and 1.
+     * @return {@link RssiTracker}
+     */
+    public static RssiTracker ema(float alpha) {
+        if (alpha <= 0 || alpha > 1) throw new IllegalArgumentException("Alpha must be in (0, 1]");
+        return new RssiTracker(false, alpha, 0, 0);
+    }
+
+    /**
+     * Set the path loss exponent of the environment, 2 in free space
+     * and usually between 2.5 and 4 indoors.
+     *
+     * @param exponent {@link Double}
+     * @return {@link RssiTracker}
+     */
+    public synchronized RssiTracker setPathLossExponent(double exponent) {
+        if (exponent <= 0) throw new IllegalArgumentException("Exponent must be positive");
+        this.pathLossExponent = exponent;
+        return this;
+    }
+
+    /**
+     * Add a reading.
+     *
+     * @param mac  Packed device address, see {@link MacAddress}.
+     * @param rssi RSSI in dBm.
+     * @return Slot of the device, or {@link DeviceTable#NO_SLOT} for an invalid address.
+     */
+    public synchronized int update(long mac, int rssi) {
+        if (mac == MacAddress.INVALID) return DeviceTable.NO_SLOT;
+
+        int slot = devices.insert(mac);
+        if (slot >= 0) {
+            ensureCapacity(slot);
+            samples[slot] = 0;
+        } else {
+            slot = -slot - 1;
+        }
+
+        if (samples[slot] == 0) {
+            estimates[slot] = rssi;
+            covariances[slot] = measurementNoise;
+        } else if (kalman) {
+            float covariance = covariances[slot] + processNoise;
+            float gain = covariance / (covariance + measurementNoise);
+            estimates[slot] += gain * (rssi - estimates[slot]);
+            covariances[slot] = (1 - gain) * covariance;
+        } else {
+            estimates[slot] += alpha * (rssi - estimates[slot]);
+        }
+        samples[slot]++;
+        return slot;
+    }
+
+    /**
+     * Return the slot of a device.
+     *
+     * @param mac Packed device address.
+     * @return Slot or {@link DeviceTable#NO_SLOT}.
+     */
+    public synchronized int slotOf(long mac) {
+        return devices.slotOf(mac);
+    }
+
+    /**
+     * Return the smoothed RSSI of a device.
+     *
+     * @param mac Packed device address.
+     * @return RSSI in dBm or {@link Float#NaN} if the device is unknown.
+     */
+    public synchronized float getSmoothedRssi(long mac) {
+        int slot = devices.slotOf(mac);
+        return slot == DeviceTable.NO_SLOT ? Float.NaN : estimates[slot];
+    }
+
+    /**
+     * Return the number of readings of a device.
+     *
+     * @param mac Packed device address.
+     * @return int
+     */
+    public synchronized int getSampleCount(long mac) {
+        int slot = devices.slotOf(mac);
+        return slot == DeviceTable.NO_SLOT ? 0 : samples[slot];
+    }
+
+    /**
+     * Estimate the distance to a device from its smoothed RSSI.
+     *
+     * @param mac           Packed device address.
+     * @param measuredPower RSSI expected at 1 meter, in dBm.
+     * @return Distance in meters or {@link Double#NaN} if the device is unknown.
+     */
+    public synchronized double getDistance(long mac, int measuredPower) {
+        float rssi = getSmoothedRssi(mac);
+        if (Float.isNaN(rssi)) return Double.NaN;
+        return Math.pow(10.0, (measuredPower - rssi) / (10.0 * pathLossExponent));
+    }
+
+    /**
+     * Classify the distance to a device.
+     *
+     * @param mac           Packed device address.
+     * @param measuredPower RSSI expected at 1 meter, in dBm.
+     * @return One of the PROXIMITY_* constants.
+     */
+    public int getProximity(long mac, int measuredPower) {
+        double distance = getDistance(mac, measuredPower);
+        if (Double.isNaN(distance)) return PROXIMITY_UNKNOWN;
+        if (distance < IMMEDIATE_DISTANCE) return PROXIMITY_IMMEDIATE;
+        if (distance < NEAR_DISTANCE) return PROXIMITY_NEAR;
+        return PROXIMITY_FAR;
+    }
+
+    /**
+     * Forget a device.
+     *
+     * @param mac Packed device address.
+     */
+    public synchronized void remove(long mac) {
+        devices.remove(mac);
+    }
+
+    /**
+     * Forget every device.
+     */
+    public synchronized void clear() {
+        devices.clear();
+    }
+
+    private void ensureCapacity(int slot) {
+        if (slot < estimates.length) return;
+
+        int capacity = Math.max(estimates.length * 2, slot + 1);
+        estimates = Arrays.copyOf(estimates, capacity);
+        covariances = Arrays.copyOf(covariances, capacity);
+        samples = Arrays.copyOf(samples, capacity);
+    }
+}
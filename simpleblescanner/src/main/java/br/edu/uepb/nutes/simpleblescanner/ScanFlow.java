@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Interfaces and operators for demand-driven delivery of scan results, shaped after
+ * {@code java.util.concurrent.Flow}, which needs API 30.
+ * <p>
+ * A {@link Subscriber} receives no more items than it requested through its
+ * {@link Subscription}. What happens to the items a slow subscriber did not ask for
+ * yet is set by the {@link Overflow} of the {@link ScanPublisher} buffering them.
+ * The operators filter or group items on the delivery thread and keep the demand
+ * upstream in line with the demand downstream.
+ */
+public final class ScanFlow {
+    private ScanFlow() {
+    }
+
+    public interface Publisher<T> {
+        /**
+         * Add a subscriber, which first receives its {@link Subscription} in
+         * {@link Subscriber#onSubscribe(Subscription)}.
+         *
+         * @param subscriber {@link Subscriber}
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+        /**
+         * Called once, before any other method. No item is delivered until
+         * {@link Subscription#request(long)} is called.
+         *
+         * @param subscription {@link Subscription}
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Receive an item that was requested.
+         *
+         * @param item Item.
+         */
+        void onNext(T item);
+
+        /**
+         * Terminal failure, no other method is called afterwards.
+         *
+         * @param throwable {@link Throwable}, a {@link ScanFailedException} when the scan could not start.
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Terminal completion, no other method is called afterwards.
+         */
+        void onComplete();
+    }
+
+    public interface Subscription {
+        /**
+         * Ask for more items. Requests add up.
+         *
+         * @param n Number of items, positive.
+         */
+        void request(long n);
+
+        /**
+         * Stop receiving items. Buffered items are dropped.
+         */
+        void cancel();
+    }
+
+    /**
+     * Key identifying the device an item comes from, see {@link MacAddress}.
+     *
+     * @param <T> Item type.
+     */
+    public interface DeviceKey<T> {
+        long keyOf(T item);
+    }
+
+    /**
+     * Delivered through {@link Subscriber#onError(Throwable)} when the scan could not start.
+     */
+    public static final class ScanFailedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int errorCode;
+
+        public ScanFailedException(int errorCode) {
+            super("Scan failed with error " + errorCode);
+            this.errorCode = errorCode;
+        }
+
+        /**
+         * Return the error code.
+         *
+         * @return One of the SCAN_FAILED_* constants of {@link SimpleScannerCallback}.
+         */
+        public int getErrorCode() {
+            return errorCode;
+        }
+    }
+
+    /**
+     * What a {@link ScanPublisher} keeps of the items its subscriber did not request yet.
+     */
+    public static final class Overflow {
+        static final int LATEST_PER_DEVICE = 0;
+        static final int DROP_OLDEST = 1;
+        static final int SAMPLE = 2;
+
+        final int strategy;
+        final int capacity;
+        final long interval;
+
+        private Overflow(int strategy, int capacity, long interval) {
+            this.strategy = strategy;
+            this.capacity = capacity;
+            this.interval = interval;
+        }
+
+        /**
+         * Keep the latest item of every device, in the order devices were first buffered.
+         * A device already buffered is updated in place; past the capacity the device
+         * buffered the longest is dropped.
+         *
+         * @param capacity Maximum number of devices buffered.
+         * @return {@link Overflow}
+         */
+        public static Overflow latestPerDevice(int capacity) {
+            if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+            return new Overflow(LATEST_PER_DEVICE, capacity, 0);
+        }
+
+        /**
+         * Keep the latest items, dropping the oldest past the capacity.
+         *
+         * @param capacity Maximum number of items buffered.
+         * @return {@link Overflow}
+         */
+        public static Overflow dropOldest(int capacity) {
+            if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+            return new Overflow(DROP_OLDEST, capacity, 0);
+        }
+
+        /**
+         * Keep only the latest item and deliver at most one item per interval.
+         *
+         * @param intervalMillis Interval in milliseconds.
+         * @return {@link Overflow}
+         */
+        public static Overflow sample(long intervalMillis) {
+            if (intervalMillis < 1) throw new IllegalArgumentException("Interval must be positive");
+            return new Overflow(SAMPLE, 1, intervalMillis);
+        }
+    }
+
+    /**
+     * Pass only the first item of every device.
+     *
+     * @param source {@link Publisher}
+     * @param key    {@link DeviceKey}
+     * @param <T>    Item type.
+     * @return {@link Publisher}
+     */
+    public static <T> Publisher<T> distinctByDevice(final Publisher<T> source, final DeviceKey<? super T> key) {
+        return new Publisher<T>() {
+            @Override
+            public void subscribe(Subscriber<? super T> subscriber) {
+                source.subscribe(new Operator<T, T>(subscriber) {
+                    private final DeviceTable devices = new DeviceTable();
+
+                    @Override
+                    public void onNext(T item) {
+                        if (devices.insert(key.keyOf(item)) >= 0) {
+                            downstream.onNext(item);
+                        } else {
+                            upstream.request(1);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Pass an item only if the interval elapsed since the last item passed.
+     *
+     * @param source         {@link Publisher}
+     * @param intervalMillis Interval in milliseconds.
+     * @param <T>            Item type.
+     * @return {@link Publisher}
+     */
+    public static <T> Publisher<T> throttle(Publisher<T> source, long intervalMillis) {
+        return throttle(source, intervalMillis, Clock.SYSTEM);
+    }
+
+    /**
+     * Pass an item only if the interval elapsed since the last item passed.
+     *
+     * @param source         {@link Publisher}
+     * @param intervalMillis Interval in milliseconds.
+     * @param clock          {@link Clock} Time base of the interval.
+     * @param <T>            Item type.
+     * @return {@link Publisher}
+     */
+    public static <T> Publisher<T> throttle(final Publisher<T> source, final long intervalMillis, final Clock clock) {
+        if (intervalMillis < 1) throw new IllegalArgumentException("Interval must be positive");
+        return new Publisher<T>() {
+            @Override
+            public void subscribe(Subscriber<? super T> subscriber) {
+                source.subscribe(new Operator<T, T>(subscriber) {
+                    private boolean passed;
+                    private long lastPassed;
+
+                    @Override
+                    public void onNext(T item) {
+                        long now = clock.elapsedRealtime();
+                        if (!passed || now - lastPassed >= intervalMillis) {
+                            passed = true;
+                            lastPassed = now;
+                            downstream.onNext(item);
+                        } else {
+                            upstream.request(1);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Group items into lists of a fixed size. On completion the last, partial window
+     * is delivered if not empty. Every window is a new list owned by the subscriber.
+     *
+     * @param source {@link Publisher}
+     * @param size   Number of items per window.
+     * @param <T>    Item type.
+     * @return {@link Publisher}
+     */
+    public static <T> Publisher<List<T>> window(final Publisher<T> source, final int size) {
+        if (size < 1) throw new IllegalArgumentException("Size must be positive");
+        return new Publisher<List<T>>() {
+            @Override
+            public void subscribe(Subscriber<? super List<T>> subscriber) {
+                source.subscribe(new Operator<T, List<T>>(subscriber) {
+                    private List<T> window = new ArrayList<>(size);
+
+                    @Override
+                    public void request(long n) {
+                        if (n <= 0) {
+                            super.request(n);
+                            return;
+                        }
+                        super.request(n > Long.MAX_VALUE / size ? Long.MAX_VALUE : n * size);
+                    }
+
+                    @Override
+                    public void onNext(T item) {
+                        window.add(item);
+                        if (window.size() == size) {
+                            List<T> full = window;
+                            window = new ArrayList<>(size);
+                            downstream.onNext(full);
+                        }
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        if (!window.isEmpty()) {
+                            List<T> last = window;
+                            window = null;
+                            downstream.onNext(last);
+                        }
+                        super.onComplete();
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Single subscriber stage forwarding demand and signals, with items passed as they
+     * are unless {@link #onNext(Object)} is overridden.
+     */
+    abstract static class Operator<T, R> implements Subscriber<T>, Subscription {
+        final Subscriber<? super R> downstream;
+        Subscription upstream;
+
+        Operator(Subscriber<? super R> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            downstream.onComplete();
+        }
+
+        @Override
+        public void request(long n) {
+            upstream.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            upstream.cancel();
+        }
+    }
+}
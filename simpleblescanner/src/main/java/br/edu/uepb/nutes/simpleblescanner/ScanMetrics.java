@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.Arrays;
+
+/**
+ * Throughput and health counters of a {@link SimpleBleScanner}.
+ * <p>
+ * The scanner updates striped counters and a {@link LatencyHistogram} of the time spent in
+ * the callbacks; {@link #snapshot()} reads them into an immutable {@link Snapshot}, from any
+ * thread. Rates are computed against the time of the last {@link #reset()}, or between two
+ * snapshots with {@link Snapshot#getRate(int, Snapshot)}.
+ * <p>
+ * Hits are counted per software filter, in the order they were added to the builder.
+ * Hardware filters cannot be told apart, as the controller does not report which one matched.
+ * Use one instance per scanner.
+ */
+public class ScanMetrics {
+    /**
+     * Results received from the controller, before any filtering.
+     */
+    public static final int ADVERTISEMENTS = 0;
+
+    /**
+     * Results handed to the {@link SimpleScannerCallback}, lost devices included.
+     */
+    public static final int DELIVERED = 1;
+
+    /**
+     * Results rejected by the software filters.
+     */
+    public static final int FILTERED = 2;
+
+    /**
+     * Results suppressed by deduplication.
+     */
+    public static final int DUPLICATES = 3;
+
+    /**
+     * Results received after the scan was stopped.
+     */
+    public static final int DROPPED = 4;
+
+    /**
+     * Devices seen for the first time in a scan, or again after being lost.
+     */
+    public static final int DEVICES_DISCOVERED = 5;
+
+    /**
+     * Devices reported lost, by the controller or the lost timeout.
+     */
+    public static final int DEVICES_LOST = 6;
+
+    /**
+     * Times the radio was started, restarts included.
+     */
+    public static final int SCAN_STARTS = 7;
+
+    /**
+     * Radio restarts within a scan, by duty cycling or filter updates.
+     */
+    public static final int SCAN_RESTARTS = 8;
+
+    /**
+     * Starts postponed to stay under the platform start rate limit.
+     */
+    public static final int STARTS_DELAYED = 9;
+
+    /**
+     * Scan failures, whatever the code.
+     */
+    public static final int FAILURES = 10;
+
+    private static final int COUNTER_COUNT = 11;
+    private static final String[] COUNTER_NAMES = {"advertisements", "delivered", "filtered",
+            "duplicates", "dropped", "devices_discovered", "devices_lost", "scan_starts",
+            "scan_restarts", "starts_delayed", "failures"};
+
+    /**
+     * Highest SCAN_FAILED_* code counted on its own, other codes are counted as 0.
+     */
+    public static final int MAX_FAILURE_CODE = 7;
+
+    private final Clock clock;
+    private final StripedCounters counters = new StripedCounters(COUNTER_COUNT + MAX_FAILURE_CODE + 1);
+    private final LatencyHistogram dispatchTime = new LatencyHistogram();
+    private volatile StripedCounters filterHits = new StripedCounters(0);
+    private volatile int activeDevices;
+    private volatile long resetTime;
+
+    public ScanMetrics() {
+        this(Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param clock {@link Clock} Time base of the rates.
+     */
+    public ScanMetrics(Clock clock) {
+        this.clock = clock;
+        this.resetTime = clock.elapsedRealtime();
+    }
+
+    void increment(int counter) {
+        counters.increment(counter);
+    }
+
+    void add(int counter, long delta) {
+        counters.add(counter, delta);
+    }
+
+    void onScanFailed(int errorCode) {
+        counters.increment(FAILURES);
+        int code = errorCode > 0 && errorCode <= MAX_FAILURE_CODE ? errorCode : 0;
+        counters.increment(COUNTER_COUNT + code);
+    }
+
+    void onFilterHit(int filter) {
+        filterHits.increment(filter);
+    }
+
+    /**
+     * Size the per-filter hit counters, done once by the scanner.
+     */
+    void setFilterCount(int count) {
+        filterHits = new StripedCounters(count);
+    }
+
+    void setActiveDevices(int count) {
+        activeDevices = count;
+    }
+
+    /**
+     * Record the time spent in one call of the scanner callback.
+     */
+    void recordDispatch(long nanos) {
+        dispatchTime.record(nanos);
+    }
+
+    /**
+     * Time spent in the {@link SimpleScannerCallback} methods, per call.
+     *
+     * @return {@link LatencyHistogram}
+     */
+    public LatencyHistogram getDispatchTime() {
+        return dispatchTime;
+    }
+
+    /**
+     * Read all counters.
+     *
+     * @return {@link Snapshot}
+     */
+    public Snapshot snapshot() {
+        long[] values = new long[COUNTER_COUNT + MAX_FAILURE_CODE + 1];
+        for (int i = 0; i < values.length; i++) values[i] = counters.sum(i);
+        StripedCounters hits = filterHits;
+        long[] filterValues = new long[hits.size()];
+        for (int i = 0; i < filterValues.length; i++) filterValues[i] = hits.sum(i);
+        long now = clock.elapsedRealtime();
+        return new Snapshot(values, filterValues, activeDevices, now, now - resetTime,
+                dispatchTime.getValueAtPercentile(50), dispatchTime.getValueAtPercentile(99),
+                dispatchTime.getValueAtPercentile(99.9));
+    }
+
+    /**
+     * Zero every counter and restart the rate period.
+     */
+    public void reset() {
+        counters.reset();
+        filterHits.reset();
+        dispatchTime.reset();
+        resetTime = clock.elapsedRealtime();
+    }
+
+    public static final class Snapshot {
+        private final long[] counters;
+        private final long[] filterHits;
+        private final int activeDevices;
+        private final long time;
+        private final long elapsed;
+        private final long dispatchP50;
+        private final long dispatchP99;
+        private final long dispatchP999;
+
+        Snapshot(long[] counters, long[] filterHits, int activeDevices, long time, long elapsed,
+                 long dispatchP50, long dispatchP99, long dispatchP999) {
+            this.counters = counters;
+            this.filterHits = filterHits;
+            this.activeDevices = activeDevices;
+            this.time = time;
+            this.elapsed = elapsed;
+            this.dispatchP50 = dispatchP50;
+            this.dispatchP99 = dispatchP99;
+            this.dispatchP999 = dispatchP999;
+        }
+
+        /**
+         * @param counter One of the counter constants, e.g. {@link #ADVERTISEMENTS}.
+         * @return long
+         */
+        public long getCount(int counter) {
+            if (counter < 0 || counter >= COUNTER_COUNT) throw new IllegalArgumentException("Unknown counter");
+            return counters[counter];
+        }
+
+        /**
+         * @param errorCode One of SCAN_FAILED_*, or 0 for codes above {@link #MAX_FAILURE_CODE}.
+         * @return Failures with that code.
+         */
+        public long getFailures(int errorCode) {
+            if (errorCode < 0 || errorCode > MAX_FAILURE_CODE) return 0;
+            return counters[COUNTER_COUNT + errorCode];
+        }
+
+        public int getFilterCount() {
+            return filterHits.length;
+        }
+
+        /**
+         * @param filter Index of the software filter, in the order they were added.
+         * @return Results that matched it.
+         */
+        public long getFilterHits(int filter) {
+            return filterHits[filter];
+        }
+
+        /**
+         * Devices currently tracked by the scan, discovered and not lost.
+         *
+         * @return int
+         */
+        public int getActiveDevices() {
+            return activeDevices;
+        }
+
+        /**
+         * Milliseconds since the metrics were created or reset.
+         *
+         * @return long
+         */
+        public long getElapsedMillis() {
+            return elapsed;
+        }
+
+        /**
+         * Average rate per second since the metrics were created or reset,
+         * e.g. advertisements per second.
+         *
+         * @param counter One of the counter constants.
+         * @return double
+         */
+        public double getRate(int counter) {
+            return elapsed <= 0 ? 0 : getCount(counter) * 1000.0 / elapsed;
+        }
+
+        /**
+         * Rate per second between an earlier snapshot and this one.
+         *
+         * @param counter  One of the counter constants.
+         * @param previous Earlier {@link Snapshot} of the same metrics.
+         * @return double
+         */
+        public double getRate(int counter, Snapshot previous) {
+            long interval = time - previous.time;
+            return interval <= 0 ? 0 : (getCount(counter) - previous.getCount(counter)) * 1000.0 / interval;
+        }
+
+        public long getDispatchP50() {
+            return dispatchP50;
+        }
+
+        public long getDispatchP99() {
+            return dispatchP99;
+        }
+
+        public long getDispatchP999() {
+            return dispatchP999;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("ScanMetrics{");
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                builder.append(COUNTER_NAMES[i]).append('=').append(counters[i]).append(", ");
+            }
+            builder.append("failures_by_code=")
+                    .append(Arrays.toString(Arrays.copyOfRange(counters, COUNTER_COUNT, counters.length)))
+                    .append(", filter_hits=").append(Arrays.toString(filterHits))
+                    .append(", active_devices=").append(activeDevices)
+                    .append(", adv_per_second=").append(getRate(ADVERTISEMENTS))
+                    .append(", dispatch_p50_ns=").append(dispatchP50)
+                    .append(", dispatch_p99_ns=").append(dispatchP99)
+                    .append(", dispatch_p999_ns=").append(dispatchP999)
+                    .append('}');
+            return builder.toString();
+        }
+    }
+}
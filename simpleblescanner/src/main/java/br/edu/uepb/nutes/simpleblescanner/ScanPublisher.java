@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ScanFlow.Publisher} buffering items offered by a producer, usually the scan
+ * callback, until its subscriber requests them.
+ * <p>
+ * {@link #offer(Object)} only takes a lock and stores the item, so the producer never
+ * waits for the subscriber. Items are delivered on an {@link Executor} by a single
+ * drain task at a time, never more than requested; the buffer is bounded and
+ * overflows as set by its {@link ScanFlow.Overflow}.
+ * <p>
+ * A publisher accepts a single subscriber, once. {@link #onStart()} and
+ * {@link #onCancel()} let subclasses start and stop the producer with the subscription.
+ *
+ * @param <T> Item type.
+ */
+public class ScanPublisher<T> implements ScanFlow.Publisher<T> {
+    private static ScheduledExecutorService timer;
+
+    private final Executor executor;
+    private final ScanFlow.Overflow overflow;
+    private final ScanFlow.DeviceKey<? super T> key;
+    private final Clock clock;
+
+    // Ring of items, or of device keys with the items stored by device slot.
+    private Object[] items;
+    private long[] keys;
+    private DeviceTable devices;
+    private int head;
+    private int count;
+    private long dropped;
+    private long lastSample;
+    private boolean sampled;
+
+    private ScanFlow.Subscriber<? super T> subscriber;
+    private boolean subscribed;
+    private long demand;
+    private boolean cancelled;
+    private boolean completed;
+    private Throwable error;
+    private boolean draining;
+    private boolean delayed;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable delayedDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ScanPublisher.this) {
+                delayed = false;
+            }
+            schedule();
+        }
+    };
+
+    private final ScanFlow.Subscription subscription = new ScanFlow.Subscription() {
+        @Override
+        public void request(long n) {
+            boolean invalid = n <= 0;
+            synchronized (ScanPublisher.this) {
+                if (cancelled || error != null) return;
+                if (invalid) {
+                    error = new IllegalArgumentException("Request must be positive");
+                    clear();
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            schedule();
+            if (invalid) onCancel();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (ScanPublisher.this) {
+                if (cancelled) return;
+                cancelled = true;
+                clear();
+            }
+            onCancel();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param executor {@link Executor} Delivery thread of the subscriber.
+     * @param overflow {@link ScanFlow.Overflow}
+     * @param key      {@link ScanFlow.DeviceKey} Required by {@link ScanFlow.Overflow#latestPerDevice(int)}.
+     */
+    public ScanPublisher(Executor executor, ScanFlow.Overflow overflow, ScanFlow.DeviceKey<? super T> key) {
+        this(executor, overflow, key, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param executor {@link Executor} Delivery thread of the subscriber.
+     * @param overflow {@link ScanFlow.Overflow}
+     * @param key      {@link ScanFlow.DeviceKey} Required by {@link ScanFlow.Overflow#latestPerDevice(int)}.
+     * @param clock    {@link Clock} Time base of {@link ScanFlow.Overflow#sample(long)}.
+     */
+    public ScanPublisher(Executor executor, ScanFlow.Overflow overflow, ScanFlow.DeviceKey<? super T> key,
+                         Clock clock) {
+        if (executor == null || overflow == null) throw new IllegalArgumentException("Executor and overflow are required");
+        if (overflow.strategy == ScanFlow.Overflow.LATEST_PER_DEVICE && key == null) {
+            throw new IllegalArgumentException("Latest per device needs a device key");
+        }
+        this.executor = executor;
+        this.overflow = overflow;
+        this.key = key;
+        this.clock = clock;
+        if (overflow.strategy == ScanFlow.Overflow.LATEST_PER_DEVICE) {
+            this.keys = new long[overflow.capacity];
+            this.devices = new DeviceTable(overflow.capacity);
+            this.items = new Object[Math.min(overflow.capacity, 16)];
+        } else {
+            this.items = new Object[overflow.capacity];
+        }
+    }
+
+    @Override
+    public void subscribe(ScanFlow.Subscriber<? super T> subscriber) {
+        boolean accepted;
+        synchronized (this) {
+            accepted = !subscribed;
+            if (accepted) {
+                subscribed = true;
+                this.subscriber = subscriber;
+            }
+        }
+        if (!accepted) {
+            subscriber.onSubscribe(new ScanFlow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Publisher accepts a single subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(subscription);
+        synchronized (this) {
+            if (cancelled) return;
+        }
+        onStart();
+    }
+
+    /**
+     * Buffer an item for the subscriber. Ignored once the publisher completed or was cancelled.
+     *
+     * @param item Item.
+     */
+    public void offer(T item) {
+        synchronized (this) {
+            if (cancelled || completed || error != null) return;
+            switch (overflow.strategy) {
+                case ScanFlow.Overflow.LATEST_PER_DEVICE:
+                    offerLatest(item);
+                    break;
+                case ScanFlow.Overflow.SAMPLE:
+                    if (count == 1) dropped++;
+                    items[0] = item;
+                    count = 1;
+                    break;
+                default:
+                    if (count == items.length) {
+                        items[head] = null;
+                        head = (head + 1) % items.length;
+                        count--;
+                        dropped++;
+                    }
+                    items[(head + count) % items.length] = item;
+                    count++;
+            }
+            if (demand == 0) return;
+        }
+        schedule();
+    }
+
+    /**
+     * Complete the subscriber once the buffered items are delivered.
+     */
+    public void complete() {
+        synchronized (this) {
+            if (completed || error != null) return;
+            completed = true;
+        }
+        schedule();
+    }
+
+    /**
+     * Fail the subscriber, dropping the buffered items.
+     *
+     * @param throwable {@link Throwable}
+     */
+    public void error(Throwable throwable) {
+        synchronized (this) {
+            if (completed || error != null) return;
+            error = throwable;
+            clear();
+        }
+        schedule();
+    }
+
+    /**
+     * Return the number of items dropped on overflow.
+     *
+     * @return long
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Called after the subscriber received its subscription, to start producing.
+     */
+    protected void onStart() {
+    }
+
+    /**
+     * Called once when the subscriber cancels, to stop producing.
+     * May run on the delivery thread.
+     */
+    protected void onCancel() {
+    }
+
+    private void offerLatest(T item) {
+        long mac = key.keyOf(item);
+        int slot = devices.slotOf(mac);
+        if (slot != DeviceTable.NO_SLOT) {
+            items[slot] = item;
+            dropped++;
+            return;
+        }
+        if (count == keys.length) {
+            long oldest = keys[head];
+            items[devices.remove(oldest)] = null;
+            head = (head + 1) % keys.length;
+            count--;
+            dropped++;
+        }
+        slot = devices.insert(mac);
+        if (slot >= items.length) items = Arrays.copyOf(items, Math.min(keys.length, items.length * 2));
+        items[slot] = item;
+        keys[(head + count) % keys.length] = mac;
+        count++;
+    }
+
+    /**
+     * Take the next item to deliver, with the lock held.
+     *
+     * @return Item or null if none is due.
+     */
+    @SuppressWarnings("unchecked")
+    private T poll() {
+        if (count == 0) return null;
+        Object item;
+        switch (overflow.strategy) {
+            case ScanFlow.Overflow.LATEST_PER_DEVICE:
+                long mac = keys[head];
+                int slot = devices.remove(mac);
+                item = items[slot];
+                items[slot] = null;
+                head = (head + 1) % keys.length;
+                break;
+            case ScanFlow.Overflow.SAMPLE:
+                long now = clock.elapsedRealtime();
+                long wait = sampled ? lastSample + overflow.interval - now : 0;
+                if (wait > 0) {
+                    if (!delayed) {
+                        delayed = true;
+                        timer().schedule(delayedDrainTask, wait, TimeUnit.MILLISECONDS);
+                    }
+                    return null;
+                }
+                sampled = true;
+                lastSample = now;
+                item = items[0];
+                items[0] = null;
+                break;
+            default:
+                item = items[head];
+                items[head] = null;
+                head = (head + 1) % items.length;
+        }
+        count--;
+        return (T) item;
+    }
+
+    private void clear() {
+        Arrays.fill(items, null);
+        if (devices != null) devices.clear();
+        head = 0;
+        count = 0;
+    }
+
+    private void schedule() {
+        synchronized (this) {
+            if (draining || subscriber == null) return;
+            draining = true;
+        }
+        executor.execute(drainTask);
+    }
+
+    private void drain() {
+        while (true) {
+            T item;
+            Throwable failure = null;
+            boolean done = false;
+            synchronized (this) {
+                if (cancelled) {
+                    draining = false;
+                    return;
+                }
+                item = demand > 0 ? poll() : null;
+                if (item != null) {
+                    demand--;
+                } else if (error != null) {
+                    failure = error;
+                    cancelled = true;
+                } else if (completed && count == 0) {
+                    done = true;
+                    cancelled = true;
+                } else {
+                    draining = false;
+                    return;
+                }
+            }
+            if (item != null) {
+                subscriber.onNext(item);
+            } else {
+                if (failure != null) {
+                    subscriber.onError(failure);
+                } else if (done) {
+                    subscriber.onComplete();
+                }
+                synchronized (this) {
+                    draining = false;
+                }
+                return;
+            }
+        }
+    }
+
+    private static synchronized ScheduledExecutorService timer() {
+        if (timer == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ScanPublisher-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            timer = executor;
+        }
+        return timer;
+    }
+}
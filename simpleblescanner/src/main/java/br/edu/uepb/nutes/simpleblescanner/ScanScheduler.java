@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import android.bluetooth.le.ScanSettings;
+
+/**
+ * Duty cycle of a long-running scan: the radio scans for a window at the start of
+ * every interval and the scan mode follows the rate at which new devices are found.
+ * <p>
+ * A window that discovers at least {@link #BURST_RATE} new devices per second switches
+ * straight to {@link ScanSettings#SCAN_MODE_LOW_LATENCY} and scans continuously, so a
+ * spike in traffic is picked up right away. After {@link #QUIET_WINDOWS} windows without
+ * discoveries the mode steps down once, towards {@link ScanSettings#SCAN_MODE_LOW_POWER},
+ * which also doubles the idle time between windows.
+ * <p>
+ * The scheduler only makes decisions; the scanner starts and stops the radio.
+ * Not thread-safe.
+ */
+final class ScanScheduler {
+    /**
+     * New devices per second that switch to low latency.
+     */
+    static final int BURST_RATE = 1;
+
+    /**
+     * Consecutive windows without discoveries before the mode steps down.
+     */
+    static final int QUIET_WINDOWS = 3;
+
+    private static final int[] MODES = {
+            ScanSettings.SCAN_MODE_LOW_POWER,
+            ScanSettings.SCAN_MODE_BALANCED,
+            ScanSettings.SCAN_MODE_LOW_LATENCY
+    };
+    private static final int LOW_POWER = 0;
+    private static final int BALANCED = 1;
+    private static final int LOW_LATENCY = 2;
+
+    private final long window;
+    private final long idle;
+    private final Clock clock;
+
+    private int level;
+    private int quietWindows;
+    private int discoveries;
+    private long windowStart;
+
+    /**
+     * Constructor.
+     *
+     * @param window   Scan window in milliseconds.
+     * @param interval Scan interval in milliseconds, at least the window.
+     * @param clock    {@link Clock}
+     */
+    ScanScheduler(long window, long interval, Clock clock) {
+        if (window <= 0 || interval < window) {
+            throw new IllegalArgumentException("Window must be positive and not longer than the interval");
+        }
+        this.window = window;
+        this.idle = interval - window;
+        this.clock = clock;
+        reset();
+    }
+
+    /**
+     * Prepare a new scan session, starting in low latency for a fast first discovery.
+     */
+    void reset() {
+        level = LOW_LATENCY;
+        quietWindows = 0;
+        discoveries = 0;
+        windowStart = clock.elapsedRealtime();
+    }
+
+    /**
+     * Return the scan window.
+     *
+     * @return Window in milliseconds.
+     */
+    long getWindow() {
+        return window;
+    }
+
+    /**
+     * Return the scan mode for the next window, one of ScanSettings.SCAN_MODE_*.
+     *
+     * @return int
+     */
+    int getScanMode() {
+        return MODES[level];
+    }
+
+    /**
+     * Called when a window starts or a continuous scan goes on into another window.
+     */
+    void onWindowStarted() {
+        discoveries = 0;
+        windowStart = clock.elapsedRealtime();
+    }
+
+    /**
+     * Called for each device seen for the first time in the session.
+     */
+    void onDeviceDiscovered() {
+        discoveries++;
+    }
+
+    /**
+     * Called when a window ends. Adapts the scan mode to the discovery rate of the window.
+     *
+     * @return Time in milliseconds to keep the radio off before the next window,
+     * 0 to scan continuously.
+     */
+    long onWindowFinished() {
+        long elapsed = Math.max(1, clock.elapsedRealtime() - windowStart);
+        if (discoveries * 1000L >= BURST_RATE * elapsed) {
+            level = LOW_LATENCY;
+            quietWindows = 0;
+        } else if (discoveries > 0) {
+            level = Math.max(level, BALANCED);
+            quietWindows = 0;
+        } else if (++quietWindows >= QUIET_WINDOWS) {
+            level = Math.max(LOW_POWER, level - 1);
+            quietWindows = 0;
+        }
+
+        switch (level) {
+            case LOW_LATENCY:
+                return 0;
+            case BALANCED:
+                return idle;
+            default:
+                return idle * 2;
+        }
+    }
+}
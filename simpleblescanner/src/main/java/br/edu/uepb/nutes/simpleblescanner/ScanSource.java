@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+/**
+ * Producer of raw advertisements behind a scanner built with
+ * {@link SimpleBleScanner.Builder#build(ScanSource)}, e.g. a
+ * {@link ReplayScanSource} feeding a recorded or synthetic trace.
+ * <p>
+ * A source delivers to its {@link Sink} from a single thread at a time; the
+ * scanner runs filtering, deduplication and the callback on that thread.
+ */
+public interface ScanSource {
+    interface Sink {
+        /**
+         * Receive one advertisement.
+         *
+         * @param mac            Packed device address, see {@link MacAddress}.
+         * @param rssi           RSSI in dBm.
+         * @param payload        Raw advertising data, may be null. Only valid until this method returns.
+         * @param timestampNanos Time of reception, in the {@code ScanResult.getTimestampNanos()} base.
+         */
+        void onAdvertisement(long mac, int rssi, byte[] payload, long timestampNanos);
+
+        /**
+         * The source could not start.
+         *
+         * @param errorCode One of the SCAN_FAILED_* constants of {@link SimpleScannerCallback}.
+         */
+        void onScanFailed(int errorCode);
+
+        /**
+         * The source has nothing more to deliver. Not called after {@link #stop()}.
+         */
+        void onEnd();
+    }
+
+    /**
+     * Start delivering advertisements.
+     *
+     * @param sink {@link Sink}
+     */
+    void start(Sink sink);
+
+    /**
+     * Stop delivering. No advertisement reaches the sink once this method returns.
+     */
+    void stop();
+}
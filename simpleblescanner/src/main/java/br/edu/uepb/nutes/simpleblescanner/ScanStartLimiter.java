@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+/**
+ * Keeps scan starts under the limit enforced by Android since 7.0: an application
+ * starting more than 5 scans within 30 seconds gets
+ * {@link SimpleScannerCallback#SCAN_FAILED_SCANNING_TOO_FREQUENTLY} or, on some
+ * versions, a silently downgraded scan. Not thread-safe.
+ */
+final class ScanStartLimiter {
+    static final int MAX_STARTS = 5;
+    static final long WINDOW_MILLIS = 30000;
+
+    /**
+     * Extra wait added to the computed delay, as the platform and the application
+     * do not read the clock at the same instant.
+     */
+    static final long MARGIN_MILLIS = 250;
+
+    private final Clock clock;
+    private final long[] starts = new long[MAX_STARTS];
+    private int next;
+    private int count;
+
+    /**
+     * Constructor.
+     *
+     * @param clock {@link Clock}
+     */
+    ScanStartLimiter(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Return how long to wait before a scan can be started.
+     *
+     * @return Delay in milliseconds, 0 if a scan can be started now.
+     */
+    long delayUntilStartAllowed() {
+        if (count < MAX_STARTS) return 0;
+
+        // starts[next] is the oldest of the last MAX_STARTS starts.
+        long allowedAt = starts[next] + WINDOW_MILLIS + MARGIN_MILLIS;
+        return Math.max(0, allowedAt - clock.elapsedRealtime());
+    }
+
+    /**
+     * Record that a scan was started now.
+     */
+    void onScanStarted() {
+        starts[next] = clock.elapsedRealtime();
+        next = (next + 1) % MAX_STARTS;
+        if (count < MAX_STARTS) count++;
+    }
+}
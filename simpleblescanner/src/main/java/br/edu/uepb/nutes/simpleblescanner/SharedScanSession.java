@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import android.Manifest;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.support.annotation.NonNull;
+import android.support.annotation.RequiresApi;
+import android.support.annotation.RequiresPermission;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One hardware scan shared by many {@link SimpleScannerCallback} subscribers.
+ * <p>
+ * The radio runs with the union of the subscribers' filters and the most aggressive of
+ * their scan modes. Each result is routed only to the subscribers it matches through a
+ * routing table rebuilt on attach and detach: subscriber bitsets indexed by device address
+ * and by service UUID, so routing costs a few hash probes however many subscribers there
+ * are. Attaching or detaching restarts the radio only if the union changes.
+ * <p>
+ * The scanner must be built with a scan period of 0: the session starts it with the first
+ * subscriber and stops it with the last. Its own filters and settings are replaced. The
+ * session keeps its own started state, as the scanner may only update its state once the
+ * request has run on its looper.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class SharedScanSession {
+    private final SimpleBleScanner mScanner;
+    private final List<Subscription> mSubscriptions;
+    private volatile RoutingTable mRoutingTable;
+    private Union mUnion;
+    private boolean mStarted;
+
+    // Only touched on the scan callback thread.
+    private final AdvertisingData mAdvertisingData;
+    private long[] mRoute;
+
+    /**
+     * Constructor.
+     *
+     * @param scanner {@link SimpleBleScanner} Scanner owned by the session.
+     * @throws IllegalArgumentException If the scanner has a scan period.
+     */
+    public SharedScanSession(SimpleBleScanner scanner) {
+        if (scanner == null) throw new IllegalArgumentException("Scanner is null");
+        if (scanner.scanPeriod > 0) throw new IllegalArgumentException("Scan period must be 0");
+
+        mScanner = scanner;
+        mSubscriptions = new ArrayList<>();
+        mRoutingTable = new RoutingTable(new Subscription[0]);
+        mAdvertisingData = new AdvertisingData();
+        mRoute = new long[1];
+    }
+
+    /**
+     * Attach a subscriber. Starts the scan if it is the first one.
+     *
+     * @param subscription {@link Subscription}
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH,
+            Manifest.permission.ACCESS_FINE_LOCATION})
+    public synchronized void attach(Subscription subscription) {
+        if (subscription == null) throw new IllegalArgumentException("Subscription is null");
+        if (mSubscriptions.contains(subscription)) return;
+
+        subscription.attached = true;
+        mSubscriptions.add(subscription);
+        rebuild();
+        if (!mStarted) {
+            mStarted = true;
+            mScanner.startScan(mCallback);
+        }
+    }
+
+    /**
+     * Detach a subscriber. Stops the scan if it was the last one.
+     * The subscriber receives no callback after this method returns.
+     *
+     * @param subscription {@link Subscription}
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+    public synchronized void detach(Subscription subscription) {
+        if (!mSubscriptions.remove(subscription)) return;
+
+        subscription.attached = false;
+        if (mSubscriptions.isEmpty()) {
+            mRoutingTable = new RoutingTable(new Subscription[0]);
+            mUnion = null;
+            mStarted = false;
+            mScanner.stopScan();
+            return;
+        }
+        rebuild();
+    }
+
+    /**
+     * Return the number of attached subscribers.
+     *
+     * @return int
+     */
+    public synchronized int getSubscriberCount() {
+        return mSubscriptions.size();
+    }
+
+    /**
+     * Publish a new routing table and update the radio if the union changed.
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+    private void rebuild() {
+        mRoutingTable = new RoutingTable(mSubscriptions.toArray(new Subscription[0]));
+
+        Union union = new Union(mSubscriptions);
+        if (union.equals(mUnion)) return;
+        mUnion = union;
+        updateRadio(union);
+    }
+
+    /**
+     * Restart the radio with a new union.
+     *
+     * @param union {@link Union}
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+    void updateRadio(Union union) {
+        mScanner.updateScan(union.toScanFilters(), union.toScanSettings());
+    }
+
+    /**
+     * Route a result to the subscribers it matches.
+     *
+     * @param callbackType Callback type of the result.
+     * @param result       {@link ScanResult}
+     */
+    private void route(int callbackType, ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        route(callbackType, result, MacAddress.pack(result.getDevice().getAddress()), result.getRssi(),
+                record == null ? null : record.getBytes());
+    }
+
+    /**
+     * Route a result, already broken down, to the subscribers it matches.
+     *
+     * @param callbackType Callback type of the result.
+     * @param result       {@link ScanResult} Handed to the subscribers.
+     * @param mac          Packed device address.
+     * @param rssi         RSSI in dBm.
+     * @param scanRecord   Raw advertisement, or null.
+     */
+    void route(int callbackType, ScanResult result, long mac, int rssi, byte[] scanRecord) {
+        RoutingTable table = mRoutingTable;
+        if (table.subscriptions.length == 0) return;
+
+        long[] route = mRoute;
+        if (route.length < table.words) route = mRoute = new long[table.words];
+        System.arraycopy(table.wildcards, 0, route, 0, table.words);
+
+        int slot = table.addresses.slotOf(mac);
+        if (slot != DeviceTable.NO_SLOT) or(route, table.addressRoutes[slot], table.words);
+
+        AdvertisingData ad = mAdvertisingData;
+        ad.wrap(scanRecord);
+        if (table.uuids.size() > 0) {
+            for (int i = 0, count = ad.getServiceUuidCount(); i < count; i++) {
+                int ordinal = table.uuids.ordinalOf(ad.getServiceUuidMostSignificantBits(i),
+                        ad.getServiceUuidLeastSignificantBits(i));
+                if (ordinal >= 0) or(route, table.uuidRoutes[ordinal], table.words);
+            }
+        }
+
+        for (int word = 0; word < table.words; word++) {
+            long bits = route[word];
+            while (bits != 0) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                Subscription subscription = table.subscriptions[index];
+                SoftwareFilter.Matcher filter = table.filters[index];
+                if (!subscription.attached) continue;
+                // Lost results carry the last advertisement, filtered like any other.
+                if (filter == null || filter.matches(mac, rssi, ad)) {
+                    subscription.callback.onScanResult(callbackType, result);
+                }
+            }
+        }
+    }
+
+    private static void or(long[] target, long[] source, int words) {
+        for (int i = 0; i < words; i++) target[i] |= source[i];
+    }
+
+    private final SimpleScannerCallback mCallback = new SimpleScannerCallback() {
+        @Override
+        public void onScanResult(int callbackType, @NonNull ScanResult result) {
+            route(callbackType, result);
+        }
+
+        @Override
+        public void onBatchScanResults(@NonNull List<ScanResult> results) {
+            for (int i = 0, size = results.size(); i < size; i++) {
+                route(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, results.get(i));
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            for (Subscription subscription : mRoutingTable.subscriptions) {
+                if (subscription.attached) subscription.callback.onScanFailed(errorCode);
+            }
+        }
+
+        @Override
+        public void onFinish() {
+            for (Subscription subscription : mRoutingTable.subscriptions) {
+                if (subscription.attached) subscription.callback.onFinish();
+            }
+        }
+    };
+
+    /**
+     * Subscriber of a {@link SharedScanSession}. Configure it before attaching it;
+     * later changes are ignored until it is attached again.
+     */
+    public static class Subscription {
+        private final SimpleScannerCallback callback;
+        private final List<Long> addresses;
+        private final List<UUID> serviceUuids;
+        private final List<SoftwareFilter> softwareFilters;
+        private int scanMode;
+        private volatile boolean attached;
+
+        /**
+         * Constructor.
+         *
+         * @param callback {@link SimpleScannerCallback} Receiver of the routed results.
+         */
+        public Subscription(SimpleScannerCallback callback) {
+            if (callback == null) throw new IllegalArgumentException("Callback is null");
+
+            this.callback = callback;
+            this.addresses = new ArrayList<>();
+            this.serviceUuids = new ArrayList<>();
+            this.softwareFilters = new ArrayList<>();
+            this.scanMode = ScanSettings.SCAN_MODE_LOW_POWER;
+        }
+
+        /**
+         * Add filter address. Offloaded to the controller and used for routing.
+         *
+         * @param deviceAddress {@link String}
+         * @return {@link Subscription}
+         */
+        public Subscription addFilterAddress(String... deviceAddress) {
+            for (String address : deviceAddress) {
+                long mac = MacAddress.pack(address);
+                if (mac == MacAddress.INVALID) throw new IllegalArgumentException("Invalid address " + address);
+                addresses.add(mac);
+            }
+            return this;
+        }
+
+        /**
+         * Add filter service uuid. Offloaded to the controller and used for routing.
+         *
+         * @param serviceUuid {@link String}
+         * @return {@link Subscription}
+         */
+        public Subscription addFilterServiceUuid(String... serviceUuid) {
+            for (String uuid : serviceUuid) serviceUuids.add(UUID.fromString(uuid));
+            return this;
+        }
+
+        /**
+         * Add software filter, tested only on results routed to this subscriber.
+         * Results must match any of the software filters.
+         *
+         * @param filter {@link SoftwareFilter}
+         * @return {@link Subscription}
+         */
+        public Subscription addSoftwareFilter(SoftwareFilter... filter) {
+            softwareFilters.addAll(Arrays.asList(filter));
+            return this;
+        }
+
+        /**
+         * Add the scan mode this subscriber needs, one of ScanSettings.SCAN_MODE_*.
+         * The session scans with the most aggressive mode requested.
+         *
+         * @param scanMode {@link Integer}
+         * @return {@link Subscription}
+         */
+        public Subscription addScanMode(int scanMode) {
+            this.scanMode = scanMode;
+            return this;
+        }
+
+        private boolean isWildcard() {
+            return addresses.isEmpty() && serviceUuids.isEmpty();
+        }
+    }
+
+    /**
+     * Immutable routing state, replaced as a whole on attach and detach.
+     */
+    private static final class RoutingTable {
+        final Subscription[] subscriptions;
+        final SoftwareFilter.Matcher[] filters;
+        final int words;
+        final long[] wildcards;
+        final DeviceTable addresses;
+        final long[][] addressRoutes;
+        final UuidHashSet uuids;
+        final long[][] uuidRoutes;
+
+        RoutingTable(Subscription[] subscriptions) {
+            this.subscriptions = subscriptions;
+            this.filters = new SoftwareFilter.Matcher[subscriptions.length];
+            this.words = Math.max(1, (subscriptions.length + 63) >>> 6);
+            this.wildcards = new long[words];
+            this.addresses = new DeviceTable();
+            this.uuids = new UuidHashSet(16);
+
+            List<long[]> addressRoutes = new ArrayList<>();
+            List<long[]> uuidRoutes = new ArrayList<>();
+            for (int i = 0; i < subscriptions.length; i++) {
+                Subscription subscription = subscriptions[i];
+                long bit = 1L << (i & 63);
+                int word = i >>> 6;
+
+                filters[i] = subscription.softwareFilters.isEmpty() ? null
+                        : SoftwareFilter.or(subscription.softwareFilters.toArray(new SoftwareFilter[0])).compile();
+                if (subscription.isWildcard()) wildcards[word] |= bit;
+
+                for (long mac : subscription.addresses) {
+                    int slot = addresses.insert(mac);
+                    if (slot >= 0) addressRoutes.add(new long[words]);
+                    else slot = -slot - 1;
+                    addressRoutes.get(slot)[word] |= bit;
+                }
+                for (UUID uuid : subscription.serviceUuids) {
+                    if (uuids.add(uuid)) uuidRoutes.add(new long[words]);
+                    uuidRoutes.get(uuids.ordinalOf(uuid.getMostSignificantBits(),
+                            uuid.getLeastSignificantBits()))[word] |= bit;
+                }
+            }
+            this.addressRoutes = addressRoutes.toArray(new long[0][]);
+            this.uuidRoutes = uuidRoutes.toArray(new long[0][]);
+        }
+    }
+
+    /**
+     * What the radio has to scan for to serve every subscriber.
+     */
+    static final class Union {
+        final boolean wildcard;
+        final long[] addresses;
+        final UUID[] serviceUuids;
+        final int scanMode;
+
+        Union(List<Subscription> subscriptions) {
+            boolean wildcard = false;
+            int scanMode = ScanSettings.SCAN_MODE_OPPORTUNISTIC;
+            List<Long> addresses = new ArrayList<>();
+            List<UUID> uuids = new ArrayList<>();
+            for (Subscription subscription : subscriptions) {
+                wildcard |= subscription.isWildcard();
+                scanMode = Math.max(scanMode, subscription.scanMode);
+                for (Long mac : subscription.addresses) {
+                    if (!addresses.contains(mac)) addresses.add(mac);
+                }
+                for (UUID uuid : subscription.serviceUuids) {
+                    if (!uuids.contains(uuid)) uuids.add(uuid);
+                }
+            }
+
+            this.wildcard = wildcard;
+            this.scanMode = scanMode;
+            if (wildcard) {
+                this.addresses = new long[0];
+                this.serviceUuids = new UUID[0];
+            } else {
+                this.addresses = new long[addresses.size()];
+                for (int i = 0; i < this.addresses.length; i++) this.addresses[i] = addresses.get(i);
+                Arrays.sort(this.addresses);
+                this.serviceUuids = uuids.toArray(new UUID[0]);
+                Arrays.sort(this.serviceUuids);
+            }
+        }
+
+        List<ScanFilter> toScanFilters() {
+            List<ScanFilter> filters = new ArrayList<>();
+            for (long mac : addresses) {
+                filters.add(new ScanFilter.Builder().setDeviceAddress(MacAddress.toString(mac)).build());
+            }
+            for (UUID uuid : serviceUuids) {
+                filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(uuid)).build());
+            }
+            return filters;
+        }
+
+        ScanSettings toScanSettings() {
+            return new ScanSettings.Builder().setScanMode(scanMode).build();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Union)) return false;
+
+            Union union = (Union) o;
+            return wildcard == union.wildcard && scanMode == union.scanMode
+                    && Arrays.equals(addresses, union.addresses)
+                    && Arrays.equals(serviceUuids, union.serviceUuids);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(addresses) * 31 + Arrays.hashCode(serviceUuids);
+        }
+    }
+}
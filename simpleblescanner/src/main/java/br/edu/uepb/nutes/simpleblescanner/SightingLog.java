@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Append-only log of advertisements, for site surveys and replay.
+ * <p>
+ * Every sighting is a fixed {@link #RECORD_SIZE} byte record: timestamp, packed address,
+ * payload hash, RSSI and TX power, closed by a checksum. Records are written into
+ * memory-mapped segment files of {@code segmentRecords} records each; when a segment is
+ * full the next one is mapped and the oldest are deleted beyond {@code maxSegments}.
+ * An append is a handful of stores into the mapping, without allocation or system call.
+ * <p>
+ * The mapping lives in the page cache, so records survive the process being killed.
+ * The checksum is written last: a record torn by a kill, or the zeroed tail of a
+ * segment, fails it and marks the end of the log. Reopening resumes after the last
+ * valid record. Call {@link #flush()} to also survive a power loss.
+ * <p>
+ * Not thread-safe: append from a single thread, usually the scan callback thread.
+ */
+public final class SightingLog implements Closeable {
+    /**
+     * Size of one record in bytes.
+     */
+    public static final int RECORD_SIZE = 32;
+
+    /**
+     * TX power of a sighting that advertised none.
+     */
+    public static final int TX_POWER_NOT_PRESENT = 127;
+
+    private static final String PREFIX = "sightings-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_SIZE = RECORD_SIZE;
+    private static final int MAGIC = 0x534c4f47; // "SLOG"
+    private static final int VERSION = 1;
+
+    // Record layout.
+    private static final int TIMESTAMP = 0;
+    private static final int MAC = 8;
+    private static final int PAYLOAD_HASH = 16;
+    private static final int RSSI = 20;
+    private static final int TX_POWER = 21;
+    private static final int CHECKSUM = 28;
+
+    private final File directory;
+    private final int segmentRecords;
+    private final int maxSegments;
+    private MappedByteBuffer segment;
+    private long segmentNumber;
+    private int position;
+    private IOException error;
+
+    /**
+     * Open a log for writing, resuming after the last valid record found in the directory.
+     *
+     * @param directory      Directory holding the segments, created if missing.
+     * @param segmentRecords Records per segment file.
+     * @param maxSegments    Segment files kept, the oldest are deleted on rotation.
+     * @return {@link SightingLog}
+     * @throws IOException If the directory or the segment cannot be mapped.
+     */
+    public static SightingLog open(File directory, int segmentRecords, int maxSegments) throws IOException {
+        if (segmentRecords < 1) throw new IllegalArgumentException("Segments need at least one record");
+        if (maxSegments < 1) throw new IllegalArgumentException("At least one segment is kept");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        SightingLog log = new SightingLog(directory, segmentRecords, maxSegments);
+        File[] segments = listSegments(directory);
+        if (segments.length == 0) {
+            log.map(0);
+        } else {
+            log.map(numberOf(segments[segments.length - 1]));
+            while (log.position < log.segment.limit() && isValid(log.segment, log.position)) {
+                log.position += RECORD_SIZE;
+            }
+        }
+        return log;
+    }
+
+    private SightingLog(File directory, int segmentRecords, int maxSegments) {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Append a sighting.
+     *
+     * @param timestampNanos Time of the sighting, e.g. {@code ScanResult.getTimestampNanos()}.
+     * @param mac            Address packed with {@link MacAddress#pack(String)}.
+     * @param rssi           Signal strength in dBm.
+     * @param txPower        Advertised TX power in dBm, or {@link #TX_POWER_NOT_PRESENT}.
+     * @param payloadHash    Hash of the advertising data, see {@link #hashPayload(byte[])}.
+     * @return false if the log is closed or the next segment could not be mapped,
+     * see {@link #getError()}.
+     */
+    public boolean append(long timestampNanos, long mac, int rssi, int txPower, int payloadHash) {
+        if (segment == null) return false;
+        if (position == segment.limit() && !rotate()) return false;
+
+        MappedByteBuffer buffer = segment;
+        int p = position;
+        buffer.putLong(p + TIMESTAMP, timestampNanos);
+        buffer.putLong(p + MAC, mac);
+        buffer.putInt(p + PAYLOAD_HASH, payloadHash);
+        buffer.put(p + RSSI, (byte) rssi);
+        buffer.put(p + TX_POWER, (byte) txPower);
+        buffer.putInt(p + CHECKSUM, checksum(timestampNanos, mac, payloadHash, (byte) rssi, (byte) txPower));
+        position = p + RECORD_SIZE;
+        return true;
+    }
+
+    /**
+     * Write the mapped records to the storage device.
+     */
+    public void flush() {
+        if (segment != null) segment.force();
+    }
+
+    /**
+     * Return the failure that stopped appends, if any.
+     *
+     * @return {@link IOException} or null.
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        segment = null;
+    }
+
+    /**
+     * Open a reader over every segment currently in a directory, oldest record first.
+     *
+     * @param directory Directory of the log.
+     * @return {@link Reader}
+     */
+    public static Reader read(File directory) {
+        return new Reader(listSegments(directory));
+    }
+
+    /**
+     * FNV-1a hash of advertising data, 0 for null.
+     *
+     * @param data Raw advertising data.
+     * @return int
+     */
+    public static int hashPayload(byte[] data) {
+        if (data == null) return 0;
+        int hash = 0x811c9dc5;
+        for (byte b : data) {
+            hash ^= b & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    private boolean rotate() {
+        try {
+            map(segmentNumber + 1);
+            File[] segments = listSegments(directory);
+            for (int i = 0; i < segments.length - maxSegments; i++) {
+                if (!segments[i].delete()) throw new IOException("Cannot delete " + segments[i]);
+            }
+            return true;
+        } catch (IOException e) {
+            error = e;
+            segment = null;
+            return false;
+        }
+    }
+
+    private void map(long number) throws IOException {
+        File file = new File(directory, String.format("%s%016x%s", PREFIX, number, SUFFIX));
+        boolean created = !file.exists();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long size = HEADER_SIZE + (long) segmentRecords * RECORD_SIZE;
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (created || buffer.getInt(0) != MAGIC) {
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, RECORD_SIZE);
+                buffer.putInt(0, MAGIC);
+            } else if (buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE) {
+                throw new IOException("Unsupported segment " + file);
+            }
+            segment = buffer;
+            segmentNumber = number;
+            position = HEADER_SIZE;
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            raf.close();
+        }
+    }
+
+    private static boolean isValid(MappedByteBuffer buffer, int p) {
+        int stored = buffer.getInt(p + CHECKSUM);
+        return stored != 0 && stored == checksum(buffer.getLong(p + TIMESTAMP), buffer.getLong(p + MAC),
+                buffer.getInt(p + PAYLOAD_HASH), buffer.get(p + RSSI), buffer.get(p + TX_POWER));
+    }
+
+    /**
+     * Never 0, so a zeroed record is never valid.
+     */
+    private static int checksum(long timestamp, long mac, int payloadHash, byte rssi, byte txPower) {
+        long h = timestamp * 0x9E3779B97F4A7C15L;
+        h = (h ^ mac) * 0x9E3779B97F4A7C15L;
+        h = (h ^ (payloadHash & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        h = (h ^ ((rssi & 0xFF) << 8 | (txPower & 0xFF))) * 0x9E3779B97F4A7C15L;
+        int checksum = (int) (h ^ (h >>> 32));
+        return checksum == 0 ? 1 : checksum;
+    }
+
+    private static File[] listSegments(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) return new File[0];
+        // Fixed width hex numbers sort like the numbers.
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static long numberOf(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()), 16);
+    }
+
+    /**
+     * Sequential reader over the segments of a log. The accessors return the fields of
+     * the record {@link #next()} moved to. Reading stops at the first invalid record.
+     */
+    public static final class Reader implements Closeable {
+        private final File[] segments;
+        private int segmentIndex = -1;
+        private MappedByteBuffer buffer;
+        private int position;
+        private int current = -1;
+        private IOException error;
+
+        private Reader(File[] segments) {
+            this.segments = segments;
+        }
+
+        /**
+         * Move to the next record.
+         *
+         * @return false at the end of the log.
+         */
+        public boolean next() {
+            while (true) {
+                if (buffer != null) {
+                    if (position + RECORD_SIZE <= buffer.limit() && isValid(buffer, position)) {
+                        current = position;
+                        position += RECORD_SIZE;
+                        return true;
+                    }
+                    // A segment only ends early if it is the last one written.
+                    if (position + RECORD_SIZE <= buffer.limit()) {
+                        buffer = null;
+                        return false;
+                    }
+                }
+                if (++segmentIndex >= segments.length || !mapNext()) {
+                    buffer = null;
+                    return false;
+                }
+            }
+        }
+
+        public long getTimestampNanos() {
+            return buffer.getLong(current + TIMESTAMP);
+        }
+
+        public long getMac() {
+            return buffer.getLong(current + MAC);
+        }
+
+        public int getPayloadHash() {
+            return buffer.getInt(current + PAYLOAD_HASH);
+        }
+
+        public int getRssi() {
+            return buffer.get(current + RSSI);
+        }
+
+        public int getTxPower() {
+            return buffer.get(current + TX_POWER);
+        }
+
+        /**
+         * Return the failure that ended the reading early, if any.
+         *
+         * @return {@link IOException} or null.
+         */
+        public IOException getError() {
+            return error;
+        }
+
+        @Override
+        public void close() {
+            buffer = null;
+            segmentIndex = segments.length;
+        }
+
+        private boolean mapNext() {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(segments[segmentIndex], "r");
+                try {
+                    FileChannel channel = raf.getChannel();
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } finally {
+                    raf.close();
+                }
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                        || buffer.getInt(8) != RECORD_SIZE) {
+                    throw new IOException("Not a sighting segment " + segments[segmentIndex]);
+                }
+                position = HEADER_SIZE;
+                return true;
+            } catch (IOException e) {
+                error = e;
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+/**
+ * Latest state of every device seen, kept in parallel primitive arrays instead of
+ * holding on to {@code ScanResult} objects.
+ * <p>
+ * Each device owns a slot of a {@link DeviceTable}; its RSSI, timestamp, TX power,
+ * sighting count and a copy of its payload live at that slot in arrays allocated
+ * once for {@code maxDevices}. A device not seen for the longest time gives its slot
+ * to a new device when the store is full, so the heap footprint is fixed whatever the
+ * advertisement rate or the number of devices. Updates do not allocate.
+ * <p>
+ * The scanner updates the store from its thread; consumers read it from any thread
+ * through a {@link Cursor}, which copies one device at a time under the store lock.
+ */
+public final class SightingStore {
+    /**
+     * Longest legacy advertisement: advertising data plus scan response.
+     */
+    public static final int DEFAULT_MAX_PAYLOAD_LENGTH = 62;
+
+    private static final int NONE = -1;
+
+    private final int maxDevices;
+    private final int maxPayloadLength;
+    private final DeviceTable devices;
+    private final int[] rssis;
+    private final long[] timestamps;
+    private final int[] txPowers;
+    private final int[] counts;
+    private final byte[] payloads;
+    private final int[] payloadLengths;
+
+    // Slots from the least to the most recently seen.
+    private final int[] previous;
+    private final int[] next;
+    private int oldest = NONE;
+    private int newest = NONE;
+    private long evicted;
+
+    /**
+     * Constructor.
+     *
+     * @param maxDevices Number of devices kept.
+     */
+    public SightingStore(int maxDevices) {
+        this(maxDevices, DEFAULT_MAX_PAYLOAD_LENGTH);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxDevices       Number of devices kept.
+     * @param maxPayloadLength Bytes of payload kept per device, longer payloads are truncated.
+     */
+    public SightingStore(int maxDevices, int maxPayloadLength) {
+        if (maxDevices < 1 || maxPayloadLength < 0) throw new IllegalArgumentException("Invalid store size");
+        this.maxDevices = maxDevices;
+        this.maxPayloadLength = maxPayloadLength;
+        this.devices = new DeviceTable(maxDevices);
+        this.rssis = new int[maxDevices];
+        this.timestamps = new long[maxDevices];
+        this.txPowers = new int[maxDevices];
+        this.counts = new int[maxDevices];
+        this.payloads = new byte[maxDevices * maxPayloadLength];
+        this.payloadLengths = new int[maxDevices];
+        this.previous = new int[maxDevices];
+        this.next = new int[maxDevices];
+    }
+
+    /**
+     * Record a sighting.
+     *
+     * @param mac            Packed device address, see {@link MacAddress}.
+     * @param rssi           RSSI in dBm.
+     * @param txPower        Advertised TX power or {@link AdvertisingData#TX_POWER_NOT_PRESENT}.
+     * @param payload        Raw advertising data, may be null.
+     * @param timestampNanos Time of reception.
+     * @return Slot of the device, or {@link DeviceTable#NO_SLOT} for an invalid address.
+     */
+    public synchronized int update(long mac, int rssi, int txPower, byte[] payload, long timestampNanos) {
+        if (mac == MacAddress.INVALID) return DeviceTable.NO_SLOT;
+
+        int slot = devices.slotOf(mac);
+        if (slot == DeviceTable.NO_SLOT) {
+            if (devices.size() == maxDevices) {
+                int victim = oldest;
+                unlink(victim);
+                devices.remove(devices.keyAt(victim));
+                evicted++;
+            }
+            slot = devices.insert(mac);
+            counts[slot] = 0;
+        } else {
+            unlink(slot);
+        }
+        link(slot);
+
+        rssis[slot] = rssi;
+        timestamps[slot] = timestampNanos;
+        txPowers[slot] = txPower;
+        counts[slot]++;
+        int length = payload == null ? 0 : Math.min(payload.length, maxPayloadLength);
+        if (length > 0) System.arraycopy(payload, 0, payloads, slot * maxPayloadLength, length);
+        payloadLengths[slot] = length;
+        return slot;
+    }
+
+    /**
+     * Forget a device.
+     *
+     * @param mac Packed device address.
+     */
+    public synchronized void remove(long mac) {
+        int slot = devices.slotOf(mac);
+        if (slot == DeviceTable.NO_SLOT) return;
+        unlink(slot);
+        devices.remove(mac);
+    }
+
+    /**
+     * Forget every device.
+     */
+    public synchronized void clear() {
+        devices.clear();
+        oldest = NONE;
+        newest = NONE;
+    }
+
+    /**
+     * Return the number of devices stored.
+     *
+     * @return int
+     */
+    public synchronized int size() {
+        return devices.size();
+    }
+
+    /**
+     * Return the number of devices evicted to make room for new ones.
+     *
+     * @return long
+     */
+    public synchronized long getEvictedCount() {
+        return evicted;
+    }
+
+    /**
+     * Return the number of devices kept.
+     *
+     * @return int
+     */
+    public int getMaxDevices() {
+        return maxDevices;
+    }
+
+    /**
+     * Create a cursor over the store. Keep it and {@link Cursor#reset()} it to read again.
+     *
+     * @return {@link Cursor}
+     */
+    public Cursor newCursor() {
+        return new Cursor();
+    }
+
+    private void link(int slot) {
+        previous[slot] = newest;
+        next[slot] = NONE;
+        if (newest == NONE) {
+            oldest = slot;
+        } else {
+            next[newest] = slot;
+        }
+        newest = slot;
+    }
+
+    private void unlink(int slot) {
+        int before = previous[slot];
+        int after = next[slot];
+        if (before == NONE) {
+            oldest = after;
+        } else {
+            next[before] = after;
+        }
+        if (after == NONE) {
+            newest = before;
+        } else {
+            previous[after] = before;
+        }
+    }
+
+    /**
+     * Copies one device of the store at a time into its own fields, so the values stay
+     * consistent while the scanner keeps updating the store. Devices are visited in slot
+     * order; a device updated during the iteration is read with its latest state.
+     * Not thread-safe: use a cursor per reading thread.
+     */
+    public final class Cursor {
+        private final byte[] payload = new byte[maxPayloadLength];
+        private final AdvertisingData advertisingData = new AdvertisingData();
+        private int position = NONE;
+        private long mac = MacAddress.INVALID;
+        private int rssi;
+        private long timestamp;
+        private int txPower;
+        private int count;
+        private int payloadLength;
+
+        private Cursor() {
+        }
+
+        /**
+         * Move before the first device.
+         */
+        public void reset() {
+            position = NONE;
+            mac = MacAddress.INVALID;
+        }
+
+        /**
+         * Move to the next device.
+         *
+         * @return false when there is no more device.
+         */
+        public boolean moveToNext() {
+            synchronized (SightingStore.this) {
+                int limit = devices.slotLimit();
+                while (++position < limit) {
+                    if (devices.keyAt(position) != MacAddress.INVALID) {
+                        read(position);
+                        return true;
+                    }
+                }
+                mac = MacAddress.INVALID;
+                return false;
+            }
+        }
+
+        /**
+         * Move to a device.
+         *
+         * @param mac Packed device address.
+         * @return false if the device is not stored.
+         */
+        public boolean moveTo(long mac) {
+            synchronized (SightingStore.this) {
+                int slot = devices.slotOf(mac);
+                if (slot == DeviceTable.NO_SLOT) return false;
+                position = slot;
+                read(slot);
+                return true;
+            }
+        }
+
+        private void read(int slot) {
+            mac = devices.keyAt(slot);
+            rssi = rssis[slot];
+            timestamp = timestamps[slot];
+            txPower = txPowers[slot];
+            count = counts[slot];
+            payloadLength = payloadLengths[slot];
+            System.arraycopy(payloads, slot * maxPayloadLength, payload, 0, payloadLength);
+        }
+
+        /**
+         * Return the packed address of the current device.
+         *
+         * @return long
+         */
+        public long getMac() {
+            return mac;
+        }
+
+        /**
+         * Return the RSSI of the latest sighting.
+         *
+         * @return int
+         */
+        public int getRssi() {
+            return rssi;
+        }
+
+        /**
+         * Return the time of the latest sighting.
+         *
+         * @return long
+         */
+        public long getTimestampNanos() {
+            return timestamp;
+        }
+
+        /**
+         * Return the advertised TX power.
+         *
+         * @return TX power or {@link AdvertisingData#TX_POWER_NOT_PRESENT}.
+         */
+        public int getTxPower() {
+            return txPower;
+        }
+
+        /**
+         * Return the number of sightings since the device entered the store.
+         *
+         * @return int
+         */
+        public int getSightingCount() {
+            return count;
+        }
+
+        /**
+         * Return the payload buffer of the cursor, valid up to {@link #getPayloadLength()}
+         * and overwritten by the next move.
+         *
+         * @return byte[]
+         */
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        /**
+         * Return the length of the payload copied into {@link #getPayload()}.
+         *
+         * @return int
+         */
+        public int getPayloadLength() {
+            return payloadLength;
+        }
+
+        /**
+         * Parse the payload of the current device.
+         *
+         * @return {@link AdvertisingData} reused by the cursor.
+         */
+        public AdvertisingData getAdvertisingData() {
+            advertisingData.wrap(payload, 0, payloadLength);
+            return advertisingData;
+        }
+    }
+}
@@ -24,20 +24,39 @@ package br.edu.uepb.nutes.simpleblescanner;
 
 import android.Manifest;
 import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
 import android.support.annotation.RequiresApi;
 import android.support.annotation.RequiresPermission;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public abstract class SimpleBleScanner {
-    protected boolean mScanning;
+    protected volatile boolean mScanning;
     protected int scanPeriod;
     protected List<ScanFilter> scanFilters;
     protected ScanSettings scanSettings;
+    protected boolean deduplicate;
+    protected int batchSize;
+    protected int batchLatency;
+    protected SoftwareFilter.Matcher softwareFilter;
+    protected int dutyCycleWindow;
+    protected int dutyCycleInterval;
+    protected RssiTracker rssiTracker;
+    protected int lostTimeout;
+    protected ScanMetrics metrics;
+    protected SightingLog sightingLog;
+    protected SightingStore sightingStore;
+    protected SoftwareFilter.Matcher[] softwareFilterMatchers;
+    protected Looper looper;
+    protected boolean scannerThread;
+    protected Executor callbackExecutor;
 
     /**
      * Constructor.
@@ -46,6 +65,21 @@ public abstract class SimpleBleScanner {
         this.scanPeriod = builder.scanPeriod;
         this.scanFilters = builder.scanFilters;
         this.scanSettings = builder.scanSettings;
+        this.deduplicate = builder.deduplicate;
+        this.batchSize = builder.batchSize;
+        this.batchLatency = builder.batchLatency;
+        this.dutyCycleWindow = builder.dutyCycleWindow;
+        this.dutyCycleInterval = builder.dutyCycleInterval;
+        this.rssiTracker = builder.rssiTracker;
+        this.lostTimeout = builder.lostTimeout;
+        this.metrics = builder.metrics;
+        this.sightingLog = builder.sightingLog;
+        this.sightingStore = builder.sightingStore;
+        this.looper = builder.looper;
+        this.scannerThread = builder.scannerThread;
+        this.callbackExecutor = builder.callbackExecutor;
+        this.softwareFilter = builder.compileSoftwareFilter();
+        this.softwareFilterMatchers = builder.compileFilterMatchers();
         initResources();
     }
 
@@ -64,12 +98,103 @@ public abstract class SimpleBleScanner {
     @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH})
     public abstract void startScan(SimpleScannerCallback callback);
 
+    /**
+     * Return a publisher of the scan results, for consumers that set their own pace.
+     * Subscribing starts the scan, from the subscribing thread like
+     * {@link #startScan(SimpleScannerCallback)}, and cancelling stops it. Results are
+     * buffered as set by the overflow and delivered on the executor as requested.
+     * The scan ending completes the subscriber; a failure to start is delivered as a
+     * {@link ScanFlow.ScanFailedException}.
+     *
+     * @param executor {@link Executor} Delivery thread of the subscriber.
+     * @param overflow {@link ScanFlow.Overflow} What to keep of results not requested yet.
+     * @return {@link ScanPublisher} accepting a single subscriber.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH})
+    public ScanPublisher<ScanResult> publish(Executor executor, ScanFlow.Overflow overflow) {
+        ScanFlow.DeviceKey<ScanResult> key = new ScanFlow.DeviceKey<ScanResult>() {
+            @Override
+            public long keyOf(ScanResult result) {
+                return MacAddress.pack(result.getDevice().getAddress());
+            }
+        };
+        return new ScanPublisher<ScanResult>(executor, overflow, key) {
+            private Handler handler;
+
+            private final SimpleScannerCallback callback = new SimpleScannerCallback() {
+                @Override
+                public void onScanResult(int callbackType, ScanResult result) {
+                    offer(result);
+                }
+
+                @Override
+                public void onBatchScanResults(List<ScanResult> results) {
+                    for (int i = 0, size = results.size(); i < size; i++) offer(results.get(i));
+                }
+
+                @Override
+                public void onScanFailed(int errorCode) {
+                    error(new ScanFlow.ScanFailedException(errorCode));
+                }
+
+                @Override
+                public void onFinish() {
+                    complete();
+                }
+            };
+
+            @Override
+            @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH})
+            protected void onStart() {
+                if (looper == null && !scannerThread) handler = new Handler();
+                startScan(callback);
+            }
+
+            @Override
+            @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+            protected void onCancel() {
+                if (handler == null) {
+                    // The scanner posts the stop to its own looper.
+                    stopScan();
+                    return;
+                }
+                // The scan belongs to the subscribing thread, cancel may come from the executor.
+                handler.post(new Runnable() {
+                    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+                    @Override
+                    public void run() {
+                        stopScan();
+                    }
+                });
+            }
+        };
+    }
+
     /**
      * Stop scan.
      */
     @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
     public abstract void stopScan();
 
+    /**
+     * Release the resources of the scanner, such as the thread added with
+     * {@link Builder#addScannerThread()}. The scanner must not be used afterwards.
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+    public void release() {
+    }
+
+    /**
+     * Replace the hardware filters and settings. A running scan is restarted with them,
+     * keeping its callback, deduplication state and period.
+     *
+     * @param filters  {@link ScanFilter} list, null or empty to report every device.
+     * @param settings {@link ScanSettings}
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+    abstract void updateScan(List<ScanFilter> filters, ScanSettings settings);
+
     /**
      * Reset settings to default.
      */
@@ -77,6 +202,17 @@ public abstract class SimpleBleScanner {
         this.scanPeriod = 1000; // 10s
         this.scanFilters = null;
         this.scanSettings = null;
+        this.deduplicate = false;
+        this.batchSize = 0;
+        this.batchLatency = 0;
+        this.softwareFilter = null;
+        this.dutyCycleWindow = 0;
+        this.dutyCycleInterval = 0;
+        this.rssiTracker = null;
+        this.lostTimeout = 0;
+        this.softwareFilterMatchers = null;
+        this.sightingLog = null;
+        this.callbackExecutor = null;
     }
 
     /**
@@ -88,14 +224,38 @@ public abstract class SimpleBleScanner {
         return mScanning;
     }
 
+    /**
+     * Return the metrics set with {@link Builder#addMetrics(ScanMetrics)}.
+     *
+     * @return {@link ScanMetrics} or null if metrics are not collected.
+     */
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
     public static class Builder {
         private int scanPeriod;
         private List<ScanFilter> scanFilters;
         private ScanSettings scanSettings;
+        private boolean deduplicate;
+        private int batchSize;
+        private int batchLatency;
+        private List<SoftwareFilter> softwareFilters;
+        private int dutyCycleWindow;
+        private int dutyCycleInterval;
+        private RssiTracker rssiTracker;
+        private int lostTimeout;
+        private ScanMetrics metrics;
+        private SightingLog sightingLog;
+        private SightingStore sightingStore;
+        private Looper looper;
+        private boolean scannerThread;
+        private Executor callbackExecutor;
 
         public Builder() {
             this.scanPeriod = 10000; // 10 seconds
             this.scanFilters = new ArrayList<>();
+            this.softwareFilters = new ArrayList<>();
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
                 this.scanSettings = new ScanSettings.Builder().build();
@@ -104,7 +264,7 @@ public abstract class SimpleBleScanner {
 
         /**
          * Add period of scan.
-         * Period in Milliseconds.
+         * Period in Milliseconds, 0 to scan until {@link SimpleBleScanner#stopScan()}.
          *
          * @param period {@link Integer}
          * @return {@link Builder}
@@ -178,6 +338,23 @@ public abstract class SimpleBleScanner {
             return this;
         }
 
+        /**
+         * Add software filter, evaluated by the library before results reach the callback.
+         * Results pass if they match any of the added filters, like {@link ScanFilter}s.
+         * Both kinds can be combined: hardware filters narrow what the controller reports
+         * and software filters refine it further.
+         *
+         * @param filter {@link SoftwareFilter}
+         * @return {@link Builder}
+         */
+        public Builder addSoftwareFilter(SoftwareFilter... filter) {
+            for (SoftwareFilter f : filter) {
+                if (f == null) throw new IllegalArgumentException("Filter is null");
+                softwareFilters.add(f);
+            }
+            return this;
+        }
+
         /**
          * Add settings scan.
          *
@@ -190,18 +367,239 @@ public abstract class SimpleBleScanner {
             return this;
         }
 
+        /**
+         * Deliver only the first advertisement of each device per scan.
+         * Duplicates are dropped by the scanner with a hash lookup on the
+         * packed device address, before reaching the callback.
+         *
+         * @param deduplicate {@link Boolean}
+         * @return {@link Builder}
+         */
+        public Builder addDeduplicate(boolean deduplicate) {
+            this.deduplicate = deduplicate;
+            return this;
+        }
+
+        /**
+         * Deliver results in batches through
+         * {@link SimpleScannerCallback#onBatchScanResults(List)} instead of one
+         * {@link SimpleScannerCallback#onScanResult(int, android.bluetooth.le.ScanResult)}
+         * call per advertisement. A batch is delivered when it holds maxBatchSize results
+         * or when its oldest result has waited maxLatency milliseconds, in both cases from
+         * the scanner looper (see {@link #addLooper(Looper)}), or on the executor set with
+         * {@link #addCallbackExecutor(Executor)}. Lost devices are still delivered one by
+         * one with {@link ScanSettings#CALLBACK_TYPE_MATCH_LOST}, right after the pending batch.
+         *
+         * @param maxBatchSize {@link Integer}
+         * @param maxLatency   {@link Integer} Latency in milliseconds.
+         * @return {@link Builder}
+         * @throws IllegalArgumentException If size or latency are not positive.
+         */
+        public Builder addBatchDelivery(int maxBatchSize, int maxLatency) {
+            if (maxBatchSize < 1 || maxLatency < 1) {
+                throw new IllegalArgumentException("Batch size and latency must be positive");
+            }
+            this.batchSize = maxBatchSize;
+            this.batchLatency = maxLatency;
+            return this;
+        }
+
+        /**
+         * Scan in a duty cycle: the radio is on for a window at the start of every interval.
+         * The scan mode of the settings is then chosen by the scanner, from low latency
+         * while new devices keep showing up to low power, with longer idle times, while
+         * nothing new is around. Starts are spaced so that Android never reports
+         * {@link SimpleScannerCallback#SCAN_FAILED_SCANNING_TOO_FREQUENTLY}.
+         *
+         * @param window   {@link Integer} Window in milliseconds.
+         * @param interval {@link Integer} Interval in milliseconds, at least the window.
+         * @return {@link Builder}
+         * @throws IllegalArgumentException If the window is not positive or longer than the interval.
+         */
+        public Builder addDutyCycle(int window, int interval) {
+            if (window < 1 || interval < window) {
+                throw new IllegalArgumentException("Window must be positive and not longer than the interval");
+            }
+            this.dutyCycleWindow = window;
+            this.dutyCycleInterval = interval;
+            return this;
+        }
+
+        /**
+         * Feed the RSSI of every result that passes the software filters to a tracker,
+         * including the duplicates dropped in deduplicate mode. Read the smoothed RSSI
+         * and distance from the tracker in the callback. The tracker is updated on the
+         * scanner looper and can be read from any thread: with
+         * {@link #addCallbackExecutor(Executor)} it may already hold newer readings than
+         * the result being delivered.
+         *
+         * @param tracker {@link RssiTracker}
+         * @return {@link Builder}
+         */
+        public Builder addRssiTracker(RssiTracker tracker) {
+            this.rssiTracker = tracker;
+            return this;
+        }
+
+        /**
+         * Report devices not seen for a timeout through
+         * {@link SimpleScannerCallback#onScanResult(int, android.bluetooth.le.ScanResult)}
+         * with {@link ScanSettings#CALLBACK_TYPE_MATCH_LOST} and their last result.
+         * This emulates in software what controllers with filter offload do in hardware.
+         * A lost device is delivered again in deduplicate mode when it comes back.
+         * Only devices that passed the software filters are reported, and never in a batch
+         * (see {@link #addBatchDelivery(int, int)}).
+         *
+         * @param timeout {@link Integer} Timeout in milliseconds.
+         * @return {@link Builder}
+         * @throws IllegalArgumentException If the timeout is not positive.
+         */
+        public Builder addLostTimeout(int timeout) {
+            if (timeout < 1) throw new IllegalArgumentException("Timeout must be positive");
+            this.lostTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Collect throughput and health counters of the scan, read them with
+         * {@link ScanMetrics#snapshot()}.
+         *
+         * @param metrics {@link ScanMetrics}
+         * @return {@link Builder}
+         */
+        public Builder addMetrics(ScanMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Record every advertisement received, before filtering and deduplication,
+         * into a {@link SightingLog}. The log stays open after the scan stops.
+         *
+         * @param log {@link SightingLog}
+         * @return {@link Builder}
+         */
+        public Builder addSightingLog(SightingLog log) {
+            this.sightingLog = log;
+            return this;
+        }
+
+        /**
+         * Keep the latest state of every device that passes the software filters in a
+         * {@link SightingStore}, duplicates included, so consumers do not have to hold
+         * on to the results. Lost devices are removed from it.
+         *
+         * @param store {@link SightingStore}
+         * @return {@link Builder}
+         */
+        public Builder addSightingStore(SightingStore store) {
+            this.sightingStore = store;
+            return this;
+        }
+
+        /**
+         * Run the scanner on a looper: its state, the processing of the results and
+         * its timers (scan period, batching, duty cycle, lost devices). Calls made from
+         * other threads are posted to it. Without a looper, the scanner runs on the
+         * looper of the thread that starts the scan.
+         *
+         * @param looper {@link Looper}
+         * @return {@link Builder}
+         */
+        public Builder addLooper(Looper looper) {
+            this.looper = looper;
+            return this;
+        }
+
+        /**
+         * Run the scanner on a dedicated background thread owning all its state,
+         * like {@link #addLooper(Looper)}. The thread ends with {@link SimpleBleScanner#release()}.
+         *
+         * @return {@link Builder}
+         */
+        public Builder addScannerThread() {
+            this.scannerThread = true;
+            return this;
+        }
+
+        /**
+         * Deliver the callbacks on an executor rather than on the scanner looper. Use a
+         * serial executor to keep them in order. Batches are copied for the executor.
+         *
+         * @param executor {@link Executor}
+         * @return {@link Builder}
+         */
+        public Builder addCallbackExecutor(Executor executor) {
+            this.callbackExecutor = executor;
+            return this;
+        }
+
         /**
          * Build instance of SimpleBleScanner
          *
          * @return {@link SimpleBleScanner}
          * @throws UnsupportedOperationException If version sdk < lollipop.
+         * @throws IllegalStateException         If a looper is combined with a scanner thread.
          */
         public SimpleBleScanner build() {
+            if (looper != null && scannerThread) {
+                throw new IllegalStateException("Use either a looper or a scanner thread");
+            }
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
                 throw new UnsupportedOperationException();
             } else {
                 return new SimpleBleScannerLollipopImpl(this);
             }
         }
+
+        /**
+         * Build a scanner fed by a {@link ScanSource} instead of the Bluetooth radio,
+         * e.g. a {@link ReplayScanSource} to exercise filters and callbacks off-device.
+         * Software filters, deduplication, RSSI tracking, the sighting store and log and
+         * the metrics apply; hardware filters, settings and the scan period do not.
+         *
+         * @param source {@link ScanSource}
+         * @return {@link SourceScanner}
+         * @throws IllegalStateException If batching, duty cycling, the lost timeout or a
+         *                               threading option is set: callbacks run on the source thread.
+         */
+        public SourceScanner build(ScanSource source) {
+            if (batchSize > 0 || dutyCycleWindow > 0 || lostTimeout > 0) {
+                throw new IllegalStateException("Batching, duty cycle and lost timeout need the Bluetooth radio");
+            }
+            if (looper != null || scannerThread || callbackExecutor != null) {
+                throw new IllegalStateException("A scan source delivers on its own thread");
+            }
+            AdvertisementProcessor processor = new AdvertisementProcessor(compileSoftwareFilter(),
+                    compileFilterMatchers(), rssiTracker, sightingStore, sightingLog, deduplicate, metrics,
+                    false, true);
+            return new SourceScanner(source, processor, rssiTracker, metrics, sightingLog);
+        }
+
+        /**
+         * Compile the software filters into one matcher.
+         *
+         * @return {@link SoftwareFilter.Matcher} or null without software filters.
+         */
+        SoftwareFilter.Matcher compileSoftwareFilter() {
+            if (softwareFilters.isEmpty()) return null;
+            return SoftwareFilter.or(softwareFilters.toArray(new SoftwareFilter[0])).compile();
+        }
+
+        /**
+         * Compile each software filter on its own, to count hits per filter in the metrics.
+         *
+         * @return {@link SoftwareFilter.Matcher} array, or null without metrics or software filters.
+         */
+        SoftwareFilter.Matcher[] compileFilterMatchers() {
+            if (metrics == null || softwareFilters.isEmpty()) return null;
+            int count = softwareFilters.size();
+            SoftwareFilter.Matcher[] matchers = new SoftwareFilter.Matcher[count];
+            for (int i = 0; i < count; i++) {
+                matchers[i] = softwareFilters.get(i).compile();
+            }
+            metrics.setFilterCount(count);
+            return matchers;
+        }
     }
 }
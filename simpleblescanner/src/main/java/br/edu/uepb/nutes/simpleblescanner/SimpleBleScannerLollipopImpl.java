@@ -26,21 +26,50 @@ import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
 import android.support.annotation.RequiresApi;
 import android.support.annotation.RequiresPermission;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 public class SimpleBleScannerLollipopImpl extends SimpleBleScanner {
+    private static final long PRESENCE_MIN_TICK = 100;
+    private static final int MSG_SCAN_RESULT = 1;
+    private static final int MSG_BATCH_SCAN_RESULTS = 2;
+    private static final int MSG_SCAN_FAILED = 3;
+
     private BluetoothAdapter mBluetoothAdapter;
     private BluetoothLeScanner mBluetoothLeScanner;
     private SimpleScannerCallback mSimpleScanCallback;
     private Handler handler;
+    private HandlerThread mScannerThread;
     private Runnable runnable;
+    private AdvertisementProcessor mProcessor;
+    private List<ScanResult> mAcceptedResults;
+    private BatchDispatcher<ScanResult> mBatchDispatcher;
+    private Runnable mFlushRunnable;
+    private final ScanStartLimiter mStartLimiter = new ScanStartLimiter(Clock.SYSTEM);
+    private ScanScheduler mScheduler;
+    private ScanSettings[] mModeSettings;
+    private boolean mRadioOn;
+    private int mRadioMode;
+    private Runnable mBeginWindowRunnable;
+    private Runnable mEndWindowRunnable;
+    private PresenceTracker<ScanResult> mPresenceTracker;
+    private Runnable mPresenceRunnable;
+    private boolean mRadioStarted;
 
     /**
      * Constructor.
@@ -57,6 +86,88 @@ public class SimpleBleScannerLollipopImpl extends SimpleBleScanner {
      */
     private void initBluetoothLeScanner() {
         mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (scannerThread) {
+            mScannerThread = new HandlerThread("SimpleBleScanner", Process.THREAD_PRIORITY_BACKGROUND);
+            mScannerThread.start();
+            handler = new Handler(mScannerThread.getLooper(), mMessageCallback);
+        } else if (looper != null) {
+            handler = new Handler(looper, mMessageCallback);
+        }
+        mProcessor = new AdvertisementProcessor(this, dutyCycleWindow > 0, false);
+        if (softwareFilter != null || deduplicate) {
+            mAcceptedResults = new ArrayList<>();
+        }
+        if (batchSize > 0) {
+            mBatchDispatcher = new BatchDispatcher<>(batchSize, new BatchDispatcher.Sink<ScanResult>() {
+                @Override
+                public void onBatch(List<ScanResult> batch) {
+                    SimpleScannerCallback callback = mSimpleScanCallback;
+                    if (callback != null) dispatchBatch(callback, batch);
+                }
+            });
+            mFlushRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    mBatchDispatcher.flush();
+                }
+            };
+        }
+        if (dutyCycleWindow > 0) {
+            mScheduler = new ScanScheduler(dutyCycleWindow, dutyCycleInterval, Clock.SYSTEM);
+            mModeSettings = new ScanSettings[ScanSettings.SCAN_MODE_LOW_LATENCY + 1];
+            for (int mode = ScanSettings.SCAN_MODE_LOW_POWER; mode <= ScanSettings.SCAN_MODE_LOW_LATENCY; mode++) {
+                mModeSettings[mode] = settingsForMode(mode);
+            }
+        }
+        if (lostTimeout > 0) {
+            long tick = Math.min(lostTimeout, Math.max(PRESENCE_MIN_TICK, lostTimeout / 8));
+            mPresenceTracker = new PresenceTracker<>(lostTimeout, tick, new PresenceTracker.Listener<ScanResult>() {
+                @Override
+                public void onDeviceLost(long mac, ScanResult result) {
+                    mProcessor.forget(mac);
+                    SimpleScannerCallback callback = mSimpleScanCallback;
+                    if (callback != null) dispatchLost(callback, result);
+                }
+            });
+            mPresenceRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    mPresenceTracker.advance();
+                    if (mScanning) handler.postDelayed(this, mPresenceTracker.getTick());
+                }
+            };
+        }
+        mBeginWindowRunnable = new Runnable() {
+            @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+            @Override
+            public void run() {
+                beginWindow();
+            }
+        };
+        mEndWindowRunnable = new Runnable() {
+            @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+            @Override
+            public void run() {
+                endWindow();
+            }
+        };
+    }
+
+    /**
+     * Copy the scan settings with another scan mode.
+     *
+     * @param mode One of ScanSettings.SCAN_MODE_*.
+     * @return {@link ScanSettings}
+     */
+    private ScanSettings settingsForMode(int mode) {
+        ScanSettings.Builder builder = new ScanSettings.Builder().setScanMode(mode);
+        if (scanSettings != null) {
+            builder.setReportDelay(scanSettings.getReportDelayMillis());
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                builder.setCallbackType(scanSettings.getCallbackType());
+            }
+        }
+        return builder.build();
     }
 
     /**
@@ -67,18 +178,41 @@ public class SimpleBleScannerLollipopImpl extends SimpleBleScanner {
     @Override
     @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH,
             Manifest.permission.ACCESS_FINE_LOCATION})
-    public void startScan(SimpleScannerCallback callback) {
+    public void startScan(final SimpleScannerCallback callback) {
         if (callback == null) throw new IllegalArgumentException("Callback is null");
+        if (mBluetoothAdapter.getBluetoothLeScanner() == null) {
+            throw new IllegalArgumentException("Bluetooth LE not available");
+        }
+        if ((looper != null || mScannerThread != null) && !isOnScannerThread()) {
+            handler.post(new Runnable() {
+                @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH})
+                @Override
+                public void run() {
+                    startScan(callback);
+                }
+            });
+            return;
+        }
 
         mSimpleScanCallback = callback;
         mBluetoothLeScanner = mBluetoothAdapter.getBluetoothLeScanner();
         if (mBluetoothLeScanner == null) {
-            throw new IllegalArgumentException("Bluetooth LE not available");
+            deliverScanFailed(callback, SimpleScannerCallback.SCAN_FAILED_INTERNAL_ERROR);
+            mSimpleScanCallback = null;
+            return;
         }
 
-        mBluetoothLeScanner.startScan(scanFilters, scanSettings, bleScanCallback);
+        mProcessor.clear();
+        if (mBatchDispatcher != null) mBatchDispatcher.clear();
+        if (mScheduler != null) mScheduler.reset();
+        mRadioStarted = false;
+        if (looper == null && mScannerThread == null) handler = new Handler(mMessageCallback);
         mScanning = true;
-        handler = new Handler();
+        beginWindow();
+        if (mPresenceTracker != null) {
+            mPresenceTracker.clear();
+            handler.postDelayed(mPresenceRunnable, mPresenceTracker.getTick());
+        }
 
         runnable = new Runnable() {
             @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
@@ -87,7 +221,95 @@ public class SimpleBleScannerLollipopImpl extends SimpleBleScanner {
                 stopScan();
             }
         };
-        handler.postDelayed(runnable, scanPeriod);
+        if (scanPeriod > 0) handler.postDelayed(runnable, scanPeriod);
+    }
+
+    /**
+     * Turn the radio on, once the start rate limit allows it.
+     * In duty cycle mode the scan mode comes from the scheduler and the end
+     * of the window is scheduled.
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+    private void beginWindow() {
+        if (mBluetoothLeScanner == null) return;
+
+        long delay = mStartLimiter.delayUntilStartAllowed();
+        if (delay > 0) {
+            if (metrics != null) metrics.increment(ScanMetrics.STARTS_DELAYED);
+            handler.postDelayed(mBeginWindowRunnable, delay);
+            return;
+        }
+
+        ScanSettings settings = scanSettings;
+        if (mScheduler != null) {
+            mRadioMode = mScheduler.getScanMode();
+            settings = mModeSettings[mRadioMode];
+            mScheduler.onWindowStarted();
+            handler.postDelayed(mEndWindowRunnable, mScheduler.getWindow());
+        }
+        mBluetoothLeScanner.startScan(scanFilters, settings, bleScanCallback);
+        mStartLimiter.onScanStarted();
+        mRadioOn = true;
+        if (metrics != null) {
+            metrics.increment(ScanMetrics.SCAN_STARTS);
+            if (mRadioStarted) metrics.increment(ScanMetrics.SCAN_RESTARTS);
+        }
+        mRadioStarted = true;
+    }
+
+    /**
+     * End a duty cycle window. The radio stays on, without spending a start,
+     * when the scheduler wants a continuous scan in the same mode.
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+    private void endWindow() {
+        if (mBluetoothLeScanner == null) return;
+
+        long idle = mScheduler.onWindowFinished();
+        if (idle == 0 && mScheduler.getScanMode() == mRadioMode) {
+            mScheduler.onWindowStarted();
+            handler.postDelayed(mEndWindowRunnable, mScheduler.getWindow());
+            return;
+        }
+
+        mBluetoothLeScanner.stopScan(bleScanCallback);
+        mRadioOn = false;
+        handler.postDelayed(mBeginWindowRunnable, idle);
+    }
+
+    /**
+     * Replace the hardware filters and settings, restarting the radio if it is on.
+     * The restart goes through the start rate limit like any other start.
+     *
+     * @param filters  {@link ScanFilter} list.
+     * @param settings {@link ScanSettings}
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+    @Override
+    void updateScan(final List<ScanFilter> filters, final ScanSettings settings) {
+        if (!isOnScannerThread()) {
+            handler.post(new Runnable() {
+                @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+                @Override
+                public void run() {
+                    updateScan(filters, settings);
+                }
+            });
+            return;
+        }
+        scanFilters = filters;
+        scanSettings = settings;
+        if (mScheduler != null) {
+            for (int mode = ScanSettings.SCAN_MODE_LOW_POWER; mode <= ScanSettings.SCAN_MODE_LOW_LATENCY; mode++) {
+                mModeSettings[mode] = settingsForMode(mode);
+            }
+        }
+        if (!mRadioOn || mBluetoothLeScanner == null) return;
+
+        mBluetoothLeScanner.stopScan(bleScanCallback);
+        mRadioOn = false;
+        handler.removeCallbacks(mEndWindowRunnable);
+        beginWindow();
     }
 
     /**
@@ -96,36 +318,348 @@ public class SimpleBleScannerLollipopImpl extends SimpleBleScanner {
     @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
     @Override
     public void stopScan() {
+        if (!isOnScannerThread()) {
+            handler.post(new Runnable() {
+                @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+                @Override
+                public void run() {
+                    stopScan();
+                }
+            });
+            return;
+        }
         mBluetoothLeScanner = mBluetoothAdapter.getBluetoothLeScanner();
         if (mBluetoothLeScanner == null || mSimpleScanCallback == null) return;
-        mBluetoothLeScanner.stopScan(bleScanCallback);
+        if (mRadioOn) mBluetoothLeScanner.stopScan(bleScanCallback);
+        mRadioOn = false;
         handler.removeCallbacks(runnable);
-        mSimpleScanCallback.onFinish();
+        handler.removeCallbacks(mBeginWindowRunnable);
+        handler.removeCallbacks(mEndWindowRunnable);
+        if (mPresenceRunnable != null) handler.removeCallbacks(mPresenceRunnable);
+        if (mBatchDispatcher != null) {
+            handler.removeCallbacks(mFlushRunnable);
+            mBatchDispatcher.flush();
+        }
+        deliverFinish(mSimpleScanCallback);
         mSimpleScanCallback = null;
         mBluetoothLeScanner = null;
         mScanning = false;
     }
 
+    /**
+     * Release the scanner thread, after stopping the scan. Nothing is delivered afterwards.
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN})
+    @Override
+    public void release() {
+        if (mScannerThread == null) return;
+        stopScan();
+        // Runs after the stop posted above.
+        mScannerThread.quitSafely();
+    }
+
+    /**
+     * Return true when called from the looper that owns the scanner state. Before
+     * the first start without a configured looper, any thread owns it.
+     *
+     * @return boolean
+     */
+    private boolean isOnScannerThread() {
+        return handler == null || handler.getLooper() == Looper.myLooper();
+    }
+
+    /**
+     * Results the platform delivered on another thread, handed to the scanner looper.
+     */
+    private final Handler.Callback mMessageCallback = new Handler.Callback() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_SCAN_RESULT:
+                    handleScanResult(msg.arg1, (ScanResult) msg.obj);
+                    return true;
+                case MSG_BATCH_SCAN_RESULTS:
+                    handleBatchScanResults((List<ScanResult>) msg.obj);
+                    return true;
+                case MSG_SCAN_FAILED:
+                    handleScanFailed(msg.arg1);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    };
+
     final ScanCallback bleScanCallback = new android.bluetooth.le.ScanCallback() {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
             super.onScanResult(callbackType, result);
-            if (mSimpleScanCallback == null || result == null) return;
-            mSimpleScanCallback.onScanResult(callbackType, result);
+            if (result == null) return;
+            if (isOnScannerThread()) {
+                handleScanResult(callbackType, result);
+            } else {
+                handler.obtainMessage(MSG_SCAN_RESULT, callbackType, 0, result).sendToTarget();
+            }
         }
 
         @Override
         public void onBatchScanResults(List<ScanResult> results) {
             super.onBatchScanResults(results);
-            if (mSimpleScanCallback == null || results == null) return;
-            mSimpleScanCallback.onBatchScanResults(results);
+            if (results == null) return;
+            if (isOnScannerThread()) {
+                handleBatchScanResults(results);
+            } else {
+                handler.obtainMessage(MSG_BATCH_SCAN_RESULTS, 0, 0, results).sendToTarget();
+            }
         }
 
         @Override
         public void onScanFailed(int errorCode) {
             super.onScanFailed(errorCode);
-            if (mSimpleScanCallback == null) return;
-            mSimpleScanCallback.onScanFailed(errorCode);
+            if (isOnScannerThread()) {
+                handleScanFailed(errorCode);
+            } else {
+                handler.obtainMessage(MSG_SCAN_FAILED, errorCode, 0, null).sendToTarget();
+            }
         }
     };
+
+    /**
+     * Process a result on the scanner looper.
+     *
+     * @param callbackType Callback type of the result.
+     * @param result       {@link ScanResult}
+     */
+    private void handleScanResult(int callbackType, ScanResult result) {
+        if (mSimpleScanCallback == null) {
+            mProcessor.drop(1);
+            return;
+        }
+        if (!accept(callbackType, result)) return;
+        if (callbackType == ScanSettings.CALLBACK_TYPE_MATCH_LOST) {
+            dispatchLost(mSimpleScanCallback, result);
+            return;
+        }
+        if (mBatchDispatcher != null) {
+            enqueue(result);
+            return;
+        }
+        dispatch(mSimpleScanCallback, callbackType, result);
+    }
+
+    /**
+     * Process batched results on the scanner looper.
+     *
+     * @param results {@link ScanResult} list.
+     */
+    private void handleBatchScanResults(List<ScanResult> results) {
+        if (mSimpleScanCallback == null) {
+            mProcessor.drop(results.size());
+            return;
+        }
+        if (mBatchDispatcher != null) {
+            for (int i = 0, size = results.size(); i < size; i++) {
+                ScanResult result = results.get(i);
+                if (accept(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result)) enqueue(result);
+            }
+            return;
+        }
+        if (mAcceptedResults != null) {
+            mAcceptedResults.clear();
+            for (int i = 0, size = results.size(); i < size; i++) {
+                ScanResult result = results.get(i);
+                if (accept(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result)) {
+                    mAcceptedResults.add(result);
+                }
+            }
+            if (mAcceptedResults.isEmpty()) return;
+            results = mAcceptedResults;
+        }
+        dispatchBatch(mSimpleScanCallback, results);
+    }
+
+    /**
+     * Report a failure to start the radio, on the scanner looper.
+     *
+     * @param errorCode Error code.
+     */
+    private void handleScanFailed(int errorCode) {
+        if (metrics != null) metrics.onScanFailed(errorCode);
+        if (mSimpleScanCallback == null) return;
+        deliverScanFailed(mSimpleScanCallback, errorCode);
+    }
+
+    /**
+     * Deliver a result, on the callback executor if one is set, timing the
+     * callback when metrics are on.
+     *
+     * @param callback     {@link SimpleScannerCallback}
+     * @param callbackType Callback type of the result.
+     * @param result       {@link ScanResult}
+     */
+    private void dispatch(final SimpleScannerCallback callback, final int callbackType, final ScanResult result) {
+        if (callbackExecutor == null) {
+            deliver(callback, callbackType, result);
+            return;
+        }
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, callbackType, result);
+            }
+        });
+    }
+
+    private void deliver(SimpleScannerCallback callback, int callbackType, ScanResult result) {
+        if (metrics == null) {
+            callback.onScanResult(callbackType, result);
+            return;
+        }
+        long start = System.nanoTime();
+        callback.onScanResult(callbackType, result);
+        metrics.recordDispatch(System.nanoTime() - start);
+        metrics.increment(ScanMetrics.DELIVERED);
+    }
+
+    /**
+     * Deliver a batch, on the callback executor if one is set, timing the
+     * callback when metrics are on. The list is copied for the executor, as
+     * the batch lists are reused once this method returns.
+     *
+     * @param callback {@link SimpleScannerCallback}
+     * @param results  {@link ScanResult} list.
+     */
+    private void dispatchBatch(final SimpleScannerCallback callback, List<ScanResult> results) {
+        if (callbackExecutor == null) {
+            deliverBatch(callback, results);
+            return;
+        }
+        final List<ScanResult> copy = new ArrayList<>(results);
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliverBatch(callback, copy);
+            }
+        });
+    }
+
+    private void deliverBatch(SimpleScannerCallback callback, List<ScanResult> results) {
+        if (metrics == null) {
+            callback.onBatchScanResults(results);
+            return;
+        }
+        int size = results.size();
+        long start = System.nanoTime();
+        callback.onBatchScanResults(results);
+        metrics.recordDispatch(System.nanoTime() - start);
+        metrics.add(ScanMetrics.DELIVERED, size);
+    }
+
+    /**
+     * Report a scan failure, on the callback executor if one is set.
+     *
+     * @param callback  {@link SimpleScannerCallback}
+     * @param errorCode Error code.
+     */
+    private void deliverScanFailed(final SimpleScannerCallback callback, final int errorCode) {
+        if (callbackExecutor == null) {
+            callback.onScanFailed(errorCode);
+            return;
+        }
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onScanFailed(errorCode);
+            }
+        });
+    }
+
+    /**
+     * Report the end of the scan, on the callback executor if one is set.
+     *
+     * @param callback {@link SimpleScannerCallback}
+     */
+    private void deliverFinish(final SimpleScannerCallback callback) {
+        if (callbackExecutor == null) {
+            callback.onFinish();
+            return;
+        }
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFinish();
+            }
+        });
+    }
+
+    /**
+     * Hand a result to the batch dispatcher, arming the latency timer when it opens
+     * a new batch. Runs on the scanner looper, like the timer: full and timed out
+     * batches leave from the same thread.
+     *
+     * @param result {@link ScanResult}
+     */
+    private void enqueue(ScanResult result) {
+        switch (mBatchDispatcher.add(result)) {
+            case BatchDispatcher.OPENED:
+                handler.postDelayed(mFlushRunnable, batchLatency);
+                break;
+            case BatchDispatcher.FULL:
+                // The timer of this batch must not cut the next one short.
+                handler.removeCallbacks(mFlushRunnable);
+                mBatchDispatcher.flush();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Deliver a lost device on its own, even in batch mode, as a batch has no
+     * callback type to tell it apart. The pending batch goes out first, so a device
+     * is never reported lost before the results that found it. Runs on the scanner looper.
+     *
+     * @param callback {@link SimpleScannerCallback}
+     * @param result   Last {@link ScanResult} of the device.
+     */
+    private void dispatchLost(SimpleScannerCallback callback, ScanResult result) {
+        if (mBatchDispatcher != null) {
+            handler.removeCallbacks(mFlushRunnable);
+            mBatchDispatcher.flush();
+        }
+        dispatch(callback, ScanSettings.CALLBACK_TYPE_MATCH_LOST, result);
+    }
+
+    /**
+     * Run the shared per-advertisement step of the processor on a result: check if it
+     * passes the software filter and, in deduplicate mode,
+     * is the first one from its device in the current scan. New devices are
+     * reported to the duty cycle scheduler. The RSSI and presence trackers see
+     * every filtered result, duplicates included.
+     * A lost device must pass the software filter too, and is then forgotten by the
+     * processor and the presence tracker, so it is delivered again when it comes back.
+     *
+     * @param callbackType Callback type of the result.
+     * @param result       {@link ScanResult}
+     * @return boolean
+     */
+    private boolean accept(int callbackType, ScanResult result) {
+        if (mPresenceTracker == null && mProcessor.isPassThrough()) return true;
+
+        long mac = MacAddress.pack(result.getDevice().getAddress());
+        ScanRecord record = result.getScanRecord();
+        byte[] payload = record == null ? null : record.getBytes();
+        if (callbackType == ScanSettings.CALLBACK_TYPE_MATCH_LOST) {
+            if (!mProcessor.lost(mac, result.getRssi(), payload)) return false;
+            // Reported by the controller: the lost timeout must not report it again.
+            if (mPresenceTracker != null) mPresenceTracker.remove(mac);
+            return true;
+        }
+        int decision = mProcessor.receive(mac, result.getRssi(), payload, result.getTimestampNanos());
+        if (decision == AdvertisementProcessor.REJECTED) return false;
+        if (mPresenceTracker != null) mPresenceTracker.onSeen(mac, result);
+        if (decision == AdvertisementProcessor.DISCOVERED && mScheduler != null) mScheduler.onDeviceDiscovered();
+        return decision != AdvertisementProcessor.DUPLICATE;
+    }
 }
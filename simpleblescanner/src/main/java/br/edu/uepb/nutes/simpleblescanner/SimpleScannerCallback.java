@@ -76,6 +76,8 @@ public interface SimpleScannerCallback {
 
     /**
      * Callback when batch results are delivered.
+     * With batch delivery enabled on the builder the list is reused by the
+     * scanner once this method returns, so copy it to keep the results.
      *
      * @param results List of scan results that are previously scanned.
      */
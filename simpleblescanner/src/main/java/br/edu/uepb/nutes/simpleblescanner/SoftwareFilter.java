@@ -0,0 +1,575 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Filter applied by the library to every advertisement, before it reaches the
+ * {@link SimpleScannerCallback}. Unlike {@link android.bluetooth.le.ScanFilter} it
+ * supports RSSI thresholds, name prefixes, masked manufacturer data and any
+ * combination of them with {@link #and(SoftwareFilter...)} and {@link #or(SoftwareFilter...)}.
+ * <p>
+ * A filter is only a description; {@link #compile()} turns it into a {@link Matcher}.
+ * Alternatives of the same kind are merged while compiling: addresses into one
+ * hash table, service UUIDs into one {@link UuidHashSet} and name prefixes into one
+ * {@link NamePrefixTrie}. Conditions of a conjunction are tested cheapest first.
+ */
+public abstract class SoftwareFilter {
+    // Relative cost of a test, used to order conjunctions and disjunctions.
+    static final int COST_RSSI = 0;
+    static final int COST_ADDRESS = 1;
+    static final int COST_MANUFACTURER_DATA = 2;
+    static final int COST_SERVICE_UUID = 3;
+    static final int COST_NAME = 4;
+    static final int COST_COMPOSITE = 5;
+
+    SoftwareFilter() {
+    }
+
+    /**
+     * Match devices by address.
+     *
+     * @param deviceAddress {@link String} Address in the "AA:BB:CC:DD:EE:FF" format.
+     * @return {@link SoftwareFilter}
+     * @throws IllegalArgumentException If an address is malformed.
+     */
+    public static SoftwareFilter address(String... deviceAddress) {
+        long[] macs = new long[deviceAddress.length];
+        for (int i = 0; i < deviceAddress.length; i++) {
+            macs[i] = MacAddress.pack(deviceAddress[i]);
+            if (macs[i] == MacAddress.INVALID) {
+                throw new IllegalArgumentException("Invalid address " + deviceAddress[i]);
+            }
+        }
+        return new AddressFilter(macs);
+    }
+
+    /**
+     * Match advertisements listing any of the service UUIDs.
+     * Short UUIDs advertised by devices are expanded with the Bluetooth base UUID.
+     *
+     * @param serviceUuid {@link String}
+     * @return {@link SoftwareFilter}
+     */
+    public static SoftwareFilter serviceUuid(String... serviceUuid) {
+        UUID[] uuids = new UUID[serviceUuid.length];
+        for (int i = 0; i < serviceUuid.length; i++) uuids[i] = UUID.fromString(serviceUuid[i]);
+        return new ServiceUuidFilter(uuids);
+    }
+
+    /**
+     * Match advertisements whose local name starts with any of the prefixes.
+     *
+     * @param prefix {@link String}
+     * @return {@link SoftwareFilter}
+     */
+    public static SoftwareFilter namePrefix(String... prefix) {
+        return new NamePrefixFilter(prefix.clone());
+    }
+
+    /**
+     * Match advertisements received with at least the given signal strength.
+     *
+     * @param rssi {@link Integer} Minimum RSSI in dBm.
+     * @return {@link SoftwareFilter}
+     */
+    public static SoftwareFilter rssiAtLeast(int rssi) {
+        return new RssiFilter(rssi);
+    }
+
+    /**
+     * Match advertisements carrying manufacturer data of a company.
+     *
+     * @param manufacturerId {@link Integer} Company identifier.
+     * @return {@link SoftwareFilter}
+     */
+    public static SoftwareFilter manufacturerData(int manufacturerId) {
+        return new ManufacturerDataFilter(manufacturerId, new byte[0], new byte[0]);
+    }
+
+    /**
+     * Match advertisements carrying manufacturer data of a company that starts with
+     * the given bytes, compared only where the mask has bits set.
+     * Same semantics as {@link android.bluetooth.le.ScanFilter.Builder#setManufacturerData(int, byte[], byte[])}.
+     *
+     * @param manufacturerId {@link Integer} Company identifier.
+     * @param data           Expected bytes, after the company identifier.
+     * @param mask           Mask with the same length as data, or null to compare every bit.
+     * @return {@link SoftwareFilter}
+     * @throws IllegalArgumentException If the mask and data lengths differ.
+     */
+    public static SoftwareFilter manufacturerData(int manufacturerId, byte[] data, byte[] mask) {
+        if (data == null) throw new IllegalArgumentException("Data is null");
+        if (mask == null) {
+            mask = new byte[data.length];
+            Arrays.fill(mask, (byte) 0xFF);
+        } else if (mask.length != data.length) {
+            throw new IllegalArgumentException("Mask and data must have the same length");
+        }
+        return new ManufacturerDataFilter(manufacturerId, data.clone(), mask.clone());
+    }
+
+    /**
+     * Match advertisements matched by all filters.
+     *
+     * @param filters {@link SoftwareFilter}
+     * @return {@link SoftwareFilter}
+     */
+    public static SoftwareFilter and(SoftwareFilter... filters) {
+        return new GroupFilter(true, filters.clone());
+    }
+
+    /**
+     * Match advertisements matched by any filter.
+     *
+     * @param filters {@link SoftwareFilter}
+     * @return {@link SoftwareFilter}
+     */
+    public static SoftwareFilter or(SoftwareFilter... filters) {
+        return new GroupFilter(false, filters.clone());
+    }
+
+    /**
+     * Compile the filter.
+     *
+     * @return {@link Matcher}
+     */
+    public Matcher compile() {
+        return compileAlone();
+    }
+
+    /**
+     * Compile this filter when it can not be merged with siblings.
+     */
+    abstract Matcher compileAlone();
+
+    /**
+     * Compiled filter. Thread-safe, as matching does not modify it.
+     */
+    public abstract static class Matcher {
+        Matcher() {
+        }
+
+        /**
+         * Test an advertisement.
+         *
+         * @param mac  Packed device address, see {@link MacAddress}.
+         * @param rssi Received signal strength in dBm.
+         * @param ad   {@link AdvertisingData} wrapped around the advertisement.
+         * @return boolean
+         */
+        public abstract boolean matches(long mac, int rssi, AdvertisingData ad);
+
+        abstract int cost();
+    }
+
+    private static final Comparator<Matcher> BY_COST = new Comparator<Matcher>() {
+        @Override
+        public int compare(Matcher a, Matcher b) {
+            return a.cost() < b.cost() ? -1 : (a.cost() == b.cost() ? 0 : 1);
+        }
+    };
+
+    static final class AddressFilter extends SoftwareFilter {
+        final long[] macs;
+
+        AddressFilter(long[] macs) {
+            this.macs = macs;
+        }
+
+        @Override
+        Matcher compileAlone() {
+            return AddressMatcher.of(Collections.<SoftwareFilter>singletonList(this));
+        }
+    }
+
+    static final class ServiceUuidFilter extends SoftwareFilter {
+        final UUID[] uuids;
+
+        ServiceUuidFilter(UUID[] uuids) {
+            this.uuids = uuids;
+        }
+
+        @Override
+        Matcher compileAlone() {
+            return ServiceUuidMatcher.of(Collections.<SoftwareFilter>singletonList(this));
+        }
+    }
+
+    static final class NamePrefixFilter extends SoftwareFilter {
+        final String[] prefixes;
+
+        NamePrefixFilter(String[] prefixes) {
+            this.prefixes = prefixes;
+        }
+
+        @Override
+        Matcher compileAlone() {
+            return NamePrefixMatcher.of(Collections.<SoftwareFilter>singletonList(this));
+        }
+    }
+
+    static final class RssiFilter extends SoftwareFilter {
+        final int minRssi;
+
+        RssiFilter(int minRssi) {
+            this.minRssi = minRssi;
+        }
+
+        @Override
+        Matcher compileAlone() {
+            return new RssiMatcher(minRssi);
+        }
+    }
+
+    static final class ManufacturerDataFilter extends SoftwareFilter {
+        final int manufacturerId;
+        final byte[] data;
+        final byte[] mask;
+
+        ManufacturerDataFilter(int manufacturerId, byte[] data, byte[] mask) {
+            this.manufacturerId = manufacturerId;
+            this.data = data;
+            this.mask = mask;
+        }
+
+        @Override
+        Matcher compileAlone() {
+            return ManufacturerDataMatcher.of(Collections.<SoftwareFilter>singletonList(this));
+        }
+    }
+
+    static final class GroupFilter extends SoftwareFilter {
+        final boolean conjunction;
+        final SoftwareFilter[] children;
+
+        GroupFilter(boolean conjunction, SoftwareFilter[] children) {
+            if (children.length == 0) throw new IllegalArgumentException("No filters");
+            for (SoftwareFilter child : children) {
+                if (child == null) throw new IllegalArgumentException("Filter is null");
+            }
+            this.conjunction = conjunction;
+            this.children = children;
+        }
+
+        @Override
+        Matcher compileAlone() {
+            List<SoftwareFilter> leaves = new ArrayList<>();
+            flatten(this, leaves);
+            return conjunction ? compileConjunction(leaves) : compileDisjunction(leaves);
+        }
+
+        /**
+         * Inline nested groups of the same kind, (a AND (b AND c)) is (a AND b AND c).
+         */
+        private void flatten(GroupFilter group, List<SoftwareFilter> leaves) {
+            for (SoftwareFilter child : group.children) {
+                if (child instanceof GroupFilter && ((GroupFilter) child).conjunction == conjunction) {
+                    flatten((GroupFilter) child, leaves);
+                } else {
+                    leaves.add(child);
+                }
+            }
+        }
+
+        private static Matcher compileConjunction(List<SoftwareFilter> leaves) {
+            List<Matcher> matchers = new ArrayList<>();
+            int minRssi = Integer.MIN_VALUE;
+            boolean hasRssi = false;
+            for (SoftwareFilter leaf : leaves) {
+                if (leaf instanceof RssiFilter) {
+                    minRssi = Math.max(minRssi, ((RssiFilter) leaf).minRssi);
+                    hasRssi = true;
+                } else {
+                    matchers.add(leaf.compileAlone());
+                }
+            }
+            if (hasRssi) matchers.add(new RssiMatcher(minRssi));
+            if (matchers.size() == 1) return matchers.get(0);
+
+            Collections.sort(matchers, BY_COST);
+            return new AndMatcher(matchers.toArray(new Matcher[0]));
+        }
+
+        private static Matcher compileDisjunction(List<SoftwareFilter> leaves) {
+            List<SoftwareFilter> addresses = new ArrayList<>();
+            List<SoftwareFilter> uuids = new ArrayList<>();
+            List<SoftwareFilter> names = new ArrayList<>();
+            List<SoftwareFilter> manufacturerData = new ArrayList<>();
+            List<Matcher> matchers = new ArrayList<>();
+            int minRssi = Integer.MAX_VALUE;
+            boolean hasRssi = false;
+
+            for (SoftwareFilter leaf : leaves) {
+                if (leaf instanceof AddressFilter) {
+                    addresses.add(leaf);
+                } else if (leaf instanceof ServiceUuidFilter) {
+                    uuids.add(leaf);
+                } else if (leaf instanceof NamePrefixFilter) {
+                    names.add(leaf);
+                } else if (leaf instanceof ManufacturerDataFilter) {
+                    manufacturerData.add(leaf);
+                } else if (leaf instanceof RssiFilter) {
+                    minRssi = Math.min(minRssi, ((RssiFilter) leaf).minRssi);
+                    hasRssi = true;
+                } else {
+                    matchers.add(leaf.compileAlone());
+                }
+            }
+            if (hasRssi) matchers.add(new RssiMatcher(minRssi));
+            if (!addresses.isEmpty()) matchers.add(AddressMatcher.of(addresses));
+            if (!uuids.isEmpty()) matchers.add(ServiceUuidMatcher.of(uuids));
+            if (!names.isEmpty()) matchers.add(NamePrefixMatcher.of(names));
+            if (!manufacturerData.isEmpty()) matchers.add(ManufacturerDataMatcher.of(manufacturerData));
+            if (matchers.size() == 1) return matchers.get(0);
+
+            Collections.sort(matchers, BY_COST);
+            return new OrMatcher(matchers.toArray(new Matcher[0]));
+        }
+    }
+
+    static final class AndMatcher extends Matcher {
+        private final Matcher[] matchers;
+
+        AndMatcher(Matcher[] matchers) {
+            this.matchers = matchers;
+        }
+
+        @Override
+        public boolean matches(long mac, int rssi, AdvertisingData ad) {
+            for (Matcher matcher : matchers) {
+                if (!matcher.matches(mac, rssi, ad)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        int cost() {
+            return COST_COMPOSITE;
+        }
+    }
+
+    static final class OrMatcher extends Matcher {
+        private final Matcher[] matchers;
+
+        OrMatcher(Matcher[] matchers) {
+            this.matchers = matchers;
+        }
+
+        @Override
+        public boolean matches(long mac, int rssi, AdvertisingData ad) {
+            for (Matcher matcher : matchers) {
+                if (matcher.matches(mac, rssi, ad)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        int cost() {
+            return COST_COMPOSITE;
+        }
+    }
+
+    static final class RssiMatcher extends Matcher {
+        private final int minRssi;
+
+        RssiMatcher(int minRssi) {
+            this.minRssi = minRssi;
+        }
+
+        @Override
+        public boolean matches(long mac, int rssi, AdvertisingData ad) {
+            return rssi >= minRssi;
+        }
+
+        @Override
+        int cost() {
+            return COST_RSSI;
+        }
+    }
+
+    static final class AddressMatcher extends Matcher {
+        private final DeviceTable addresses;
+
+        private AddressMatcher(DeviceTable addresses) {
+            this.addresses = addresses;
+        }
+
+        static AddressMatcher of(List<SoftwareFilter> filters) {
+            DeviceTable addresses = new DeviceTable();
+            for (SoftwareFilter filter : filters) {
+                for (long mac : ((AddressFilter) filter).macs) addresses.insert(mac);
+            }
+            return new AddressMatcher(addresses);
+        }
+
+        @Override
+        public boolean matches(long mac, int rssi, AdvertisingData ad) {
+            return addresses.contains(mac);
+        }
+
+        @Override
+        int cost() {
+            return COST_ADDRESS;
+        }
+    }
+
+    static final class ServiceUuidMatcher extends Matcher {
+        private final UuidHashSet uuids;
+
+        private ServiceUuidMatcher(UuidHashSet uuids) {
+            this.uuids = uuids;
+        }
+
+        static ServiceUuidMatcher of(List<SoftwareFilter> filters) {
+            UuidHashSet uuids = new UuidHashSet(filters.size());
+            for (SoftwareFilter filter : filters) {
+                for (UUID uuid : ((ServiceUuidFilter) filter).uuids) uuids.add(uuid);
+            }
+            return new ServiceUuidMatcher(uuids);
+        }
+
+        @Override
+        public boolean matches(long mac, int rssi, AdvertisingData ad) {
+            return uuids.findIn(ad) >= 0;
+        }
+
+        @Override
+        int cost() {
+            return COST_SERVICE_UUID;
+        }
+    }
+
+    static final class NamePrefixMatcher extends Matcher {
+        private final NamePrefixTrie trie;
+
+        private NamePrefixMatcher(NamePrefixTrie trie) {
+            this.trie = trie;
+        }
+
+        static NamePrefixMatcher of(List<SoftwareFilter> filters) {
+            NamePrefixTrie trie = new NamePrefixTrie();
+            for (SoftwareFilter filter : filters) {
+                for (String prefix : ((NamePrefixFilter) filter).prefixes) trie.add(prefix);
+            }
+            return new NamePrefixMatcher(trie);
+        }
+
+        @Override
+        public boolean matches(long mac, int rssi, AdvertisingData ad) {
+            return trie.matches(ad);
+        }
+
+        @Override
+        int cost() {
+            return COST_NAME;
+        }
+    }
+
+    /**
+     * Masked manufacturer data compare. Patterns are packed 8 bytes per long,
+     * so most patterns are tested with one or two AND-and-compare operations.
+     */
+    static final class ManufacturerDataMatcher extends Matcher {
+        private final int[] manufacturerIds;
+        private final int[] lengths;
+        private final long[][] values;
+        private final long[][] masks;
+
+        private ManufacturerDataMatcher(int count) {
+            manufacturerIds = new int[count];
+            lengths = new int[count];
+            values = new long[count][];
+            masks = new long[count][];
+        }
+
+        static ManufacturerDataMatcher of(List<SoftwareFilter> filters) {
+            ManufacturerDataMatcher matcher = new ManufacturerDataMatcher(filters.size());
+            for (int i = 0; i < filters.size(); i++) {
+                ManufacturerDataFilter filter = (ManufacturerDataFilter) filters.get(i);
+                int words = (filter.data.length + 7) / 8;
+                matcher.manufacturerIds[i] = filter.manufacturerId;
+                matcher.lengths[i] = filter.data.length;
+                matcher.values[i] = new long[words];
+                matcher.masks[i] = new long[words];
+                for (int word = 0; word < words; word++) {
+                    long mask = pack(filter.mask, word * 8, filter.mask.length);
+                    matcher.masks[i][word] = mask;
+                    matcher.values[i][word] = pack(filter.data, word * 8, filter.data.length) & mask;
+                }
+            }
+            return matcher;
+        }
+
+        @Override
+        public boolean matches(long mac, int rssi, AdvertisingData ad) {
+            for (int i = 0, count = ad.getManufacturerDataCount(); i < count; i++) {
+                int manufacturerId = ad.getManufacturerId(i);
+                for (int pattern = 0; pattern < manufacturerIds.length; pattern++) {
+                    if (manufacturerIds[pattern] == manufacturerId && matchesPattern(pattern, ad, i)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesPattern(int pattern, AdvertisingData ad, int index) {
+            int length = lengths[pattern];
+            if (ad.getManufacturerDataLength(index) < length) return false;
+
+            byte[] data = ad.getData();
+            int offset = ad.getManufacturerDataOffset(index);
+            long[] patternValues = values[pattern];
+            long[] patternMasks = masks[pattern];
+            for (int word = 0; word < patternValues.length; word++) {
+                long value = pack(data, offset + word * 8, offset + length);
+                if ((value & patternMasks[word]) != patternValues[word]) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Read up to 8 bytes, big-endian, stopping at end and padding with zeros.
+         */
+        private static long pack(byte[] bytes, int offset, int end) {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                int position = offset + i;
+                value = (value << 8) | (position < end ? bytes[position] & 0xFF : 0);
+            }
+            return value;
+        }
+
+        @Override
+        int cost() {
+            return COST_MANUFACTURER_DATA;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+/**
+ * Scanner fed by a {@link ScanSource} instead of the Bluetooth radio, built with
+ * {@link SimpleBleScanner.Builder#build(ScanSource)}.
+ * <p>
+ * Advertisements go through the same {@link AdvertisementProcessor} step as radio
+ * results, so software filters, deduplication, RSSI tracking, metrics and the
+ * sighting log behave the same. The callback runs on the source thread. The scan
+ * ends on {@link #stopScan()} or when the source ends.
+ */
+public final class SourceScanner {
+    private final ScanSource source;
+    private final AdvertisementProcessor processor;
+    private final RssiTracker rssiTracker;
+    private final ScanMetrics metrics;
+    private final SightingLog sightingLog;
+    private volatile boolean mScanning;
+    private volatile AdvertisementCallback callback;
+
+    private final ScanSource.Sink sink = new ScanSource.Sink() {
+        @Override
+        public void onAdvertisement(long mac, int rssi, byte[] payload, long timestampNanos) {
+            AdvertisementCallback callback = SourceScanner.this.callback;
+            if (callback == null) {
+                processor.drop(1);
+                return;
+            }
+
+            int decision = processor.receive(mac, rssi, payload, timestampNanos);
+            if (decision == AdvertisementProcessor.REJECTED || decision == AdvertisementProcessor.DUPLICATE) {
+                return;
+            }
+            AdvertisingData data = processor.getAdvertisingData();
+            if (metrics == null) {
+                callback.onAdvertisement(mac, rssi, data, timestampNanos);
+                return;
+            }
+            long start = System.nanoTime();
+            callback.onAdvertisement(mac, rssi, data, timestampNanos);
+            metrics.recordDispatch(System.nanoTime() - start);
+            metrics.increment(ScanMetrics.DELIVERED);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            AdvertisementCallback callback = SourceScanner.this.callback;
+            if (callback == null) return;
+
+            mScanning = false;
+            SourceScanner.this.callback = null;
+            if (metrics != null) metrics.onScanFailed(errorCode);
+            callback.onScanFailed(errorCode);
+        }
+
+        @Override
+        public void onEnd() {
+            AdvertisementCallback callback = SourceScanner.this.callback;
+            if (callback == null) return;
+
+            mScanning = false;
+            SourceScanner.this.callback = null;
+            callback.onFinish();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param source      {@link ScanSource}
+     * @param processor   {@link AdvertisementProcessor} built from the same settings.
+     * @param rssiTracker {@link RssiTracker} or null.
+     * @param metrics     {@link ScanMetrics} or null.
+     * @param sightingLog {@link SightingLog} or null.
+     */
+    SourceScanner(ScanSource source, AdvertisementProcessor processor, RssiTracker rssiTracker,
+                  ScanMetrics metrics, SightingLog sightingLog) {
+        this.source = source;
+        this.processor = processor;
+        this.rssiTracker = rssiTracker;
+        this.metrics = metrics;
+        this.sightingLog = sightingLog;
+    }
+
+    /**
+     * Start scan.
+     *
+     * @param callback {@link AdvertisementCallback} Callback used to deliver advertisements.
+     */
+    public void startScan(AdvertisementCallback callback) {
+        if (callback == null) throw new IllegalArgumentException("Callback is required");
+        if (mScanning) {
+            callback.onScanFailed(SimpleScannerCallback.SCAN_FAILED_ALREADY_STARTED);
+            return;
+        }
+        processor.clear();
+        if (rssiTracker != null) rssiTracker.clear();
+        if (metrics != null) metrics.increment(ScanMetrics.SCAN_STARTS);
+        this.callback = callback;
+        mScanning = true;
+        source.start(sink);
+    }
+
+    /**
+     * Stop scan.
+     */
+    public void stopScan() {
+        if (!mScanning) return;
+
+        // Once the source stopped, the sink is not called anymore and has not ended the scan itself.
+        source.stop();
+        AdvertisementCallback callback = this.callback;
+        if (callback == null) return;
+        mScanning = false;
+        this.callback = null;
+        if (sightingLog != null) sightingLog.flush();
+        callback.onFinish();
+    }
+
+    /**
+     * Return status scan.
+     *
+     * @return mScanning
+     */
+    public boolean isScanStarted() {
+        return mScanning;
+    }
+
+    /**
+     * Return the metrics set with {@link SimpleBleScanner.Builder#addMetrics(ScanMetrics)}.
+     *
+     * @return {@link ScanMetrics} or null if metrics are not collected.
+     */
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+}
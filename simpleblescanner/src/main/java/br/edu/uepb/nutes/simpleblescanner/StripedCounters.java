@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed set of counters spread over a few stripes, each on its own cache lines.
+ * <p>
+ * A thread always updates the stripe picked by its id, so the scan callback thread and
+ * any other writer do not contend on the same cache line. Reads sum the stripes and are
+ * only as consistent as a snapshot taken while writers run can be.
+ */
+final class StripedCounters {
+    private static final int STRIPES = 4;
+    // Longs per 64 byte cache line.
+    private static final int LINE = 8;
+
+    private final AtomicLongArray cells;
+    private final int size;
+    private final int stride;
+
+    /**
+     * Constructor.
+     *
+     * @param size Number of counters.
+     */
+    StripedCounters(int size) {
+        this.size = size;
+        // Round up to whole lines plus one line of padding between stripes.
+        this.stride = (size + LINE - 1) / LINE * LINE + LINE;
+        this.cells = new AtomicLongArray(STRIPES * stride);
+    }
+
+    void add(int index, long delta) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.addAndGet(stripe * stride + index, delta);
+    }
+
+    void increment(int index) {
+        add(index, 1);
+    }
+
+    long sum(int index) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) sum += cells.get(stripe * stride + index);
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < cells.length(); i++) cells.set(i, 0);
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018 NUTES/UEPB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package br.edu.uepb.nutes.simpleblescanner;
+
+import java.util.UUID;
+
+/**
+ * Set of 128-bit UUIDs stored as pairs of longs in an open-addressing hash table,
+ * so membership can be tested straight from {@link AdvertisingData} without
+ * building {@link UUID} objects. Every UUID gets an ordinal, its insertion order,
+ * that can index arrays of per-UUID data. Not thread-safe.
+ */
+final class UuidHashSet {
+    private long[] mostBits;
+    private long[] leastBits;
+    private boolean[] used;
+    private int[] ordinals;
+    private int mask;
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize Number of UUIDs expected, used to size the table.
+     */
+    UuidHashSet(int expectedSize) {
+        int capacity = 8;
+        while (capacity < expectedSize * 2) capacity <<= 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Add an UUID.
+     *
+     * @param uuid {@link UUID}
+     * @return true if the UUID was not in the set.
+     */
+    boolean add(UUID uuid) {
+        return add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Add an UUID.
+     *
+     * @param msb Most significant bits.
+     * @param lsb Least significant bits.
+     * @return true if the UUID was not in the set.
+     */
+    boolean add(long msb, long lsb) {
+        int index = indexFor(msb, lsb);
+        while (used[index]) {
+            if (mostBits[index] == msb && leastBits[index] == lsb) return false;
+            index = (index + 1) & mask;
+        }
+        used[index] = true;
+        mostBits[index] = msb;
+        leastBits[index] = lsb;
+        ordinals[index] = size;
+        if (++size * 2 > used.length) rehash();
+        return true;
+    }
+
+    /**
+     * Check if an UUID is in the set.
+     *
+     * @param msb Most significant bits.
+     * @param lsb Least significant bits.
+     * @return boolean
+     */
+    boolean contains(long msb, long lsb) {
+        return ordinalOf(msb, lsb) >= 0;
+    }
+
+    /**
+     * Return the ordinal of an UUID.
+     *
+     * @param msb Most significant bits.
+     * @param lsb Least significant bits.
+     * @return Ordinal between 0 and {@link #size()}, or -1 if the UUID is not in the set.
+     */
+    int ordinalOf(long msb, long lsb) {
+        int index = indexFor(msb, lsb);
+        while (used[index]) {
+            if (mostBits[index] == msb && leastBits[index] == lsb) return ordinals[index];
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the index of the first advertised service UUID that is in the set.
+     *
+     * @param ad {@link AdvertisingData}
+     * @return Index in the advertisement or -1.
+     */
+    int findIn(AdvertisingData ad) {
+        for (int i = 0, count = ad.getServiceUuidCount(); i < count; i++) {
+            if (contains(ad.getServiceUuidMostSignificantBits(i), ad.getServiceUuidLeastSignificantBits(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the number of UUIDs in the set.
+     *
+     * @return int
+     */
+    int size() {
+        return size;
+    }
+
+    private void rehash() {
+        long[] oldMost = mostBits;
+        long[] oldLeast = leastBits;
+        boolean[] oldUsed = used;
+        int[] oldOrdinals = ordinals;
+
+        allocate(oldUsed.length * 2);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (!oldUsed[i]) continue;
+
+            int index = indexFor(oldMost[i], oldLeast[i]);
+            while (used[index]) index = (index + 1) & mask;
+            used[index] = true;
+            mostBits[index] = oldMost[i];
+            leastBits[index] = oldLeast[i];
+            ordinals[index] = oldOrdinals[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        mostBits = new long[capacity];
+        leastBits = new long[capacity];
+        used = new boolean[capacity];
+        ordinals = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private int indexFor(long msb, long lsb) {
+        long hash = (msb ^ Long.rotateLeft(lsb, 29)) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,59 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanSettings;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AdvertisementProcessorTest {
+    private static final long DEVICE = MacAddress.pack("00:11:22:33:44:55");
+
+    private static AdvertisementProcessor processor(SimpleBleScanner.Builder builder) {
+        SimpleBleScanner scanner = new SimpleBleScanner(builder.addScanPeriod(0)) {
+            @Override
+            public void startScan(SimpleScannerCallback callback) {
+            }
+
+            @Override
+            public void stopScan() {
+            }
+
+            @Override
+            void updateScan(List<ScanFilter> filters, ScanSettings settings) {
+            }
+        };
+        return new AdvertisementProcessor(scanner, false, false);
+    }
+
+    @Test
+    public void lost_rejectsDeviceFailingSoftwareFilter() {
+        AdvertisementProcessor processor = processor(new SimpleBleScanner.Builder()
+                .addSoftwareFilter(SoftwareFilter.rssiAtLeast(-50)).addDeduplicate(true));
+
+        assertEquals(AdvertisementProcessor.REJECTED, processor.process(DEVICE, -70, null, 0));
+        assertFalse(processor.lost(DEVICE, -70, null));
+    }
+
+    @Test
+    public void lost_forgetsReportedDevice() {
+        AdvertisementProcessor processor = processor(new SimpleBleScanner.Builder()
+                .addSoftwareFilter(SoftwareFilter.rssiAtLeast(-50)).addDeduplicate(true));
+
+        assertEquals(AdvertisementProcessor.DISCOVERED, processor.process(DEVICE, -40, null, 0));
+        assertEquals(AdvertisementProcessor.DUPLICATE, processor.process(DEVICE, -40, null, 1));
+        assertTrue(processor.lost(DEVICE, -40, null));
+        assertEquals(AdvertisementProcessor.DISCOVERED, processor.process(DEVICE, -40, null, 2));
+    }
+
+    @Test
+    public void lost_withoutFilter_isReported() {
+        AdvertisementProcessor processor = processor(new SimpleBleScanner.Builder().addDeduplicate(true));
+
+        processor.process(DEVICE, -90, null, 0);
+        assertTrue(processor.lost(DEVICE, -90, null));
+    }
+}
@@ -0,0 +1,92 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class AdvertisingDataTest {
+    // Flags, 128-bit service UUID, complete local name "PB5" and TX power -4 dBm.
+    private static final byte[] BUTTON = {
+            0x02, 0x01, 0x06,
+            0x11, 0x07, (byte) 0xAD, (byte) 0xC3, 0x44, (byte) 0x99, (byte) 0xF0, 0x58, 0x4F, 0x04,
+            (byte) 0x96, (byte) 0xBD, (byte) 0xA2, (byte) 0xC2, 0x23, 0x15, 0x00, 0x00,
+            0x04, 0x09, 'P', 'B', '5',
+            0x02, 0x0A, (byte) 0xFC,
+            0x00, 0x00
+    };
+
+    // 16-bit UUIDs 0x180F and 0x180A, manufacturer data of company 0x004C.
+    private static final byte[] SENSOR = {
+            0x05, 0x03, 0x0F, 0x18, 0x0A, 0x18,
+            0x06, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15, 0x01,
+            0x05, 0x16, (byte) 0xAA, (byte) 0xFE, 0x10, 0x20
+    };
+
+    private final AdvertisingData ad = new AdvertisingData();
+
+    @Test
+    public void wrap_readsButtonAdvertisement() {
+        assertTrue(ad.wrap(BUTTON));
+        assertEquals(0x06, ad.getFlags());
+        assertEquals(-4, ad.getTxPowerLevel());
+        assertTrue(ad.isLocalNameComplete());
+        assertEquals("PB5", ad.getLocalName());
+        assertTrue(ad.localNameStartsWith(new byte[]{'P', 'B'}));
+        assertFalse(ad.localNameStartsWith(new byte[]{'B'}));
+
+        UUID uuid = UUID.fromString("00001523-c2a2-bd96-044f-58f09944c3ad");
+        assertEquals(1, ad.getServiceUuidCount());
+        assertEquals(16, ad.getServiceUuidWidth(0));
+        assertEquals(uuid.getMostSignificantBits(), ad.getServiceUuidMostSignificantBits(0));
+        assertEquals(uuid.getLeastSignificantBits(), ad.getServiceUuidLeastSignificantBits(0));
+        assertEquals(-1, ad.getServiceUuidShort(0));
+    }
+
+    @Test
+    public void wrap_readsShortUuidsAndManufacturerData() {
+        assertTrue(ad.wrap(SENSOR));
+        assertEquals(AdvertisingData.FLAGS_NOT_PRESENT, ad.getFlags());
+        assertEquals(AdvertisingData.TX_POWER_NOT_PRESENT, ad.getTxPowerLevel());
+        assertFalse(ad.hasLocalName());
+
+        assertEquals(2, ad.getServiceUuidCount());
+        assertEquals(0x180F, ad.getServiceUuidShort(0));
+        UUID battery = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+        assertEquals(battery.getMostSignificantBits(), ad.getServiceUuidMostSignificantBits(0));
+        assertEquals(battery.getLeastSignificantBits(), ad.getServiceUuidLeastSignificantBits(0));
+
+        assertEquals(1, ad.getManufacturerDataCount());
+        assertEquals(0x004C, ad.getManufacturerId(0));
+        assertEquals(3, ad.getManufacturerDataLength(0));
+        assertEquals(0x02, SENSOR[ad.getManufacturerDataOffset(0)]);
+        assertEquals(0, ad.findManufacturerData(0x004C));
+
+        assertEquals(1, ad.getServiceDataCount());
+        assertEquals(0xFEAA, ad.getServiceDataUuidShort(0));
+        assertEquals(2, ad.getServiceDataLength(0));
+        assertEquals(0x10, SENSOR[ad.getServiceDataOffset(0)]);
+    }
+
+    @Test
+    public void wrap_reusesInstanceBetweenPayloads() {
+        ad.wrap(BUTTON);
+        ad.wrap(SENSOR);
+        assertFalse(ad.hasLocalName());
+        assertEquals(3, ad.getRecordCount());
+        ad.wrap(BUTTON);
+        assertEquals(4, ad.getRecordCount());
+        assertEquals(0, ad.getManufacturerDataCount());
+    }
+
+    @Test
+    public void wrap_rejectsTruncatedStructure() {
+        byte[] truncated = {0x02, 0x01, 0x06, 0x05, 0x09, 'A'};
+        assertFalse(ad.wrap(truncated));
+        assertFalse(ad.isValid());
+        assertEquals(0x06, ad.getFlags());
+        assertFalse(ad.hasLocalName());
+        assertFalse(ad.wrap(null));
+    }
+}
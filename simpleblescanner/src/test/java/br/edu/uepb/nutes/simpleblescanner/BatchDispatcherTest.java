@@ -0,0 +1,51 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchDispatcherTest {
+    private final List<List<Integer>> batches = new ArrayList<>();
+    private final BatchDispatcher<Integer> dispatcher = new BatchDispatcher<>(3,
+            new BatchDispatcher.Sink<Integer>() {
+                @Override
+                public void onBatch(List<Integer> batch) {
+                    batches.add(new ArrayList<>(batch));
+                }
+            });
+
+    @Test
+    public void add_reportsFullBatchWithoutFlushing() {
+        assertEquals(BatchDispatcher.OPENED, dispatcher.add(1));
+        assertEquals(BatchDispatcher.ADDED, dispatcher.add(2));
+        assertEquals(BatchDispatcher.FULL, dispatcher.add(3));
+        assertTrue(batches.isEmpty());
+        assertEquals(3, dispatcher.pendingCount());
+
+        dispatcher.flush();
+        assertEquals(1, batches.size());
+        assertEquals(3, batches.get(0).size());
+        assertEquals(0, dispatcher.pendingCount());
+        assertEquals(BatchDispatcher.OPENED, dispatcher.add(4));
+    }
+
+    @Test
+    public void flush_deliversPartialBatchOnce() {
+        dispatcher.add(1);
+        dispatcher.flush();
+        dispatcher.flush();
+        assertEquals(1, batches.size());
+        assertEquals(Integer.valueOf(1), batches.get(0).get(0));
+    }
+
+    @Test
+    public void clear_dropsPending() {
+        dispatcher.add(1);
+        dispatcher.clear();
+        dispatcher.flush();
+        assertTrue(batches.isEmpty());
+    }
+}
@@ -0,0 +1,71 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class BeaconFrameTest {
+    static final UUID UUID_A = UUID.fromString("f7826da6-4fa2-4e98-8024-bc5b71e0893e");
+
+    private final AdvertisingData ad = new AdvertisingData();
+    private final BeaconFrame frame = new BeaconFrame();
+
+    static byte[] iBeacon(UUID uuid, int major, int minor, int power) {
+        return ByteBuffer.allocate(30)
+                .put(new byte[]{0x02, 0x01, 0x06, 0x1A, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15})
+                .putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits())
+                .putShort((short) major).putShort((short) minor).put((byte) power)
+                .array();
+    }
+
+    @Test
+    public void decode_readsIBeacon() {
+        assertTrue(ad.wrap(iBeacon(UUID_A, 0xBEEF, 7, -59)));
+        assertTrue(frame.decode(ad));
+        assertEquals(BeaconFrame.TYPE_IBEACON, frame.getType());
+        assertEquals(UUID_A, frame.getUuid());
+        assertEquals(0xBEEF, frame.getMajor());
+        assertEquals(7, frame.getMinor());
+        assertEquals(-59, frame.getMeasuredPower());
+    }
+
+    @Test
+    public void decode_readsEddystoneUrl() {
+        byte[] payload = {
+                0x03, 0x03, (byte) 0xAA, (byte) 0xFE,
+                0x0B, 0x16, (byte) 0xAA, (byte) 0xFE, 0x10, (byte) 0xEB, 0x03, 'u', 'e', 'p', 'b', 0x09
+        };
+        assertTrue(ad.wrap(payload));
+        assertTrue(frame.decode(ad));
+        assertEquals(BeaconFrame.TYPE_EDDYSTONE_URL, frame.getType());
+        assertEquals("https://uepb.edu", frame.getUrl());
+        assertEquals(-21 - RssiTracker.TX_POWER_TO_ONE_METER_LOSS, frame.getMeasuredPower());
+    }
+
+    @Test
+    public void decode_readsEddystoneTlm() {
+        byte[] payload = {
+                0x11, 0x16, (byte) 0xAA, (byte) 0xFE, 0x20, 0x00,
+                0x0B, (byte) 0xB8, 0x18, (byte) 0x80, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, 0x64
+        };
+        assertTrue(ad.wrap(payload));
+        assertTrue(frame.decode(ad));
+        assertEquals(BeaconFrame.TYPE_EDDYSTONE_TLM, frame.getType());
+        assertEquals(3000, frame.getBatteryMillivolts());
+        assertEquals(24.5f, frame.getTemperature(), 0.001f);
+        assertEquals(256, frame.getAdvertisingCount());
+        assertEquals(10000, frame.getUptimeMillis());
+    }
+
+    @Test
+    public void decode_rejectsOtherManufacturerData() {
+        byte[] payload = iBeacon(UUID_A, 1, 2, -59);
+        payload[5] = 0x59;
+        assertTrue(ad.wrap(payload));
+        assertFalse(frame.decode(ad));
+        assertEquals(BeaconFrame.TYPE_NONE, frame.getType());
+    }
+}
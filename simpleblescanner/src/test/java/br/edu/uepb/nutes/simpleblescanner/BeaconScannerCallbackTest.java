@@ -0,0 +1,59 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BeaconScannerCallbackTest {
+    private static class FakeClock implements Clock {
+        long now = 1000000;
+
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+    }
+
+    private final FakeClock clock = new FakeClock();
+    private final List<String> events = new ArrayList<>();
+    private final RegionMonitor monitor = new RegionMonitor(1000, new RegionMonitor.Listener() {
+        @Override
+        public void onEnterRegion(BeaconRegion region) {
+            events.add("enter " + region.getIdentifier());
+        }
+
+        @Override
+        public void onExitRegion(BeaconRegion region) {
+            events.add("exit " + region.getIdentifier());
+        }
+    }, clock);
+
+    @Test
+    public void lostResult_isNotASighting() {
+        monitor.addRegion(new BeaconRegion("door", BeaconFrameTest.UUID_A, 1, 2));
+        AdvertisingData ad = new AdvertisingData();
+        BeaconFrame frame = new BeaconFrame();
+        ad.wrap(BeaconFrameTest.iBeacon(BeaconFrameTest.UUID_A, 1, 2, -59));
+        frame.decode(ad);
+        monitor.process(frame);
+
+        final List<BeaconFrame> beacons = new ArrayList<>();
+        BeaconScannerCallback callback = new BeaconScannerCallback(monitor) {
+            @Override
+            protected void onBeacon(ScanResult result, BeaconFrame frame) {
+                beacons.add(frame);
+            }
+        };
+        // The lost result is never read: the platform type alone keeps it from the monitor.
+        clock.now += 1100;
+        callback.onScanResult(ScanSettings.CALLBACK_TYPE_MATCH_LOST, null);
+        assertTrue(beacons.isEmpty());
+        assertEquals("[enter door, exit door]", events.toString());
+    }
+}
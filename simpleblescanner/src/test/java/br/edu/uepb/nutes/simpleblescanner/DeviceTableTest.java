@@ -0,0 +1,66 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeviceTableTest {
+    @Test
+    public void pack_roundTrip() {
+        long mac = MacAddress.pack("C4:7C:8D:6A:01:FF");
+        assertEquals(0xC47C8D6A01FFL, mac);
+        assertEquals("C4:7C:8D:6A:01:FF", MacAddress.toString(mac));
+        assertEquals(mac, MacAddress.pack("c4:7c:8d:6a:01:ff"));
+    }
+
+    @Test
+    public void pack_rejectsMalformed() {
+        assertEquals(MacAddress.INVALID, MacAddress.pack(null));
+        assertEquals(MacAddress.INVALID, MacAddress.pack("C4:7C:8D:6A:01"));
+        assertEquals(MacAddress.INVALID, MacAddress.pack("C4-7C-8D-6A-01-FF"));
+        assertEquals(MacAddress.INVALID, MacAddress.pack("G4:7C:8D:6A:01:FF"));
+    }
+
+    @Test
+    public void insert_reportsDuplicates() {
+        DeviceTable table = new DeviceTable();
+        int slot = table.insert(42L);
+        assertTrue(slot >= 0);
+        assertEquals(-slot - 1, table.insert(42L));
+        assertEquals(slot, table.slotOf(42L));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void remove_reusesSlotAndKeepsOthersReachable() {
+        DeviceTable table = new DeviceTable(4);
+        for (long mac = 0; mac < 5000; mac++) {
+            assertEquals(mac, table.insert(mac));
+        }
+        for (long mac = 0; mac < 5000; mac += 2) {
+            assertEquals(mac, table.remove(mac));
+        }
+        assertEquals(2500, table.size());
+        for (long mac = 1; mac < 5000; mac += 2) {
+            assertEquals(mac, table.slotOf(mac));
+            assertEquals(mac, table.keyAt((int) mac));
+        }
+        assertEquals(DeviceTable.NO_SLOT, table.slotOf(0L));
+        assertEquals(MacAddress.INVALID, table.keyAt(0));
+
+        int slot = table.insert(0xFFFFFFFFFFFFL);
+        assertTrue(slot < 5000 && slot % 2 == 0);
+        assertEquals(5000, table.slotLimit());
+    }
+
+    @Test
+    public void clear_forgetsAllDevices() {
+        DeviceTable table = new DeviceTable();
+        table.insert(1L);
+        table.insert(2L);
+        table.clear();
+        assertEquals(0, table.size());
+        assertFalse(table.contains(1L));
+        assertEquals(0, table.insert(2L));
+    }
+}
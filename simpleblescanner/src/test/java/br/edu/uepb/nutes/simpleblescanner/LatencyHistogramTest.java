@@ -0,0 +1,55 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void buckets_coverValuesWithBoundedError() {
+        for (long v = 0; v < 1_000_000; v += 7) {
+            int index = LatencyHistogram.indexOf(v);
+            long high = LatencyHistogram.highestValueOf(index);
+            assertTrue(high >= v);
+            assertTrue(high - v <= Math.max(1, v / 32));
+        }
+        assertTrue(LatencyHistogram.highestValueOf(
+                LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE)) >= LatencyHistogram.MAX_VALUE);
+    }
+
+    @Test
+    public void percentiles_matchUniformDistribution() {
+        for (int i = 1; i <= 10000; i++) histogram.record(i * 1000L);
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10_000_000L, histogram.getMax());
+        assertEquals(5_000_500L, histogram.getMean());
+        assertNear(5_000_000L, histogram.getValueAtPercentile(50));
+        assertNear(9_900_000L, histogram.getValueAtPercentile(99));
+        assertNear(9_990_000L, histogram.getValueAtPercentile(99.9));
+        assertEquals(10_000_000L, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void record_clampsOutOfRange() {
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        histogram.record(1234);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMax());
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue("expected ~" + expected + " got " + actual,
+                Math.abs(actual - expected) <= expected / 32);
+    }
+}
@@ -0,0 +1,98 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PresenceTrackerTest {
+    private static class FakeClock implements Clock {
+        long now = 1000000;
+
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+    }
+
+    private final FakeClock clock = new FakeClock();
+    private final List<Long> lost = new ArrayList<>();
+    private final PresenceTracker<String> tracker = new PresenceTracker<>(1000, 100,
+            new PresenceTracker.Listener<String>() {
+                @Override
+                public void onDeviceLost(long mac, String value) {
+                    lost.add(mac);
+                }
+            }, clock);
+
+    private void advanceBy(long millis) {
+        for (long end = clock.now + millis; clock.now < end; ) {
+            clock.now += 50;
+            tracker.advance();
+        }
+    }
+
+    @Test
+    public void silentDevice_isLostAfterTimeout() {
+        assertTrue(tracker.onSeen(1L, "a"));
+        assertFalse(tracker.onSeen(1L, "b"));
+        advanceBy(950);
+        assertTrue(lost.isEmpty());
+        advanceBy(200);
+        assertEquals(1, lost.size());
+        assertFalse(tracker.isPresent(1L));
+    }
+
+    @Test
+    public void refreshedDevice_staysPresent() {
+        tracker.onSeen(1L, "a");
+        tracker.onSeen(2L, "b");
+        for (int i = 0; i < 10; i++) {
+            advanceBy(500);
+            tracker.onSeen(1L, "a");
+        }
+        assertEquals(1, lost.size());
+        assertEquals(Long.valueOf(2L), lost.get(0));
+        assertTrue(tracker.isPresent(1L));
+    }
+
+    @Test
+    public void removedDevice_isNotReportedLost() {
+        // Seen together, so they share a bucket of the wheel.
+        for (long mac = 1; mac <= 3; mac++) tracker.onSeen(mac, null);
+        assertTrue(tracker.remove(2L));
+        assertFalse(tracker.remove(2L));
+        assertFalse(tracker.isPresent(2L));
+
+        advanceBy(1200);
+        assertEquals(2, lost.size());
+        assertTrue(lost.contains(1L) && lost.contains(3L));
+    }
+
+    @Test
+    public void removedDevice_isTrackedAgainWhenSeen() {
+        tracker.onSeen(1L, "a");
+        tracker.onSeen(2L, "b");
+        tracker.remove(1L);
+        // Takes the freed slot of device 1.
+        assertTrue(tracker.onSeen(3L, "c"));
+        assertTrue(tracker.onSeen(1L, "a"));
+
+        advanceBy(1200);
+        assertEquals(3, lost.size());
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    public void manyDevices_expireOnce() {
+        for (long mac = 0; mac < 5000; mac++) tracker.onSeen(mac, null);
+        clock.now += 5000;
+        tracker.advance();
+        assertEquals(5000, lost.size());
+        assertEquals(0, tracker.size());
+        tracker.advance();
+        assertEquals(5000, lost.size());
+    }
+}
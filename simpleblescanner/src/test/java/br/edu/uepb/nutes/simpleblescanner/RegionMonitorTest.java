@@ -0,0 +1,163 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class RegionMonitorTest {
+    private static class FakeClock implements Clock {
+        long now = 1000000;
+
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+    }
+
+    private static final UUID UUID_B = UUID.fromString("e2c56db5-dffb-48d2-b060-d0f5a71096e0");
+
+    private final FakeClock clock = new FakeClock();
+    private final List<String> events = new ArrayList<>();
+    private final RegionMonitor monitor = new RegionMonitor(1000, new RegionMonitor.Listener() {
+        @Override
+        public void onEnterRegion(BeaconRegion region) {
+            events.add("enter " + region.getIdentifier());
+        }
+
+        @Override
+        public void onExitRegion(BeaconRegion region) {
+            events.add("exit " + region.getIdentifier());
+        }
+    }, clock);
+    private final AdvertisingData ad = new AdvertisingData();
+    private final BeaconFrame frame = new BeaconFrame();
+
+    private int see(UUID uuid, int major, int minor) {
+        ad.wrap(BeaconFrameTest.iBeacon(uuid, major, minor, -59));
+        frame.decode(ad);
+        return monitor.process(frame);
+    }
+
+    private void advanceBy(long millis) {
+        for (long end = clock.now + millis; clock.now < end; ) {
+            clock.now += 50;
+            monitor.advance();
+        }
+    }
+
+    @Test
+    public void wildcards_matchIndependently() {
+        monitor.addRegion(new BeaconRegion("all", BeaconFrameTest.UUID_A, BeaconRegion.ANY, BeaconRegion.ANY));
+        monitor.addRegion(new BeaconRegion("floor", BeaconFrameTest.UUID_A, 1, BeaconRegion.ANY));
+        monitor.addRegion(new BeaconRegion("door", BeaconFrameTest.UUID_A, 1, 2));
+        monitor.addRegion(new BeaconRegion("doors", BeaconFrameTest.UUID_A, BeaconRegion.ANY, 2));
+        monitor.addRegion(new BeaconRegion("other", UUID_B, BeaconRegion.ANY, BeaconRegion.ANY));
+
+        assertEquals(4, see(BeaconFrameTest.UUID_A, 1, 2));
+        assertEquals(4, events.size());
+        assertFalse(monitor.isInside("other"));
+
+        events.clear();
+        assertEquals(2, see(BeaconFrameTest.UUID_A, 3, 2));
+        assertEquals(1, see(BeaconFrameTest.UUID_A, 3, 4));
+        assertEquals(0, see(UUID.randomUUID(), 1, 2));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void silentRegion_isExitedOnce() {
+        monitor.addRegion(new BeaconRegion("door", BeaconFrameTest.UUID_A, 1, 2));
+        monitor.addRegion(new BeaconRegion("floor", BeaconFrameTest.UUID_A, 1, BeaconRegion.ANY));
+
+        see(BeaconFrameTest.UUID_A, 1, 2);
+        for (int i = 0; i < 4; i++) {
+            advanceBy(500);
+            see(BeaconFrameTest.UUID_A, 1, 3);
+        }
+        assertTrue(monitor.isInside("floor"));
+        assertFalse(monitor.isInside("door"));
+        assertEquals(3, events.size());
+        assertEquals("exit door", events.get(2));
+
+        monitor.exitAll();
+        assertEquals("exit floor", events.get(3));
+        advanceBy(2000);
+        assertEquals(4, events.size());
+    }
+
+    @Test
+    public void removedRegion_isNotMatchedNorExited() {
+        monitor.addRegion(new BeaconRegion("a", BeaconFrameTest.UUID_A, 1, 2));
+        monitor.addRegion(new BeaconRegion("b", BeaconFrameTest.UUID_A, 1, 2));
+        assertEquals(2, see(BeaconFrameTest.UUID_A, 1, 2));
+
+        assertTrue(monitor.removeRegion("a"));
+        assertFalse(monitor.removeRegion("a"));
+        assertEquals(1, monitor.getRegionCount());
+        assertEquals(1, see(BeaconFrameTest.UUID_A, 1, 2));
+        advanceBy(2000);
+        assertEquals("exit b", events.get(events.size() - 1));
+        assertEquals(3, events.size());
+    }
+
+    @Test
+    public void removedRegion_dropsUnusedUuid() {
+        monitor.addRegion(new BeaconRegion("a", BeaconFrameTest.UUID_A, 1, 2));
+        monitor.addRegion(new BeaconRegion("b", UUID_B, 1, 2));
+        monitor.addRegion(new BeaconRegion("c", UUID_B, BeaconRegion.ANY, BeaconRegion.ANY));
+        assertEquals(2, monitor.getUuidCount());
+
+        monitor.removeRegion("c");
+        assertEquals(2, monitor.getUuidCount());
+        monitor.removeRegion("a");
+        assertEquals(1, monitor.getUuidCount());
+        assertEquals(0, see(BeaconFrameTest.UUID_A, 1, 2));
+        assertEquals(1, see(UUID_B, 1, 2));
+        assertEquals("enter b", events.get(0));
+    }
+
+    @Test
+    public void freedIndex_isReusedOnlyOnceUntracked() {
+        monitor.addRegion(new BeaconRegion("a", BeaconFrameTest.UUID_A, 1, 2));
+        see(BeaconFrameTest.UUID_A, 1, 2);
+        monitor.removeRegion("a");
+
+        // The index of "a" is still tracked: "b" must be entered, and not exited by the old deadline.
+        monitor.addRegion(new BeaconRegion("b", BeaconFrameTest.UUID_A, 1, 2));
+        see(BeaconFrameTest.UUID_A, 1, 2);
+        assertEquals("enter b", events.get(1));
+        for (int i = 0; i < 4; i++) {
+            advanceBy(500);
+            see(BeaconFrameTest.UUID_A, 1, 2);
+        }
+        assertEquals(2, events.size());
+
+        monitor.removeRegion("b");
+        advanceBy(2000);
+        for (int i = 0; i < 100; i++) {
+            monitor.addRegion(new BeaconRegion("c", UUID_B, 1, 2));
+            monitor.removeRegion("c");
+        }
+        monitor.addRegion(new BeaconRegion("d", UUID_B, 1, 2));
+        assertEquals(1, see(UUID_B, 1, 2));
+        advanceBy(2000);
+        assertEquals("enter d", events.get(2));
+        assertEquals("exit d", events.get(3));
+        assertEquals(4, events.size());
+    }
+
+    @Test
+    public void duplicateIdentifier_isRejected() {
+        monitor.addRegion(new BeaconRegion("a", BeaconFrameTest.UUID_A, 1, 2));
+        try {
+            monitor.addRegion(new BeaconRegion("a", UUID_B, 1, 2));
+            fail("Duplicate identifier accepted");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(1, monitor.getRegionCount());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReplayScanSourceTest {
+    private static final String HEART_RATE_SERVICE = "0000180d-0000-1000-8000-00805f9b34fb";
+
+    // SystemClock is not available on the JVM.
+    private static final Clock JVM_CLOCK = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    private static class RecordingCallback implements AdvertisementCallback {
+        final Set<Long> devices = new HashSet<>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        int advertisements;
+        int unexpectedNames;
+
+        @Override
+        public void onAdvertisement(long mac, int rssi, AdvertisingData data, long timestampNanos) {
+            advertisements++;
+            devices.add(mac);
+            if (!data.localNameStartsWith(new byte[]{'D', 'E', 'V'})) unexpectedNames++;
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+        }
+
+        @Override
+        public void onFinish() {
+            finished.countDown();
+        }
+    }
+
+    @Test
+    public void replay_deduplicatesAndFiltersThousandsOfDevices() throws InterruptedException {
+        AdvertisementTrace trace = AdvertisementTrace.synthetic(4000, 200000, 1);
+        ScanMetrics metrics = new ScanMetrics(JVM_CLOCK);
+        SourceScanner scanner = new SimpleBleScanner.Builder()
+                .addSoftwareFilter(SoftwareFilter.serviceUuid(HEART_RATE_SERVICE))
+                .addDeduplicate(true)
+                .addMetrics(metrics)
+                .build(new ReplayScanSource(trace));
+
+        RecordingCallback callback = new RecordingCallback();
+        scanner.startScan(callback);
+        assertTrue(callback.finished.await(30, TimeUnit.SECONDS));
+        assertFalse(scanner.isScanStarted());
+
+        // Every fourth device advertises the heart rate service, each delivered once.
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < trace.size(); i++) {
+            AdvertisingData data = new AdvertisingData();
+            data.wrap(trace.getPayload(i));
+            if (data.getServiceUuidShort(0) == 0x180D) expected.add(trace.getMac(i));
+        }
+        assertEquals(1000, expected.size());
+        assertEquals(expected, callback.devices);
+        assertEquals(expected.size(), callback.advertisements);
+        assertEquals(0, callback.unexpectedNames);
+
+        ScanMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(trace.size(), snapshot.getCount(ScanMetrics.ADVERTISEMENTS));
+        assertEquals(expected.size(), snapshot.getCount(ScanMetrics.DELIVERED));
+        assertEquals(expected.size(), snapshot.getCount(ScanMetrics.DEVICES_DISCOVERED));
+        assertEquals(trace.size(), snapshot.getCount(ScanMetrics.FILTERED)
+                + snapshot.getCount(ScanMetrics.DUPLICATES) + snapshot.getCount(ScanMetrics.DELIVERED));
+    }
+
+    @Test
+    public void replay_pacesAtRate() throws InterruptedException {
+        AdvertisementTrace trace = AdvertisementTrace.synthetic(100, 5000, 2);
+        ReplayScanSource source = new ReplayScanSource(trace).setRate(25000);
+        SourceScanner scanner = new SimpleBleScanner.Builder().build(source);
+
+        RecordingCallback callback = new RecordingCallback();
+        long start = System.nanoTime();
+        scanner.startScan(callback);
+        assertTrue(callback.finished.await(10, TimeUnit.SECONDS));
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(5000, callback.advertisements);
+        assertTrue("Replayed in " + elapsedMillis + " ms", elapsedMillis >= 180);
+    }
+
+    @Test
+    public void stopScan_stopsLoopingReplay() throws InterruptedException {
+        ReplayScanSource source = new ReplayScanSource(AdvertisementTrace.synthetic(10, 10, 3))
+                .setRate(ReplayScanSource.MAX_RATE).setLoops(0);
+        SourceScanner scanner = new SimpleBleScanner.Builder().build(source);
+
+        RecordingCallback callback = new RecordingCallback();
+        scanner.startScan(callback);
+        Thread.sleep(50);
+        scanner.stopScan();
+        assertEquals(0, callback.finished.getCount());
+
+        long delivered = source.getDelivered();
+        assertTrue(delivered > 10);
+        Thread.sleep(20);
+        assertEquals(delivered, source.getDelivered());
+        assertEquals(delivered, callback.advertisements);
+    }
+
+    @Test
+    public void fromLog_keepsRecordsAndTxPower() throws Exception {
+        File directory = Files.createTempDirectory("trace").toFile();
+        SightingLog log = SightingLog.open(directory, 16, 4);
+        log.append(10, 0xAABBCCDDEEFFL, -60, -4, 7);
+        log.append(20, 0x112233445566L, -70, SightingLog.TX_POWER_NOT_PRESENT, 8);
+        log.close();
+
+        SightingLog.Reader reader = SightingLog.read(directory);
+        AdvertisementTrace trace = AdvertisementTrace.fromLog(reader);
+        reader.close();
+
+        assertEquals(2, trace.size());
+        assertEquals(0xAABBCCDDEEFFL, trace.getMac(0));
+        assertEquals(-70, trace.getRssi(1));
+        assertEquals(10, trace.getDurationNanos());
+        AdvertisingData data = new AdvertisingData();
+        assertTrue(data.wrap(trace.getPayload(0)));
+        assertEquals(-4, data.getTxPowerLevel());
+        assertNull(trace.getPayload(1));
+    }
+
+    @Test
+    public void buildWithSource_rejectsRadioOptions() {
+        ReplayScanSource source = new ReplayScanSource(AdvertisementTrace.synthetic(10, 10, 4));
+        try {
+            new SimpleBleScanner.Builder().addBatchDelivery(10, 100).build(source);
+            fail("Batching needs the radio");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RssiTrackerTest {
+    @Test(timeout = 10000)
+    public void reads_areSafeWhileScannerThreadUpdates() throws InterruptedException {
+        final RssiTracker tracker = RssiTracker.ema(0.5f);
+        final Throwable[] failure = new Throwable[1];
+        Thread scanner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // Enough devices for the table to grow while the test thread reads.
+                    for (long mac = 1; mac <= 20000; mac++) tracker.update(mac, -60);
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        });
+        scanner.start();
+        while (scanner.isAlive()) {
+            float rssi = tracker.getSmoothedRssi(1L);
+            assertTrue(Float.isNaN(rssi) || rssi == -60f);
+            tracker.getSmoothedRssi(20000L);
+        }
+        scanner.join();
+        assertNull(failure[0]);
+        assertEquals(-60f, tracker.getSmoothedRssi(20000L), 0f);
+    }
+
+    @Test
+    public void kalman_convergesTowardsMean() {
+        RssiTracker tracker = RssiTracker.kalman(0.01f, 8f);
+        for (int i = 0; i < 200; i++) {
+            tracker.update(1L, i % 2 == 0 ? -60 : -70);
+        }
+        assertEquals(-65.0, tracker.getSmoothedRssi(1L), 1.0);
+        assertEquals(200, tracker.getSampleCount(1L));
+    }
+
+    @Test
+    public void ema_weightsNewReadings() {
+        RssiTracker tracker = RssiTracker.ema(0.5f);
+        tracker.update(1L, -80);
+        tracker.update(1L, -60);
+        assertEquals(-70.0, tracker.getSmoothedRssi(1L), 0.001);
+    }
+
+    @Test
+    public void distance_followsPathLossModel() {
+        RssiTracker tracker = RssiTracker.ema(1f);
+        tracker.update(1L, -79);
+        tracker.update(2L, -59);
+        tracker.update(3L, -50);
+        assertEquals(10.0, tracker.getDistance(1L, -59), 0.001);
+        assertEquals(1.0, tracker.getDistance(2L, -59), 0.001);
+        assertEquals(RssiTracker.PROXIMITY_FAR, tracker.getProximity(1L, -59));
+        assertEquals(RssiTracker.PROXIMITY_NEAR, tracker.getProximity(2L, -59));
+        assertEquals(RssiTracker.PROXIMITY_IMMEDIATE, tracker.getProximity(3L, -59));
+        assertEquals(RssiTracker.PROXIMITY_UNKNOWN, tracker.getProximity(4L, -59));
+    }
+
+    @Test
+    public void remove_resetsState() {
+        RssiTracker tracker = RssiTracker.ema(0.1f);
+        tracker.update(1L, -90);
+        tracker.remove(1L);
+        assertTrue(Float.isNaN(tracker.getSmoothedRssi(1L)));
+        tracker.update(1L, -40);
+        assertEquals(-40.0, tracker.getSmoothedRssi(1L), 0.001);
+    }
+}
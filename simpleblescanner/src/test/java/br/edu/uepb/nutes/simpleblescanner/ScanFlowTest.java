@@ -0,0 +1,73 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static br.edu.uepb.nutes.simpleblescanner.ScanPublisherTest.DEVICE;
+import static br.edu.uepb.nutes.simpleblescanner.ScanPublisherTest.DIRECT;
+import static org.junit.Assert.*;
+
+public class ScanFlowTest {
+    private static class FakeClock implements Clock {
+        long now;
+
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+    }
+
+    private final ScanPublisher<String> source =
+            new ScanPublisher<>(DIRECT, ScanFlow.Overflow.dropOldest(64), null);
+
+    @Test
+    public void distinctByDevice_passesFirstItemPerDeviceAndKeepsDemand() {
+        ScanPublisherTest.RecordingSubscriber<String> subscriber = new ScanPublisherTest.RecordingSubscriber<>();
+        ScanFlow.distinctByDevice(source, DEVICE).subscribe(subscriber);
+        subscriber.subscription.request(2);
+
+        for (String item : new String[]{"1:a", "1:b", "1:c", "2:a", "2:b", "3:a"}) source.offer(item);
+        assertEquals(Arrays.asList("1:a", "2:a"), subscriber.items);
+
+        // The duplicates did not use up the demand, the next device waited for a request.
+        subscriber.subscription.request(1);
+        assertEquals(Arrays.asList("1:a", "2:a", "3:a"), subscriber.items);
+    }
+
+    @Test
+    public void throttle_dropsItemsWithinInterval() {
+        FakeClock clock = new FakeClock();
+        ScanPublisherTest.RecordingSubscriber<String> subscriber = new ScanPublisherTest.RecordingSubscriber<>();
+        ScanFlow.throttle(source, 100, clock).subscribe(subscriber);
+        subscriber.subscription.request(10);
+
+        source.offer("1:a");
+        clock.now = 50;
+        source.offer("1:b");
+        clock.now = 100;
+        source.offer("1:c");
+        clock.now = 150;
+        source.offer("1:d");
+        assertEquals(Arrays.asList("1:a", "1:c"), subscriber.items);
+    }
+
+    @Test
+    public void window_groupsItemsAndFlushesOnComplete() {
+        ScanPublisherTest.RecordingSubscriber<List<String>> subscriber = new ScanPublisherTest.RecordingSubscriber<>();
+        ScanFlow.window(source, 2).subscribe(subscriber);
+        for (String item : new String[]{"1:a", "2:a", "3:a", "4:a", "5:a"}) source.offer(item);
+        source.complete();
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.items.size());
+        assertEquals(Arrays.asList("1:a", "2:a"), subscriber.items.get(0));
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(5);
+        assertEquals(Arrays.asList("3:a", "4:a"), subscriber.items.get(1));
+        assertEquals(Arrays.asList("5:a"), subscriber.items.get(2));
+        assertTrue(subscriber.completed);
+    }
+}
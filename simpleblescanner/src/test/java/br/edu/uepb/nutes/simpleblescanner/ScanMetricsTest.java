@@ -0,0 +1,95 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ScanMetricsTest {
+    private static class FakeClock implements Clock {
+        long now = 1000;
+
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+    }
+
+    private final FakeClock clock = new FakeClock();
+    private final ScanMetrics metrics = new ScanMetrics(clock);
+
+    @Test
+    public void snapshot_sumsCountersAcrossThreads() throws InterruptedException {
+        Thread[] threads = new Thread[6];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) metrics.increment(ScanMetrics.ADVERTISEMENTS);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        metrics.add(ScanMetrics.DELIVERED, 5);
+
+        ScanMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(60000, snapshot.getCount(ScanMetrics.ADVERTISEMENTS));
+        assertEquals(5, snapshot.getCount(ScanMetrics.DELIVERED));
+        assertEquals(0, snapshot.getCount(ScanMetrics.DUPLICATES));
+    }
+
+    @Test
+    public void rates_useElapsedTime() {
+        metrics.add(ScanMetrics.ADVERTISEMENTS, 200);
+        clock.now += 2000;
+        ScanMetrics.Snapshot first = metrics.snapshot();
+        assertEquals(100.0, first.getRate(ScanMetrics.ADVERTISEMENTS), 0.001);
+
+        metrics.add(ScanMetrics.ADVERTISEMENTS, 50);
+        clock.now += 500;
+        ScanMetrics.Snapshot second = metrics.snapshot();
+        assertEquals(100.0, second.getRate(ScanMetrics.ADVERTISEMENTS, first), 0.001);
+        assertEquals(2500, second.getElapsedMillis());
+    }
+
+    @Test
+    public void failures_countedByCode() {
+        metrics.onScanFailed(SimpleScannerCallback.SCAN_FAILED_SCANNING_TOO_FREQUENTLY);
+        metrics.onScanFailed(SimpleScannerCallback.SCAN_FAILED_SCANNING_TOO_FREQUENTLY);
+        metrics.onScanFailed(SimpleScannerCallback.SCAN_FAILED_INTERNAL_ERROR);
+        metrics.onScanFailed(42);
+
+        ScanMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(4, snapshot.getCount(ScanMetrics.FAILURES));
+        assertEquals(2, snapshot.getFailures(SimpleScannerCallback.SCAN_FAILED_SCANNING_TOO_FREQUENTLY));
+        assertEquals(1, snapshot.getFailures(SimpleScannerCallback.SCAN_FAILED_INTERNAL_ERROR));
+        assertEquals(1, snapshot.getFailures(0));
+    }
+
+    @Test
+    public void filterHits_perFilter() {
+        metrics.setFilterCount(3);
+        metrics.onFilterHit(0);
+        metrics.onFilterHit(2);
+        metrics.onFilterHit(2);
+
+        ScanMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.getFilterCount());
+        assertEquals(1, snapshot.getFilterHits(0));
+        assertEquals(0, snapshot.getFilterHits(1));
+        assertEquals(2, snapshot.getFilterHits(2));
+    }
+
+    @Test
+    public void reset_zeroesAndRestartsPeriod() {
+        metrics.increment(ScanMetrics.SCAN_STARTS);
+        metrics.recordDispatch(5000);
+        clock.now += 1000;
+        metrics.reset();
+
+        ScanMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getCount(ScanMetrics.SCAN_STARTS));
+        assertEquals(0, snapshot.getElapsedMillis());
+        assertEquals(0, metrics.getDispatchTime().getCount());
+    }
+}
@@ -0,0 +1,207 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ScanPublisherTest {
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Items are "device:value" strings, keyed by device.
+     */
+    static final ScanFlow.DeviceKey<String> DEVICE = new ScanFlow.DeviceKey<String>() {
+        @Override
+        public long keyOf(String item) {
+            return Long.parseLong(item.substring(0, item.indexOf(':')));
+        }
+    };
+
+    static class RecordingSubscriber<T> implements ScanFlow.Subscriber<T> {
+        final List<T> items = new ArrayList<>();
+        final CountDownLatch received;
+        ScanFlow.Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        RecordingSubscriber() {
+            this(1);
+        }
+
+        RecordingSubscriber(int expected) {
+            received = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onSubscribe(ScanFlow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+            received.countDown();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    private static class FakeClock implements Clock {
+        long now;
+
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+    }
+
+    @Test
+    public void deliversOnlyWhatWasRequested() {
+        ScanPublisher<String> publisher = new ScanPublisher<>(DIRECT, ScanFlow.Overflow.dropOldest(8), null);
+        RecordingSubscriber<String> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+
+        publisher.offer("1:a");
+        publisher.offer("2:a");
+        assertTrue(subscriber.items.isEmpty());
+
+        subscriber.subscription.request(1);
+        assertEquals(Arrays.asList("1:a"), subscriber.items);
+        subscriber.subscription.request(5);
+        publisher.offer("3:a");
+        assertEquals(Arrays.asList("1:a", "2:a", "3:a"), subscriber.items);
+    }
+
+    @Test
+    public void dropOldest_keepsLatestItems() {
+        ScanPublisher<String> publisher = new ScanPublisher<>(DIRECT, ScanFlow.Overflow.dropOldest(2), null);
+        RecordingSubscriber<String> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+
+        publisher.offer("1:a");
+        publisher.offer("1:b");
+        publisher.offer("1:c");
+        publisher.complete();
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(10);
+        assertEquals(Arrays.asList("1:b", "1:c"), subscriber.items);
+        assertEquals(1, publisher.getDropped());
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void latestPerDevice_updatesInPlaceAndEvictsOldestDevice() {
+        ScanPublisher<String> publisher = new ScanPublisher<>(DIRECT, ScanFlow.Overflow.latestPerDevice(2), DEVICE);
+        RecordingSubscriber<String> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+
+        publisher.offer("1:a");
+        publisher.offer("2:a");
+        publisher.offer("1:b");
+        subscriber.subscription.request(10);
+        assertEquals(Arrays.asList("1:b", "2:a"), subscriber.items);
+
+        subscriber.items.clear();
+        subscriber.subscription.cancel();
+        publisher = new ScanPublisher<>(DIRECT, ScanFlow.Overflow.latestPerDevice(2), DEVICE);
+        subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        for (int device = 1; device <= 50; device++) {
+            publisher.offer(device + ":a");
+            publisher.offer(device + ":b");
+        }
+        subscriber.subscription.request(10);
+        assertEquals(Arrays.asList("49:b", "50:b"), subscriber.items);
+        assertEquals(98, publisher.getDropped());
+    }
+
+    @Test
+    public void sample_deliversLatestOncePerInterval() throws InterruptedException {
+        FakeClock clock = new FakeClock();
+        ScanPublisher<String> publisher = new ScanPublisher<>(DIRECT, ScanFlow.Overflow.sample(50), null, clock);
+        RecordingSubscriber<String> subscriber = new RecordingSubscriber<>(2);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        publisher.offer("1:a");
+        clock.now = 10;
+        publisher.offer("1:b");
+        publisher.offer("1:c");
+        assertEquals(Arrays.asList("1:a"), subscriber.items);
+
+        clock.now = 50;
+        assertTrue(subscriber.received.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("1:a", "1:c"), subscriber.items);
+        assertEquals(1, publisher.getDropped());
+    }
+
+    @Test
+    public void cancel_stopsProducer() {
+        final int[] started = new int[1];
+        final int[] cancelled = new int[1];
+        ScanPublisher<String> publisher = new ScanPublisher<String>(DIRECT, ScanFlow.Overflow.dropOldest(4), null) {
+            @Override
+            protected void onStart() {
+                started[0]++;
+            }
+
+            @Override
+            protected void onCancel() {
+                cancelled[0]++;
+            }
+        };
+        RecordingSubscriber<String> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        assertEquals(1, started[0]);
+
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        subscriber.subscription.cancel();
+        publisher.offer("1:a");
+        assertEquals(1, cancelled[0]);
+        assertTrue(subscriber.items.isEmpty());
+    }
+
+    @Test
+    public void errors() {
+        ScanPublisher<String> publisher = new ScanPublisher<>(DIRECT, ScanFlow.Overflow.dropOldest(4), null);
+        RecordingSubscriber<String> first = new RecordingSubscriber<>();
+        RecordingSubscriber<String> second = new RecordingSubscriber<>();
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+
+        publisher.offer("1:a");
+        publisher.error(new ScanFlow.ScanFailedException(SimpleScannerCallback.SCAN_FAILED_INTERNAL_ERROR));
+        assertEquals(SimpleScannerCallback.SCAN_FAILED_INTERNAL_ERROR,
+                ((ScanFlow.ScanFailedException) first.error).getErrorCode());
+        assertTrue(first.items.isEmpty());
+
+        publisher = new ScanPublisher<>(DIRECT, ScanFlow.Overflow.dropOldest(4), null);
+        RecordingSubscriber<String> invalid = new RecordingSubscriber<>();
+        publisher.subscribe(invalid);
+        invalid.subscription.request(0);
+        assertTrue(invalid.error instanceof IllegalArgumentException);
+    }
+}
@@ -0,0 +1,72 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import android.bluetooth.le.ScanSettings;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ScanSchedulerTest {
+    private static class FakeClock implements Clock {
+        long now = 1000000;
+
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+    }
+
+    private final FakeClock clock = new FakeClock();
+    private final ScanScheduler scheduler = new ScanScheduler(2000, 6000, clock);
+
+    private long runWindow(int discoveries) {
+        scheduler.onWindowStarted();
+        for (int i = 0; i < discoveries; i++) scheduler.onDeviceDiscovered();
+        clock.now += scheduler.getWindow();
+        return scheduler.onWindowFinished();
+    }
+
+    @Test
+    public void quietWindows_stepDownToLowPower() {
+        assertEquals(ScanSettings.SCAN_MODE_LOW_LATENCY, scheduler.getScanMode());
+        for (int i = 0; i < ScanScheduler.QUIET_WINDOWS - 1; i++) {
+            assertEquals(0, runWindow(0));
+        }
+        assertEquals(4000, runWindow(0));
+        assertEquals(ScanSettings.SCAN_MODE_BALANCED, scheduler.getScanMode());
+
+        for (int i = 0; i < ScanScheduler.QUIET_WINDOWS - 1; i++) runWindow(0);
+        assertEquals(8000, runWindow(0));
+        assertEquals(ScanSettings.SCAN_MODE_LOW_POWER, scheduler.getScanMode());
+    }
+
+    @Test
+    public void burst_switchesToContinuousLowLatency() {
+        for (int i = 0; i < 2 * ScanScheduler.QUIET_WINDOWS; i++) runWindow(0);
+        assertEquals(ScanSettings.SCAN_MODE_LOW_POWER, scheduler.getScanMode());
+
+        assertEquals(4000, runWindow(1));
+        assertEquals(ScanSettings.SCAN_MODE_BALANCED, scheduler.getScanMode());
+
+        assertEquals(0, runWindow(2));
+        assertEquals(ScanSettings.SCAN_MODE_LOW_LATENCY, scheduler.getScanMode());
+    }
+
+    @Test
+    public void startLimiter_allowsFiveStartsPerThirtySeconds() {
+        ScanStartLimiter limiter = new ScanStartLimiter(clock);
+        long first = clock.now;
+        for (int i = 0; i < ScanStartLimiter.MAX_STARTS; i++) {
+            assertEquals(0, limiter.delayUntilStartAllowed());
+            limiter.onScanStarted();
+            clock.now += 1000;
+        }
+        long delay = limiter.delayUntilStartAllowed();
+        assertEquals(first + ScanStartLimiter.WINDOW_MILLIS + ScanStartLimiter.MARGIN_MILLIS - clock.now, delay);
+
+        clock.now += delay;
+        assertEquals(0, limiter.delayUntilStartAllowed());
+        limiter.onScanStarted();
+        assertTrue(limiter.delayUntilStartAllowed() > 0);
+    }
+}
@@ -0,0 +1,231 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SharedScanSessionTest {
+    private static final String HEART_RATE_SERVICE = "0000180d-0000-1000-8000-00805f9b34fb";
+    private static final String DEVICE_A = "00:11:22:33:44:55";
+    private static final String DEVICE_B = "66:77:88:99:AA:BB";
+    // 16-bit service UUID 0x180D.
+    private static final byte[] HEART_RATE = {0x03, 0x03, 0x0D, 0x18};
+
+    private static class FakeScanner extends SimpleBleScanner {
+        int starts;
+        int stops;
+        // Like the Lollipop scanner, which updates its state on its looper later.
+        boolean posted;
+
+        FakeScanner() {
+            super(new SimpleBleScanner.Builder().addScanPeriod(0));
+        }
+
+        @Override
+        public void startScan(SimpleScannerCallback callback) {
+            starts++;
+            if (!posted) mScanning = true;
+        }
+
+        @Override
+        public void stopScan() {
+            stops++;
+            if (!posted) mScanning = false;
+        }
+
+        @Override
+        void updateScan(List<ScanFilter> filters, ScanSettings settings) {
+            fail("Radio updates go through updateRadio");
+        }
+    }
+
+    private static class RecordingCallback implements SimpleScannerCallback {
+        final List<Integer> types = new ArrayList<>();
+
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            types.add(callbackType);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+        }
+
+        @Override
+        public void onFinish() {
+        }
+    }
+
+    private final FakeScanner scanner = new FakeScanner();
+    private final List<SharedScanSession.Union> updates = new ArrayList<>();
+    private final SharedScanSession session = new SharedScanSession(scanner) {
+        @Override
+        void updateRadio(Union union) {
+            updates.add(union);
+        }
+    };
+
+    private void route(String address, byte[] payload) {
+        session.route(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, null, MacAddress.pack(address), -60, payload);
+    }
+
+    @Test
+    public void route_deliversOnlyToMatchingSubscribers() {
+        RecordingCallback byAddress = new RecordingCallback();
+        RecordingCallback byUuid = new RecordingCallback();
+        RecordingCallback wildcard = new RecordingCallback();
+        session.attach(new SharedScanSession.Subscription(byAddress).addFilterAddress(DEVICE_A));
+        session.attach(new SharedScanSession.Subscription(byUuid).addFilterServiceUuid(HEART_RATE_SERVICE));
+        session.attach(new SharedScanSession.Subscription(wildcard));
+
+        route(DEVICE_A, HEART_RATE);
+        route(DEVICE_A, null);
+        route(DEVICE_B, HEART_RATE);
+        route(DEVICE_B, null);
+        assertEquals(2, byAddress.types.size());
+        assertEquals(2, byUuid.types.size());
+        assertEquals(4, wildcard.types.size());
+    }
+
+    @Test
+    public void route_spansSeveralBitsetWords() {
+        List<RecordingCallback> callbacks = new ArrayList<>();
+        for (int i = 0; i < 130; i++) {
+            RecordingCallback callback = new RecordingCallback();
+            callbacks.add(callback);
+            session.attach(new SharedScanSession.Subscription(callback)
+                    .addFilterAddress(MacAddress.toString(i + 1)));
+        }
+
+        route(MacAddress.toString(65), null);
+        route(MacAddress.toString(129), null);
+        for (int i = 0; i < callbacks.size(); i++) {
+            assertEquals(i == 64 || i == 128 ? 1 : 0, callbacks.get(i).types.size());
+        }
+    }
+
+    @Test
+    public void route_appliesSoftwareFilterOfItsSubscriberOnly() {
+        RecordingCallback near = new RecordingCallback();
+        RecordingCallback any = new RecordingCallback();
+        session.attach(new SharedScanSession.Subscription(near).addFilterAddress(DEVICE_A)
+                .addSoftwareFilter(SoftwareFilter.rssiAtLeast(-50)));
+        session.attach(new SharedScanSession.Subscription(any).addFilterAddress(DEVICE_A));
+
+        route(DEVICE_A, null);
+        session.route(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, null, MacAddress.pack(DEVICE_A), -40, null);
+        assertEquals(1, near.types.size());
+        assertEquals(2, any.types.size());
+    }
+
+    @Test
+    public void route_filtersLostResultsLikeAnyOther() {
+        RecordingCallback near = new RecordingCallback();
+        session.attach(new SharedScanSession.Subscription(near).addFilterAddress(DEVICE_A)
+                .addSoftwareFilter(SoftwareFilter.rssiAtLeast(-50)));
+
+        session.route(ScanSettings.CALLBACK_TYPE_MATCH_LOST, null, MacAddress.pack(DEVICE_A), -60, null);
+        assertTrue(near.types.isEmpty());
+        session.route(ScanSettings.CALLBACK_TYPE_MATCH_LOST, null, MacAddress.pack(DEVICE_A), -40, null);
+        assertEquals(1, near.types.size());
+        assertEquals(ScanSettings.CALLBACK_TYPE_MATCH_LOST, (int) near.types.get(0));
+    }
+
+    @Test
+    public void detach_stopsDelivery() {
+        RecordingCallback callback = new RecordingCallback();
+        SharedScanSession.Subscription subscription = new SharedScanSession.Subscription(callback);
+        SharedScanSession.Subscription other = new SharedScanSession.Subscription(new RecordingCallback());
+        session.attach(subscription);
+        session.attach(other);
+        session.detach(subscription);
+
+        route(DEVICE_A, null);
+        assertTrue(callback.types.isEmpty());
+        assertEquals(1, session.getSubscriberCount());
+    }
+
+    @Test
+    public void unchangedUnion_doesNotRestartScan() {
+        session.attach(new SharedScanSession.Subscription(new RecordingCallback()).addFilterAddress(DEVICE_A));
+        assertEquals(1, updates.size());
+        assertEquals(1, scanner.starts);
+
+        SharedScanSession.Subscription same = new SharedScanSession.Subscription(new RecordingCallback())
+                .addFilterAddress(DEVICE_A);
+        session.attach(same);
+        session.detach(same);
+        assertEquals(1, updates.size());
+        assertEquals(1, scanner.starts);
+        assertEquals(0, scanner.stops);
+    }
+
+    @Test
+    public void changedUnion_restartsScanOnAttachAndDetach() {
+        session.attach(new SharedScanSession.Subscription(new RecordingCallback()).addFilterAddress(DEVICE_A));
+        SharedScanSession.Subscription fast = new SharedScanSession.Subscription(new RecordingCallback())
+                .addFilterServiceUuid(HEART_RATE_SERVICE).addScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+        session.attach(fast);
+        assertEquals(2, updates.size());
+        SharedScanSession.Union union = updates.get(1);
+        assertEquals(ScanSettings.SCAN_MODE_LOW_LATENCY, union.scanMode);
+        assertEquals(1, union.addresses.length);
+        assertEquals(1, union.serviceUuids.length);
+
+        session.detach(fast);
+        assertEquals(3, updates.size());
+        assertEquals(updates.get(0), updates.get(2));
+        assertEquals(ScanSettings.SCAN_MODE_LOW_POWER, updates.get(2).scanMode);
+
+        SharedScanSession.Subscription wildcard = new SharedScanSession.Subscription(new RecordingCallback());
+        session.attach(wildcard);
+        assertTrue(updates.get(3).wildcard);
+        assertEquals(0, updates.get(3).addresses.length);
+        assertEquals(1, scanner.starts);
+    }
+
+    @Test
+    public void postedStart_isIssuedOnce() {
+        scanner.posted = true;
+        session.attach(new SharedScanSession.Subscription(new RecordingCallback()));
+        session.attach(new SharedScanSession.Subscription(new RecordingCallback()));
+        assertEquals(1, scanner.starts);
+    }
+
+    @Test
+    public void postedStop_isFollowedByStartOnReattach() {
+        scanner.posted = true;
+        SharedScanSession.Subscription subscription = new SharedScanSession.Subscription(new RecordingCallback());
+        session.attach(subscription);
+        scanner.mScanning = true;
+        session.detach(subscription);
+        session.attach(new SharedScanSession.Subscription(new RecordingCallback()));
+        assertEquals(1, scanner.stops);
+        assertEquals(2, scanner.starts);
+    }
+
+    @Test
+    public void lastDetach_stopsScan() {
+        SharedScanSession.Subscription subscription = new SharedScanSession.Subscription(new RecordingCallback());
+        session.attach(subscription);
+        session.detach(subscription);
+        assertEquals(1, scanner.stops);
+        assertFalse(scanner.isScanStarted());
+        assertEquals(1, updates.size());
+
+        session.attach(subscription);
+        assertEquals(2, scanner.starts);
+        assertEquals(2, updates.size());
+    }
+}
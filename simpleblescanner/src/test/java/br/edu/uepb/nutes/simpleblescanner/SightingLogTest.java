@@ -0,0 +1,95 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class SightingLogTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("sightings", "");
+        assertTrue(directory.delete());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void append_readsBackInOrder() throws IOException {
+        SightingLog log = SightingLog.open(directory, 16, 10);
+        for (int i = 0; i < 40; i++) {
+            assertTrue(log.append(1000L + i, 0xAABBCCDDEE00L + i, -60 - i, i % 2 == 0 ? -4 : 127, i * 31));
+        }
+        log.close();
+        assertEquals(3, directory.listFiles().length);
+
+        SightingLog.Reader reader = SightingLog.read(directory);
+        int count = 0;
+        while (reader.next()) {
+            assertEquals(1000L + count, reader.getTimestampNanos());
+            assertEquals(0xAABBCCDDEE00L + count, reader.getMac());
+            assertEquals(-60 - count, reader.getRssi());
+            assertEquals(count % 2 == 0 ? -4 : 127, reader.getTxPower());
+            assertEquals(count * 31, reader.getPayloadHash());
+            count++;
+        }
+        assertEquals(40, count);
+        assertNull(reader.getError());
+    }
+
+    @Test
+    public void rotate_deletesOldestSegments() throws IOException {
+        SightingLog log = SightingLog.open(directory, 4, 2);
+        for (int i = 0; i < 20; i++) log.append(i, i, 0, 0, 0);
+        log.close();
+        assertEquals(2, directory.listFiles().length);
+
+        SightingLog.Reader reader = SightingLog.read(directory);
+        assertTrue(reader.next());
+        assertEquals(12, reader.getTimestampNanos());
+    }
+
+    @Test
+    public void open_resumesAfterTornRecord() throws IOException {
+        SightingLog log = SightingLog.open(directory, 16, 10);
+        for (int i = 0; i < 5; i++) log.append(i, i, 0, 0, 0);
+        log.close();
+
+        // Corrupt the checksum of the fifth record, as a kill in the middle of it would.
+        File segment = directory.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.seek(SightingLog.RECORD_SIZE * 5 + 28);
+        raf.writeInt(12345);
+        raf.close();
+
+        log = SightingLog.open(directory, 16, 10);
+        log.append(100, 100, 0, 0, 0);
+        log.close();
+
+        SightingLog.Reader reader = SightingLog.read(directory);
+        long[] expected = {0, 1, 2, 3, 100};
+        for (long timestamp : expected) {
+            assertTrue(reader.next());
+            assertEquals(timestamp, reader.getTimestampNanos());
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void hashPayload_differsForDifferentData() {
+        assertEquals(0, SightingLog.hashPayload(null));
+        assertNotEquals(SightingLog.hashPayload(new byte[]{1, 2}), SightingLog.hashPayload(new byte[]{2, 1}));
+    }
+}
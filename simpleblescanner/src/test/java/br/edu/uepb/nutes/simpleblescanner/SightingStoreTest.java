@@ -0,0 +1,119 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SightingStoreTest {
+    private static final byte[] PAYLOAD = {2, 0x0A, (byte) -8, 3, 0x09, 'A', 'B'};
+
+    @Test
+    public void update_keepsLatestStatePerDevice() {
+        SightingStore store = new SightingStore(4);
+        store.update(1, -70, 0, PAYLOAD, 100);
+        store.update(2, -80, AdvertisingData.TX_POWER_NOT_PRESENT, null, 150);
+        store.update(1, -60, -8, PAYLOAD, 200);
+
+        SightingStore.Cursor cursor = store.newCursor();
+        assertTrue(cursor.moveTo(1));
+        assertEquals(-60, cursor.getRssi());
+        assertEquals(200, cursor.getTimestampNanos());
+        assertEquals(-8, cursor.getTxPower());
+        assertEquals(2, cursor.getSightingCount());
+        assertEquals(PAYLOAD.length, cursor.getPayloadLength());
+        assertEquals("AB", cursor.getAdvertisingData().getLocalName());
+
+        assertTrue(cursor.moveTo(2));
+        assertEquals(0, cursor.getPayloadLength());
+        assertFalse(cursor.moveTo(3));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void full_evictsLeastRecentlySeenAndReusesSlot() {
+        SightingStore store = new SightingStore(3);
+        int first = store.update(1, -70, 0, null, 1);
+        store.update(2, -70, 0, null, 2);
+        store.update(3, -70, 0, null, 3);
+        store.update(1, -70, 0, null, 4);
+
+        int slot = store.update(4, -70, 0, null, 5);
+        SightingStore.Cursor cursor = store.newCursor();
+        assertFalse(cursor.moveTo(2));
+        assertTrue(cursor.moveTo(1));
+        assertEquals(3, store.size());
+        assertEquals(1, store.getEvictedCount());
+        assertTrue(slot < 3);
+        assertNotEquals(first, slot);
+
+        store.remove(3);
+        assertEquals(2, store.size());
+        int reused = store.update(5, -70, 0, null, 6);
+        assertTrue(reused < 3);
+        assertEquals(1, store.getEvictedCount());
+    }
+
+    @Test
+    public void payload_truncatedToSlice() {
+        SightingStore store = new SightingStore(2, 4);
+        store.update(1, -70, 0, PAYLOAD, 1);
+        SightingStore.Cursor cursor = store.newCursor();
+        assertTrue(cursor.moveTo(1));
+        assertEquals(4, cursor.getPayloadLength());
+        assertEquals(3, cursor.getPayload()[3]);
+    }
+
+    @Test
+    public void cursor_visitsEveryDeviceOnceAndIsReusable() {
+        SightingStore store = new SightingStore(100);
+        for (long mac = 1; mac <= 50; mac++) store.update(mac, -70, 0, null, mac);
+        store.remove(10);
+
+        SightingStore.Cursor cursor = store.newCursor();
+        for (int pass = 0; pass < 2; pass++) {
+            Set<Long> seen = new HashSet<>();
+            cursor.reset();
+            while (cursor.moveToNext()) assertTrue(seen.add(cursor.getMac()));
+            assertEquals(49, seen.size());
+            assertFalse(seen.contains(10L));
+        }
+    }
+
+    @Test
+    public void scanner_fillsStoreFromReplay() throws InterruptedException {
+        AdvertisementTrace trace = AdvertisementTrace.synthetic(5000, 50000, 4);
+        SightingStore store = new SightingStore(2000);
+        SourceScanner scanner = new SimpleBleScanner.Builder()
+                .addSightingStore(store)
+                .build(new ReplayScanSource(trace));
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        scanner.startScan(new AdvertisementCallback() {
+            @Override
+            public void onAdvertisement(long mac, int rssi, AdvertisingData data, long timestampNanos) {
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+            }
+
+            @Override
+            public void onFinish() {
+                finished.countDown();
+            }
+        });
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+
+        assertEquals(2000, store.size());
+        assertTrue(store.getEvictedCount() > 0);
+        SightingStore.Cursor cursor = store.newCursor();
+        assertTrue(cursor.moveTo(trace.getMac(trace.size() - 1)));
+        assertEquals(trace.getTimestampNanos(trace.size() - 1), cursor.getTimestampNanos());
+        assertEquals(-8, cursor.getTxPower());
+    }
+}
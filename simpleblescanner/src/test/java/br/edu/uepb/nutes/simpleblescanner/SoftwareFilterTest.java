@@ -0,0 +1,80 @@
+package br.edu.uepb.nutes.simpleblescanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SoftwareFilterTest {
+    private static final String BUTTON_SERVICE = "00001523-c2a2-bd96-044f-58f09944c3ad";
+    private static final long BUTTON_MAC = MacAddress.pack("C4:7C:8D:6A:01:FF");
+
+    // 128-bit button service UUID and complete local name "PB5".
+    private static final byte[] BUTTON = {
+            0x11, 0x07, (byte) 0xAD, (byte) 0xC3, 0x44, (byte) 0x99, (byte) 0xF0, 0x58, 0x4F, 0x04,
+            (byte) 0x96, (byte) 0xBD, (byte) 0xA2, (byte) 0xC2, 0x23, 0x15, 0x00, 0x00,
+            0x04, 0x09, 'P', 'B', '5'
+    };
+
+    // iBeacon style manufacturer data of company 0x004C: 02 15 01 02.
+    private static final byte[] BEACON = {
+            0x07, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15, 0x01, 0x02
+    };
+
+    private final AdvertisingData button = new AdvertisingData();
+    private final AdvertisingData beacon = new AdvertisingData();
+
+    public SoftwareFilterTest() {
+        button.wrap(BUTTON);
+        beacon.wrap(BEACON);
+    }
+
+    @Test
+    public void leaves_matchTheirField() {
+        assertTrue(SoftwareFilter.serviceUuid(BUTTON_SERVICE).compile().matches(0, -90, button));
+        assertFalse(SoftwareFilter.serviceUuid(BUTTON_SERVICE).compile().matches(0, -90, beacon));
+        assertTrue(SoftwareFilter.namePrefix("PB").compile().matches(0, -90, button));
+        assertFalse(SoftwareFilter.namePrefix("PB6").compile().matches(0, -90, button));
+        assertTrue(SoftwareFilter.address("C4:7C:8D:6A:01:FF").compile().matches(BUTTON_MAC, -90, button));
+        assertFalse(SoftwareFilter.address("C4:7C:8D:6A:01:FE").compile().matches(BUTTON_MAC, -90, button));
+        assertTrue(SoftwareFilter.rssiAtLeast(-70).compile().matches(0, -70, button));
+        assertFalse(SoftwareFilter.rssiAtLeast(-70).compile().matches(0, -71, button));
+    }
+
+    @Test
+    public void manufacturerData_comparesMaskedBytes() {
+        byte[] data = {0x02, 0x15, 0x7F, 0x02};
+        byte[] mask = {(byte) 0xFF, (byte) 0xFF, 0x00, (byte) 0xFF};
+        assertTrue(SoftwareFilter.manufacturerData(0x004C, data, mask).compile().matches(0, 0, beacon));
+        assertFalse(SoftwareFilter.manufacturerData(0x004C, data, null).compile().matches(0, 0, beacon));
+        assertFalse(SoftwareFilter.manufacturerData(0x0059, data, mask).compile().matches(0, 0, beacon));
+        assertTrue(SoftwareFilter.manufacturerData(0x004C).compile().matches(0, 0, beacon));
+
+        byte[] tooLong = new byte[9];
+        assertFalse(SoftwareFilter.manufacturerData(0x004C, tooLong, new byte[9]).compile().matches(0, 0, beacon));
+    }
+
+    @Test
+    public void groups_combineConditions() {
+        SoftwareFilter.Matcher matcher = SoftwareFilter.or(
+                SoftwareFilter.and(SoftwareFilter.serviceUuid(BUTTON_SERVICE), SoftwareFilter.rssiAtLeast(-60)),
+                SoftwareFilter.and(SoftwareFilter.manufacturerData(0x004C), SoftwareFilter.rssiAtLeast(-90)),
+                SoftwareFilter.namePrefix("XYZ", "ABC")
+        ).compile();
+
+        assertTrue(matcher.matches(0, -50, button));
+        assertFalse(matcher.matches(0, -70, button));
+        assertTrue(matcher.matches(0, -80, beacon));
+        assertFalse(matcher.matches(0, -95, beacon));
+    }
+
+    @Test
+    public void or_mergesLeavesOfTheSameKind() {
+        SoftwareFilter.Matcher matcher = SoftwareFilter.or(
+                SoftwareFilter.namePrefix("AB"),
+                SoftwareFilter.or(SoftwareFilter.namePrefix("PB"), SoftwareFilter.namePrefix("Q"))
+        ).compile();
+
+        assertTrue(matcher instanceof SoftwareFilter.NamePrefixMatcher);
+        assertTrue(matcher.matches(0, 0, button));
+    }
+}